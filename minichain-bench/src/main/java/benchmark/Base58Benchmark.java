@@ -0,0 +1,37 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.Base58Util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base58编码，输入为钱包地址的原始字节（版本号 + 公钥哈希 + 校验和）以及更长的输入
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class Base58Benchmark {
+
+    @Param({"37", "128"})
+    public int inputSize;
+
+    private byte[] input;
+
+    @Setup
+    public void setUp() {
+        input = new byte[inputSize];
+        new Random(ChainState.SEED).nextBytes(input);
+        // 钱包地址以版本号0开头，编码结果有一个前导的'1'
+        input[0] = 0;
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base58Util.encode(input);
+    }
+}
@@ -0,0 +1,171 @@
+package benchmark;
+
+import config.MiniChainConfig;
+import data.*;
+import store.MemoryBlockStore;
+import utils.SecurityUtil;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试使用的区块链夹具
+ *
+ * 所有随机性（账户密钥、转账双方和金额）都来自固定的种子，区块直接以addNewBlock加入区块链，不搜索nonce，
+ * 因此可以很快构建出指定高度、每块指定交易数的区块链：
+ *    1. 高度1的区块为每个账户分配若干笔INIT_AMOUNT的输出，保证每个区块都有足够多互不相同的输出可花费
+ *    2. 之后每个区块包含blockSize笔交易，每笔交易花费随机账户的一个输出，向另一个随机账户转账，余额找零
+ *
+ * 加入区块链时不验签，每个账户的交易复用同一个签名，避免构建夹具时的大量签名运算
+ */
+public class ChainFixture {
+
+    private static final long BASE_TIMESTAMP = 1600000000000L;
+
+    private final Account[] accounts;
+    private final String[] walletAddresses;
+    private final BlockChain blockChain;
+    private final List<String> txHashes = new ArrayList<>();
+
+    /**
+     * @param seed 随机种子
+     * @param accountCount 账户数，至少为2
+     * @param height 创世区块之后的区块数
+     * @param blockSize 高度1之后每个区块的交易数
+     */
+    public ChainFixture(long seed, int accountCount, int height, int blockSize) {
+        if (accountCount < 2 || height < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("accountCount must be at least 2, height and blockSize positive");
+        }
+        accounts = createAccounts(seed, accountCount);
+        walletAddresses = new String[accountCount];
+        byte[][] signs = new byte[accountCount][];
+        for (int i = 0; i < accountCount; i++) {
+            walletAddresses[i] = accounts[i].getWalletAddress();
+            signs[i] = SecurityUtil.signature(accounts[i].getPublicKey().getEncoded(), accounts[i].getPrivateKey());
+        }
+        blockChain = new BlockChain(null, new MemoryBlockStore());
+
+        // 每个账户可花费的输出
+        List<ArrayDeque<UTXO>> spendable = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            spendable.add(new ArrayDeque<UTXO>());
+        }
+
+        // 高度1：为每个账户分配足够多的输出
+        int outputsPerAccount = (blockSize + accountCount - 1) / accountCount + 1;
+        UTXO[] airdrop = new UTXO[accountCount * outputsPerAccount];
+        for (int i = 0; i < airdrop.length; i++) {
+            Account account = accounts[i % accountCount];
+            airdrop[i] = new UTXO(walletAddresses[i % accountCount], MiniChainConfig.INIT_AMOUNT, account.getPublicKey());
+            spendable.get(i % accountCount).add(airdrop[i]);
+        }
+        long sequence = 0;
+        addBlock(new Transaction[]{new Transaction(new UTXO[]{}, airdrop, signs[0], accounts[0].getPublicKey(),
+                BASE_TIMESTAMP + sequence++)});
+
+        Random random = new Random(seed);
+        for (int h = 2; h <= height; h++) {
+            Transaction[] transactions = new Transaction[blockSize];
+            List<UTXO> created = new ArrayList<>();
+            List<Integer> owners = new ArrayList<>();
+            int count = 0;
+            while (count < blockSize) {
+                // 从随机位置开始找一个还有可花费输出的账户
+                int sender = random.nextInt(accountCount);
+                int tries = 0;
+                while (spendable.get(sender).isEmpty() && tries++ < accountCount) {
+                    sender = (sender + 1) % accountCount;
+                }
+                if (spendable.get(sender).isEmpty()) {
+                    break;
+                }
+                UTXO input = spendable.get(sender).poll();
+                int receiver = random.nextInt(accountCount - 1);
+                if (receiver >= sender) {
+                    receiver++;
+                }
+                int amount = 1 + random.nextInt(input.getAmount());
+                UTXO[] outputs;
+                if (amount < input.getAmount()) {
+                    outputs = new UTXO[]{
+                            new UTXO(walletAddresses[receiver], amount, accounts[receiver].getPublicKey()),
+                            new UTXO(walletAddresses[sender], input.getAmount() - amount, accounts[sender].getPublicKey())};
+                } else {
+                    outputs = new UTXO[]{new UTXO(walletAddresses[receiver], amount, accounts[receiver].getPublicKey())};
+                }
+                transactions[count++] = new Transaction(new UTXO[]{input}, outputs, signs[sender],
+                        accounts[sender].getPublicKey(), BASE_TIMESTAMP + sequence++);
+                created.add(outputs[0]);
+                owners.add(receiver);
+                if (outputs.length == 2) {
+                    created.add(outputs[1]);
+                    owners.add(sender);
+                }
+            }
+            if (count < blockSize) {
+                Transaction[] partial = new Transaction[count];
+                System.arraycopy(transactions, 0, partial, 0, count);
+                transactions = partial;
+            }
+            addBlock(transactions);
+            for (Transaction transaction : transactions) {
+                txHashes.add(transaction.getTxHash());
+            }
+            // 本区块产生的输出从下一个区块起才能花费
+            for (int i = 0; i < created.size(); i++) {
+                spendable.get(owners.get(i)).add(created.get(i));
+            }
+        }
+    }
+
+    /**
+     * 以固定种子生成账户密钥
+     */
+    public static Account[] createAccounts(long seed, int count) {
+        SecureRandom random;
+        try {
+            random = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // 在第一次取随机数之前设置种子，SHA1PRNG的输出完全由种子决定
+        random.setSeed(seed);
+        Account[] accounts = new Account[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new Account(SecurityUtil.secp256k1Generate(random));
+        }
+        return accounts;
+    }
+
+    private void addBlock(Transaction[] transactions) {
+        int height = blockChain.size();
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        BlockHeader blockHeader = new BlockHeader(1, blockChain.getNewestBlock().getHash(), merkleTree.getRootHash(),
+                BASE_TIMESTAMP + height * 10000L, blockChain.getNextBits(), height);
+        blockChain.addNewBlock(new Block(blockHeader, new BlockBody(merkleTree, transactions)));
+    }
+
+    public Account[] getAccounts() {
+        return accounts;
+    }
+
+    public String[] getWalletAddresses() {
+        return walletAddresses;
+    }
+
+    public BlockChain getBlockChain() {
+        return blockChain;
+    }
+
+    /**
+     * @return 高度1之后所有交易的哈希，按上链顺序排列
+     */
+    public List<String> getTxHashes() {
+        return txHashes;
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import data.MinerPeer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * 以链高度、每块交易数和账户数为参数的共享区块链，每组参数构建一次
+ */
+@State(Scope.Benchmark)
+public class ChainState {
+
+    public static final long SEED = 20230401L;
+
+    @Param({"100", "1000"})
+    public int height;
+
+    @Param({"16", "256"})
+    public int blockSize;
+
+    @Param({"100", "1000"})
+    public int accountCount;
+
+    ChainFixture fixture;
+    MinerPeer minerPeer;
+    String[] txHashes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new ChainFixture(SEED, accountCount, height, blockSize);
+        // 只使用矿工响应验证路径请求的部分，不启动挖矿线程
+        minerPeer = new MinerPeer(fixture.getBlockChain(), null);
+        txHashes = fixture.getTxHashes().toArray(new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.getBlockChain().close();
+    }
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import codec.BinaryCodec;
+import data.Block;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 区块的二进制编解码（BinaryCodec），与原来以toString文本表示区块的方式对比
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+
+    @Param({"1", "64", "1024"})
+    public int blockSize;
+
+    private Block block;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        ChainFixture fixture = new ChainFixture(ChainState.SEED, 100, 2, blockSize);
+        block = fixture.getBlockChain().getNewestBlock();
+        fixture.getBlockChain().close();
+        encoded = BinaryCodec.encode(block);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BinaryCodec.encode(block);
+    }
+
+    @Benchmark
+    public Block decode() {
+        return BinaryCodec.decodeBlock(ByteBuffer.wrap(encoded));
+    }
+
+    @Benchmark
+    public byte[] toStringBytes() {
+        return block.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
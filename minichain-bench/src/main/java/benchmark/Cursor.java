@@ -0,0 +1,22 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 每个基准线程独立的循环下标，用于依次选取不同的交易、账户等输入，避免总是命中同一个对象
+ */
+@State(Scope.Thread)
+public class Cursor {
+
+    private int next;
+
+    /**
+     * @param bound 下标的上界
+     * @return [0, bound)之间的下一个下标
+     */
+    public int next(int bound) {
+        int index = next++ % bound;
+        return index < 0 ? -index : index;
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.SecurityUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA256摘要：十六进制字符串接口（区块哈希、Merkle树使用）和字节数组接口
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HashBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int inputSize;
+
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(ChainState.SEED);
+        bytes = new byte[inputSize];
+        random.nextBytes(bytes);
+        // 与区块哈希的输入一样是十六进制字符串
+        text = SecurityUtil.bytes2HexString(bytes).substring(0, inputSize);
+    }
+
+    @Benchmark
+    public String sha256DigestString() {
+        return SecurityUtil.sha256Digest(text);
+    }
+
+    @Benchmark
+    public byte[] sha256DigestBytes() {
+        return SecurityUtil.sha256Digest(bytes);
+    }
+}
@@ -0,0 +1,49 @@
+package benchmark;
+
+import data.BlockBody;
+import data.MerkleTree;
+import data.MinerPeer;
+import data.Transaction;
+import org.openjdk.jmh.annotations.*;
+import spv.Proof;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 由一批交易构建区块体（MinerPeer.getBlockBody，主要是构建Merkle树），以及从Merkle树中提取单笔交易的验证路径
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MerkleBenchmark {
+
+    @Param({"1", "16", "256", "4096"})
+    public int blockSize;
+
+    private MinerPeer minerPeer;
+    private Transaction[] transactions;
+    private MerkleTree merkleTree;
+
+    @Setup
+    public void setUp() {
+        ChainFixture fixture = new ChainFixture(ChainState.SEED, 100, 2, blockSize);
+        transactions = fixture.getBlockChain().getNewestBlock().getBlockBody().getTransactions();
+        fixture.getBlockChain().close();
+        minerPeer = new MinerPeer(null, null);
+        merkleTree = MerkleTree.fromTransactions(transactions);
+    }
+
+    @Benchmark
+    public BlockBody getBlockBody() {
+        return minerPeer.getBlockBody(transactions);
+    }
+
+    @Benchmark
+    public List<Proof.Node> getProofPath(Cursor cursor) {
+        return merkleTree.getProofPath(cursor.next(transactions.length));
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import consensus.DifficultySchedule;
+import consensus.MiningEngine;
+import data.Block;
+import data.BlockBody;
+import data.MerkleTree;
+import data.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 挖矿：MinerPeer.mine中搜索nonce的部分，即以配置的初始难度由MiningEngine并行搜索满足条件的区块
+ *
+ * MinerPeer.mine在此之外只是把区块加入区块链并输出整个区块，这里不计入，以免控制台输出影响测量结果
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MiningBenchmark {
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private MiningEngine miningEngine;
+    private BlockBody blockBody;
+    private String preBlockHash;
+    private int bits;
+
+    @Setup
+    public void setUp() {
+        ChainFixture fixture = new ChainFixture(ChainState.SEED, 100, 2, 16);
+        Block newestBlock = fixture.getBlockChain().getNewestBlock();
+        Transaction[] transactions = newestBlock.getBlockBody().getTransactions();
+        blockBody = new BlockBody(MerkleTree.fromTransactions(transactions), transactions);
+        preBlockHash = newestBlock.getBlockHeader().getPreBlockHash();
+        // 固定为初始难度，不随fixture中区块的时间戳调整，保证各次测量的难度相同
+        bits = DifficultySchedule.getDefault().getInitialBits();
+        fixture.getBlockChain().close();
+        miningEngine = new MiningEngine(workers);
+    }
+
+    @Benchmark
+    public Block mine() {
+        return miningEngine.mine(preBlockHash, bits, blockBody);
+    }
+
+    @TearDown
+    public void tearDown() {
+        miningEngine.shutdown();
+    }
+}
@@ -0,0 +1,40 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import spv.MultiProof;
+import spv.Proof;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全节点响应spv节点的验证路径请求：单笔交易的getProof，以及同一区块中多笔交易的getMultiProof
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProofBenchmark {
+
+    // getMultiProof每次请求的交易数
+    private static final int MULTI_PROOF_TRANSACTIONS = 8;
+
+    @Benchmark
+    public Proof getProof(ChainState chain, Cursor cursor) {
+        return chain.minerPeer.getProof(chain.txHashes[cursor.next(chain.txHashes.length)]);
+    }
+
+    @Benchmark
+    public MultiProof getMultiProof(ChainState chain, Cursor cursor) {
+        // 同一区块中连续的若干笔交易，选取的起点落在区块末尾时请求的交易数会少一些
+        int start = cursor.next(chain.txHashes.length);
+        int blockStart = start - start % chain.blockSize;
+        List<String> txHashes = new ArrayList<>(MULTI_PROOF_TRANSACTIONS);
+        for (int i = start; i < Math.min(start + MULTI_PROOF_TRANSACTIONS, blockStart + chain.blockSize); i++) {
+            txHashes.add(chain.txHashes[i]);
+        }
+        return chain.minerPeer.getMultiProof(txHashes);
+    }
+}
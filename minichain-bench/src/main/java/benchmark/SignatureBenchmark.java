@@ -0,0 +1,47 @@
+package benchmark;
+
+import data.Account;
+import org.openjdk.jmh.annotations.*;
+import utils.SecurityUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ECDSA签名和验签，验签分为实际验签和命中验签结果缓存两种情况
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SignatureBenchmark {
+
+    private Account account;
+    private byte[] data;
+    private byte[] sign;
+
+    @Setup
+    public void setUp() {
+        account = ChainFixture.createAccounts(ChainState.SEED, 1)[0];
+        // 与交易签名的数据格式相近的输入
+        data = ("[UTXO{walletAddress='" + account.getWalletAddress() + "', amount=10000}]").getBytes(StandardCharsets.UTF_8);
+        sign = SecurityUtil.signature(data, account.getPrivateKey());
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return SecurityUtil.signature(data, account.getPrivateKey());
+    }
+
+    @Benchmark
+    public boolean verifyUncached() {
+        return SecurityUtil.verifyUncached(data, sign, account.getPublicKey());
+    }
+
+    @Benchmark
+    public boolean verifyCached() {
+        return SecurityUtil.verify(data, sign, account.getPublicKey());
+    }
+}
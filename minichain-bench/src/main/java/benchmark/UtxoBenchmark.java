@@ -0,0 +1,23 @@
+package benchmark;
+
+import data.UTXO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按钱包地址查询可用的UTXO（BlockChain.getTrueUtxos），交易生产者构造每笔交易前都会调用
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UtxoBenchmark {
+
+    @Benchmark
+    public UTXO[] getTrueUtxos(ChainState chain, Cursor cursor) {
+        String[] walletAddresses = chain.fixture.getWalletAddresses();
+        return chain.fixture.getBlockChain().getTrueUtxos(walletAddresses[cursor.next(walletAddresses.length)]);
+    }
+}
@@ -1,3 +1,4 @@
+import config.ConfigManager;
 import consensus.MinerNode;
 import consensus.TransactionProducer;
 import data.BlockBody;
@@ -9,6 +10,8 @@ import utils.SHA256Util;
 public class MiniChainApplication {
 
     public static void main(String[] args) {
+        // 在读取任何配置参数之前，由配置文件、环境变量和命令行参数加载配置
+        ConfigManager.init(args);
         NetWork netWork = new NetWork();
         netWork.start();
     }
@@ -0,0 +1,500 @@
+package codec;
+
+import data.Block;
+import data.BlockBody;
+import data.BlockHeader;
+import data.MerkleTree;
+import data.Transaction;
+import data.UTXO;
+import utils.SecurityUtil;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Block、BlockBody、Transaction和UTXO的紧凑二进制编解码
+ *
+ * 单独编码一个对象时的格式为：版本号(1字节) + 负载长度(varint) + 负载，各类型的负载格式如下：
+ *    UTXO：金额(4) + 钱包地址(varint长度 + ASCII) + 公钥哈希(varint长度 + 字节) + 输出点标记(1) [+ txId(32) + 输出下标(4)]
+ *
+ *    Transaction：输入数(varint) + 每个输入（txId(32) + 输出下标(4) + 金额、钱包地址、公钥哈希）
+ *                 + 输出数(varint) + 每个输出（金额、钱包地址、公钥哈希）
+ *                 + 签名(varint长度 + 字节) + 公钥X.509编码(varint长度 + 字节) + 时间戳(8)
+ *
+ *    BlockBody：交易数(varint) + 每笔交易的负载(varint长度 + 负载)
+ *
+ *    Block：定长区块头(BlockHeader.HEADER_SIZE，见putHeader) + 区块体负载
+ *
+ * 交易的负载即交易ID的哈希输入，交易输出的输出点由交易ID和下标隐含，不重复编码。
+ * 所有多字节整数均为大端序。编码直接写入调用方提供的ByteBuffer（可以是直接缓冲区），解码直接从ByteBuffer读取
+ */
+public final class BinaryCodec {
+
+    /**
+     * 当前编码格式的版本号
+     */
+    public static final byte VERSION = 1;
+
+    private static final int HASH_SIZE = 32;
+    private static final byte[] ZERO_HASH = new byte[HASH_SIZE];
+    private static final int PUBLIC_KEY_CACHE_SIZE = 4096;
+
+    // 公钥解码的开销较大，而链上反复出现的是同一批账户的公钥，因此缓存解码结果
+    private static final Map<ByteArrayKey, PublicKey> PUBLIC_KEY_CACHE = new ConcurrentHashMap<>();
+
+    private BinaryCodec() {
+    }
+
+    // ------------------------------------------------------------------ UTXO
+
+    public static byte[] encode(UTXO utxo) {
+        int payloadSize = utxoPayloadSize(utxo);
+        ByteBuffer buffer = ByteBuffer.allocate(frameSize(payloadSize));
+        putFrameHeader(buffer, payloadSize);
+        putUtxoPayload(buffer, utxo);
+        return buffer.array();
+    }
+
+    public static UTXO decodeUtxo(ByteBuffer buffer) {
+        int end = getFrameHeader(buffer);
+        UTXO utxo = getUtxoPayload(buffer);
+        checkEnd(buffer, end);
+        return utxo;
+    }
+
+    static int utxoPayloadSize(UTXO utxo) {
+        return utxoFieldsSize(utxo) + 1 + (utxo.getTxId() == null ? 0 : HASH_SIZE + 4);
+    }
+
+    static void putUtxoPayload(ByteBuffer buffer, UTXO utxo) {
+        putUtxoFields(buffer, utxo);
+        if (utxo.getTxId() == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1).put(utxo.getTxId()).putInt(utxo.getOutputIndex());
+        }
+    }
+
+    static UTXO getUtxoPayload(ByteBuffer buffer) {
+        int amount = buffer.getInt();
+        String walletAddress = getAscii(buffer);
+        byte[] publicKeyHash = getBytes(buffer);
+        byte[] txId = null;
+        int outputIndex = -1;
+        if (buffer.get() != 0) {
+            txId = new byte[HASH_SIZE];
+            buffer.get(txId);
+            outputIndex = buffer.getInt();
+        }
+        return new UTXO(walletAddress, amount, publicKeyHash, txId, outputIndex);
+    }
+
+    private static int utxoFieldsSize(UTXO utxo) {
+        return 4 + asciiSize(utxo.getWalletAddress()) + bytesSize(utxo.getPublicKeyHash());
+    }
+
+    private static void putUtxoFields(ByteBuffer buffer, UTXO utxo) {
+        buffer.putInt(utxo.getAmount());
+        putAscii(buffer, utxo.getWalletAddress());
+        putBytes(buffer, utxo.getPublicKeyHash());
+    }
+
+    // ------------------------------------------------------------------ Transaction
+
+    public static int encodedSize(Transaction transaction) {
+        return frameSize(transactionPayloadSize(transaction));
+    }
+
+    public static byte[] encode(Transaction transaction) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(transaction));
+        encode(transaction, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 将交易编码写入调用方提供的缓冲区，缓冲区剩余空间至少为encodedSize(transaction)
+     */
+    public static void encode(Transaction transaction, ByteBuffer buffer) {
+        putFrameHeader(buffer, transactionPayloadSize(transaction));
+        putTransactionPayload(buffer, transaction);
+    }
+
+    public static Transaction decodeTransaction(ByteBuffer buffer) {
+        int end = getFrameHeader(buffer);
+        Transaction transaction = getTransactionPayload(buffer);
+        checkEnd(buffer, end);
+        return transaction;
+    }
+
+    /**
+     * 交易ID的哈希输入，即交易的负载编码（不含版本号和长度）
+     * @param transaction
+     * @return
+     */
+    public static byte[] txIdPreimage(Transaction transaction) {
+        ByteBuffer buffer = ByteBuffer.allocate(transactionPayloadSize(transaction));
+        putTransactionPayload(buffer, transaction);
+        return buffer.array();
+    }
+
+    public static int transactionPayloadSize(Transaction transaction) {
+        int size = varIntSize(transaction.getInUtxos().length);
+        for (UTXO utxo : transaction.getInUtxos()) {
+            size += HASH_SIZE + 4 + utxoFieldsSize(utxo);
+        }
+        size += varIntSize(transaction.getOutUtxos().length);
+        for (UTXO utxo : transaction.getOutUtxos()) {
+            size += utxoFieldsSize(utxo);
+        }
+        return size + bytesSize(transaction.getSendSign())
+                + bytesSize(transaction.getSendPublicKey().getEncoded()) + 8;
+    }
+
+    public static void putTransactionPayload(ByteBuffer buffer, Transaction transaction) {
+        putVarInt(buffer, transaction.getInUtxos().length);
+        for (UTXO utxo : transaction.getInUtxos()) {
+            buffer.put(utxo.getTxId() == null ? ZERO_HASH : utxo.getTxId());
+            buffer.putInt(utxo.getOutputIndex());
+            putUtxoFields(buffer, utxo);
+        }
+        putVarInt(buffer, transaction.getOutUtxos().length);
+        for (UTXO utxo : transaction.getOutUtxos()) {
+            putUtxoFields(buffer, utxo);
+        }
+        putBytes(buffer, transaction.getSendSign());
+        putBytes(buffer, transaction.getSendPublicKey().getEncoded());
+        buffer.putLong(transaction.getTimestamp());
+    }
+
+    public static Transaction getTransactionPayload(ByteBuffer buffer) {
+        UTXO[] inUtxos = new UTXO[getCount(buffer)];
+        for (int i = 0; i < inUtxos.length; i++) {
+            byte[] txId = new byte[HASH_SIZE];
+            buffer.get(txId);
+            int outputIndex = buffer.getInt();
+            int amount = buffer.getInt();
+            String walletAddress = getAscii(buffer);
+            byte[] publicKeyHash = getBytes(buffer);
+            inUtxos[i] = new UTXO(walletAddress, amount, publicKeyHash, outputIndex < 0 ? null : txId, outputIndex);
+        }
+        UTXO[] outUtxos = new UTXO[getCount(buffer)];
+        for (int i = 0; i < outUtxos.length; i++) {
+            int amount = buffer.getInt();
+            String walletAddress = getAscii(buffer);
+            byte[] publicKeyHash = getBytes(buffer);
+            outUtxos[i] = new UTXO(walletAddress, amount, publicKeyHash, null, -1);
+        }
+        byte[] sendSign = getBytes(buffer);
+        PublicKey sendPublicKey = decodePublicKey(getBytes(buffer));
+        long timestamp = buffer.getLong();
+        return new Transaction(inUtxos, outUtxos, sendSign, sendPublicKey, timestamp);
+    }
+
+    // ------------------------------------------------------------------ BlockBody
+
+    public static byte[] encode(BlockBody blockBody) {
+        int payloadSize = bodyPayloadSize(blockBody);
+        ByteBuffer buffer = ByteBuffer.allocate(frameSize(payloadSize));
+        putFrameHeader(buffer, payloadSize);
+        putBodyPayload(buffer, blockBody);
+        return buffer.array();
+    }
+
+    /**
+     * 解码区块体，并由交易重新构建Merkle树
+     */
+    public static BlockBody decodeBlockBody(ByteBuffer buffer) {
+        int end = getFrameHeader(buffer);
+        Transaction[] transactions = getBodyPayload(buffer);
+        checkEnd(buffer, end);
+        return new BlockBody(MerkleTree.fromTransactions(transactions), transactions);
+    }
+
+    static int bodyPayloadSize(BlockBody blockBody) {
+        Transaction[] transactions = blockBody.getTransactions();
+        int size = varIntSize(transactions.length);
+        for (Transaction transaction : transactions) {
+            int transactionSize = transactionPayloadSize(transaction);
+            size += varIntSize(transactionSize) + transactionSize;
+        }
+        return size;
+    }
+
+    static void putBodyPayload(ByteBuffer buffer, BlockBody blockBody) {
+        Transaction[] transactions = blockBody.getTransactions();
+        putVarInt(buffer, transactions.length);
+        for (Transaction transaction : transactions) {
+            putVarInt(buffer, transactionPayloadSize(transaction));
+            putTransactionPayload(buffer, transaction);
+        }
+    }
+
+    static Transaction[] getBodyPayload(ByteBuffer buffer) {
+        Transaction[] transactions = new Transaction[getCount(buffer)];
+        for (int i = 0; i < transactions.length; i++) {
+            int end = getCount(buffer) + buffer.position();
+            transactions[i] = getTransactionPayload(buffer);
+            checkEnd(buffer, end);
+        }
+        return transactions;
+    }
+
+    // ------------------------------------------------------------------ Block
+
+    public static int encodedSize(Block block) {
+        return frameSize(BlockHeader.HEADER_SIZE + bodyPayloadSize(block.getBlockBody()));
+    }
+
+    public static byte[] encode(Block block) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(block));
+        encode(block, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 将区块编码写入调用方提供的缓冲区（例如池化的直接缓冲区），缓冲区剩余空间至少为encodedSize(block)
+     */
+    public static void encode(Block block, ByteBuffer buffer) {
+        putFrameHeader(buffer, BlockHeader.HEADER_SIZE + bodyPayloadSize(block.getBlockBody()));
+        putHeader(buffer, block.getBlockHeader());
+        putBodyPayload(buffer, block.getBlockBody());
+    }
+
+    /**
+     * 解码区块，并由交易重新构建Merkle树，其根哈希必须与区块头中的merkleRootHash一致
+     *
+     * @throws IllegalArgumentException 编码不合法，或区块体与区块头不匹配
+     */
+    public static Block decodeBlock(ByteBuffer buffer) {
+        int end = getFrameHeader(buffer);
+        BlockHeader blockHeader = getHeader(buffer);
+        Transaction[] transactions = getBodyPayload(buffer);
+        checkEnd(buffer, end);
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        String merkleRootHash = merkleTree.getRootHash();
+        if (merkleRootHash == null ? blockHeader.getMerkleRootHash() != null
+                : !merkleRootHash.equals(blockHeader.getMerkleRootHash())) {
+            throw new IllegalArgumentException("merkle root mismatch: header " + blockHeader.getMerkleRootHash()
+                    + ", body " + merkleRootHash);
+        }
+        return new Block(blockHeader, new BlockBody(merkleTree, transactions));
+    }
+
+    /**
+     * 只解码区块编码中的区块头，不读取区块体
+     */
+    public static BlockHeader decodeBlockHeader(ByteBuffer buffer) {
+        getFrameHeader(buffer);
+        return getHeader(buffer);
+    }
+
+    // ------------------------------------------------------------------ BlockHeader
+
+    /**
+     * 写入定长的区块头编码：version(4) + preBlockHash(32) + merkleRootHash(32) + timestamp(8)
+     * + difficulty(4) + nonce(8)，为null的哈希字段（创世区块）写入全0
+     */
+    public static void putHeader(ByteBuffer buffer, BlockHeader blockHeader) {
+        buffer.putInt(blockHeader.getVersion());
+        putHash(buffer, blockHeader.getPreBlockHash());
+        putHash(buffer, blockHeader.getMerkleRootHash());
+        buffer.putLong(blockHeader.getTimestamp());
+        buffer.putInt(blockHeader.getDifficulty());
+        buffer.putLong(blockHeader.getNonce());
+    }
+
+    /**
+     * 读取定长的区块头编码，全0的哈希字段恢复为null
+     */
+    public static BlockHeader getHeader(ByteBuffer buffer) {
+        int version = buffer.getInt();
+        String preBlockHash = getHash(buffer);
+        String merkleRootHash = getHash(buffer);
+        long timestamp = buffer.getLong();
+        int difficulty = buffer.getInt();
+        long nonce = buffer.getLong();
+        return new BlockHeader(version, preBlockHash, merkleRootHash, timestamp, difficulty, nonce);
+    }
+
+    private static void putHash(ByteBuffer buffer, String hash) {
+        buffer.put(hash == null ? ZERO_HASH : SecurityUtil.hexString2Bytes(hash));
+    }
+
+    private static String getHash(ByteBuffer buffer) {
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get(hash);
+        for (byte b : hash) {
+            if (b != 0) {
+                return SecurityUtil.bytes2HexString(hash);
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------ 基础类型
+
+    private static int frameSize(int payloadSize) {
+        return 1 + varIntSize(payloadSize) + payloadSize;
+    }
+
+    private static void putFrameHeader(ByteBuffer buffer, int payloadSize) {
+        buffer.put(VERSION);
+        putVarInt(buffer, payloadSize);
+    }
+
+    /**
+     * 读取版本号和负载长度
+     * @return 负载结束的位置
+     */
+    private static int getFrameHeader(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported codec version: " + version);
+        }
+        int length = getVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("truncated payload: " + length + " > " + buffer.remaining());
+        }
+        return buffer.position() + length;
+    }
+
+    private static void checkEnd(ByteBuffer buffer, int end) {
+        if (buffer.position() != end) {
+            throw new IllegalArgumentException("payload length mismatch");
+        }
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("negative varint");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /**
+     * 读取元素个数或字节数，并在分配数组之前检查：每个元素至少占1个字节，因此不能超过缓冲区剩余的字节数，
+     * 否则一个伪造的varint就能让解码方分配巨大的数组
+     */
+    static int getCount(ByteBuffer buffer) {
+        int count = getVarInt(buffer);
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException("truncated payload: count " + count + " > " + buffer.remaining());
+        }
+        return count;
+    }
+
+    private static int bytesSize(byte[] data) {
+        return varIntSize(data.length) + data.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] data) {
+        putVarInt(buffer, data.length);
+        buffer.put(data);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = getCount(buffer);
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * 钱包地址为Base58编码，只包含ASCII字符，逐字符写入，不经过中间的字节数组
+     */
+    private static int asciiSize(String value) {
+        return varIntSize(value.length()) + value.length();
+    }
+
+    private static void putAscii(ByteBuffer buffer, String value) {
+        putVarInt(buffer, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 0x7f) {
+                throw new IllegalArgumentException("non-ASCII character in " + value);
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    private static String getAscii(ByteBuffer buffer) {
+        int length = getCount(buffer);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get();
+            if (b < 0) {
+                throw new IllegalArgumentException("non-ASCII byte 0x" + Integer.toHexString(b & 0xff));
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    private static PublicKey decodePublicKey(byte[] encoded) {
+        ByteArrayKey key = new ByteArrayKey(encoded);
+        PublicKey publicKey = PUBLIC_KEY_CACHE.get(key);
+        if (publicKey != null) {
+            return publicKey;
+        }
+        try {
+            publicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("invalid public key encoding", e);
+        }
+        if (PUBLIC_KEY_CACHE.size() >= PUBLIC_KEY_CACHE_SIZE) {
+            PUBLIC_KEY_CACHE.clear();
+        }
+        PUBLIC_KEY_CACHE.put(key, publicKey);
+        return publicKey;
+    }
+
+    private static final class ByteArrayKey {
+        private final byte[] data;
+        private final int hash;
+
+        ByteArrayKey(byte[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteArrayKey && Arrays.equals(data, ((ByteArrayKey) o).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package config;
+
+/**
+ * 配置重新加载后的回调，在重新加载配置的线程中依次调用
+ */
+public interface ConfigListener {
+
+    /**
+     * @param previous 之前的快照
+     * @param current 新的快照，调用时已经是ConfigManager.current()的返回值
+     */
+    void onReload(RuntimeConfig previous, RuntimeConfig current);
+}
@@ -0,0 +1,201 @@
+package config;
+
+import logging.LogManager;
+import logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 配置的加载和重新加载
+ *
+ * 进程启动时由init读取配置来源（见ConfigSource），此后MiniChainConfig中的参数保持不变；
+ * 可以重新加载的参数（见RuntimeConfig）保存在一个不可变的快照中，热路径通过current()读取，只是一次volatile读。
+ *
+ * 重新加载时只重新读取配置文件，新的快照通过检查后整体替换旧的快照，再依次通知各个ConfigListener；
+ * 配置文件格式错误或参数超出范围时保留旧的快照。只在启动时读取的参数发生变化时输出警告，重启后才生效
+ */
+public class ConfigManager {
+
+    private static final Object LOCK = new Object();
+    private static final List<ConfigListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static volatile ConfigSource source;
+    private static volatile RuntimeConfig current;
+    private static volatile RuntimeConfig initial;
+    private static Thread watcher;
+
+    private ConfigManager() {
+    }
+
+    /**
+     * 由命令行参数和环境变量加载配置，必须在读取任何配置参数之前调用
+     *
+     * @param args 形如--参数名=值的命令行参数
+     * @throws IllegalArgumentException 配置格式错误或参数超出范围
+     * @throws IllegalStateException 配置已经加载过
+     */
+    public static void init(String[] args) {
+        synchronized (LOCK) {
+            if (source != null) {
+                throw new IllegalStateException("configuration is already loaded");
+            }
+            load(ConfigSource.load(args));
+        }
+    }
+
+    private static void load(ConfigSource loaded) {
+        RuntimeConfig config = RuntimeConfig.from(loaded);
+        initial = config;
+        current = config;
+        source = loaded;
+    }
+
+    /**
+     * 没有调用init时（如单元测试和基准测试中）按无命令行参数的方式加载
+     */
+    private static void ensureLoaded() {
+        synchronized (LOCK) {
+            if (source == null) {
+                load(ConfigSource.load(new String[0]));
+            }
+        }
+    }
+
+    /**
+     * @return 当前的配置快照
+     */
+    public static RuntimeConfig current() {
+        RuntimeConfig config = current;
+        if (config == null) {
+            ensureLoaded();
+            config = current;
+        }
+        return config;
+    }
+
+    /**
+     * @return 启动时的配置快照
+     */
+    public static RuntimeConfig getInitial() {
+        ensureLoaded();
+        return initial;
+    }
+
+    /**
+     * @return 当前的配置来源
+     */
+    public static ConfigSource getSource() {
+        ConfigSource loaded = source;
+        if (loaded == null) {
+            ensureLoaded();
+            loaded = source;
+        }
+        return loaded;
+    }
+
+    public static void addListener(ConfigListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(ConfigListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 重新读取配置文件
+     *
+     * @return 是否有可以重新加载的参数发生了变化
+     */
+    public static boolean reload() {
+        ensureLoaded();
+        // 整个过程持有锁，监听器按重新加载的顺序收到通知
+        synchronized (LOCK) {
+            ConfigSource reloaded;
+            RuntimeConfig config;
+            try {
+                reloaded = source.reload();
+                config = RuntimeConfig.from(reloaded);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                logger().warn("Ignored configuration file {}: {}", source.getFile(), e.getMessage());
+                return false;
+            }
+            Set<String> changedNames = reloaded.getChangedNames(source);
+            changedNames.removeAll(RuntimeConfig.NAMES);
+            if (!changedNames.isEmpty()) {
+                logger().warn("Configuration {} changed but only takes effect after a restart", changedNames);
+            }
+            RuntimeConfig previous = current;
+            List<String> changes = config.diff(previous);
+            source = reloaded;
+            if (changes.isEmpty()) {
+                return false;
+            }
+            logger().info("Configuration reloaded: {}", changes);
+            current = config;
+            for (ConfigListener listener : LISTENERS) {
+                try {
+                    listener.onReload(previous, config);
+                } catch (RuntimeException e) {
+                    logger().error("Configuration listener failed", e);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 启动后台线程，每隔intervalMillis毫秒检查一次配置文件的修改时间，文件被修改后重新加载。
+     * 没有配置文件、间隔不为正数或线程已经启动时不做任何事
+     *
+     * @param intervalMillis 检查间隔（毫秒）
+     */
+    public static void startWatcher(final long intervalMillis) {
+        final Path file = getSource().getFile();
+        synchronized (LOCK) {
+            if (file == null || intervalMillis <= 0 || watcher != null) {
+                return;
+            }
+            watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    FileTime lastModified = lastModified(file);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            Thread.sleep(intervalMillis);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        FileTime modified = lastModified(file);
+                        if (modified != null && !modified.equals(lastModified)) {
+                            lastModified = modified;
+                            reload();
+                        }
+                    }
+                }
+            }, "config-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            // 文件正在被替换时可能暂时不存在，下次再检查
+            return null;
+        }
+    }
+
+    // 日志系统的初始设置取自配置，不能在本类初始化时获取记录器
+    private static Logger logger() {
+        return LogManager.getLogger(ConfigManager.class);
+    }
+}
@@ -0,0 +1,260 @@
+package config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 配置参数的来源，按优先级从低到高依次为：
+ *    配置文件: properties格式，由命令行参数--config=路径或环境变量MINICHAIN_CONFIG指定，
+ *    都未指定时使用当前目录下的minichain.properties（不存在时忽略）
+ *
+ *    环境变量: MINICHAIN_前缀加参数名，如MINICHAIN_MINER_THREADS=4
+ *
+ *    命令行参数: --参数名=值，如--miner-threads=4
+ *
+ * 参数名不区分大小写，其中的'.'和'-'等同于'_'，因此max.transaction.count、max-transaction-count
+ * 与MAX_TRANSACTION_COUNT是同一个参数。该类的对象不可变，重新读取配置文件时得到一个新的对象
+ */
+public class ConfigSource {
+
+    public static final String ENV_PREFIX = "MINICHAIN_";
+    public static final String DEFAULT_FILE = "minichain.properties";
+
+    private static final String FILE_KEY = "CONFIG";
+
+    private final Path file;
+    private final Map<String, String> fileValues;
+    private final Map<String, String> envValues;
+    private final Map<String, String> cliValues;
+
+    /**
+     * @param file 配置文件，为null时不读取文件
+     * @param env 环境变量，只使用带MINICHAIN_前缀的条目
+     * @param cliValues 命令行参数中的参数名和值
+     */
+    public ConfigSource(Path file, Map<String, String> env, Map<String, String> cliValues) {
+        this(file, file == null ? Collections.<String, String>emptyMap() : readFile(file),
+                normalize(env, ENV_PREFIX), normalize(cliValues, ""));
+    }
+
+    private ConfigSource(Path file, Map<String, String> fileValues, Map<String, String> envValues,
+                         Map<String, String> cliValues) {
+        this.file = file;
+        this.fileValues = fileValues;
+        this.envValues = envValues;
+        this.cliValues = cliValues;
+    }
+
+    /**
+     * 由命令行参数和当前进程的环境变量加载配置
+     *
+     * @param args 形如--参数名=值的命令行参数
+     * @throws IllegalArgumentException 命令行参数格式错误，或指定的配置文件不存在
+     */
+    public static ConfigSource load(String[] args) {
+        Map<String, String> cliValues = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 3) {
+                throw new IllegalArgumentException("expected --name=value but got: " + arg);
+            }
+            cliValues.put(normalize(arg.substring(2, split)), arg.substring(split + 1));
+        }
+        Map<String, String> env = System.getenv();
+        String path = cliValues.get(FILE_KEY);
+        if (path == null) {
+            path = env.get(ENV_PREFIX + FILE_KEY);
+        }
+        Path file;
+        if (path != null) {
+            file = Paths.get(path.trim());
+            if (!Files.isRegularFile(file)) {
+                throw new IllegalArgumentException("configuration file not found: " + file);
+            }
+        } else {
+            file = Paths.get(DEFAULT_FILE);
+            if (!Files.isRegularFile(file)) {
+                file = null;
+            }
+        }
+        return new ConfigSource(file, env, cliValues);
+    }
+
+    /**
+     * 重新读取配置文件，环境变量和命令行参数保持不变
+     *
+     * @return 新的配置来源
+     * @throws UncheckedIOException 读取配置文件失败
+     */
+    public ConfigSource reload() {
+        return new ConfigSource(file, file == null ? Collections.<String, String>emptyMap() : readFile(file),
+                envValues, cliValues);
+    }
+
+    /**
+     * @return 配置文件，没有配置文件时返回null
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return 参数的值，未配置时返回null
+     */
+    public String get(String name) {
+        String key = normalize(name);
+        String value = cliValues.get(key);
+        if (value == null) {
+            value = envValues.get(key);
+        }
+        if (value == null) {
+            value = fileValues.get(key);
+        }
+        return value;
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw invalid(name, value, "an integer");
+        }
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw invalid(name, value, "an integer");
+        }
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw invalid(name, value, "a number");
+        }
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw invalid(name, value, "true or false");
+    }
+
+    /**
+     * @return 以逗号分隔的多个值，未配置时返回defaultValue，配置为空时返回空数组
+     */
+    public String[] getStringArray(String name, String[] defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.isEmpty()) {
+            return new String[0];
+        }
+        String[] values = value.split(",");
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+        }
+        return values;
+    }
+
+    /**
+     * @param previous 之前的配置来源
+     * @return 取值与之前不同的参数名（规范化后的形式）
+     */
+    public Set<String> getChangedNames(ConfigSource previous) {
+        Set<String> names = new TreeSet<>();
+        names.addAll(fileValues.keySet());
+        names.addAll(envValues.keySet());
+        names.addAll(cliValues.keySet());
+        names.addAll(previous.fileValues.keySet());
+        names.addAll(previous.envValues.keySet());
+        names.addAll(previous.cliValues.keySet());
+        Iterator<String> iterator = names.iterator();
+        while (iterator.hasNext()) {
+            String name = iterator.next();
+            String value = get(name);
+            String previousValue = previous.get(name);
+            if (value == null ? previousValue == null : value.equals(previousValue)) {
+                iterator.remove();
+            }
+        }
+        return names;
+    }
+
+    private IllegalArgumentException invalid(String name, String value, String expected) {
+        return new IllegalArgumentException("configuration " + normalize(name) + " must be " + expected + " but was '" + value + "'");
+    }
+
+    /**
+     * 只保留带指定前缀的条目，去掉前缀并规范化参数名
+     */
+    private static Map<String, String> normalize(Map<String, String> values, String prefix) {
+        Map<String, String> normalized = new HashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                normalized.put(normalize(entry.getKey().substring(prefix.length())), entry.getValue().trim());
+            }
+        }
+        return normalized;
+    }
+
+    static String normalize(String name) {
+        return name.trim().toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static Map<String, String> readFile(Path file) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            values.put(normalize(name), properties.getProperty(name).trim());
+        }
+        return values;
+    }
+}
@@ -1,18 +1,127 @@
 package config;
 
 /**
- * 该类为配置类，主要有两个字段：
- *    DIFFICULTY: 挖矿的难度值，即规定了新的区块的哈希值至少以几个0开头才满足难度条件
+ * 该类为配置类，参数的值在启动时从配置文件、环境变量和命令行参数中读取（见ConfigSource），未配置时取下面代码中的默认值。
+ * MAX_TRANSACTION_COUNT、MINER_THREADS、SIGNATURE_CACHE_SIZE、LOG_LEVEL和LOG_SAMPLE_RATE可以在运行期间重新加载，
+ * 这里只是它们启动时的值，当前值见ConfigManager.current()。主要有以下字段：
+ *    DIFFICULTY: 初始的挖矿难度值，即创世区块和第一个难度调整周期中区块的哈希值至少以几个0开头，之后由难度调整规则决定
+ *
+ *    TARGET_BLOCK_INTERVAL: 难度调整的目标出块间隔（毫秒）
+ *
+ *    RETARGET_INTERVAL: 每隔多少个区块根据这些区块的时间戳调整一次难度，为0时难度保持为初始值
  *
  *    MAX_TRANSACTION_COUNT: 交易池大小；TransactionProducer需要随机生成交易，放入交易池中，直至达到该大小
+ *
+ *    PRODUCER_THREADS: 同时向交易池放入随机交易的生产者线程数
+ *
+ *    MINER_THREADS: 并行挖矿时的工作线程数，默认为机器的处理器核数
+ *
+ *    VERIFIER_THREADS: 批量验签时的工作线程数，默认为机器的处理器核数
+ *
+ *    SIGNATURE_CACHE_SIZE: 验签结果缓存的最大条目数
+ *
+ *    BLOCK_STORE_DIR: 区块文件存储的目录，账户的密钥对也保存在这里，为null时区块只保存在内存中，每次启动都新建账户
+ *
+ *    BLOCK_STORE_SEGMENT_SIZE: 区块段文件的大小上限（字节）
+ *
+ *    UTXO_SNAPSHOT_INTERVAL: 使用文件存储时，每隔多少个区块写一次UTXO集合快照，为0时不写快照
+ *
+ *    SPV_HEADER_BATCH_SIZE: spv节点同步区块头时每批请求的最大区块头数
+ *
+ *    SPV_HEADER_STORE_DIR: spv节点区块头文件的目录，为null时区块头只保存在内存中
+ *
+ *    BROADCAST_THREADS: 向spv节点投递区块头的线程数
+ *
+ *    SPV_INBOX_CAPACITY: 每个spv节点收件箱的容量，收件箱满时丢弃最旧的区块头
+ *
+ *    BLOOM_FILTER_FP_RATE: spv节点布隆过滤器的误判率
+ *
+ *    BLOOM_FILTER_MAX_BYTES: spv节点布隆过滤器的大小上限（字节）
+ *
+ *    SPV_USE_COMPACT_FILTERS: spv节点是否使用紧凑区块过滤器在本地发现相关交易，为false时使用布隆过滤器
+ *
+ *    P2P_LISTEN_PORT: 点对点传输监听的端口，为-1时不启用点对点传输，为0时由系统分配
+ *
+ *    P2P_PEERS: 启动时主动连接的其他节点，格式为host:port
+ *
+ *    P2P_RELAY_CACHE_SIZE: 点对点转发时缓存的最近区块数和交易数
+ *
+ *    P2P_FLUSH_INTERVAL: 点对点转发时批量发送inv和getdata的间隔（毫秒）
+ *
+ *    P2P_REQUEST_TIMEOUT: 点对点转发时getdata请求的超时时间（毫秒），超时后向其他通告过该对象的节点重新请求
+ *
+ *    METRICS_PORT: 以Prometheus文本格式导出指标的HTTP端口（GET /metrics），为-1时不启用，为0时由系统分配
+ *
+ *    LOG_LEVEL: 日志级别（DEBUG、INFO、WARN、ERROR、OFF），DEBUG时输出每个区块的全部内容和每次spv验证的详细过程
+ *
+ *    LOG_SAMPLE_RATE: DEBUG和INFO日志每个记录器每N条输出1条，为1时全部输出
+ *
+ *    LOG_BUFFER_SIZE: 异步日志环形缓冲区的容量，缓冲区满时丢弃新的日志
+ *
+ *    CONFIG_RELOAD_INTERVAL: 检查配置文件是否被修改的间隔（毫秒），文件被修改后重新加载，为0时不检查
  */
 public class MiniChainConfig {
 
-    public static final int DIFFICULTY = 3;
+    private static final ConfigSource SOURCE = ConfigManager.getSource();
+    private static final RuntimeConfig INITIAL = ConfigManager.getInitial();
+
+    public static final int DIFFICULTY = SOURCE.getInt("DIFFICULTY", 3);
+
+    public static final long TARGET_BLOCK_INTERVAL = SOURCE.getLong("TARGET_BLOCK_INTERVAL", 100);
+
+    public static final int RETARGET_INTERVAL = SOURCE.getInt("RETARGET_INTERVAL", 20);
+
+    public static final int MAX_TRANSACTION_COUNT = INITIAL.getTransactionPoolSize();
+
+    public static final int ACCOUNT_NUM = SOURCE.getInt("ACCOUNT_NUM", 100);
+    public static final int INIT_AMOUNT = SOURCE.getInt("INIT_AMOUNT", 10000);
+
+    public static final int PRODUCER_THREADS = SOURCE.getInt("PRODUCER_THREADS", 2);
+
+    public static final int MINER_THREADS = INITIAL.getMinerThreads();
+
+    public static final int VERIFIER_THREADS = SOURCE.getInt("VERIFIER_THREADS", Runtime.getRuntime().availableProcessors());
+
+    public static final int SIGNATURE_CACHE_SIZE = INITIAL.getSignatureCacheSize();
+
+    public static final String BLOCK_STORE_DIR = SOURCE.getString("BLOCK_STORE_DIR", null);
+
+    public static final long BLOCK_STORE_SEGMENT_SIZE = SOURCE.getLong("BLOCK_STORE_SEGMENT_SIZE", 64L * 1024 * 1024);
+
+    public static final int UTXO_SNAPSHOT_INTERVAL = SOURCE.getInt("UTXO_SNAPSHOT_INTERVAL", 100);
+
+    public static final int SPV_HEADER_BATCH_SIZE = SOURCE.getInt("SPV_HEADER_BATCH_SIZE", 2000);
+
+    public static final String SPV_HEADER_STORE_DIR = SOURCE.getString("SPV_HEADER_STORE_DIR", null);
+
+    public static final int BROADCAST_THREADS = SOURCE.getInt("BROADCAST_THREADS", Runtime.getRuntime().availableProcessors());
+
+    public static final int SPV_INBOX_CAPACITY = SOURCE.getInt("SPV_INBOX_CAPACITY", 8);
+
+    public static final double BLOOM_FILTER_FP_RATE = SOURCE.getDouble("BLOOM_FILTER_FP_RATE", 0.0001);
+
+    public static final int BLOOM_FILTER_MAX_BYTES = SOURCE.getInt("BLOOM_FILTER_MAX_BYTES", 36000);
+
+    public static final boolean SPV_USE_COMPACT_FILTERS = SOURCE.getBoolean("SPV_USE_COMPACT_FILTERS", false);
+
+    public static final int P2P_LISTEN_PORT = SOURCE.getInt("P2P_LISTEN_PORT", -1);
+
+    public static final String[] P2P_PEERS = SOURCE.getStringArray("P2P_PEERS", new String[0]);
+
+    public static final int P2P_RELAY_CACHE_SIZE = SOURCE.getInt("P2P_RELAY_CACHE_SIZE", 10000);
+
+    public static final long P2P_FLUSH_INTERVAL = SOURCE.getLong("P2P_FLUSH_INTERVAL", 20);
+
+    public static final long P2P_REQUEST_TIMEOUT = SOURCE.getLong("P2P_REQUEST_TIMEOUT", 5000);
+
+    public static final int METRICS_PORT = SOURCE.getInt("METRICS_PORT", -1);
+
+    public static final String LOG_LEVEL = INITIAL.getLogLevel().name();
+
+    public static final int LOG_SAMPLE_RATE = INITIAL.getLogSampleRate();
 
-    public static final int MAX_TRANSACTION_COUNT = 1;
+    public static final int LOG_BUFFER_SIZE = SOURCE.getInt("LOG_BUFFER_SIZE", 8192);
 
-    public static final int ACCOUNT_NUM = 100;
-    public static final int INIT_AMOUNT = 10000;
+    public static final long CONFIG_RELOAD_INTERVAL = SOURCE.getLong("CONFIG_RELOAD_INTERVAL", 1000);
 
 }
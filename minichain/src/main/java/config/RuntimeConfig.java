@@ -0,0 +1,125 @@
+package config;
+
+import logging.Level;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 可以在运行期间重新加载的配置参数的快照，对象不可变，构造时检查所有参数的取值范围
+ *
+ * 当前快照由ConfigManager保存在一个volatile字段中，热路径上直接读取，不需要加锁；
+ * 重新加载配置时整体替换为新的快照，因此同一个快照中的参数总是一致的：
+ *    MAX_TRANSACTION_COUNT: 交易池大小，即每个区块打包的交易数
+ *
+ *    MINER_THREADS: 并行挖矿时的工作线程数，默认为机器的处理器核数，在下一个区块开始挖矿时生效
+ *
+ *    SIGNATURE_CACHE_SIZE: 验签结果缓存的最大条目数，缩小时立即淘汰多出的条目
+ *
+ *    LOG_LEVEL: 日志级别（DEBUG、INFO、WARN、ERROR、OFF），DEBUG时输出每个区块的全部内容和每次spv验证的详细过程
+ *
+ *    LOG_SAMPLE_RATE: DEBUG和INFO日志每个记录器每N条输出1条，为1时全部输出
+ */
+public class RuntimeConfig {
+
+    /**
+     * 可以重新加载的参数名，其余参数只在启动时读取一次
+     */
+    public static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(
+            "MAX_TRANSACTION_COUNT", "MINER_THREADS", "SIGNATURE_CACHE_SIZE", "LOG_LEVEL", "LOG_SAMPLE_RATE"));
+
+    private final int transactionPoolSize;
+    private final int minerThreads;
+    private final int signatureCacheSize;
+    private final Level logLevel;
+    private final int logSampleRate;
+
+    /**
+     * @throws IllegalArgumentException 某个参数超出取值范围
+     */
+    public RuntimeConfig(int transactionPoolSize, int minerThreads, int signatureCacheSize, Level logLevel, int logSampleRate) {
+        check(transactionPoolSize >= 1, "MAX_TRANSACTION_COUNT", transactionPoolSize);
+        check(minerThreads >= 1, "MINER_THREADS", minerThreads);
+        check(signatureCacheSize >= 0, "SIGNATURE_CACHE_SIZE", signatureCacheSize);
+        check(logLevel != null, "LOG_LEVEL", logLevel);
+        check(logSampleRate >= 1, "LOG_SAMPLE_RATE", logSampleRate);
+        this.transactionPoolSize = transactionPoolSize;
+        this.minerThreads = minerThreads;
+        this.signatureCacheSize = signatureCacheSize;
+        this.logLevel = logLevel;
+        this.logSampleRate = logSampleRate;
+    }
+
+    /**
+     * 从配置来源中读取参数，未配置的参数取默认值
+     *
+     * @throws IllegalArgumentException 某个参数格式错误或超出取值范围
+     */
+    public static RuntimeConfig from(ConfigSource source) {
+        return new RuntimeConfig(
+                source.getInt("MAX_TRANSACTION_COUNT", 1),
+                source.getInt("MINER_THREADS", Runtime.getRuntime().availableProcessors()),
+                source.getInt("SIGNATURE_CACHE_SIZE", 100000),
+                Level.parse(source.getString("LOG_LEVEL", "INFO")),
+                source.getInt("LOG_SAMPLE_RATE", 1));
+    }
+
+    private static void check(boolean valid, String name, Object value) {
+        if (!valid) {
+            throw new IllegalArgumentException("invalid configuration " + name + ": " + value);
+        }
+    }
+
+    public int getTransactionPoolSize() {
+        return transactionPoolSize;
+    }
+
+    public int getMinerThreads() {
+        return minerThreads;
+    }
+
+    public int getSignatureCacheSize() {
+        return signatureCacheSize;
+    }
+
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+    public int getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    /**
+     * @param previous 之前的快照
+     * @return 与之前相比发生变化的参数，形如"MINER_THREADS 4 -> 2"，没有变化时为空
+     */
+    public List<String> diff(RuntimeConfig previous) {
+        Object[] values = values();
+        Object[] previousValues = previous.values();
+        List<String> changes = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (!values[i].equals(previousValues[i])) {
+                changes.add(NAMES.get(i) + " " + previousValues[i] + " -> " + values[i]);
+            }
+        }
+        return changes;
+    }
+
+    // 与NAMES的顺序一致
+    private Object[] values() {
+        return new Object[]{transactionPoolSize, minerThreads, signatureCacheSize, logLevel, logSampleRate};
+    }
+
+    @Override
+    public String toString() {
+        Object[] values = values();
+        StringBuilder stringBuilder = new StringBuilder("RuntimeConfig{");
+        for (int i = 0; i < values.length; i++) {
+            stringBuilder.append(i == 0 ? "" : ", ").append(NAMES.get(i)).append('=').append(values[i]);
+        }
+        return stringBuilder.append('}').toString();
+    }
+}
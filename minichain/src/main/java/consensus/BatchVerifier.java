@@ -0,0 +1,104 @@
+package consensus;
+
+import data.Transaction;
+import utils.SecurityUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 交易签名的批量验证器
+ *
+ * 一批交易的验签任务由线程池中的多个线程共同完成，各线程从同一个游标领取下一笔待验证的交易，
+ * 任意一笔交易验签失败后，其余线程不再领取新的交易。每个线程复用自己的Signature实例（见SecurityUtil.verify）
+ *
+ * 交易进入交易池时使用verify单独验证，矿工打包区块时使用verifyAll批量验证
+ */
+public class BatchVerifier {
+
+    private final int threadCount;
+    private final ExecutorService executor;
+
+    public BatchVerifier(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        this.threadCount = threadCount;
+        this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "verifier-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 验证单笔交易的签名，签名的数据是该交易的inUtxos和outUtxos
+     * @param transaction
+     * @return
+     */
+    public static boolean verify(Transaction transaction) {
+        byte[] data = SecurityUtil.utxos2Bytes(transaction.getInUtxos(), transaction.getOutUtxos());
+        return SecurityUtil.verify(data, transaction.getSendSign(), transaction.getSendPublicKey());
+    }
+
+    /**
+     * 并行验证一批交易的签名，遇到第一笔验签失败的交易即停止
+     *
+     * @param transactions 一批次的交易
+     * @return 全部验签通过返回true
+     */
+    public boolean verifyAll(final Transaction[] transactions) {
+        int taskCount = Math.min(threadCount, transactions.length);
+        if (taskCount <= 1) {
+            for (Transaction transaction : transactions) {
+                if (!verify(transaction)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicInteger cursor = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    while (!failed.get()) {
+                        int index = cursor.getAndIncrement();
+                        if (index >= transactions.length) {
+                            break;
+                        }
+                        if (!verify(transactions[index])) {
+                            failed.set(true);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !failed.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,148 @@
+package consensus;
+
+import config.MiniChainConfig;
+import utils.CompactTarget;
+
+import java.math.BigInteger;
+
+/**
+ * 难度调整规则
+ *
+ * 区块头的difficulty字段为目标值的紧凑编码（见CompactTarget）。创世区块使用初始目标值，之后每隔interval个区块调整一次：
+ * 高度为interval的整数倍的区块，根据前interval个区块（高度[height - interval, height - 1]）中首尾两个区块的时间戳
+ * 计算实际用时，与期望用时（(interval - 1)个出块间隔）相比按比例调整目标值：
+ *    newTarget = oldTarget * actualTimespan / expectedTimespan
+ * 实际用时限制在期望用时的[1/4, 4]倍之间，目标值不超过难度下限（8个前导0比特，初始难度更低时以初始难度为准）；
+ * 其余区块的难度与前一个区块相同。
+ * 矿工按此规则确定新区块的难度，全节点和spv节点按同一规则检查每个区块头的难度
+ */
+public class DifficultySchedule {
+
+    // 单次调整的最大倍数
+    private static final int MAX_ADJUSTMENT = 4;
+    // 难度下限：哈希值至少有8个前导0比特
+    private static final BigInteger POW_LIMIT = CompactTarget.fromLeadingZeroBits(8);
+
+    private static final DifficultySchedule DEFAULT = new DifficultySchedule(
+            initialBits(MiniChainConfig.DIFFICULTY), MiniChainConfig.RETARGET_INTERVAL, MiniChainConfig.TARGET_BLOCK_INTERVAL);
+
+    private final int initialBits;
+    private final int interval;
+    private final long targetSpacing;
+
+    /**
+     * @param initialBits 创世区块及第一个调整周期的目标值（紧凑编码）
+     * @param interval 每隔多少个区块调整一次难度，为0时不调整
+     * @param targetSpacing 期望的出块间隔（毫秒）
+     */
+    public DifficultySchedule(int initialBits, int interval, long targetSpacing) {
+        CompactTarget.decode(initialBits);
+        if (interval < 0 || interval == 1) {
+            throw new IllegalArgumentException("retarget interval must be 0 or at least 2: " + interval);
+        }
+        if (interval > 0 && targetSpacing <= 0) {
+            throw new IllegalArgumentException("target block interval must be positive: " + targetSpacing);
+        }
+        this.initialBits = initialBits;
+        this.interval = interval;
+        this.targetSpacing = targetSpacing;
+    }
+
+    /**
+     * @return 由系统配置构造的难度调整规则
+     */
+    public static DifficultySchedule getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param hexZeros 十六进制前导0的个数（即原来的难度值）
+     * @return 相应目标值的紧凑编码
+     */
+    public static int initialBits(int hexZeros) {
+        return CompactTarget.encode(CompactTarget.fromLeadingZeroBits(hexZeros * 4));
+    }
+
+    public int getInitialBits() {
+        return initialBits;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getTargetSpacing() {
+        return targetSpacing;
+    }
+
+    /**
+     * @return 任何区块允许的最大目标值，即难度下限与初始目标值中较大的一个
+     */
+    public BigInteger getMaxTarget() {
+        return POW_LIMIT.max(CompactTarget.decode(initialBits));
+    }
+
+    /**
+     * @param height 区块高度
+     * @return 该高度的区块是否重新计算难度
+     */
+    public boolean isRetargetHeight(int height) {
+        return interval > 0 && height >= interval && height % interval == 0;
+    }
+
+    /**
+     * @param height 调整难度的区块高度
+     * @return 调整周期中第一个区块的高度，周期的最后一个区块高度为height - 1
+     */
+    public int getWindowStart(int height) {
+        return height - interval;
+    }
+
+    /**
+     * 计算调整后的目标值
+     *
+     * @param previousBits 前一个区块的目标值
+     * @param firstTimestamp 调整周期中第一个区块的时间戳
+     * @param lastTimestamp 调整周期中最后一个区块的时间戳
+     * @return 新的目标值（紧凑编码）
+     */
+    public int retarget(int previousBits, long firstTimestamp, long lastTimestamp) {
+        long expected = (interval - 1) * targetSpacing;
+        long actual = lastTimestamp - firstTimestamp;
+        actual = Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, actual));
+        // 两个区块的时间戳可能相同（出块间隔小于1毫秒），至少按1毫秒计算
+        actual = Math.max(1, actual);
+        BigInteger target = CompactTarget.decode(previousBits)
+                .multiply(BigInteger.valueOf(actual))
+                .divide(BigInteger.valueOf(expected));
+        return CompactTarget.encode(target.min(getMaxTarget()));
+    }
+
+    /**
+     * 按调整规则计算某个高度的区块应有的难度
+     *
+     * @param height 区块高度
+     * @param headers 按高度读取已有区块头的时间戳和难度，至少包含高度height - 1
+     * @return 该高度的区块应有的目标值（紧凑编码）
+     */
+    public int getBits(int height, HeaderSource headers) {
+        if (height == 0) {
+            return initialBits;
+        }
+        int previousBits = headers.getBits(height - 1);
+        if (!isRetargetHeight(height)) {
+            return previousBits;
+        }
+        return retarget(previousBits, headers.getTimestamp(getWindowStart(height)), headers.getTimestamp(height - 1));
+    }
+
+    /**
+     * 计算难度时读取已有区块头的方式，全节点从区块链中读取，spv节点从区块头存储以及正在连接的一批区块头中读取
+     */
+    public interface HeaderSource {
+
+        long getTimestamp(int height);
+
+        int getBits(int height);
+    }
+}
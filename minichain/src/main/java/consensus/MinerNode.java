@@ -1,13 +1,16 @@
 package consensus;
 
+import config.ConfigManager;
 import config.MiniChainConfig;
 import data.*;
-import utils.MinerUtil;
+import logging.LogManager;
+import logging.Logger;
 import utils.SHA256Util;
 import utils.SecurityUtil;
 
 import java.security.PublicKey;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * 矿工线程
@@ -23,46 +26,56 @@ import java.util.*;
  */
 public class MinerNode extends Thread {
 
+    private static final Logger LOGGER = LogManager.getLogger(MinerNode.class);
+
     private TransactionPool transactionPool;
     private final BlockChain blockChain;
+    private final BatchVerifier batchVerifier;
+    private final MiningEngine miningEngine;
 
     public MinerNode(TransactionPool transactionPool, BlockChain blockChain) {
         this.transactionPool = transactionPool;
         this.blockChain = blockChain;
+        this.batchVerifier = new BatchVerifier(MiniChainConfig.VERIFIER_THREADS);
+        this.miningEngine = new MiningEngine(ConfigManager.current().getMinerThreads());
     }
 
     @Override
     public void run() {
         while (true) {
-            synchronized (transactionPool) {
-                while (!transactionPool.isFull()) {
-                    try {
-                        transactionPool.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                // 从交易池中获取一批次的交易
-                Transaction[] transactions = transactionPool.getAll();
-
-                // 对该交易的签名进行验签，验签失败则退出
-                if (!check(transactions)) {
-                    System.out.println("transaction error");
-                    System.exit(-1);
-                }
+            try {
+                transactionPool.awaitFull();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Miner interrupted while waiting for a full transaction pool", e);
+                return;
+            }
 
-                // 以交易为参数，调用getBlockBody方法
-                BlockBody blockBody = getBlockBody(transactions);
+            // 从交易池中获取一批次的交易
+            Transaction[] transactions = transactionPool.takeBatch(transactionPool.getCapacity());
 
-                // 以blockBody为参数，调用mine方法
-                mine(blockBody);
+            // 对该交易的签名进行验签，验签失败则退出
+            if (!check(transactions)) {
+                LOGGER.error("transaction error!");
+                System.exit(-1);
+            }
 
-                // 输出所有账户的余额总数
-                System.out.println("The sum of all account amount: " + blockChain.getAllAccountAmount());
+            // 以交易为参数，调用getBlockBody方法
+            BlockBody blockBody = getBlockBody(transactions);
 
-                transactionPool.notify();
+            // 以blockBody为参数，调用mine方法，挖矿线程被中断时退出
+            if (mine(blockBody) == null) {
+                return;
             }
+            transactionPool.release(transactions);
+
+            // 输出所有账户的余额总数
+            // 遍历全部UTXO求和的代价较大，只在日志真正输出时计算
+            LOGGER.info("the sum of all account amount: {}", new Supplier<Integer>() {
+                @Override
+                public Integer get() {
+                    return blockChain.getAllAccountAmount();
+                }
+            });
         }
     }
 
@@ -72,17 +85,7 @@ public class MinerNode extends Thread {
      * @return
      */
     private boolean check(Transaction[] transactions) {
-        for (int i = 0; i < transactions.length; i++) {
-            Transaction transaction = transactions[i];
-            // 签名的数据是该交易的inUtxos和outUtxos
-            byte[] data = SecurityUtil.utxos2Bytes(transaction.getInUtxos(), transaction.getOutUtxos());
-            byte[] sign = transaction.getSendSign();
-            PublicKey publicKey = transaction.getSendPublicKey();
-            if (!SecurityUtil.verify(data, sign, publicKey)) {
-                return false;
-            }
-        }
-        return true;
+        return batchVerifier.verifyAll(transactions);
     }
 
     /**
@@ -96,51 +99,38 @@ public class MinerNode extends Thread {
      */
     public BlockBody getBlockBody(Transaction[] transactions) {
         assert transactions != null && transactions.length == MiniChainConfig.MAX_TRANSACTION_COUNT;
-        //todo
-        List<String> list = new ArrayList<>();
-        for (Transaction transaction : transactions) {
-            String txHash = SecurityUtil.sha256Digest(transaction.toString());
-            list.add(txHash);
-        }
-        // list大小为1时停止迭代
-        while (list.size() != 1) {
-            List<String> newList = new ArrayList<>();
-            for (int i = 0; i < list.size(); i += 2) {
-                String leftHash = list.get(i);
-                // 如果出现奇数个节点，即最后一个节点没有右节点与其构成一对，就将当前节点复制一份作为右节点
-                String rightHash = (i + 1 < list.size() ? list.get(i + 1) : leftHash);
-                String parentHash = SecurityUtil.sha256Digest(leftHash + rightHash);
-                newList.add(parentHash);
-            }
-            // 切换list，进行下一轮的计算
-            list = newList;
-        }
-
-        BlockBody blockBody = new BlockBody(list.get(0), transactions);
+        // 由交易的哈希值构建Merkle树，随区块体一同保存
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        BlockBody blockBody = new BlockBody(merkleTree, transactions);
         return blockBody;
     }
 
     /**
      * 该方法即在循环中完成"挖矿"操作，其实就是通过不断的变换区块中的nonce字段，直至区块的哈希值满足难度条件，
-     * 即可将该区块加入区块链中
+     * 即可将该区块加入区块链中。与MinerPeer一样由并行挖矿引擎搜索nonce，区块的难度由难度调整规则决定
      *
      * @param blockBody 区块体
+     * @return 加入区块链的区块，挖矿线程被中断时返回null
      */
-    private void mine(BlockBody blockBody) {
-        Block block = getBlock(blockBody);
+    private Block mine(BlockBody blockBody) {
         while (true) {
-            String blockHash = SHA256Util.sha256Digest(block.toString());
-            if (blockHash.startsWith(MinerUtil.hashPrefixTarget())) {
-                System.out.println("Mined a new Block! Detail of the new Block : ");
-                System.out.println(block.toString());
-                System.out.println("And the hash of this Block is : " + SHA256Util.sha256Digest(block.toString()) +
-                                    ", you will see the hash value in next Block's preBlockHash field.");
-                System.out.println();
-                blockChain.addNewBlock(block);
-                break;
-            } else {
-                //todo
-                block = getBlock(blockBody);
+            String preBlockHash = blockChain.getNewestBlock().getHash();
+            final Block block = miningEngine.mine(preBlockHash, blockChain.getNextBits(), blockBody);
+            if (block == null) {
+                return null;
+            }
+            // 挖矿期间链的最新区块发生了变化，则基于新的最新区块重新挖矿
+            if (blockChain.tryAddNewBlock(block)) {
+                LOGGER.info("Mined a new Block with {} transactions, hash: {}",
+                        blockBody.getTransactions().length, block.getHash());
+                // 区块的全部内容只在DEBUG级别输出，由写线程调用toString
+                LOGGER.debug("Detail of the new Block : {}", new Supplier<String>() {
+                    @Override
+                    public String get() {
+                        return block.toString();
+                    }
+                });
+                return block;
             }
         }
     }
@@ -158,7 +148,7 @@ public class MinerNode extends Thread {
     public Block getBlock(BlockBody blockBody) {
         //todo
         Block preBlock = this.blockChain.getNewestBlock();  // 得到前一个块
-        String preHash = SHA256Util.sha256Digest(preBlock.toString());
+        String preHash = preBlock.getHash();
 
         Random random = new Random();
 
@@ -0,0 +1,190 @@
+package consensus;
+
+import data.Block;
+import data.BlockBody;
+import data.BlockHeader;
+import logging.Level;
+import logging.LogManager;
+import logging.Logger;
+import metrics.Metrics;
+import utils.CompactTarget;
+import utils.MidstateHasher;
+import utils.MinerUtil;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并行挖矿引擎
+ *
+ * 将64位的nonce空间平均切分给若干个工作线程，每个线程在自己的区间内依次尝试nonce，直到区块哈希不大于难度目标值，
+ * 任意一个线程找到满足难度条件的区块后，其余线程立即停止。每轮挖矿结束后在DEBUG级别输出各线程的哈希速率
+ */
+public class MiningEngine {
+
+    private static final Logger LOGGER = LogManager.getLogger(MiningEngine.class);
+
+    // 工作线程每尝试这么多次向哈希计数器累加一次，计数器的开销不进入内层循环
+    private static final int HASH_REPORT_MASK = (1 << 12) - 1;
+
+    private final int workerCount;
+    private final ExecutorService executor;
+
+    public MiningEngine(int workerCount) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+        }
+        this.workerCount = workerCount;
+        this.executor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "miner-worker-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 并行搜索nonce，直至某个工作线程构造出满足难度条件的区块
+     *
+     * @param preBlockHash 前一个区块的哈希值
+     * @param bits 新区块的难度，即目标值的紧凑编码
+     * @param blockBody 区块体
+     * @return 满足难度条件的区块，若挖矿线程被中断则返回null
+     */
+    public Block mine(String preBlockHash, int bits, BlockBody blockBody) {
+        byte[] target = CompactTarget.toBytes(bits);
+        long timestamp = System.currentTimeMillis();
+        AtomicBoolean found = new AtomicBoolean(false);
+        CompletionService<Block> completionService = new ExecutorCompletionService<>(executor);
+        Worker[] workers = new Worker[workerCount];
+        // 每个工作线程负责 2^64 / workerCount 大小的nonce区间
+        long stride = workerCount == 1 ? 0 : Long.divideUnsigned(-1L, workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(preBlockHash, blockBody, timestamp, bits, target, Long.MIN_VALUE + stride * i, found);
+            completionService.submit(workers[i]);
+        }
+
+        Block block = null;
+        int completed = 0;
+        try {
+            while (block == null && completed < workerCount) {
+                block = completionService.take().get();
+                completed++;
+            }
+            // 通知其余线程停止，并等待它们退出以便统计哈希速率
+            found.set(true);
+            while (completed < workerCount) {
+                completionService.take();
+                completed++;
+            }
+        } catch (InterruptedException e) {
+            found.set(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOGGER.error("Mining worker failed", e.getCause());
+            System.exit(-1);
+        }
+        if (LOGGER.isEnabled(Level.DEBUG)) {
+            report(workers);
+        }
+        return block;
+    }
+
+    /**
+     * 输出每个工作线程本轮的尝试次数和哈希速率
+     */
+    private void report(Worker[] workers) {
+        StringBuilder stringBuilder = new StringBuilder("Mining workers:");
+        long total = 0;
+        for (int i = 0; i < workers.length; i++) {
+            total += workers[i].attempts;
+            stringBuilder.append(" [").append(i).append("] ")
+                    .append(workers[i].hashesPerSecond()).append(" H/s");
+        }
+        stringBuilder.append(", total attempts: ").append(total);
+        LOGGER.debug(stringBuilder.toString());
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 挖矿工作线程，在[startNonce, startNonce + stride)区间内顺序尝试
+     */
+    private static class Worker implements Callable<Block> {
+
+        private final String preBlockHash;
+        private final BlockBody blockBody;
+        private final long timestamp;
+        private final int bits;
+        private final byte[] target;
+        private final long startNonce;
+        private final AtomicBoolean found;
+
+        private volatile long attempts;
+        private volatile long elapsedNanos;
+
+        Worker(String preBlockHash, BlockBody blockBody, long timestamp, int bits, byte[] target, long startNonce,
+               AtomicBoolean found) {
+            this.preBlockHash = preBlockHash;
+            this.blockBody = blockBody;
+            this.timestamp = timestamp;
+            this.bits = bits;
+            this.target = target;
+            this.startNonce = startNonce;
+            this.found = found;
+        }
+
+        @Override
+        public Block call() {
+            long begin = System.nanoTime();
+            // 每个线程使用自己的区块头对象，只修改nonce字段；各线程的时间戳相同，无论哪个线程找到，区块都相同
+            BlockHeader blockHeader = new BlockHeader(1, preBlockHash, blockBody.getMerkleRootHash(), timestamp, bits, startNonce);
+            MidstateHasher hasher = new MidstateHasher(blockHeader);
+            byte[] digest = new byte[32];
+            long nonce = startNonce;
+            long count = 0;
+            try {
+                while (!found.get()) {
+                    hasher.hash(nonce, digest);
+                    if ((++count & HASH_REPORT_MASK) == 0) {
+                        Metrics.HASHES.add(HASH_REPORT_MASK + 1);
+                    }
+                    if (MinerUtil.meetsTarget(digest, target)) {
+                        blockHeader.setNonce(nonce);
+                        // 只有第一个找到的线程返回结果
+                        return found.compareAndSet(false, true) ? new Block(blockHeader, blockBody) : null;
+                    }
+                    nonce++;
+                }
+                return null;
+            } finally {
+                attempts = count;
+                Metrics.HASHES.add(count & HASH_REPORT_MASK);
+                elapsedNanos = System.nanoTime() - begin;
+            }
+        }
+
+        long hashesPerSecond() {
+            long nanos = elapsedNanos;
+            return nanos == 0 ? 0 : attempts * 1_000_000_000L / nanos;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package consensus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 出块流水线各阶段的耗时统计
+ *
+ * 每个阶段记录执行次数、总耗时和最大耗时，各阶段由不同线程并发记录
+ */
+public class PipelineStats {
+
+    /**
+     * 流水线阶段
+     */
+    public enum Stage {
+        // 从交易池取出一批交易（含等待交易池满的时间）
+        TAKE,
+        // 批量验签
+        VERIFY,
+        // 构建Merkle树和区块体
+        MERKLE,
+        // 挖矿线程等待下一个区块模板的时间，越小说明流水线越饱满
+        WAIT_TEMPLATE,
+        // 搜索nonce并将区块加入区块链
+        MINE,
+        // 广播区块并统计余额
+        PUBLISH
+    }
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    // 每个阶段占三个槽位：次数、总耗时、最大耗时
+    private final AtomicLongArray values = new AtomicLongArray(STAGE_COUNT * 3);
+
+    public void record(Stage stage, long nanos) {
+        int base = stage.ordinal() * 3;
+        values.incrementAndGet(base);
+        values.addAndGet(base + 1, nanos);
+        long max;
+        while (nanos > (max = values.get(base + 2))) {
+            if (values.compareAndSet(base + 2, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount(Stage stage) {
+        return values.get(stage.ordinal() * 3);
+    }
+
+    public long getTotalNanos(Stage stage) {
+        return values.get(stage.ordinal() * 3 + 1);
+    }
+
+    public long getMaxNanos(Stage stage) {
+        return values.get(stage.ordinal() * 3 + 2);
+    }
+
+    /**
+     * @return 各阶段的平均耗时和最大耗时（毫秒）
+     */
+    public String summary() {
+        StringBuilder stringBuilder = new StringBuilder("Pipeline stages (avg/max ms):");
+        for (Stage stage : Stage.values()) {
+            long count = getCount(stage);
+            double avg = count == 0 ? 0 : getTotalNanos(stage) / 1e6 / count;
+            stringBuilder.append(' ').append(stage).append('=')
+                    .append(String.format("%.2f/%.2f", avg, getMaxNanos(stage) / 1e6));
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -1,6 +1,8 @@
 package consensus;
 
 import data.*;
+import logging.LogManager;
+import logging.Logger;
 import network.NetWork;
 import utils.SecurityUtil;
 
@@ -10,10 +12,12 @@ import java.util.Random;
 import java.util.UUID;
 
 /**
- * 生成随机交易
+ * 生成随机交易，网络中可以同时运行多个交易生产者线程
  */
 public class TransactionProducer extends Thread {
 
+    private static final Logger LOGGER = LogManager.getLogger(TransactionProducer.class);
+
     private final NetWork netWork;
 
     public TransactionProducer(NetWork netWork) {
@@ -22,21 +26,18 @@ public class TransactionProducer extends Thread {
 
     @Override
     public void run() {
+        TransactionPool transactionPool = netWork.getTransactionPool();
         while (true) {
-            synchronized (netWork.getTransactionPool()) {
-                TransactionPool transactionPool = netWork.getTransactionPool();
-                while (transactionPool.isFull()) {
-                    try {
-                        transactionPool.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                Transaction randomOne = getOneTransaction();
-                transactionPool.put(randomOne);
-                if (transactionPool.isFull()) {
-                    transactionPool.notify();
-                }
+            // 交易池满时等待矿工取走交易，放入交易本身不需要加锁，多个生产者可以同时放入
+            try {
+                transactionPool.awaitNotFull();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Transaction producer interrupted", e);
+                return;
+            }
+            Transaction randomOne = getOneTransaction();
+            if (transactionPool.put(randomOne)) {
+                netWork.relayTransaction(randomOne);
             }
         }
     }
@@ -97,7 +98,7 @@ public class TransactionProducer extends Thread {
 
             // 构建输出OutUtxos，A账户向B账户支付txAmount，同时输入对方的公钥以供生成公钥哈希
             outUtxoList.add(new UTXO(bWalletAddress, txAmount, bAccount.getPublicKey()));
-            // 如果有余额，则“找零”，即给自己的utxo
+            // 如果有余额，则“找零”，即给自己的utxo；找零后输入总额等于输出总额，交易不附加手续费（区块中没有收取手续费的交易）
             if (inAmount > txAmount) {
                 outUtxoList.add(new UTXO(aWalletAddress, inAmount-txAmount, aAccount.getPublicKey()));
             }
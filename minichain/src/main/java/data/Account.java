@@ -12,7 +12,14 @@ public class Account {
     private final PrivateKey privateKey;
 
     public Account() {
-        KeyPair keyPair = SecurityUtil.secp256k1Generate();
+        this(SecurityUtil.secp256k1Generate());
+    }
+
+    /**
+     * 由已有的密钥对创建账户
+     * @param keyPair
+     */
+    public Account(KeyPair keyPair) {
         this.publicKey = keyPair.getPublic();
         this.privateKey = keyPair.getPrivate();
     }
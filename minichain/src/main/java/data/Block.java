@@ -22,6 +22,14 @@ public class Block {
         return blockBody;
     }
 
+    /**
+     * 区块的哈希值，即区块头的哈希值
+     * @return
+     */
+    public String getHash() {
+        return blockHeader.getHash();
+    }
+
     @Override
     public String toString() {
         return "Block{" +
@@ -7,17 +7,26 @@ import java.util.Arrays;
  *    transactions: 从交易池中取得的一批次交易
  *
  *    merkleRootHash: 使用上述交易，计算得到的Merkle树根哈希值
+ *
+ *    merkleTree: 由上述交易构建的Merkle树，随区块一同保存，供生成验证路径使用
  */
 public class BlockBody {
 
     private final Transaction[] transactions;
     private final String merkleRootHash;
+    private MerkleTree merkleTree;
 
     public BlockBody(String merkleRootHash, Transaction[] transactions) {
         this.merkleRootHash = merkleRootHash;
         this.transactions = transactions;
     }
 
+    public BlockBody(MerkleTree merkleTree, Transaction[] transactions) {
+        this.merkleRootHash = merkleTree.getRootHash();
+        this.merkleTree = merkleTree;
+        this.transactions = transactions;
+    }
+
     public String getMerkleRootHash() {
         return merkleRootHash;
     }
@@ -26,6 +35,17 @@ public class BlockBody {
         return transactions;
     }
 
+    /**
+     * 获取区块体的Merkle树，未随区块体一同构建时（如创世区块）在第一次访问时构建
+     * @return
+     */
+    public synchronized MerkleTree getMerkleTree() {
+        if (merkleTree == null) {
+            merkleTree = MerkleTree.fromTransactions(transactions);
+        }
+        return merkleTree;
+    }
+
     @Override
     public String toString() {
         return "BlockBody{" +
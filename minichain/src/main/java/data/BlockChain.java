@@ -1,41 +1,242 @@
 package data;
 
 import config.MiniChainConfig;
+import consensus.DifficultySchedule;
+import logging.LogManager;
+import logging.Logger;
+import metrics.Metrics;
 import network.NetWork;
-import utils.SHA256Util;
+import spv.BlockFilter;
+import store.BlockFilterStore;
+import store.BlockStore;
+import store.FileBlockStore;
+import store.MemoryBlockStore;
+import store.UtxoSnapshotStore;
+import utils.CompactTarget;
+import utils.MinerUtil;
 import utils.SecurityUtil;
 
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PrivateKey;
+import java.nio.file.Paths;
 import java.security.PublicKey;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 区块链的类抽象，创建该对象时会自动生成创世纪块，加入区块链中
+ *
+ * 区块保存在区块存储（BlockStore）中：默认为内存存储；配置了BLOCK_STORE_DIR时使用文件存储，
+ * 重启后从存储中恢复区块链，并依次重放已有的区块以重建UTXO集合和交易索引
+ *
+ * 使用文件存储时每隔UTXO_SNAPSHOT_INTERVAL个区块在后台写一次UTXO集合快照。重启时若快照对应的区块仍在链上，
+ * 先从快照恢复UTXO集合，只重放快照之后的区块，启动时间与链的高度无关；
+ * 快照之前区块的交易索引由后台线程补建，补建完成前查询交易位置时直接从存储中读取尚未补建的区块
+ *
+ * 每个区块加入区块链时同时构建其紧凑区块过滤器（见BlockFilter），与区块保存在同一个存储目录中，供spv节点下载
+ *
+ * 矿工挖出的区块（见tryAddNewBlock）加入前检查其难度符合难度调整规则（见DifficultySchedule），且哈希值满足该难度
  */
 public class BlockChain {
 
-    private final LinkedList<Block> chain = new LinkedList<>();
+    private static final Logger LOGGER = LogManager.getLogger(BlockChain.class);
+
+    /**
+     * 交易在链上的位置：所在区块的高度以及在区块中的下标
+     */
+    public static class TxLocation {
+        private final int height;
+        private final int index;
+
+        public TxLocation(int height, int index) {
+            this.height = height;
+            this.index = index;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    private final BlockStore store;
+    // 已完整加入区块链的区块数：区块写入存储、UTXO集合和索引更新之后才增加，其他线程以此为准读取区块
+    private volatile int size;
+    private volatile Block newestBlock;
     private final NetWork netWork;
+    private final UtxoSet utxoSet = new UtxoSet();
+    // 交易哈希 -> 交易位置，随区块的添加而更新
+    private final Map<String, TxLocation> txIndex = new ConcurrentHashMap<>();
+    // 区块哈希 -> 区块高度，用于响应spv节点以区块定位器发起的区块头请求
+    private final Map<String, Integer> heightIndex = new ConcurrentHashMap<>();
+    // 后台补建交易索引和高度索引的范围[rebuiltHeight, rebuildEnd)，低于rebuiltHeight的区块已经建立索引
+    private volatile int rebuiltHeight;
+    private volatile int rebuildEnd;
+    private final UtxoSnapshotStore snapshotStore;
+    private final BlockFilterStore filterStore;
+    // 在后台写快照的单线程，保证快照按高度顺序写入
+    private final ExecutorService snapshotExecutor;
+    private final DifficultySchedule difficultySchedule = DifficultySchedule.getDefault();
+    // 按高度从存储中读取区块头，用于计算难度
+    private final DifficultySchedule.HeaderSource headerSource = new DifficultySchedule.HeaderSource() {
+        @Override
+        public long getTimestamp(int height) {
+            return getBlockHeader(height).getTimestamp();
+        }
+
+        @Override
+        public int getBits(int height) {
+            return getBlockHeader(height).getDifficulty();
+        }
+    };
 
     public BlockChain(NetWork netWork) {
-       this.netWork = netWork;
+        this(netWork, openStore(), openSnapshotStore(), openFilterStore());
+    }
+
+    public BlockChain(NetWork netWork, BlockStore store) {
+        this(netWork, store, null, new BlockFilterStore());
+    }
+
+    /**
+     * @param snapshotStore UTXO快照存储，为null时不使用快照
+     * @param filterStore 区块过滤器存储
+     */
+    public BlockChain(NetWork netWork, BlockStore store, UtxoSnapshotStore snapshotStore, BlockFilterStore filterStore) {
+        this.netWork = netWork;
+        this.store = store;
+        this.snapshotStore = snapshotStore;
+        this.filterStore = filterStore;
+        this.snapshotExecutor = snapshotStore == null ? null : Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "utxo-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        alignFilters();
+        if (store.size() > 0) {
+            // 从存储中恢复区块链，有可用的快照时只重放快照之后的区块
+            int from = restoreSnapshot();
+            for (int height = from; height < store.size(); height++) {
+                Block block = store.get(height);
+                utxoSet.applyBlock(block);
+                indexTransactions(block, height);
+            }
+            newestBlock = store.get(store.size() - 1);
+            size = store.size();
+            if (from > 0) {
+                rebuildIndexes(from);
+            }
+            LOGGER.info("Load {} blocks from the block store, replayed {} blocks, the hash of newest Block is : {}",
+                    store.size(), store.size() - from, newestBlock.getHash());
+            return;
+        }
 
         // 创世区块交易为空
         BlockHeader genesisBlockHeader = new BlockHeader(null, null, Math.abs(new Random().nextLong()));
-        BlockBody genesisBlockBody = new BlockBody(null, new Transaction[]{});
+        Transaction[] genesisTransactions = new Transaction[]{};
+        BlockBody genesisBlockBody = new BlockBody(MerkleTree.fromTransactions(genesisTransactions), genesisTransactions);
         Block genesisBlock = new Block(genesisBlockHeader, genesisBlockBody);
 
-        System.out.println("Create the genesis Block! ");
-        System.out.println("And the hash of genesis Block is : " + SecurityUtil.sha256Digest(genesisBlock.toString()) +
-                ", you will see the hash value in next Block's preBlockHash field.");
-        System.out.println();
-        this.chain.add(genesisBlock);
+        LOGGER.info("Create the genesis Block! And the hash of genesis Block is : {}", genesisBlock.getHash());
+        addNewBlock(genesisBlock);
+
+    }
+
+    private static BlockStore openStore() {
+        if (MiniChainConfig.BLOCK_STORE_DIR == null) {
+            return new MemoryBlockStore();
+        }
+        return new FileBlockStore(Paths.get(MiniChainConfig.BLOCK_STORE_DIR), MiniChainConfig.BLOCK_STORE_SEGMENT_SIZE);
+    }
+
+    private static BlockFilterStore openFilterStore() {
+        if (MiniChainConfig.BLOCK_STORE_DIR == null) {
+            return new BlockFilterStore();
+        }
+        return new BlockFilterStore(Paths.get(MiniChainConfig.BLOCK_STORE_DIR));
+    }
+
+    /**
+     * 使过滤器与区块一一对应：丢弃多出的过滤器，补建缺少的过滤器
+     */
+    private void alignFilters() {
+        filterStore.truncate(store.size());
+        for (int height = filterStore.size(); height < store.size(); height++) {
+            filterStore.append(BlockFilter.build(store.get(height)));
+        }
+    }
 
+    private static UtxoSnapshotStore openSnapshotStore() {
+        if (MiniChainConfig.BLOCK_STORE_DIR == null || MiniChainConfig.UTXO_SNAPSHOT_INTERVAL <= 0) {
+            return null;
+        }
+        return new UtxoSnapshotStore(Paths.get(MiniChainConfig.BLOCK_STORE_DIR));
+    }
+
+    /**
+     * 从快照恢复UTXO集合，快照对应的区块必须仍在链上（高度和哈希都相符）
+     *
+     * @return 需要重放的第一个区块的高度，没有可用的快照时为0
+     */
+    private int restoreSnapshot() {
+        if (snapshotStore == null) {
+            return 0;
+        }
+        UtxoSnapshotStore.Snapshot info = snapshotStore.readInfo();
+        if (info == null || info.getHeight() >= store.size()
+                || !store.getHeader(info.getHeight()).getHash().equals(info.getTipHash())) {
+            return 0;
+        }
+        UtxoSnapshotStore.Snapshot snapshot = snapshotStore.load(utxoSet);
+        if (snapshot == null) {
+            return 0;
+        }
+        LOGGER.info("Load {} utxos from the snapshot at height {}", snapshot.getUtxoCount(), snapshot.getHeight());
+        return snapshot.getHeight() + 1;
+    }
+
+    /**
+     * 在后台补建快照之前区块的交易索引和高度索引，只读取区块，不影响UTXO集合，启动时间不随链的高度增长
+     */
+    private void rebuildIndexes(final int end) {
+        rebuildEnd = end;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int height = 0; height < end; height++) {
+                        Block block = store.get(height);
+                        Transaction[] transactions = block.getBlockBody().getTransactions();
+                        for (int i = 0; i < transactions.length; i++) {
+                            txIndex.put(transactions[i].getTxHash(), new TxLocation(height, i));
+                        }
+                        heightIndex.put(block.getHash(), height);
+                        rebuiltHeight = height + 1;
+                    }
+                } catch (RuntimeException e) {
+                    // 尚未建立索引的区块仍由查询时逐个读取
+                    LOGGER.error("Failed to rebuild the indexes at height " + rebuiltHeight, e);
+                }
+            }
+        }, "index-rebuild");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -57,48 +258,109 @@ public class BlockChain {
     }
 
     /**
-     * 遍历整个区块链获得某钱包地址相关的utxo，获得真正的utxo，即未被使用的utxo
+     * 从UTXO集合中获得某钱包地址相关的真正的utxo，即未被使用的utxo
      * @param walletAddress 钱包地址
      * @return
      */
     public UTXO[] getTrueUtxos(String walletAddress) {
-        // 使用哈希表存储结果，保证每个utxo唯一
-        Set<UTXO> trueUtxoSet = new HashSet<>();
-        // 遍历每一个区块
-        for (Block block : chain) {
-            BlockBody blockBody = block.getBlockBody();
-            Transaction[] transactions = blockBody.getTransactions();
-            // 遍历区块中所有的交易
-            for (Transaction transaction : transactions) {
-                UTXO[] inUtxos = transaction.getInUtxos();
-                UTXO[] outUtxos = transaction.getOutUtxos();
-                // 交易中的inUtxos是已使用的Utxo，需要删除
-                for (UTXO utxo : inUtxos) {
-                    if (utxo.getWalletAddress().equals(walletAddress)) {
-                        trueUtxoSet.remove(utxo);
-                    }
-                }
-                // 交易中的outUtxo是新产生的Utxo，可作为后续交易使用
-                for (UTXO utxo : outUtxos) {
-                    if (utxo.getWalletAddress().equals(walletAddress)) {
-                        trueUtxoSet.add(utxo);
-                    }
+        long begin = System.nanoTime();
+        UTXO[] utxos = utxoSet.getUtxos(walletAddress);
+        Metrics.UTXO_LOOKUP_LATENCY.recordSince(begin);
+        return utxos;
+    }
+
+    /**
+     * 向区块链中添加新的满足难度条件的区块
+     *
+     * @param block 新的满足难度条件的区块
+     */
+    public synchronized void addNewBlock(Block block) {
+        long begin = System.nanoTime();
+        int height = size;
+        // 先把区块写入存储，写入失败时UTXO集合和索引保持不变；再更新UTXO集合、索引和过滤器，最后增加size：
+        // 其他线程（如同步区块头的spv节点）一旦通过size()看到该区块，就一定能查到其中的交易和该区块的过滤器
+        store.append(block);
+        utxoSet.applyBlock(block);
+        indexTransactions(block, height);
+        try {
+            filterStore.append(BlockFilter.build(block));
+        } catch (UncheckedIOException e) {
+            // 过滤器仍然保存在内存中，重启时由区块补建
+            LOGGER.warn("Failed to write the block filter at height " + height, e);
+        }
+        size = height + 1;
+        newestBlock = block;
+        if (snapshotStore != null && height > 0 && height % MiniChainConfig.UTXO_SNAPSHOT_INTERVAL == 0) {
+            scheduleSnapshot(height, block.getHash());
+        }
+        Metrics.BLOCK_CONNECT_LATENCY.recordSince(begin);
+    }
+
+    /**
+     * 在锁内复制当前的UTXO集合，在后台线程中写入磁盘，不阻塞出块
+     */
+    private void scheduleSnapshot(final int height, final String tipHash) {
+        final UTXO[] utxos = utxoSet.toArray();
+        snapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshotStore.write(height, tipHash, utxos);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to write the UTXO snapshot at height " + height, e);
                 }
             }
+        });
+    }
+
+    /**
+     * 记录区块的高度以及区块中每笔交易的位置
+     */
+    private void indexTransactions(Block block, int height) {
+        heightIndex.put(block.getHash(), height);
+        Transaction[] transactions = block.getBlockBody().getTransactions();
+        for (int i = 0; i < transactions.length; i++) {
+            txIndex.put(transactions[i].getTxHash(), new TxLocation(height, i));
         }
-        // 转换为数组形式返回
-        UTXO[] trueUtxos = new UTXO[trueUtxoSet.size()];
-        trueUtxoSet.toArray(trueUtxos);
-        return trueUtxos;
     }
 
     /**
-     * 向区块链中添加新的满足难度条件的区块
+     * 只有当区块的preBlockHash指向当前链的最新区块时才将其加入区块链，判断和添加是原子的
      *
      * @param block 新的满足难度条件的区块
+     * @return 是否加入成功，失败说明链的最新区块已经变化
+     * @throws IllegalArgumentException 区块的难度不符合难度调整规则，或者哈希值不满足其难度
      */
-    public void addNewBlock(Block block) {
-        chain.offer(block);
+    public synchronized boolean tryAddNewBlock(Block block) {
+        BlockHeader blockHeader = block.getBlockHeader();
+        if (!getNewestBlock().getHash().equals(blockHeader.getPreBlockHash())) {
+            return false;
+        }
+        int height = size();
+        int expectedBits = getNextBits();
+        if (blockHeader.getDifficulty() != expectedBits) {
+            throw new IllegalArgumentException("block at height " + height + " has difficulty "
+                    + CompactTarget.toHex(blockHeader.getDifficulty()) + ", expected " + CompactTarget.toHex(expectedBits));
+        }
+        if (!MinerUtil.meetsTarget(SecurityUtil.sha256Digest(blockHeader.toBytes()), CompactTarget.toBytes(expectedBits))) {
+            throw new IllegalArgumentException("block at height " + height + " does not meet its difficulty target");
+        }
+        if (difficultySchedule.isRetargetHeight(height) && expectedBits != getNewestBlock().getBlockHeader().getDifficulty()) {
+            LOGGER.info("Difficulty retarget at height {}: {} -> {}, expected hashes per block {}", height,
+                    CompactTarget.toHex(getNewestBlock().getBlockHeader().getDifficulty()), CompactTarget.toHex(expectedBits),
+                    (long) CompactTarget.expectedHashes(expectedBits));
+        }
+        addNewBlock(block);
+        return true;
+    }
+
+    /**
+     * 按难度调整规则计算下一个区块（高度为size()）应有的难度
+     *
+     * @return 目标值的紧凑编码
+     */
+    public synchronized int getNextBits() {
+        return difficultySchedule.getBits(size(), headerSource);
     }
 
     /**
@@ -107,20 +369,140 @@ public class BlockChain {
      * @return 区块链的最后一个区块
      */
     public Block getNewestBlock() {
-        return chain.peekLast();
+        return newestBlock;
+    }
+
+    /**
+     * 获取指定高度的区块
+     *
+     * @param height 区块高度，创世区块高度为0
+     * @return 相应的区块
+     */
+    public Block getBlock(int height) {
+        checkHeight(height);
+        return store.get(height);
+    }
+
+    /**
+     * 只读取指定高度的区块头
+     *
+     * @param height 区块高度
+     * @return 相应的区块头
+     */
+    public BlockHeader getBlockHeader(int height) {
+        checkHeight(height);
+        return store.getHeader(height);
+    }
+
+    /**
+     * @return 区块链中的区块数
+     */
+    public int size() {
+        return size;
+    }
+
+    private void checkHeight(int height) {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("height " + height + " out of " + size);
+        }
+    }
+
+    /**
+     * 根据交易哈希查找交易在链上的位置
+     *
+     * @param txHash 交易哈希
+     * @return 交易位置，若链上不存在该交易则返回null
+     */
+    public TxLocation getTxLocation(String txHash) {
+        // 先读取补建进度再查索引：低于该高度的区块在读取前已经建立索引，其余区块由下面的循环查找
+        int from = rebuiltHeight;
+        TxLocation location = txIndex.get(txHash);
+        if (location != null) {
+            return location;
+        }
+        for (int height = from; height < rebuildEnd; height++) {
+            Transaction[] transactions = store.get(height).getBlockBody().getTransactions();
+            for (int i = 0; i < transactions.length; i++) {
+                if (transactions[i].getTxHash().equals(txHash)) {
+                    return new TxLocation(height, i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取指定高度区块的紧凑区块过滤器
+     *
+     * @param height 区块高度
+     * @return 过滤器编码
+     */
+    public byte[] getBlockFilter(int height) {
+        return filterStore.get(height);
+    }
+
+    /**
+     * 根据区块哈希查找区块的高度
+     *
+     * @param blockHash 区块哈希
+     * @return 区块高度，若链上不存在该区块则返回-1
+     */
+    public int getHeight(String blockHash) {
+        // 与getTxLocation相同，先读取补建进度再查索引
+        int from = rebuiltHeight;
+        Integer height = heightIndex.get(blockHash);
+        if (height != null) {
+            return height;
+        }
+        for (int h = from; h < rebuildEnd; h++) {
+            if (store.getHeader(h).getHash().equals(blockHash)) {
+                return h;
+            }
+        }
+        return -1;
     }
 
     public int getAllAccountAmount() {
         Account[] accounts = netWork.getAccounts();
-        int sumAmount = 0;
+        String[] walletAddresses = new String[accounts.length];
         for (int i = 0; i < accounts.length; i++) {
-            UTXO[] trueUtxo = getTrueUtxos(accounts[i].getWalletAddress());
-            sumAmount += accounts[i].getAmount(trueUtxo);
+            walletAddresses[i] = accounts[i].getWalletAddress();
+        }
+        return utxoSet.getTotalBalance(walletAddresses);
+    }
+
+    /**
+     * 区块链的只读视图，按需从区块存储中读取区块，不会把整条链加载到内存中
+     * @return
+     */
+    public List<Block> getBlocks() {
+        return new AbstractList<Block>() {
+            @Override
+            public Block get(int index) {
+                return getBlock(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return sumAmount;
+        filterStore.close();
+        store.close();
     }
 
-    public LinkedList<Block> getBlocks() {
-        return this.chain;
+    public UtxoSet getUtxoSet() {
+        return this.utxoSet;
     }
 }
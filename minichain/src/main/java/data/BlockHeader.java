@@ -1,6 +1,10 @@
 package data;
 
-import config.MiniChainConfig;
+import codec.BinaryCodec;
+import consensus.DifficultySchedule;
+import utils.SecurityUtil;
+
+import java.nio.ByteBuffer;
 
 /**
  * 对区块头的抽象（参考比特币中的区块头结构），主要有以下字段：
@@ -12,27 +16,60 @@ import config.MiniChainConfig;
  *
  *    timestamp: 时间戳，创建区块头对象时会自动填充，无需提供该参数
  *
- *    difficulty: 挖矿难度，默认为系统配置中的难度值，无需提供该参数
+ *    difficulty: 挖矿难度，即目标值的紧凑编码（见CompactTarget），默认为初始难度，矿工按难度调整规则（见DifficultySchedule）提供
  *
  *    nonce: 随机字段，创建新的区块头对象时需要提供该参数
  *
+ * 区块的哈希值即区块头定长二进制编码（见toBytes方法，编码格式由BinaryCodec统一定义）的SHA256哈希值，
+ * 区块体中的交易通过merkleRootHash间接参与哈希计算
+ *
  */
 public class BlockHeader {
 
-    private final int version = 1;
+    /**
+     * 区块头二进制编码的长度：version(4) + preBlockHash(32) + merkleRootHash(32)
+     * + timestamp(8) + difficulty(4) + nonce(8)
+     */
+    public static final int HEADER_SIZE = 88;
+
+    /**
+     * nonce字段在二进制编码中的偏移量，挖矿时只有这8个字节发生变化
+     */
+    public static final int NONCE_OFFSET = 80;
+
+    private final int version;
     private final String preBlockHash;
     private final String merkleRootHash;
     private final long timestamp;
-    private final int difficulty = MiniChainConfig.DIFFICULTY;
+    private final int difficulty;
     private long nonce;
 
     public BlockHeader(String preBlockHash, String merkleRootHash, long nonce) {
+        this(1, preBlockHash, merkleRootHash, System.currentTimeMillis(), DifficultySchedule.getDefault().getInitialBits(), nonce);
+    }
+
+    /**
+     * 由全部字段构造区块头，用于从持久化的数据中恢复区块头
+     */
+    public BlockHeader(int version, String preBlockHash, String merkleRootHash, long timestamp, int difficulty, long nonce) {
+        this.version = version;
         this.preBlockHash = preBlockHash;
         this.merkleRootHash = merkleRootHash;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
+        this.difficulty = difficulty;
         this.nonce = nonce;
     }
 
+    /**
+     * 从定长的二进制编码中恢复区块头，全0的哈希字段恢复为null（即创世区块）
+     *
+     * @param buffer 从当前位置起读取HEADER_SIZE个字节
+     * @return 区块头
+     */
+    public static BlockHeader fromBytes(ByteBuffer buffer) {
+        return BinaryCodec.getHeader(buffer);
+    }
+
     public int getVersion() {
         return version;
     }
@@ -61,6 +98,27 @@ public class BlockHeader {
         this.nonce = nonce;
     }
 
+    /**
+     * 将区块头编码为定长的二进制数据（大端序），作为工作量证明的哈希输入
+     * 创世区块没有前一区块哈希和Merkle根哈希，对应位置填0
+     *
+     * @return 长度为HEADER_SIZE的字节数组
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        BinaryCodec.putHeader(buffer, this);
+        return buffer.array();
+    }
+
+    /**
+     * 区块头（即区块）的哈希值
+     *
+     * @return 二进制编码的SHA256哈希值的十六进制字符串
+     */
+    public String getHash() {
+        return SecurityUtil.bytes2HexString(SecurityUtil.sha256Digest(toBytes()));
+    }
+
     @Override
     public String toString() {
         return "BlockHeader{" +
@@ -0,0 +1,209 @@
+package data;
+
+import spv.Proof;
+import utils.SecurityUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 区块中交易的Merkle树
+ *
+ * 每个区块只构建一次，构建时保存每一层的全部节点（每个节点为32字节的原始哈希值，同一层的节点连续存放在一个字节数组中），
+ * 之后对任意交易提取验证路径只需自底向上访问每层的一个兄弟节点，时间复杂度为O(log n)
+ *
+ * 父节点的计算方式与SpvPeer中的验证方式保持一致：对左右子节点哈希值的十六进制字符串拼接后再做SHA256，
+ * 这里直接在字节上完成十六进制编码，不构造任何字符串。若某层节点数为奇数，最后一个节点复制一份作为右节点
+ */
+public class MerkleTree {
+
+    private static final int HASH_SIZE = 32;
+    private static final byte[] HEX_CHAR = "0123456789abcdef".getBytes();
+
+    // levels[0]为叶子层，levels[levels.length - 1]只有一个节点即根节点
+    private final byte[][] levels;
+    private final int leafCount;
+
+    /**
+     * @param leaves 叶子节点，即每笔交易的32字节交易ID
+     */
+    public MerkleTree(byte[][] leaves) {
+        this.leafCount = leaves.length;
+        if (leafCount == 0) {
+            this.levels = new byte[0][];
+            return;
+        }
+        List<byte[]> levelList = new ArrayList<>();
+        byte[] level = new byte[leafCount * HASH_SIZE];
+        for (int i = 0; i < leafCount; i++) {
+            System.arraycopy(leaves[i], 0, level, i * HASH_SIZE, HASH_SIZE);
+        }
+        levelList.add(level);
+
+        MessageDigest digest = newDigest();
+        byte[] hexBuffer = new byte[HASH_SIZE * 4];
+        int count = leafCount;
+        // 节点数为1时停止迭代
+        while (count != 1) {
+            int parentCount = (count + 1) / 2;
+            byte[] parents = new byte[parentCount * HASH_SIZE];
+            for (int i = 0; i < parentCount; i++) {
+                int left = 2 * i;
+                int right = left + 1 < count ? left + 1 : left;
+                hashPair(digest, hexBuffer, level, left, level, right, parents, i);
+            }
+            levelList.add(parents);
+            level = parents;
+            count = parentCount;
+        }
+        this.levels = levelList.toArray(new byte[levelList.size()][]);
+    }
+
+    /**
+     * 根据一批次的交易构建Merkle树，叶子节点为交易ID
+     * @param transactions
+     * @return
+     */
+    public static MerkleTree fromTransactions(Transaction[] transactions) {
+        byte[][] leaves = new byte[transactions.length][];
+        for (int i = 0; i < transactions.length; i++) {
+            leaves[i] = transactions[i].getTxId();
+        }
+        return new MerkleTree(leaves);
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return 根哈希值的十六进制字符串，没有交易时返回null
+     */
+    public String getRootHash() {
+        if (leafCount == 0) {
+            return null;
+        }
+        return SecurityUtil.bytes2HexString(levels[levels.length - 1]);
+    }
+
+    /**
+     * @param index 叶子下标
+     * @return 叶子哈希值的十六进制字符串
+     */
+    public String getLeafHash(int index) {
+        return hexOf(levels[0], index);
+    }
+
+    /**
+     * 提取某个叶子节点的验证路径，路径中每个节点记录其作为兄弟节点的偏向
+     *
+     * @param index 叶子下标，即交易在区块中的位置
+     * @return 自底向上的验证路径
+     */
+    public List<Proof.Node> getProofPath(int index) {
+        if (index < 0 || index >= leafCount) {
+            throw new IndexOutOfBoundsException("leaf index " + index + " out of " + leafCount);
+        }
+        List<Proof.Node> path = new ArrayList<>(levels.length - 1);
+        int count = leafCount;
+        for (int depth = 0; depth < levels.length - 1; depth++) {
+            if ((index & 1) == 0) {
+                int sibling = index + 1 < count ? index + 1 : index;
+                path.add(new Proof.Node(hexOf(levels[depth], sibling), Proof.Orientation.RIGHT));
+            } else {
+                path.add(new Proof.Node(hexOf(levels[depth], index - 1), Proof.Orientation.LEFT));
+            }
+            index >>>= 1;
+            count = (count + 1) / 2;
+        }
+        return path;
+    }
+
+    /**
+     * 提取多个叶子节点的合并验证路径，多个叶子共用的内部节点只出现一次，
+     * 节点的排列顺序与MultiProof中的验证顺序一致（自底向上，每层从左到右）
+     *
+     * @param indices 叶子下标，严格递增
+     * @return 去重后的内部节点
+     */
+    public List<String> getMultiProofNodes(int[] indices) {
+        int known = indices.length;
+        for (int k = 0; k < known; k++) {
+            if (indices[k] < 0 || indices[k] >= leafCount || (k > 0 && indices[k] <= indices[k - 1])) {
+                throw new IllegalArgumentException("leaf indices must be ascending and within " + leafCount);
+            }
+        }
+        int[] current = indices.clone();
+        List<String> nodes = new ArrayList<>();
+        int count = leafCount;
+        for (int depth = 0; depth < levels.length - 1; depth++) {
+            int parents = 0;
+            for (int k = 0; k < known; k++) {
+                int index = current[k];
+                if ((index & 1) == 0) {
+                    if (index + 1 < count) {
+                        if (k + 1 < known && current[k + 1] == index + 1) {
+                            // 兄弟节点也在待验证的节点中，不需要提供
+                            k++;
+                        } else {
+                            nodes.add(hexOf(levels[depth], index + 1));
+                        }
+                    }
+                } else {
+                    nodes.add(hexOf(levels[depth], index - 1));
+                }
+                current[parents++] = index >>> 1;
+            }
+            known = parents;
+            count = (count + 1) / 2;
+        }
+        return nodes;
+    }
+
+    /**
+     * 计算两个节点的父节点：SHA256(hex(left) + hex(right))
+     */
+    static void hashPair(MessageDigest digest, byte[] hexBuffer, byte[] leftLevel, int left,
+                         byte[] rightLevel, int right, byte[] out, int outIndex) {
+        toHex(leftLevel, left * HASH_SIZE, hexBuffer, 0);
+        toHex(rightLevel, right * HASH_SIZE, hexBuffer, HASH_SIZE * 2);
+        digest.update(hexBuffer);
+        try {
+            digest.digest(out, outIndex * HASH_SIZE, HASH_SIZE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    private static void toHex(byte[] data, int offset, byte[] out, int outOffset) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int y = data[offset + i] & 0xff;
+            out[outOffset + 2 * i] = HEX_CHAR[y >>> 4];
+            out[outOffset + 2 * i + 1] = HEX_CHAR[y & 0xf];
+        }
+    }
+
+    private static String hexOf(byte[] level, int index) {
+        char[] chars = new char[HASH_SIZE * 2];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int y = level[index * HASH_SIZE + i] & 0xff;
+            chars[2 * i] = (char) HEX_CHAR[y >>> 4];
+            chars[2 * i + 1] = (char) HEX_CHAR[y & 0xf];
+        }
+        return new String(chars);
+    }
+
+    static MessageDigest newDigest() {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return digest;
+    }
+}
@@ -1,130 +1,275 @@
 package data;
 
+import codec.BinaryCodec;
+import config.ConfigManager;
 import config.MiniChainConfig;
+import consensus.BatchVerifier;
+import consensus.MiningEngine;
+import consensus.PipelineStats;
+import logging.Level;
+import logging.LogManager;
+import logging.Logger;
+import metrics.Metrics;
 import network.NetWork;
+import spv.HeadersMessage;
+import spv.MultiProof;
 import spv.Proof;
-import spv.SpvPeer;
-import utils.MinerUtil;
-import utils.SHA256Util;
-import utils.SecurityUtil;
 
-import java.security.PublicKey;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class MinerPeer extends Thread{
 
+    private static final Logger LOGGER = LogManager.getLogger(MinerPeer.class);
+
     private final BlockChain blockChain;
     private final NetWork netWork;
+    // 只在矿工线程中访问，工作线程数随配置重新加载而改变时替换
+    private MiningEngine miningEngine;
+    private final BatchVerifier batchVerifier;
+    private final PipelineStats pipelineStats = new PipelineStats();
+
+    // 每挖出若干个区块输出一次流水线各阶段的耗时
+    private static final int STATS_REPORT_INTERVAL = 10;
 
     public MinerPeer(BlockChain blockChain, NetWork netWork) {
         this.blockChain = blockChain;
         this.netWork = netWork;
+        this.miningEngine = new MiningEngine(ConfigManager.current().getMinerThreads());
+        this.batchVerifier = new BatchVerifier(MiniChainConfig.VERIFIER_THREADS);
     }
 
+    /**
+     * 矿工以三级流水线的方式出块：
+     *    组装线程：从交易池取出一批交易，验签并构建Merkle树，得到下一个区块的区块体模板
+     *    矿工线程（本线程）：取出模板，基于当前链的最新区块构造区块头并挖矿
+     *    发布线程：广播区块并统计余额
+     * 模板队列容量为1，因此在挖第N个区块的同时，第N+1个区块的验签和Merkle树构建已经在进行
+     */
     @Override
     public void run() {
+        final BlockingQueue<BlockBody> templates = new ArrayBlockingQueue<>(1);
+        Thread assembler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                assemble(templates);
+            }
+        }, "block-assembler");
+        assembler.setDaemon(true);
+        assembler.start();
+
+        ExecutorService publisher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "block-publisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long minedBlocks = 0;
         while (true) {
-            // 锁住网络中的交易池
-            synchronized (netWork.getTransactionPool()) {
-                TransactionPool transactionPool = netWork.getTransactionPool();
-
-                while (!transactionPool.isFull()) {
-                    try {
-                        transactionPool.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+            BlockBody blockBody;
+            long begin = System.nanoTime();
+            try {
+                blockBody = templates.take();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Miner interrupted while waiting for a block template", e);
+                break;
+            }
+            long templateReady = System.nanoTime();
+            pipelineStats.record(PipelineStats.Stage.WAIT_TEMPLATE, templateReady - begin);
+
+            // 以blockBody为参数，调用mine方法
+            final Block block = mine(blockBody);
+            if (block == null) {
+                LOGGER.warn("Miner interrupted while mining a block");
+                break;
+            }
+            // 交易已上链，释放交易池中占用的输入
+            netWork.getTransactionPool().release(blockBody.getTransactions());
+            pipelineStats.record(PipelineStats.Stage.MINE, System.nanoTime() - templateReady);
+
+            publisher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long publishBegin = System.nanoTime();
+                    // 将挖出的block广播到网络
+                    boardcast(block);
+
+                    // 输出所有账户的余额总数，需要遍历UTXO集合，日志不输出时不计算
+                    if (LOGGER.isEnabled(Level.INFO)) {
+                        LOGGER.info("the sum of all account amount: {}", blockChain.getAllAccountAmount());
                     }
+                    pipelineStats.record(PipelineStats.Stage.PUBLISH, System.nanoTime() - publishBegin);
                 }
+            });
 
-                // 从交易池中获取一批次的交易
-                Transaction[] transactions = transactionPool.getAll();
+            if (++minedBlocks % STATS_REPORT_INTERVAL == 0) {
+                LOGGER.info(pipelineStats.summary());
+                LOGGER.info(netWork.getHeaderBroadcaster().summary());
+            }
+        }
+        assembler.interrupt();
+        publisher.shutdown();
+    }
+
+    /**
+     * 组装阶段：不断从交易池取出交易，验签并构建区块体模板，放入模板队列
+     * @param templates 模板队列
+     */
+    private void assemble(BlockingQueue<BlockBody> templates) {
+        TransactionPool transactionPool = netWork.getTransactionPool();
+        while (true) {
+            try {
+                long begin = System.nanoTime();
+                // 等待交易池中有一个区块容量的交易，等待期间交易生产者可以继续放入交易
+                transactionPool.awaitFull();
+                // 从交易池中按优先级获取一批次的交易
+                Transaction[] transactions = transactionPool.takeBatch(transactionPool.getCapacity());
+                long taken = System.nanoTime();
+                pipelineStats.record(PipelineStats.Stage.TAKE, taken - begin);
 
                 // 对该交易的签名进行验签，验证失败则退出
                 if (!check(transactions)) {
-                    System.out.println("transaction error!");
+                    LOGGER.error("transaction error!");
                     System.exit(-1);
                 }
+                long verified = System.nanoTime();
+                pipelineStats.record(PipelineStats.Stage.VERIFY, verified - taken);
 
                 // 以交易为参数，调用getBlockBody方法
                 BlockBody blockBody = getBlockBody(transactions);
-                // 以blockBody为参数，调用mine方法
-                Block block = mine(blockBody);
+                pipelineStats.record(PipelineStats.Stage.MERKLE, System.nanoTime() - verified);
 
-                // 将挖出的block广播到网络
-                boardcast(block);
-
-                // 输出所有账户的余额总数
-                System.out.println("the sum of all account amount: " + blockChain.getAllAccountAmount());
-                transactionPool.notify();
+                templates.put(blockBody);
+            } catch (InterruptedException e) {
+                return;
             }
         }
     }
 
     public Proof getProof(String proofTxHash) {
-
-        Block proofBlock = null;
-        int proofHeight = -1;
-
-        // 遍历链上所有区块内的所有交易，计算其哈希值，找出要验证哈希值的交易所在的区块
-        for (Block block : blockChain.getBlocks()) {
-            proofHeight++; // 获得区块高度（我们这里从0开始索引）
-            for (Transaction transaction: block.getBlockBody().getTransactions()) {
-                String txHash = SecurityUtil.sha256Digest(transaction.toString());
-                if (txHash.equals(proofTxHash)) {
-                    proofBlock = block;
-                    break;
-                }
-            }
-            if (proofBlock != null) {
-                break;
-            }
+        long begin = System.nanoTime();
+        try {
+            return findProof(proofTxHash);
+        } finally {
+            Metrics.PROOF_LATENCY.recordSince(begin);
         }
+    }
+
+    private Proof findProof(String proofTxHash) {
+
+        // 通过交易索引直接定位交易所在的区块和位置
+        BlockChain.TxLocation location = blockChain.getTxLocation(proofTxHash);
 
-        // 如果没找到该哈希的交易，则返回null
-        if (proofBlock == null) {
+        // 如果没找到该哈希的交易（或交易所在的区块还没有写入存储），则返回null
+        if (location == null || location.getHeight() >= blockChain.size()) {
             return null;
         }
+        Block proofBlock = blockChain.getBlock(location.getHeight());
 
-        // 重新计算merkle树获得路径哈希值，同时记录相关的节点偏向信息，构建验证路径节点
-        List<Proof.Node> proofPath = new ArrayList<>();
-        List<String> list = new ArrayList<>();
-        String pathHash = proofTxHash; // 路径哈希，即验证节点一路延伸至根节点的哈希值
-        for (Transaction transaction : proofBlock.getBlockBody().getTransactions()) {
-            String txHash = SecurityUtil.sha256Digest(transaction.toString());
-            list.add(txHash);
+        // 直接从区块保存的merkle树中提取验证路径
+        MerkleTree merkleTree = proofBlock.getBlockBody().getMerkleTree();
+        List<Proof.Node> proofPath = merkleTree.getProofPath(location.getIndex());
+
+        // 构造Proof并返回
+        return new Proof(proofTxHash, merkleTree.getRootHash(), location.getHeight(), proofPath);
+    }
+
+    /**
+     * 获取同一区块中多笔交易的合并验证路径，对整批交易只读取一次区块
+     *
+     * @param txHashes 待验证交易的哈希，必须在同一个区块中
+     * @return 合并验证路径；有交易不在链上或交易不在同一个区块中时返回null
+     */
+    public MultiProof getMultiProof(List<String> txHashes) {
+        long begin = System.nanoTime();
+        try {
+            return findMultiProof(txHashes);
+        } finally {
+            Metrics.MULTI_PROOF_LATENCY.recordSince(begin);
         }
-        // list大小为1时停止迭代
-        while (list.size() != 1) {
-            List<String> newList = new ArrayList<>();
-            for (int i = 0; i < list.size(); i++) {
-                String leftHash = list.get(i);
-                // 如果出现奇数个结点，即最后一个节点没有右结点与其构成一对，就将当前节点复制一份作为右节点
-                String rightHash = (i + 1 < list.size() ? list.get(i + 1) : leftHash);
-                String parentHash = SecurityUtil.sha256Digest(leftHash + rightHash);
-                newList.add(parentHash);
-
-                // 如果某一个哈希值与路径哈希相同，则将另一个作为验证路径中的节点加入，同时记录偏向，并更新路径哈希
-                if (pathHash.equals(leftHash)) {
-                    Proof.Node proofNode = new Proof.Node(rightHash, Proof.Orientation.RIGHT);
-                    proofPath.add(proofNode);
-                    pathHash = parentHash;
-                } else if (pathHash.equals(rightHash)) {
-                    Proof.Node proofNode = new Proof.Node(rightHash, Proof.Orientation.LEFT);
-                    proofPath.add(proofNode);
-                    pathHash = parentHash;
-                }
+    }
 
+    private MultiProof findMultiProof(List<String> txHashes) {
+        if (txHashes.isEmpty()) {
+            return null;
+        }
+        // 通过交易索引定位每笔交易，按在区块中的下标排序
+        TreeMap<Integer, String> leaves = new TreeMap<>();
+        int height = -1;
+        for (String txHash : txHashes) {
+            BlockChain.TxLocation location = blockChain.getTxLocation(txHash);
+            if (location == null || location.getHeight() >= blockChain.size()
+                    || (height >= 0 && location.getHeight() != height)) {
+                return null;
             }
-            // 切换list，进行下一轮的计算
-            list = newList;
+            height = location.getHeight();
+            leaves.put(location.getIndex(), txHash);
+        }
+        int[] indices = new int[leaves.size()];
+        String[] hashes = new String[leaves.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> leaf : leaves.entrySet()) {
+            indices[i] = leaf.getKey();
+            hashes[i] = leaf.getValue();
+            i++;
+        }
 
+        MerkleTree merkleTree = blockChain.getBlock(height).getBlockBody().getMerkleTree();
+        return new MultiProof(merkleTree.getRootHash(), height, merkleTree.getLeafCount(), indices, hashes,
+                merkleTree.getMultiProofNodes(indices));
+    }
+
+    /**
+     * 响应spv节点的区块头请求：找到区块定位器中第一个在本链上的区块，从其下一个高度开始返回至多max个区块头；
+     * 定位器中的区块都不在链上时从创世区块开始返回
+     *
+     * @param locator spv节点的区块定位器，高度从高到低
+     * @param max 一批最多返回的区块头数
+     * @return 连续的区块头
+     */
+    public HeadersMessage getHeaders(List<String> locator, int max) {
+        int start = 0;
+        for (String hash : locator) {
+            int height = blockChain.getHeight(hash);
+            if (height >= 0) {
+                start = height + 1;
+                break;
+            }
+        }
+        int end = Math.min(blockChain.size(), start + max);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, end - start) * BlockHeader.HEADER_SIZE);
+        for (int height = start; height < end; height++) {
+            BinaryCodec.putHeader(buffer, blockChain.getBlockHeader(height));
         }
-        String proofMerkleRootHash = list.get(0);
+        return new HeadersMessage(start, buffer.array());
+    }
 
-        // 构造Proof并返回
-        return new Proof(proofTxHash, proofMerkleRootHash, proofHeight, proofPath);
+    /**
+     * 响应spv节点的紧凑区块过滤器请求
+     *
+     * @param startHeight 起始高度
+     * @param count 最多返回的过滤器数
+     * @return 从起始高度开始的连续过滤器，不超过链的高度
+     */
+    public List<byte[]> getFilters(int startHeight, int count) {
+        int end = Math.min(blockChain.size(), startHeight + count);
+        List<byte[]> filters = new ArrayList<>(Math.max(0, end - startHeight));
+        for (int height = startHeight; height < end; height++) {
+            filters.add(blockChain.getBlockFilter(height));
+        }
+        return filters;
     }
 
     /**
@@ -132,11 +277,10 @@ public class MinerPeer extends Thread{
      * @param block
      */
     public void boardcast(Block block) {
-        // 每个spv节点接受区块头
-        SpvPeer[] spvPeers = netWork.getSpvPeers();
-        for (SpvPeer spvPeer : spvPeers) {
-            spvPeer.accept(block.getBlockHeader());
-        }
+        // 区块头放入每个spv节点的收件箱后立即返回，由广播线程异步投递
+        netWork.getHeaderBroadcaster().broadcast(block.getBlockHeader());
+        // 启用了点对点传输时同时转发给其他节点
+        netWork.relayBlock(block);
     }
 
     /**
@@ -145,17 +289,8 @@ public class MinerPeer extends Thread{
      * @return
      */
     private boolean check(Transaction[] transactions) {
-        for (int i = 0; i < transactions.length; i++) {
-            Transaction transaction = transactions[i];
-            // 签名的数据是该交易的inUtxos和outUtxos
-            byte[] data = SecurityUtil.utxos2Bytes(transaction.getInUtxos(), transaction.getOutUtxos());
-            byte[] sign = transaction.getSendSign();
-            PublicKey publicKey = transaction.getSendPublicKey();
-            if (!SecurityUtil.verify(data, sign, publicKey)) {
-                return false;
-            }
-        }
-        return true;
+        // 由批量验证器在多个线程中并行验签
+        return batchVerifier.verifyAll(transactions);
     }
 
     /**
@@ -168,28 +303,11 @@ public class MinerPeer extends Thread{
      * @return 根据参数中的交易构造出的区块体
      */
     public BlockBody getBlockBody(Transaction[] transactions) {
-        assert transactions != null && transactions.length == MiniChainConfig.MAX_TRANSACTION_COUNT;
-        //todo
-        List<String> list = new ArrayList<>();
-        for (Transaction transaction : transactions) {
-            String txHash = SecurityUtil.sha256Digest(transaction.toString());
-            list.add(txHash);
-        }
-        // list大小为1时停止迭代
-        while (list.size() != 1) {
-            List<String> newList = new ArrayList<>();
-            for (int i = 0; i < list.size(); i += 2) {
-                String leftHash = list.get(i);
-                // 如果出现奇数个节点，即最后一个节点没有右节点与其构成一对，就将当前节点复制一份作为右节点
-                String rightHash = (i + 1 < list.size() ? list.get(i + 1) : leftHash);
-                String parentHash = SecurityUtil.sha256Digest(leftHash + rightHash);
-                newList.add(parentHash);
-            }
-            // 切换list，进行下一轮的计算
-            list = newList;
-        }
-
-        BlockBody blockBody = new BlockBody(list.get(0), transactions);
+        // 交易池容量可以在运行期间修改，每批交易数不一定等于启动时的配置
+        assert transactions != null && transactions.length > 0;
+        // 由交易的哈希值构建Merkle树，随区块体一同保存
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        BlockBody blockBody = new BlockBody(merkleTree, transactions);
         return blockBody;
     }
 
@@ -198,27 +316,50 @@ public class MinerPeer extends Thread{
      * 即可将该区块加入区块链中
      *
      * @param blockBody 区块体
+     * @return 加入区块链的区块；挖矿线程被中断时返回null，此时线程的中断状态保持不变，区块没有加入区块链
      */
-    private Block mine(BlockBody blockBody) {
-        Block block = getBlock(blockBody);
+    public Block mine(BlockBody blockBody) {
+        Block block;
         while (true) {
-            String blockHash = SHA256Util.sha256Digest(block.toString());
-            if (blockHash.startsWith(MinerUtil.hashPrefixTarget())) {
-                System.out.println("Mined a new Block! Detail of the new Block : ");
-                System.out.println(block.toString());
-                System.out.println("And the hash of this Block is : " + SHA256Util.sha256Digest(block.toString()) +
-                        ", you will see the hash value in next Block's preBlockHash field.");
-                System.out.println();
-                blockChain.addNewBlock(block);
+            // 区块头基于当前链的最新区块构造，难度由难度调整规则决定，由并行挖矿引擎在多个线程中搜索满足难度条件的nonce。
+            // 先读取最新区块再计算难度，两者之间链发生变化时区块的preBlockHash不再指向最新区块，加入时会失败并重新挖矿
+            String preBlockHash = blockChain.getNewestBlock().getHash();
+            int bits = blockChain.getNextBits();
+            block = miningEngine().mine(preBlockHash, bits, blockBody);
+            if (block == null) {
+                return null;
+            }
+            // 挖矿期间链的最新区块发生了变化，则基于新的最新区块重新构造区块头
+            if (blockChain.tryAddNewBlock(block)) {
                 break;
-            } else {
-                //todo
-                block = getBlock(blockBody);
             }
+            Metrics.STALE_TEMPLATES.increment();
         }
+        Metrics.BLOCKS_MINED.increment();
+        LOGGER.info("Mined a new Block with {} transactions, hash: {}",
+                blockBody.getTransactions().length, block.getHash());
+        // 区块的全部内容只在DEBUG级别输出，由写线程调用toString
+        LOGGER.debug("Detail of the new Block : {}", block);
         return block;
     }
 
+    /**
+     * 每次挖矿前对照当前配置的工作线程数，发生变化时换用新的挖矿引擎，旧引擎此时没有进行中的挖矿，可以直接关闭
+     */
+    private MiningEngine miningEngine() {
+        int minerThreads = ConfigManager.current().getMinerThreads();
+        if (miningEngine.getWorkerCount() != minerThreads) {
+            miningEngine.shutdown();
+            miningEngine = new MiningEngine(minerThreads);
+            LOGGER.info("Mining engine restarted with {} workers", minerThreads);
+        }
+        return miningEngine;
+    }
+
+    public PipelineStats getPipelineStats() {
+        return pipelineStats;
+    }
+
     /**
      * 该方法供mine方法调用，其功能为根据传入的区块体参数，构造一个区块对象返回，
      * 也就是说，你需要构造一个区块头对象，然后用一个区块对象组合区块头和区块体
@@ -232,7 +373,7 @@ public class MinerPeer extends Thread{
     public Block getBlock(BlockBody blockBody) {
         //todo
         Block preBlock = this.blockChain.getNewestBlock();  // 得到前一个块
-        String preHash = SHA256Util.sha256Digest(preBlock.toString());
+        String preHash = preBlock.getHash();
 
         Random random = new Random();
 
@@ -1,5 +1,6 @@
 package data;
 
+import codec.BinaryCodec;
 import utils.SecurityUtil;
 
 import java.security.PublicKey;
@@ -7,6 +8,9 @@ import java.util.Arrays;
 
 /**
  * 对交易的抽象
+ *
+ * 交易ID（txId）在构造时由交易的紧凑二进制编码（见BinaryCodec）计算一次并缓存，之后作为交易的唯一标识，
+ * 同时也是Merkle树的叶子节点。构造交易时会为每个输出UTXO绑定输出点（txId + 输出下标）
  */
 public class Transaction {
 
@@ -17,12 +21,21 @@ public class Transaction {
     private final PublicKey sendPublicKey; // 交易发送方的公钥，方便矿工和其他节点进行验签，确保交易违背篡改
     private final long timestamp;
 
+    private final byte[] txId; // 交易ID，即BinaryCodec编码负载的SHA256哈希值
+    private final String txHash; // 交易ID的十六进制字符串形式
+
     public Transaction(UTXO[] inUtxos, UTXO[] outUtxos, byte[] sendSign, PublicKey sendPublicKey, long timestamp) {
         this.inUtxos = inUtxos;
         this.outUtxos = outUtxos;
         this.sendSign = sendSign;
         this.sendPublicKey = sendPublicKey;
         this.timestamp = timestamp;
+
+        this.txId = SecurityUtil.sha256Digest(BinaryCodec.txIdPreimage(this));
+        this.txHash = SecurityUtil.bytes2HexString(txId);
+        for (int i = 0; i < outUtxos.length; i++) {
+            outUtxos[i].bindOutpoint(txId, i);
+        }
     }
 
     public UTXO[] getInUtxos() {
@@ -45,6 +58,35 @@ public class Transaction {
         return timestamp;
     }
 
+    /**
+     * 交易手续费，即输入总额与输出总额之差
+     * @return
+     */
+    public long getFee() {
+        long fee = 0;
+        for (UTXO utxo : inUtxos) {
+            fee += utxo.getAmount();
+        }
+        for (UTXO utxo : outUtxos) {
+            fee -= utxo.getAmount();
+        }
+        return fee;
+    }
+
+    /**
+     * @return 交易ID（32字节），调用方不应修改返回的数组
+     */
+    public byte[] getTxId() {
+        return txId;
+    }
+
+    /**
+     * @return 交易ID的十六进制字符串，即交易哈希
+     */
+    public String getTxHash() {
+        return txHash;
+    }
+
     @Override
     public String toString() {
         return "\nTransaction{" +
@@ -1,53 +1,269 @@
 package data;
 
-import java.util.*;
+import consensus.BatchVerifier;
+import metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 交易池
+ *
+ * 交易池内部使用无锁的并发数据结构，多个交易生产者线程可以同时放入交易，矿工取出一批交易时也不会阻塞生产者：
+ *    entries: 按优先级排序的待打包交易，手续费高的优先，手续费相同时先到达（时间戳小）的优先。
+ *    区块中没有收取手续费的交易，TransactionProducer产生的交易输入总额等于输出总额（手续费为0），
+ *    因此目前实际按到达顺序打包，手续费只对外部放入的交易起作用
+ *
+ *    size: 池中交易数加上正在放入的交易数。放入前先以CAS预留一个位置，池满时直接拒绝，
+ *    多个生产者同时放入也不会超过容量；交易被拒绝时归还预留的位置
+ *
+ *    spentUtxos: 池中交易以及已取出但尚未上链的交易所使用的输入，用于检测双花。交易放入时逐个原子地占用其输入，
+ *    任意一个输入已被占用则回滚并拒绝该交易；交易上链后通过release释放其输入
+ *
+ * 交易池只在"池满"和"池不满"两种状态之间切换时唤醒等待的线程，等待本身不影响放入和取出交易
+ *
+ * 容量可以在运行期间修改（见setCapacity），缩小容量时池中已有的交易保留，之后每次按新的容量取出
  */
 public class TransactionPool {
 
-    private List<Transaction> transactions;
-    private int capacity;
-    private final Set<UTXO> utxoSet;
+    /**
+     * 交易池中的一条记录，手续费和到达序号在放入时计算一次
+     */
+    private static class Entry {
+        private final Transaction transaction;
+        private final long fee;
+        private final long sequence;
+
+        Entry(Transaction transaction, long sequence) {
+            this.transaction = transaction;
+            this.fee = transaction.getFee();
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> PRIORITY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.fee != b.fee) {
+                return a.fee > b.fee ? -1 : 1;
+            }
+            long ta = a.transaction.getTimestamp();
+            long tb = b.transaction.getTimestamp();
+            if (ta != tb) {
+                return ta < tb ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(PRIORITY);
+    private final Set<UTXO> spentUtxos = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile int capacity;
+    // 链上的UTXO集合，用于拒绝花费已上链输入的交易，可以为null
+    private final UtxoSet chainUtxos;
+    // 仅用于等待池满/池不满的线程挂起和唤醒
+    private final Object signal = new Object();
 
     public TransactionPool(int capacity) {
-        this.transactions = new ArrayList<>();
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity 交易池容量，即每个区块打包的交易数
+     * @param chainUtxos 链上的UTXO集合，交易的输入必须仍在该集合中
+     */
+    public TransactionPool(int capacity, UtxoSet chainUtxos) {
         this.capacity = capacity;
-        utxoSet = new HashSet<>();
+        this.chainUtxos = chainUtxos;
+    }
+
+    /**
+     * 交易进入交易池，池满、签名错误或出现双花的交易会被拒绝
+     * @param transaction
+     * @return 交易是否进入交易池
+     */
+    public boolean put(Transaction transaction) {
+        long begin = System.nanoTime();
+        boolean admitted = admit(transaction);
+        Metrics.ADMISSION_LATENCY.recordSince(begin);
+        if (admitted) {
+            Metrics.TRANSACTIONS_ADMITTED.increment();
+        } else {
+            Metrics.TRANSACTIONS_REJECTED.increment();
+        }
+        return admitted;
     }
 
-    public void put(Transaction transaction) {
-        // 检查交易池本次交易中是否出现双花交易，临时哈希表暂存本次
-        for (UTXO utxo : transaction.getInUtxos()) {
-            // 如果包含已使用的utxo，则拒绝本次交易进入交易池
-            if (utxoSet.contains(utxo)) {
-                return;
+    private boolean admit(Transaction transaction) {
+        if (!reserveSlot()) {
+            return false;
+        }
+        UTXO[] inUtxos = transaction.getInUtxos();
+        // 逐个占用交易的输入，如果某个输入已被池中其他交易使用，则回滚并拒绝本次交易
+        for (int i = 0; i < inUtxos.length; i++) {
+            if (!spentUtxos.add(inUtxos[i])) {
+                releaseInputs(inUtxos, i);
+                releaseSlot();
+                return false;
+            }
+        }
+        // 输入必须是链上尚未使用的utxo
+        if (chainUtxos != null) {
+            for (UTXO utxo : inUtxos) {
+                if (!chainUtxos.contains(utxo)) {
+                    releaseInputs(inUtxos, inUtxos.length);
+                    releaseSlot();
+                    return false;
+                }
+            }
+        }
+        // 验签失败的交易不允许进入交易池
+        if (!BatchVerifier.verify(transaction)) {
+            releaseInputs(inUtxos, inUtxos.length);
+            releaseSlot();
+            return false;
+        }
+        entries.add(new Entry(transaction, sequence.getAndIncrement()));
+        if (isFull()) {
+            signalAll();
+        }
+        return true;
+    }
+
+    /**
+     * @return 是否预留到位置，池满时返回false
+     */
+    private boolean reserveSlot() {
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) {
+                return false;
             }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseSlot() {
+        // 预留的位置可能正好使池满，归还后唤醒等待池不满的生产者
+        size.decrementAndGet();
+        signalAll();
+    }
+
+    private void releaseInputs(UTXO[] inUtxos, int count) {
+        for (int i = 0; i < count; i++) {
+            spentUtxos.remove(inUtxos[i]);
         }
-        // 存入本次所有的输入UTXO
-        utxoSet.addAll(Arrays.asList(transaction.getInUtxos()));
-        transactions.add(transaction);
     }
 
+    /**
+     * 按优先级取出至多maxCount笔交易，取出的交易的输入仍保持占用，直到交易上链后调用release
+     *
+     * @param maxCount 最多取出的交易数
+     * @return 取出的交易
+     */
+    public Transaction[] takeBatch(int maxCount) {
+        List<Transaction> batch = new ArrayList<>(Math.min(maxCount, capacity));
+        Entry entry;
+        while (batch.size() < maxCount && (entry = entries.pollFirst()) != null) {
+            batch.add(entry.transaction);
+        }
+        size.addAndGet(-batch.size());
+        if (!batch.isEmpty()) {
+            signalAll();
+        }
+        return batch.toArray(new Transaction[batch.size()]);
+    }
+
+    /**
+     * 取出一个区块容量的交易
+     * @return
+     */
     public Transaction[] getAll() {
-        Transaction[] ret = new Transaction[capacity];
-        transactions.toArray(ret);
-        transactions.clear();
-        return ret;
+        return takeBatch(capacity);
+    }
+
+    /**
+     * 交易上链后释放其输入。链上的UTXO集合已删除这些输入，之后再花费它们的交易会在放入时被拒绝；
+     * 没有关联链上UTXO集合的交易池无法做此检查，因此永久保留已使用的输入
+     *
+     * @param transactions 已上链的交易
+     */
+    public void release(Transaction[] transactions) {
+        if (chainUtxos == null) {
+            return;
+        }
+        for (Transaction transaction : transactions) {
+            releaseInputs(transaction.getInUtxos(), transaction.getInUtxos().length);
+        }
+    }
+
+    /**
+     * 等待交易池满
+     * @throws InterruptedException
+     */
+    public void awaitFull() throws InterruptedException {
+        synchronized (signal) {
+            while (!isFull()) {
+                signal.wait();
+            }
+        }
+    }
+
+    /**
+     * 等待交易池不满
+     * @throws InterruptedException
+     */
+    public void awaitNotFull() throws InterruptedException {
+        synchronized (signal) {
+            while (isFull()) {
+                signal.wait();
+            }
+        }
+    }
+
+    private void signalAll() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
     }
 
     public boolean isFull() {
-        return transactions.size() >= capacity;
+        return size.get() >= capacity;
     }
 
     public boolean isEmpty() {
-        return transactions.isEmpty();
+        return size.get() == 0;
+    }
+
+    public int size() {
+        return size.get();
     }
 
     public int getCapacity() {
         return capacity;
     }
-}
-
 
+    /**
+     * 修改交易池容量，即之后每个区块打包的交易数
+     *
+     * @param capacity 新的容量
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        // 池满状态可能因此改变
+        signalAll();
+    }
+}
@@ -8,11 +8,21 @@ import java.security.PublicKey;
 import java.util.Arrays;
 import java.util.Stack;
 
+/**
+ * 未使用的交易输出
+ *
+ * 每个UTXO由产生它的交易ID和它在该交易输出中的下标（即输出点，outpoint）唯一标识，
+ * 输出点在所属交易构造时绑定，equals和hashCode均基于输出点；尚未绑定输出点的UTXO只与自身相等
+ */
 public class UTXO {
     private final String walletAddress;
     private final int amount;
     private final byte[] publicKeyHash;
 
+    // 输出点：产生该UTXO的交易ID及其在交易输出中的下标
+    private byte[] txId;
+    private int outputIndex = -1;
+
     /**
      * 构建一个UTXO
      * @param walletAddress 交易获得方的钱包地址
@@ -26,6 +36,23 @@ public class UTXO {
         this.publicKeyHash = SecurityUtil.ripemd160Digest(SecurityUtil.sha256Digest(publicKey.getEncoded()));
     }
 
+    /**
+     * 由已知的公钥哈希和输出点构建一个UTXO，用于从持久化的数据中恢复交易的输入
+     * @param walletAddress 钱包地址
+     * @param amount 比特币数据
+     * @param publicKeyHash 公钥哈希
+     * @param txId 产生该UTXO的交易ID，为null表示尚未绑定输出点
+     * @param outputIndex 在交易输出中的下标
+     */
+    public UTXO(String walletAddress, int amount, byte[] publicKeyHash, byte[] txId, int outputIndex) {
+        this.walletAddress = walletAddress;
+        this.amount = amount;
+        this.publicKeyHash = publicKeyHash;
+        if (txId != null) {
+            bindOutpoint(txId, outputIndex);
+        }
+    }
+
     public boolean unlockScript(byte[] sign, PublicKey publicKey) {
         Stack<byte[]> stack = new Stack<>();
         // <sig>签名入栈
@@ -70,6 +97,58 @@ public class UTXO {
         return publicKeyHash;
     }
 
+    /**
+     * 绑定输出点，由Transaction在构造时调用
+     * @param txId 交易ID
+     * @param outputIndex 在交易输出中的下标
+     */
+    void bindOutpoint(byte[] txId, int outputIndex) {
+        if (this.txId != null && (this.outputIndex != outputIndex || !Arrays.equals(this.txId, txId))) {
+            throw new IllegalStateException("UTXO is already bound to another outpoint");
+        }
+        this.txId = txId;
+        this.outputIndex = outputIndex;
+    }
+
+    /**
+     * @return 产生该UTXO的交易ID，未绑定时返回null
+     */
+    public byte[] getTxId() {
+        return txId;
+    }
+
+    /**
+     * @return 在产生它的交易输出中的下标，未绑定时返回-1
+     */
+    public int getOutputIndex() {
+        return outputIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UTXO)) {
+            return false;
+        }
+        UTXO other = (UTXO) o;
+        if (txId == null || other.txId == null) {
+            return false;
+        }
+        return outputIndex == other.outputIndex && Arrays.equals(txId, other.txId);
+    }
+
+    @Override
+    public int hashCode() {
+        if (txId == null) {
+            return System.identityHashCode(this);
+        }
+        // 交易ID本身是均匀分布的哈希值，取前4个字节即可
+        int h = ((txId[0] & 0xff) << 24) | ((txId[1] & 0xff) << 16) | ((txId[2] & 0xff) << 8) | (txId[3] & 0xff);
+        return h * 31 + outputIndex;
+    }
+
     @Override
     public String toString() {
         return "\n\tUTXO{" +
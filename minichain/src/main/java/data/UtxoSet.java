@@ -0,0 +1,140 @@
+package data;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 未使用交易输出（UTXO）集合
+ *
+ * 区块链每添加一个区块，就对该集合做一次增量更新：删除区块中交易的inUtxos，加入交易的outUtxos。
+ * 集合内部以输出点（即产生该UTXO的交易ID及输出下标）为键，
+ * 同时按钱包地址建立二级索引，因此查询某个钱包地址的可用UTXO和余额只与该地址拥有的输出数量有关，
+ * 与区块链的高度无关
+ */
+public class UtxoSet {
+
+    // 输出点 -> UTXO
+    private final Map<UTXO, UTXO> outpoints = new HashMap<>();
+    // 钱包地址 -> 该地址拥有的UTXO
+    private final Map<String, Set<UTXO>> addressIndex = new HashMap<>();
+
+    /**
+     * 将一个区块中的所有交易应用到UTXO集合上
+     * @param block 新加入区块链的区块
+     */
+    public synchronized void applyBlock(Block block) {
+        for (Transaction transaction : block.getBlockBody().getTransactions()) {
+            applyTransaction(transaction);
+        }
+    }
+
+    private void applyTransaction(Transaction transaction) {
+        // 交易中的inUtxos是已使用的Utxo，需要删除
+        for (UTXO utxo : transaction.getInUtxos()) {
+            UTXO removed = outpoints.remove(utxo);
+            if (removed == null) {
+                continue;
+            }
+            Set<UTXO> owned = addressIndex.get(removed.getWalletAddress());
+            if (owned != null) {
+                owned.remove(removed);
+                if (owned.isEmpty()) {
+                    addressIndex.remove(removed.getWalletAddress());
+                }
+            }
+        }
+        // 交易中的outUtxo是新产生的Utxo，可作为后续交易使用
+        for (UTXO utxo : transaction.getOutUtxos()) {
+            add(utxo);
+        }
+    }
+
+    private void add(UTXO utxo) {
+        outpoints.put(utxo, utxo);
+        Set<UTXO> owned = addressIndex.get(utxo.getWalletAddress());
+        if (owned == null) {
+            owned = new LinkedHashSet<>();
+            addressIndex.put(utxo.getWalletAddress(), owned);
+        }
+        owned.add(utxo);
+    }
+
+    /**
+     * 直接加入一个未使用的utxo，用于从快照中恢复UTXO集合
+     * @param utxo 已绑定输出点的utxo
+     */
+    public synchronized void addUtxo(UTXO utxo) {
+        add(utxo);
+    }
+
+    /**
+     * 复制当前的全部utxo，用于写入快照；复制在锁内完成，写入磁盘可以在锁外进行
+     * @return
+     */
+    public synchronized UTXO[] toArray() {
+        return outpoints.keySet().toArray(new UTXO[outpoints.size()]);
+    }
+
+    public synchronized void clear() {
+        outpoints.clear();
+        addressIndex.clear();
+    }
+
+    /**
+     * 获取某钱包地址所有未使用的utxo
+     * @param walletAddress 钱包地址
+     * @return
+     */
+    public synchronized UTXO[] getUtxos(String walletAddress) {
+        Set<UTXO> owned = addressIndex.get(walletAddress);
+        if (owned == null) {
+            return new UTXO[0];
+        }
+        return owned.toArray(new UTXO[owned.size()]);
+    }
+
+    /**
+     * 计算某钱包地址的余额
+     * @param walletAddress 钱包地址
+     * @return
+     */
+    public synchronized int getBalance(String walletAddress) {
+        Set<UTXO> owned = addressIndex.get(walletAddress);
+        if (owned == null) {
+            return 0;
+        }
+        int amount = 0;
+        for (UTXO utxo : owned) {
+            amount += utxo.getAmount();
+        }
+        return amount;
+    }
+
+    /**
+     * 在同一时刻的UTXO集合上计算多个钱包地址的余额总和，不会与区块的应用交错
+     * @param walletAddresses 钱包地址
+     * @return
+     */
+    public synchronized int getTotalBalance(String[] walletAddresses) {
+        int amount = 0;
+        for (String walletAddress : walletAddresses) {
+            amount += getBalance(walletAddress);
+        }
+        return amount;
+    }
+
+    /**
+     * 判断某个utxo是否仍未被使用
+     * @param utxo
+     * @return
+     */
+    public synchronized boolean contains(UTXO utxo) {
+        return outpoints.containsKey(utxo);
+    }
+
+    public synchronized int size() {
+        return outpoints.size();
+    }
+}
@@ -0,0 +1,240 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志输出：记录放入固定大小的环形缓冲区，由一个后台线程格式化并写出
+ *
+ * 写日志的线程以CAS领取一个序号，填写对应槽位后发布该序号，不持有任何锁，也不等待输出；
+ * 缓冲区满时丢弃新记录并计数，写线程在下一次输出时报告丢弃的条数。
+ * 写线程按序号顺序处理记录，消息的格式化和参数的toString都在写线程中进行，缓冲区取空时才刷新输出流
+ */
+public class AsyncAppender {
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    // 写线程空闲时最长的休眠时间，唤醒信号丢失时也能在此时间内继续处理
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Slot[] slots;
+    private final int mask;
+    // 下一个待领取的序号
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个待写出的序号，只由写线程修改
+    private volatile long head;
+    // 已写出并刷新到输出流的序号上界
+    private volatile long flushed;
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDropped;
+
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean sleeping;
+
+    /**
+     * @param capacity 环形缓冲区的容量，向上取整为2的幂
+     * @param out 输出流
+     */
+    public AsyncAppender(int capacity, OutputStream out) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid log buffer capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i - size);
+        }
+        this.mask = size - 1;
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 放入一条记录，缓冲区满时丢弃
+     *
+     * @param args 格式串的参数，argCount为0时可以为null
+     * @return 是否放入了缓冲区
+     */
+    boolean append(Level level, String logger, String format, Object arg0, Object arg1, Object[] args,
+                   int argCount, Throwable throwable) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.timestamp = System.currentTimeMillis();
+        slot.level = level;
+        slot.logger = logger;
+        slot.thread = Thread.currentThread().getName();
+        slot.format = format;
+        if (args == null) {
+            slot.inlineArgs[0] = arg0;
+            slot.inlineArgs[1] = arg1;
+            slot.args = slot.inlineArgs;
+        } else {
+            slot.args = args;
+        }
+        slot.argCount = argCount;
+        slot.throwable = throwable;
+        // 发布：写线程看到序号后才读取槽位的其他字段
+        slot.sequence = sequence;
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        long next = 0;
+        while (true) {
+            Slot slot = slots[(int) next & mask];
+            if (slot.sequence != next) {
+                // 缓冲区已取空，刷新输出后休眠，直到有新记录发布
+                flushOutput(next);
+                sleeping = true;
+                if (slot.sequence != next) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+                continue;
+            }
+            line.setLength(0);
+            format(slot, line);
+            slot.clear();
+            head = ++next;
+            write(line);
+        }
+    }
+
+    private void format(Slot slot, StringBuilder line) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(slot.timestamp), line);
+        line.append(' ').append(slot.level);
+        for (int i = slot.level.name().length(); i < 5; i++) {
+            line.append(' ');
+        }
+        line.append(" [").append(slot.thread).append("] ").append(slot.logger).append(" - ");
+        try {
+            MessageFormatter.format(line, slot.format, slot.args, slot.argCount);
+        } catch (RuntimeException e) {
+            // 参数的toString失败不能影响写线程
+            line.append(slot.format).append(" [format failed: ").append(e).append(']');
+        }
+        line.append('\n');
+        if (slot.throwable != null) {
+            StringWriter trace = new StringWriter();
+            slot.throwable.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            // 输出流已不可用时没有其他地方可以报告，丢弃该记录
+        }
+    }
+
+    private void flushOutput(long next) {
+        long count = dropped.sum();
+        if (count > reportedDropped) {
+            write(TIME_FORMAT.format(Instant.now()) + " WARN  [log-writer] " + AsyncAppender.class.getSimpleName()
+                    + " - dropped " + (count - reportedDropped) + " log records, the log buffer was full\n");
+            reportedDropped = count;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // 同write
+        }
+        flushed = next;
+    }
+
+    /**
+     * 等待调用前放入的记录全部写出并刷新
+     *
+     * @param timeoutMillis 最长等待时间
+     * @return 是否在超时前全部写出
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (flushed < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * @return 因缓冲区满而丢弃的记录数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * 环形缓冲区中的一个槽位，重复使用，写出后清除引用以免延长参数对象的生命周期
+     */
+    private static class Slot {
+        private volatile long sequence;
+        private long timestamp;
+        private Level level;
+        private String logger;
+        private String thread;
+        private String format;
+        private final Object[] inlineArgs = new Object[2];
+        private Object[] args;
+        private int argCount;
+        private Throwable throwable;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        void clear() {
+            inlineArgs[0] = null;
+            inlineArgs[1] = null;
+            args = null;
+            format = null;
+            throwable = null;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package logging;
+
+/**
+ * 日志级别，从低到高排列；OFF只用作阈值，表示不输出任何日志
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF;
+
+    /**
+     * @param name 级别名，不区分大小写
+     */
+    public static Level parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown log level: " + name);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package logging;
+
+import config.MiniChainConfig;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 日志的全局设置和记录器的获取
+ *
+ * 所有记录器共用一个写到标准输出的AsyncAppender。全局级别和采样率初始取自MiniChainConfig，运行期间可以修改（包括重新加载配置时），
+ * 立即对所有记录器生效。进程退出时（包括System.exit）由关闭钩子写出缓冲区中剩余的记录
+ */
+public class LogManager {
+
+    // 退出时等待剩余记录写出的最长时间
+    private static final long SHUTDOWN_FLUSH_MILLIS = 2000;
+
+    private static final ConcurrentMap<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+    private static final AsyncAppender APPENDER = new AsyncAppender(MiniChainConfig.LOG_BUFFER_SIZE, System.out);
+
+    private static volatile Level level = Level.parse(MiniChainConfig.LOG_LEVEL);
+    private static volatile int sampleRate = MiniChainConfig.LOG_SAMPLE_RATE;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                APPENDER.flush(SHUTDOWN_FLUSH_MILLIS);
+            }
+        }, "log-flush"));
+    }
+
+    private LogManager() {
+    }
+
+    /**
+     * @return 以类的简单名称命名的记录器
+     */
+    public static Logger getLogger(Class<?> type) {
+        return getLogger(type.getSimpleName());
+    }
+
+    public static Logger getLogger(String name) {
+        Logger logger = LOGGERS.get(name);
+        if (logger == null) {
+            Logger created = new Logger(name, APPENDER);
+            logger = LOGGERS.putIfAbsent(name, created);
+            if (logger == null) {
+                logger = created;
+            }
+        }
+        return logger;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        LogManager.level = level;
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate DEBUG和INFO记录每N条保留1条，为1时不采样
+     */
+    public static void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("invalid log sample rate: " + sampleRate);
+        }
+        LogManager.sampleRate = sampleRate;
+    }
+
+    /**
+     * 等待已放入的记录全部写出
+     * @return 是否在超时前全部写出
+     */
+    public static boolean flush(long timeoutMillis) {
+        return APPENDER.flush(timeoutMillis);
+    }
+
+    /**
+     * @return 因缓冲区满而丢弃的记录数
+     */
+    public static long getDropped() {
+        return APPENDER.getDropped();
+    }
+}
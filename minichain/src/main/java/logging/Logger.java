@@ -0,0 +1,132 @@
+package logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 具名的日志记录器，通过LogManager.getLogger获取
+ *
+ * 记录前先按级别过滤，DEBUG和INFO记录再按LogManager的采样率采样（每个记录器每N条保留1条），WARN和ERROR总是保留。
+ * 被过滤的记录不会构造任何字符串：消息以格式串加参数的形式放入缓冲区，参数的toString在后台写线程中才调用，
+ * 代价较大的内容可以包装为Supplier传入。参数对象在写出前不应再被修改
+ *
+ * 两个及以下参数的重载不分配对象；更多参数时可变参数会分配数组，可先用isEnabled判断
+ */
+public class Logger {
+
+    private final String name;
+    private final AsyncAppender appender;
+    // 本记录器单独设置的级别，为null时使用LogManager的全局级别
+    private volatile Level level;
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    public Logger(String name, AsyncAppender appender) {
+        this.name = name;
+        this.appender = appender;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Level getLevel() {
+        Level own = level;
+        return own != null ? own : LogManager.getLevel();
+    }
+
+    /**
+     * @param level 本记录器的级别，为null时恢复使用全局级别
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(getLevel()) >= 0;
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, 0, null);
+    }
+
+    public void debug(String format, Object arg) {
+        log(Level.DEBUG, format, arg, null, null, 1, null);
+    }
+
+    public void debug(String format, Object arg0, Object arg1) {
+        log(Level.DEBUG, format, arg0, arg1, null, 2, null);
+    }
+
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, null, null, args, args.length, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null, 0, null);
+    }
+
+    public void info(String format, Object arg) {
+        log(Level.INFO, format, arg, null, null, 1, null);
+    }
+
+    public void info(String format, Object arg0, Object arg1) {
+        log(Level.INFO, format, arg0, arg1, null, 2, null);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, null, null, args, args.length, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null, 0, null);
+    }
+
+    public void warn(String format, Object arg) {
+        log(Level.WARN, format, arg, null, null, 1, null);
+    }
+
+    public void warn(String format, Object arg0, Object arg1) {
+        log(Level.WARN, format, arg0, arg1, null, 2, null);
+    }
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, null, null, args, args.length, null);
+    }
+
+    public void warn(String message, Throwable throwable) {
+        log(Level.WARN, message, null, null, null, 0, throwable);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null, null, null, 0, null);
+    }
+
+    public void error(String format, Object arg) {
+        log(Level.ERROR, format, arg, null, null, 1, null);
+    }
+
+    public void error(String format, Object arg0, Object arg1) {
+        log(Level.ERROR, format, arg0, arg1, null, 2, null);
+    }
+
+    public void error(String format, Object... args) {
+        log(Level.ERROR, format, null, null, args, args.length, null);
+    }
+
+    public void error(String message, Throwable throwable) {
+        log(Level.ERROR, message, null, null, null, 0, throwable);
+    }
+
+    private void log(Level level, String format, Object arg0, Object arg1, Object[] args, int argCount,
+                     Throwable throwable) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (level.compareTo(Level.WARN) < 0) {
+            int sampleRate = LogManager.getSampleRate();
+            if (sampleRate > 1 && sampleCounter.getAndIncrement() % sampleRate != 0) {
+                return;
+            }
+        }
+        appender.append(level, name, format, arg0, arg1, args, argCount, throwable);
+    }
+}
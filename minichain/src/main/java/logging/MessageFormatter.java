@@ -0,0 +1,41 @@
+package logging;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * 以参数依次替换格式串中的{}，在后台写线程中执行
+ *
+ * 参数为Supplier时取其get()的结果，用于构造代价较大、且只在日志真正输出时才需要计算的内容
+ */
+class MessageFormatter {
+
+    private MessageFormatter() {
+    }
+
+    static void format(StringBuilder out, String format, Object[] args, int argCount) {
+        int start = 0;
+        int arg = 0;
+        while (arg < argCount) {
+            int placeholder = format.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            out.append(format, start, placeholder);
+            appendArg(out, args[arg++]);
+            start = placeholder + 2;
+        }
+        out.append(format, start, format.length());
+    }
+
+    private static void appendArg(StringBuilder out, Object arg) {
+        if (arg instanceof Supplier) {
+            arg = ((Supplier<?>) arg).get();
+        }
+        if (arg instanceof Object[]) {
+            out.append(Arrays.deepToString((Object[]) arg));
+        } else {
+            out.append(arg);
+        }
+    }
+}
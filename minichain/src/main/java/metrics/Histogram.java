@@ -0,0 +1,123 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR风格的对数-线性直方图，记录非负的long值（如纳秒）
+ *
+ * 小于16的值每个值一个桶；更大的值按2的幂分段，每段再线性地分成8个桶，因此任意值所在桶的宽度不超过该值的1/8，
+ * 分位数的相对误差不超过12.5%。桶的数量固定（488个），覆盖全部非负long值，记录时只做位运算和原子累加，不分配对象
+ */
+public class Histogram {
+
+    // 每段的线性桶数为2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 小于该值的值每个值一个桶
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值，负值按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录从begin（System.nanoTime()）到现在经过的纳秒数
+     */
+    public void recordSince(long begin) {
+        record(System.nanoTime() - begin);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        // value >>> shift落在[SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT)
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * @return 桶的下界（包含）
+     */
+    static long bucketLowerBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    /**
+     * @return 桶的上界（包含）
+     */
+    static long bucketUpperBound(int index) {
+        return index + 1 == BUCKET_COUNT ? Long.MAX_VALUE : bucketLowerBound(index + 1) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 计算若干个分位数。各桶在读取期间可能仍在被累加，结果是近似的一致快照
+     *
+     * @param quantiles 递增的分位数，取值[0, 1]
+     * @return 每个分位数所在桶的上界（不超过已记录的最大值），没有记录时为0
+     */
+    public long[] getQuantiles(double[] quantiles) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[quantiles.length];
+        if (total == 0) {
+            return values;
+        }
+        long maxValue = max.get();
+        long cumulative = 0;
+        int bucket = -1;
+        for (int q = 0; q < quantiles.length; q++) {
+            // 第rank个值（从1开始）所在的桶
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            while (cumulative < rank) {
+                cumulative += snapshot[++bucket];
+            }
+            values[q] = Math.min(bucketUpperBound(bucket), maxValue);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,50 @@
+package metrics;
+
+/**
+ * 节点的全部指标，记录点直接使用这里的静态字段
+ *
+ * 耗时类指标以纳秒记录、以秒导出；交易池深度等瞬时值由拥有该数据的组件创建时注册到REGISTRY
+ */
+public class Metrics {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // 挖矿
+    public static final Counter HASHES = REGISTRY.counter("minichain_hashes_total",
+            "Block header hashes attempted by the mining workers");
+    public static final Counter BLOCKS_MINED = REGISTRY.counter("minichain_blocks_mined_total",
+            "Blocks mined and added to the local chain");
+    public static final Counter STALE_TEMPLATES = REGISTRY.counter("minichain_stale_templates_total",
+            "Mined blocks discarded because the chain tip changed during mining");
+
+    // 交易池
+    public static final Counter TRANSACTIONS_ADMITTED = REGISTRY.counter("minichain_mempool_admitted_total",
+            "Transactions accepted into the transaction pool");
+    public static final Counter TRANSACTIONS_REJECTED = REGISTRY.counter("minichain_mempool_rejected_total",
+            "Transactions rejected by the transaction pool");
+    public static final Histogram ADMISSION_LATENCY = REGISTRY.histogram("minichain_mempool_admission_seconds",
+            "Time to check and admit a transaction into the transaction pool", NANOS_PER_SECOND);
+
+    // 验签
+    public static final Histogram SIGNATURE_VERIFY_LATENCY = REGISTRY.histogram("minichain_signature_verify_seconds",
+            "Time of an ECDSA verification that missed the signature cache", NANOS_PER_SECOND);
+
+    // spv服务
+    public static final Histogram PROOF_LATENCY = REGISTRY.histogram("minichain_proof_seconds",
+            "Time to serve a single-transaction Merkle proof", NANOS_PER_SECOND);
+    public static final Histogram MULTI_PROOF_LATENCY = REGISTRY.histogram("minichain_multi_proof_seconds",
+            "Time to serve a batched Merkle multi-proof", NANOS_PER_SECOND);
+    public static final Histogram HEADER_BROADCAST_LAG = REGISTRY.histogram("minichain_header_broadcast_lag_seconds",
+            "Time from queuing a block header until an SPV peer has processed it", NANOS_PER_SECOND);
+
+    // 区块链
+    public static final Histogram UTXO_LOOKUP_LATENCY = REGISTRY.histogram("minichain_utxo_lookup_seconds",
+            "Time to look up the unspent outputs of a wallet address", NANOS_PER_SECOND);
+    public static final Histogram BLOCK_CONNECT_LATENCY = REGISTRY.histogram("minichain_block_connect_seconds",
+            "Time to apply a block to the UTXO set, indexes, filters and store", NANOS_PER_SECOND);
+
+    private Metrics() {
+    }
+}
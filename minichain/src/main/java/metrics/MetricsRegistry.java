@@ -0,0 +1,138 @@
+package metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 指标注册表，按注册顺序以Prometheus文本格式（0.0.4）导出
+ *
+ * 计数器和直方图在注册时创建，由调用方保存引用后直接记录，记录路径上不查询注册表；
+ * 直方图导出为summary类型，包含若干分位数以及_sum和_count，导出时除以注册时给定的单位换算系数（如纳秒换算为秒时为1e9）
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * 注册计数器，按Prometheus的约定名称应以_total结尾
+     */
+    public synchronized Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        register(new Family(name, help, "counter", counter, null, null, 1));
+        return counter;
+    }
+
+    /**
+     * 注册由其他类维护的计数值，导出时读取。与瞬时值一样，同名的会被替换
+     */
+    public synchronized void counter(String name, String help, Sampler sampler) {
+        families.remove(name);
+        register(new Family(name, help, "counter", null, null, sampler, 1));
+    }
+
+    /**
+     * 注册瞬时值，导出时读取。同名的瞬时值会被替换，便于重新创建的组件（如新的交易池）重新注册
+     */
+    public synchronized void gauge(String name, String help, Sampler sampler) {
+        families.remove(name);
+        register(new Family(name, help, "gauge", null, null, sampler, 1));
+    }
+
+    /**
+     * 注册直方图
+     * @param divisor 导出时的单位换算系数，例如记录纳秒、以秒导出时为1e9
+     */
+    public synchronized Histogram histogram(String name, String help, double divisor) {
+        Histogram histogram = new Histogram();
+        register(new Family(name, help, "summary", null, histogram, null, divisor));
+        return histogram;
+    }
+
+    /**
+     * 注销由其他类维护的指标。只在同名的指标仍是该sampler时注销，已被重新创建的组件替换的不受影响
+     */
+    public synchronized void unregister(String name, Sampler sampler) {
+        Family family = families.get(name);
+        if (family != null && family.sampler == sampler) {
+            families.remove(name);
+        }
+    }
+
+    private void register(Family family) {
+        if (families.containsKey(family.name)) {
+            throw new IllegalArgumentException("metric already registered: " + family.name);
+        }
+        families.put(family.name, family);
+    }
+
+    /**
+     * @return Prometheus文本格式的全部指标
+     */
+    public String scrape() {
+        Family[] snapshot;
+        synchronized (this) {
+            snapshot = families.values().toArray(new Family[families.size()]);
+        }
+        StringBuilder out = new StringBuilder();
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            if (family.counter != null) {
+                sample(out, family.name, null, family.counter.get());
+            } else if (family.sampler != null) {
+                sample(out, family.name, null, family.sampler.sample());
+            } else {
+                Histogram histogram = family.histogram;
+                long[] values = histogram.getQuantiles(QUANTILES);
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    sample(out, family.name, "quantile=\"" + QUANTILES[i] + "\"", values[i] / family.divisor);
+                }
+                sample(out, family.name + "_sum", null, histogram.getSum() / family.divisor);
+                sample(out, family.name + "_count", null, histogram.getCount());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Counter counter;
+        private final Histogram histogram;
+        private final Sampler sampler;
+        private final double divisor;
+
+        Family(String name, String help, String type, Counter counter, Histogram histogram, Sampler sampler, double divisor) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.counter = counter;
+            this.histogram = histogram;
+            this.sampler = sampler;
+            this.divisor = divisor;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package metrics;
+
+/**
+ * 导出时才读取的指标值，用于交易池深度、缓存命中数等已由其他类维护的数值
+ */
+public interface Sampler {
+
+    long sample();
+}
@@ -0,0 +1,138 @@
+package network;
+
+import data.Block;
+import data.BlockChain;
+import data.Transaction;
+import data.UTXO;
+import spv.BloomFilter;
+import spv.SpvPeer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全节点一侧的布隆过滤器匹配
+ *
+ * spv节点注册自己的布隆过滤器后，全节点对每个区块只遍历一次其中所有交易的输入和输出UTXO，
+ * 把每个UTXO的钱包地址和公钥哈希依次与所有已注册的过滤器比较，得到每个spv节点匹配的交易（过滤后的区块），
+ * 结果按区块高度缓存，所有spv节点查询同一个区块时共享这一次遍历的结果
+ *
+ * 交易的输入中保存了完整的UTXO（包括钱包地址和公钥哈希），因此花费某地址的交易同样能直接匹配，
+ * 不需要像BIP37那样把匹配到的输出点再加入过滤器
+ */
+public class BloomFilterMatcher {
+
+    // 缓存最近若干个区块的匹配结果；spv节点各自落后的区块数不同，缓存需要覆盖它们同步时的整个范围，
+    // 否则每个spv节点都会重新计算一遍同一个区块
+    private static final int CACHE_BLOCKS = 1024;
+
+    // 已注册的过滤器，注册时整体替换为新的副本，匹配时在锁外读取同一个副本
+    private volatile Map<SpvPeer, BloomFilter> filters = Collections.emptyMap();
+    // 只在读写缓存时加锁，读取区块和匹配在锁外进行，不同高度的查询互不阻塞
+    private final Map<Integer, Map<SpvPeer, List<Transaction>>> matches =
+            new LinkedHashMap<Integer, Map<SpvPeer, List<Transaction>>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Map<SpvPeer, List<Transaction>>> eldest) {
+                    return size() > CACHE_BLOCKS;
+                }
+            };
+
+    /**
+     * 注册（或替换）一个spv节点的过滤器，已缓存的匹配结果随之失效
+     */
+    public synchronized void register(SpvPeer spvPeer, BloomFilter filter) {
+        Map<SpvPeer, BloomFilter> updated = new LinkedHashMap<>(filters);
+        updated.put(spvPeer, filter);
+        filters = updated;
+        matches.clear();
+    }
+
+    /**
+     * 获取区块中与某个spv节点的过滤器匹配的交易，可能包含误判的交易。
+     * 只有该高度的匹配结果不在缓存中时才从区块链读取区块
+     *
+     * 多个线程同时查询同一个未缓存的高度时可能各自计算一次，缓存中只保留先放入的结果
+     *
+     * @param height 区块高度
+     * @param blockChain 区块链
+     * @param spvPeer spv节点
+     * @return 匹配的交易
+     */
+    public List<Transaction> getMatches(int height, BlockChain blockChain, SpvPeer spvPeer) {
+        Map<SpvPeer, List<Transaction>> blockMatches;
+        Map<SpvPeer, BloomFilter> current;
+        synchronized (this) {
+            blockMatches = matches.get(height);
+            current = filters;
+        }
+        if (blockMatches == null) {
+            blockMatches = match(blockChain.getBlock(height), current);
+            synchronized (this) {
+                // 计算期间注册了新的过滤器时不缓存，结果只返回给本次查询
+                if (current == filters) {
+                    Map<SpvPeer, List<Transaction>> existing = matches.get(height);
+                    if (existing == null) {
+                        matches.put(height, blockMatches);
+                    } else {
+                        blockMatches = existing;
+                    }
+                }
+            }
+        }
+        List<Transaction> transactions = blockMatches.get(spvPeer);
+        return transactions == null ? Collections.<Transaction>emptyList() : transactions;
+    }
+
+    /**
+     * 一次遍历区块中的所有交易，计算每个过滤器匹配的交易
+     */
+    private static Map<SpvPeer, List<Transaction>> match(Block block, Map<SpvPeer, BloomFilter> filters) {
+        Map<SpvPeer, List<Transaction>> result = new HashMap<>();
+        for (Transaction transaction : block.getBlockBody().getTransactions()) {
+            // 交易的匹配元素只提取一次，由所有过滤器共享
+            byte[][] elements = elementsOf(transaction);
+            for (Map.Entry<SpvPeer, BloomFilter> entry : filters.entrySet()) {
+                if (matchesAny(entry.getValue(), elements)) {
+                    List<Transaction> transactions = result.get(entry.getKey());
+                    if (transactions == null) {
+                        transactions = new ArrayList<>();
+                        result.put(entry.getKey(), transactions);
+                    }
+                    transactions.add(transaction);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 交易中所有输入和输出UTXO的公钥哈希和钱包地址
+     */
+    private static byte[][] elementsOf(Transaction transaction) {
+        UTXO[] inUtxos = transaction.getInUtxos();
+        UTXO[] outUtxos = transaction.getOutUtxos();
+        byte[][] elements = new byte[(inUtxos.length + outUtxos.length) * 2][];
+        int count = 0;
+        for (UTXO[] utxos : new UTXO[][]{inUtxos, outUtxos}) {
+            for (UTXO utxo : utxos) {
+                elements[count++] = utxo.getPublicKeyHash();
+                elements[count++] = utxo.getWalletAddress().getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+        return elements;
+    }
+
+    private static boolean matchesAny(BloomFilter filter, byte[][] elements) {
+        for (byte[] element : elements) {
+            if (filter.contains(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
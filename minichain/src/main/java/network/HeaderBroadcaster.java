@@ -0,0 +1,195 @@
+package network;
+
+import data.BlockHeader;
+import metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向spv节点异步广播区块头
+ *
+ * 每个spv节点有一个有界的收件箱，广播只是把区块头放入各个收件箱，由线程池中的线程投递，广播方不会被任何spv节点阻塞。
+ * 同一个spv节点的收件箱同一时刻最多只有一个线程在投递，因此每个spv节点仍按顺序收到区块头，慢节点只会拖慢自己
+ *
+ * 背压处理：收件箱满时丢弃最旧的区块头；投递时若收件箱中积压了多个区块头，只投递最新的一个（合并）。
+ * 被丢弃或合并的区块头不会丢失，spv节点发现新区块头没有直接连接在本地链上时，会通过区块定位器补齐中间的区块头
+ */
+public class HeaderBroadcaster {
+
+    /**
+     * 接收广播的一方，即spv节点。同一个接收方的accept不会被并发调用
+     */
+    public interface Receiver {
+        void accept(BlockHeader blockHeader);
+    }
+
+    private final Inbox[] inboxes;
+    private final ExecutorService executor;
+    private final int capacity;
+
+    // 投递统计
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * @param receivers 接收广播的spv节点
+     * @param threads 投递线程数
+     * @param capacity 每个收件箱的容量
+     */
+    public HeaderBroadcaster(Receiver[] receivers, int threads, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid inbox capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.inboxes = new Inbox[receivers.length];
+        for (int i = 0; i < receivers.length; i++) {
+            inboxes[i] = new Inbox(receivers[i]);
+        }
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "header-broadcaster-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 将区块头放入每个spv节点的收件箱，立即返回
+     * @param blockHeader
+     */
+    public void broadcast(BlockHeader blockHeader) {
+        long now = System.nanoTime();
+        for (Inbox inbox : inboxes) {
+            inbox.offer(blockHeader, now);
+        }
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return 当前所有收件箱中积压的区块头总数
+     */
+    public int getBacklog() {
+        int backlog = 0;
+        for (Inbox inbox : inboxes) {
+            backlog += inbox.size();
+        }
+        return backlog;
+    }
+
+    /**
+     * @return 投递延迟（从放入收件箱到spv节点处理完毕）及背压统计
+     */
+    public String summary() {
+        long count = delivered.get();
+        double avg = count == 0 ? 0 : totalLagNanos.get() / 1e6 / count;
+        return String.format("Header broadcast: delivered=%d dropped=%d coalesced=%d backlog=%d lag avg/max ms=%.2f/%.2f",
+                count, dropped.get(), coalesced.get(), getBacklog(), avg, maxLagNanos.get() / 1e6);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void recordLag(long nanos) {
+        delivered.incrementAndGet();
+        totalLagNanos.addAndGet(nanos);
+        Metrics.HEADER_BROADCAST_LAG.record(nanos);
+        long max;
+        while (nanos > (max = maxLagNanos.get())) {
+            if (maxLagNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 一个spv节点的收件箱
+     */
+    private class Inbox implements Runnable {
+        private final Receiver receiver;
+        private final ArrayDeque<BlockHeader> headers = new ArrayDeque<>();
+        private final ArrayDeque<Long> enqueueTimes = new ArrayDeque<>();
+        // 是否已有线程负责投递本收件箱
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Inbox(Receiver receiver) {
+            this.receiver = receiver;
+        }
+
+        void offer(BlockHeader blockHeader, long now) {
+            synchronized (this) {
+                if (headers.size() == capacity) {
+                    headers.poll();
+                    enqueueTimes.poll();
+                    dropped.incrementAndGet();
+                }
+                headers.offer(blockHeader);
+                enqueueTimes.offer(now);
+            }
+            schedule();
+        }
+
+        synchronized int size() {
+            return headers.size();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            BlockHeader latest;
+            long enqueueTime;
+            synchronized (this) {
+                int pending = headers.size();
+                // 积压的区块头只投递最新的一个，其余由spv节点同步时补齐
+                latest = headers.peekLast();
+                enqueueTime = pending == 0 ? 0 : enqueueTimes.peekFirst();
+                headers.clear();
+                enqueueTimes.clear();
+                if (pending > 1) {
+                    coalesced.addAndGet(pending - 1);
+                }
+            }
+            try {
+                if (latest != null) {
+                    receiver.accept(latest);
+                    // 以最早放入的区块头计算延迟，即该节点落后的最长时间
+                    recordLag(System.nanoTime() - enqueueTime);
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 投递期间有新的区块头到达时重新调度
+            if (size() > 0) {
+                schedule();
+            }
+        }
+    }
+}
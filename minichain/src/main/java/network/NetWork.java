@@ -1,19 +1,37 @@
 package network;
 
+import config.ConfigListener;
+import config.ConfigManager;
 import config.MiniChainConfig;
+import config.RuntimeConfig;
 import consensus.MinerNode;
 import consensus.TransactionProducer;
 import data.*;
+import logging.LogManager;
+import logging.Logger;
+import metrics.Metrics;
+import metrics.MetricsServer;
+import metrics.Sampler;
+import spv.BloomFilter;
+import spv.HeadersMessage;
 import spv.SpvPeer;
+import store.AccountStore;
+import transport.PeerConnection;
+import transport.RelayNode;
+import utils.CompactTarget;
 import utils.SecurityUtil;
 
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
 /**
  * 该类模拟一个网络环境，在该网络中主要有区块链和矿工，另外地，出于工程实现的角度，还有一个交易池和一个生成随机交易的线程
@@ -21,51 +39,236 @@ import java.util.Random;
  */
 public class NetWork {
 
+    private static final Logger LOGGER = LogManager.getLogger(NetWork.class);
+
     private final Account[] accounts;
     private final SpvPeer[] spvPeers;
     private TransactionPool transactionPool;
-    private TransactionProducer transactionProducer;
+    private final TransactionProducer[] transactionProducers;
     private final BlockChain blockChain;
     private MinerPeer minerPeer;
+    private final HeaderBroadcaster headerBroadcaster;
+    // spv节点注册的布隆过滤器，在spv节点创建时注册，因此在声明处初始化
+    private final BloomFilterMatcher bloomFilterMatcher = new BloomFilterMatcher();
+    // 与其他minichain进程之间的点对点转发，未启用时为null
+    private final RelayNode relayNode;
+    // 指标的HTTP导出，未启用时为null
+    private final MetricsServer metricsServer;
+    // 注册到Metrics.REGISTRY的指标，关闭时注销
+    private final Map<String, Sampler> samplers = new LinkedHashMap<>();
     /**
      * 系统中几个主要成员的初始化
      */
     public NetWork() {
 
         // 初始化用户和spv节点，并注册到网络中
-        System.out.println("\naccounts and spvPeers config");
-        accounts = new Account[MiniChainConfig.ACCOUNT_NUM];
-        spvPeers = new SpvPeer[MiniChainConfig.ACCOUNT_NUM];
-        for (int i = 0; i < MiniChainConfig.ACCOUNT_NUM; i++) {
-            accounts[i] = new Account();
-            System.out.println("network register new account: " + accounts[i]);
+        LOGGER.info("accounts and spvPeers config");
+        accounts = loadAccounts();
+        spvPeers = new SpvPeer[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            // 账户的toString包含完整的公私钥，只在DEBUG级别输出
+            LOGGER.debug("network register new account: {}", accounts[i]);
             // 每个账户创建一个spv轻节点，并获得与网络的连接
             spvPeers[i] = new SpvPeer(accounts[i], this);
         }
 
-        // 创建交易池，网络中会有交易涌入
-        System.out.println("\ntransactionPool config...");
-        transactionPool = new TransactionPool(MiniChainConfig.MAX_TRANSACTION_COUNT);
-
-        // 交易产生着，负责生产交易，维持与网络的连接
-        System.out.println("\ntransactionProducer config...");
-        transactionProducer = new TransactionProducer(this);
+        // 向spv节点异步广播区块头
+        headerBroadcaster = new HeaderBroadcaster(spvPeers, MiniChainConfig.BROADCAST_THREADS, MiniChainConfig.SPV_INBOX_CAPACITY);
 
         // 初始化一条区块链，后续由矿工节点维护，可当作这条链在网络中存储与矿工节点
-        System.out.println("\nblockChain config...");
+        LOGGER.info("blockChain config...");
         blockChain = new BlockChain(this);
 
+        // 创建交易池，网络中会有交易涌入，交易池根据链上的UTXO集合检查交易的输入
+        LOGGER.info("transactionPool config...");
+        transactionPool = new TransactionPool(ConfigManager.current().getTransactionPoolSize(), blockChain.getUtxoSet());
+
+        // 交易产生着，负责生产交易，维持与网络的连接
+        LOGGER.info("transactionProducer config...");
+        transactionProducers = new TransactionProducer[MiniChainConfig.PRODUCER_THREADS];
+        for (int i = 0; i < transactionProducers.length; i++) {
+            transactionProducers[i] = new TransactionProducer(this);
+        }
+
         // 创建矿工节点，维持与网络的连接
-        System.out.println("\nminerPeer config...");
+        LOGGER.info("minerPeer config...");
         minerPeer = new MinerPeer(blockChain, this);
 
-        System.out.println("\nnetwork start!\n");
+        // 启用点对点传输时监听端口并连接其他节点
+        relayNode = MiniChainConfig.P2P_LISTEN_PORT < 0 ? null : startRelayNode();
+
+        // 注册交易池、区块链等组件的瞬时指标，启用时在本地端口导出
+        registerMetrics();
+        metricsServer = MiniChainConfig.METRICS_PORT < 0 ? null : startMetricsServer();
+
+        // 配置文件被修改时重新加载交易池大小、缓存容量和日志设置
+        registerConfigListener();
+
+        LOGGER.info("network start!");
+
+        // spv节点从矿工节点分批同步链上已有的区块头（新建的链只有创世区块）
+        for (SpvPeer spvPeer : spvPeers) {
+            spvPeer.sync();
+        }
+
+        // 发送神秘大礼：在第一个区块放入一些utxo，让所有账户拥有一笔金额；从存储中恢复的链上已经有这个区块
+        if (blockChain.size() <= 1) {
+            theyHavaADayDream();
+        }
+    }
+
+    /**
+     * 配置了BLOCK_STORE_DIR时从区块文件所在的目录恢复账户，没有保存过账户时新建账户并立即保存，
+     * 这样链上分配给账户的金额在重启后仍然属于同样的账户
+     */
+    private static Account[] loadAccounts() {
+        AccountStore accountStore = MiniChainConfig.BLOCK_STORE_DIR == null
+                ? null : new AccountStore(Paths.get(MiniChainConfig.BLOCK_STORE_DIR));
+        Account[] accounts = accountStore == null ? null : accountStore.load();
+        if (accounts != null) {
+            LOGGER.info("Load {} accounts from the account store", accounts.length);
+            if (accounts.length != MiniChainConfig.ACCOUNT_NUM) {
+                LOGGER.warn("ACCOUNT_NUM {} is ignored, the block store already has {} accounts",
+                        MiniChainConfig.ACCOUNT_NUM, accounts.length);
+            }
+            return accounts;
+        }
+        accounts = new Account[MiniChainConfig.ACCOUNT_NUM];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account();
+        }
+        if (accountStore != null) {
+            accountStore.save(accounts);
+        }
+        return accounts;
+    }
+
+    private RelayNode startRelayNode() {
+        RelayNode node = new RelayNode(new RelayNode.Listener() {
+            @Override
+            public void onBlock(Block block, PeerConnection from) {
+                // 各进程的创世区块不同，本地矿工也不会切换到其他分支，远程区块只转发不上链
+                LOGGER.info("p2p received block {} from {}", block.getHash(), from);
+            }
+
+            @Override
+            public void onTransaction(Transaction transaction, PeerConnection from) {
+                // 交易池检查签名、输入是否在链上以及双花，花费其他链上输入的交易会被拒绝
+                if (!transactionPool.put(transaction)) {
+                    LOGGER.debug("p2p transaction {} from {} is not admitted", transaction.getTxHash(), from);
+                }
+            }
+
+            @Override
+            public void onHeaders(HeadersMessage message, PeerConnection from) {
+                // spv节点只从本地矿工同步区块头，远程区块头不处理
+            }
+        }, MiniChainConfig.P2P_RELAY_CACHE_SIZE);
+        node.start();
+        LOGGER.info("p2p listening on {}", node.listen(new InetSocketAddress(MiniChainConfig.P2P_LISTEN_PORT)));
+        for (String peer : MiniChainConfig.P2P_PEERS) {
+            int split = peer.lastIndexOf(':');
+            node.connect(new InetSocketAddress(peer.substring(0, split), Integer.parseInt(peer.substring(split + 1))));
+        }
+        return node;
+    }
+
+    private void registerMetrics() {
+        gauge("minichain_mempool_depth", "Transactions waiting in the transaction pool", new Sampler() {
+            @Override
+            public long sample() {
+                return transactionPool.size();
+            }
+        });
+        gauge("minichain_chain_height", "Blocks in the local chain including the genesis block", new Sampler() {
+            @Override
+            public long sample() {
+                return blockChain.size();
+            }
+        });
+        gauge("minichain_expected_hashes_per_block", "Average hashes needed to mine the next block at the current difficulty", new Sampler() {
+            @Override
+            public long sample() {
+                return (long) CompactTarget.expectedHashes(blockChain.getNextBits());
+            }
+        });
+        gauge("minichain_header_broadcast_backlog", "Block headers queued for SPV peers", new Sampler() {
+            @Override
+            public long sample() {
+                return headerBroadcaster.getBacklog();
+            }
+        });
+        counter("minichain_signature_cache_hits_total", "Signature verifications answered from the cache", new Sampler() {
+            @Override
+            public long sample() {
+                return SecurityUtil.getSignatureCache().getHits();
+            }
+        });
+        counter("minichain_signature_cache_misses_total", "Signature verifications that missed the cache", new Sampler() {
+            @Override
+            public long sample() {
+                return SecurityUtil.getSignatureCache().getMisses();
+            }
+        });
+        counter("minichain_log_dropped_total", "Log records dropped because the log buffer was full", new Sampler() {
+            @Override
+            public long sample() {
+                return LogManager.getDropped();
+            }
+        });
+    }
+
+    private void gauge(String name, String help, Sampler sampler) {
+        samplers.put(name, sampler);
+        Metrics.REGISTRY.gauge(name, help, sampler);
+    }
+
+    private void counter(String name, String help, Sampler sampler) {
+        samplers.put(name, sampler);
+        Metrics.REGISTRY.counter(name, help, sampler);
+    }
 
-        // 将创世区块广播出去
-        minerPeer.boardcast(blockChain.getNewestBlock());
+    private void registerConfigListener() {
+        ConfigManager.addListener(new ConfigListener() {
+            @Override
+            public void onReload(RuntimeConfig previous, RuntimeConfig current) {
+                transactionPool.setCapacity(current.getTransactionPoolSize());
+                SecurityUtil.getSignatureCache().setCapacity(current.getSignatureCacheSize());
+                LogManager.setLevel(current.getLogLevel());
+                LogManager.setSampleRate(current.getLogSampleRate());
+                // 挖矿工作线程数由矿工在下一个区块开始挖矿时对照当前配置调整
+            }
+        });
+        Path file = ConfigManager.getSource().getFile();
+        if (file != null) {
+            LOGGER.info("configuration loaded from {}, reloadable settings: {}", file, ConfigManager.current());
+            ConfigManager.startWatcher(MiniChainConfig.CONFIG_RELOAD_INTERVAL);
+        }
+    }
 
-        // 发送神秘大礼：在第一个区块放入一些utxo，让所有账户拥有一笔金额
-        theyHavaADayDream();
+    private MetricsServer startMetricsServer() {
+        MetricsServer server = new MetricsServer(new InetSocketAddress(MiniChainConfig.METRICS_PORT), Metrics.REGISTRY);
+        server.start();
+        LOGGER.info("metrics available at http://localhost:{}/metrics", server.getAddress().getPort());
+        return server;
+    }
+
+    /**
+     * 启用了点对点传输时，向其他节点转发本地挖出的区块
+     */
+    public void relayBlock(Block block) {
+        if (relayNode != null) {
+            relayNode.announceBlock(block);
+        }
+    }
+
+    /**
+     * 启用了点对点传输时，向其他节点转发本地产生的交易
+     */
+    public void relayTransaction(Transaction transaction) {
+        if (relayNode != null) {
+            relayNode.announceTransaction(transaction);
+        }
     }
 
     public SpvPeer[] getSpvPeers() {
@@ -91,16 +294,14 @@ public class NetWork {
         Transaction transaction = new Transaction(new UTXO[]{}, outUtxos, sign, dayDreamPublicKey, System.currentTimeMillis());
         // 交易数组只有这一个交易
         Transaction[] transactions = {transaction};
-        // 前一个区块的哈希
-        String preBlockHash = SecurityUtil.sha256Digest(blockChain.getNewestBlock().toString());
         // 因为本区块只有一个交易，所以merkle根哈希即为该交易的哈希
-        String merkleRootHash = SecurityUtil.sha256Digest(transaction.toString());
-        // 构建区块
-        BlockHeader blockHeader = new BlockHeader(preBlockHash, merkleRootHash, Math.abs(new Random().nextLong()));
-        BlockBody blockBody = new BlockBody(merkleRootHash, transactions);
-        Block block = new Block(blockHeader, blockBody);
-        // 添加到链中
-        blockChain.addNewBlock(block);
+        BlockBody blockBody = new BlockBody(MerkleTree.fromTransactions(transactions), transactions);
+        // 与其他区块一样经过挖矿后添加到链中，spv节点同步区块头时会检查工作量证明
+        Block block = minerPeer.mine(blockBody);
+        if (block == null) {
+            LOGGER.warn("Interrupted while mining the day-dream block");
+            return;
+        }
 
         // 通过网络获取矿工结点，然后将初始区块广播出去
         minerPeer.boardcast(block);
@@ -111,10 +312,32 @@ public class NetWork {
      * 启动挖矿线程和生成随机交易的线程
      */
     public void start() {
-        transactionProducer.start();
+        for (TransactionProducer transactionProducer : transactionProducers) {
+            transactionProducer.start();
+        }
         minerPeer.start();
     }
 
+    /**
+     * 停止指标导出和点对点传输，并注销本网络注册的指标。同一进程中重新创建的网络会替换同名指标，
+     * 注销时只移除仍属于本网络的指标
+     */
+    public void close() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (relayNode != null) {
+            relayNode.close();
+        }
+        for (Map.Entry<String, Sampler> entry : samplers.entrySet()) {
+            Metrics.REGISTRY.unregister(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public HeaderBroadcaster getHeaderBroadcaster() {
+        return headerBroadcaster;
+    }
+
     public TransactionPool getTransactionPool() {
         return this.transactionPool;
     }
@@ -131,14 +354,46 @@ public class NetWork {
         return this.minerPeer;
     }
 
+    /**
+     * spv节点注册自己的布隆过滤器
+     * @param spvPeer
+     * @param filter
+     */
+    public void registerFilter(SpvPeer spvPeer, BloomFilter filter) {
+        bloomFilterMatcher.register(spvPeer, filter);
+    }
+
+    /**
+     * 获取指定高度的区块中与spv节点的布隆过滤器匹配的交易（过滤后的区块），可能包含误判的交易
+     * @param height 区块高度
+     * @param spvPeer
+     * @return
+     */
+    public List<Transaction> getFilteredTransactions(int height, SpvPeer spvPeer) {
+        return bloomFilterMatcher.getMatches(height, blockChain, spvPeer);
+    }
+
     /**
      * 在最新区块中查找和某钱包地址有关的交易
      * @param walletAddress
      * @return
      */
     public List<Transaction> getTransactionsInLatestBlock(String walletAddress) {
+        return getTransactionsInBlock(blockChain.getNewestBlock(), walletAddress);
+    }
+
+    /**
+     * 在指定高度的区块中查找和某钱包地址有关的交易
+     * @param height 区块高度
+     * @param walletAddress
+     * @return
+     */
+    public List<Transaction> getTransactionsInBlock(int height, String walletAddress) {
+        return getTransactionsInBlock(blockChain.getBlock(height), walletAddress);
+    }
+
+    private List<Transaction> getTransactionsInBlock(Block block, String walletAddress) {
         List<Transaction> list = new ArrayList<>();
-        Block block = blockChain.getNewestBlock();
         // 遍历所有区块所有交易所有的UTXO，查看钱包地址是否相符合
         for (Transaction transaction : block.getBlockBody().getTransactions()) {
             boolean have = false;
@@ -0,0 +1,84 @@
+package simulation;
+
+import java.util.PriorityQueue;
+
+/**
+ * 离散事件调度器
+ *
+ * 模拟时间以微秒为单位，只在执行事件时推进。事件按(时间, 调度序号)排序，时间相同的事件按调度的先后执行，
+ * 因此在随机种子相同的情况下每次运行的事件顺序完全一致。调度器是单线程的，事件中可以继续调度新的事件
+ */
+public class EventScheduler {
+
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+    private long executed;
+
+    /**
+     * @return 当前的模拟时间（微秒）
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * 在当前模拟时间之后delay微秒执行action
+     * @param delay 延迟（微秒），不能为负数
+     * @param action 事件
+     */
+    public void schedule(long delay, Runnable action) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("negative delay " + delay);
+        }
+        queue.add(new Event(now + delay, sequence++, action));
+    }
+
+    /**
+     * 按时间顺序执行事件，直到没有事件或下一个事件晚于end，之后模拟时间停在end
+     * @param end 结束时间（微秒）
+     */
+    public void runUntil(long end) {
+        while (!queue.isEmpty() && queue.peek().time <= end) {
+            Event event = queue.poll();
+            now = event.time;
+            executed++;
+            event.action.run();
+        }
+        now = end;
+    }
+
+    /**
+     * @return 已执行的事件数
+     */
+    public long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * @return 尚未执行的事件数
+     */
+    public int getPending() {
+        return queue.size();
+    }
+}
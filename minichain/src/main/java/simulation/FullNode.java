@@ -0,0 +1,287 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模拟网络中的全节点，拥有自己的区块链和交易池，与其他全节点通过inv/getdata交换区块和交易：
+ *
+ *    区块：收到并连接新区块后立即向其他邻居发送inv，邻居发送getdata请求后再发送区块。请求超时（例如消息丢失）时
+ *    向另一个通告过该区块的邻居重新请求；收到孤块时向发送方请求其父区块
+ *
+ *    交易：新交易进入交易池后加入每个邻居的待通告批次，按固定间隔批量发送inv；邻居只请求自己还没有见过的交易
+ *
+ * 最新区块变化时（包括分叉切换），被切换掉的区块中的交易放回交易池，新主链上的交易从交易池中移除，
+ * 并向连接到本节点的轻节点推送新的区块头
+ */
+public class FullNode implements SimNode {
+
+    /**
+     * 正在请求的区块及通告过它的邻居
+     */
+    private static class BlockRequest {
+        private final List<SimLink> announcers = new ArrayList<>(2);
+        private int next;
+    }
+
+    private final int id;
+    private final Simulator simulator;
+    private final SimulationConfig config;
+    private final double hashPower;
+    private final SimChain chain;
+
+    private final List<SimLink> peers = new ArrayList<>();
+    private final List<SimLink> lightPeers = new ArrayList<>();
+
+    // 交易池，按到达顺序打包
+    private final Map<Long, SimTransaction> mempool = new LinkedHashMap<>();
+    // 已请求但尚未收到的交易：交易编号 -> 请求时间
+    private final Map<Long, Long> txRequests = new HashMap<>();
+    // 已请求但尚未收到的区块
+    private final Map<Long, BlockRequest> blockRequests = new HashMap<>();
+
+    public FullNode(int id, Simulator simulator, double hashPower, SimBlock genesis) {
+        this.id = id;
+        this.simulator = simulator;
+        this.config = simulator.getConfig();
+        this.hashPower = hashPower;
+        this.chain = new SimChain(id, genesis);
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public double getHashPower() {
+        return hashPower;
+    }
+
+    public SimChain getChain() {
+        return chain;
+    }
+
+    public int getMempoolSize() {
+        return mempool.size();
+    }
+
+    void addPeer(SimLink link) {
+        peers.add(link);
+    }
+
+    void addLightPeer(SimLink link) {
+        lightPeers.add(link);
+    }
+
+    /**
+     * 在本地最新区块之上挖出一个新区块，打包交易池中最早到达的交易
+     */
+    public SimBlock mine() {
+        int count = Math.min(mempool.size(), config.getMaxBlockTransactions());
+        SimTransaction[] transactions = new SimTransaction[count];
+        Iterator<SimTransaction> iterator = mempool.values().iterator();
+        for (int i = 0; i < count; i++) {
+            transactions[i] = iterator.next();
+        }
+        EventScheduler scheduler = simulator.getScheduler();
+        SimBlock block = new SimBlock(simulator.nextBlockId(), chain.getTip(), id, transactions, scheduler.now());
+        for (SimTransaction transaction : transactions) {
+            transaction.addIncludedIn(block);
+        }
+        simulator.getStats().blockMined(block);
+        acceptBlock(block, null);
+        return block;
+    }
+
+    /**
+     * 本节点的用户提交一笔新交易
+     */
+    public void submit(SimTransaction transaction) {
+        acceptTransaction(transaction, null);
+    }
+
+    @Override
+    public void receive(SimMessage message, SimLink link) {
+        switch (message.getType()) {
+            case INV:
+                if (message.getBlock() != null) {
+                    onBlockInv(message.getBlock(), link);
+                } else {
+                    onTxInv(message.getTxIds(), link);
+                }
+                break;
+            case GETDATA:
+                if (message.getBlock() != null) {
+                    link.send(SimMessage.block(message.getBlock()));
+                } else {
+                    onGetTransactions(message.getTxIds(), link);
+                }
+                break;
+            case BLOCK:
+                SimBlock block = message.getBlock();
+                if (block.isReceivedBy(id)) {
+                    simulator.getStats().duplicateBlock();
+                } else {
+                    acceptBlock(block, link);
+                }
+                break;
+            case TX:
+                for (SimTransaction transaction : message.getTransactions()) {
+                    txRequests.remove(transaction.getId());
+                    if (!transaction.isSeenBy(id)) {
+                        acceptTransaction(transaction, link);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onBlockInv(final SimBlock block, SimLink link) {
+        if (block.isReceivedBy(id)) {
+            return;
+        }
+        BlockRequest request = blockRequests.get(block.getId());
+        if (request != null) {
+            request.announcers.add(link);
+            return;
+        }
+        request = new BlockRequest();
+        request.announcers.add(link);
+        blockRequests.put(block.getId(), request);
+        requestBlock(block, request);
+    }
+
+    /**
+     * 向下一个通告过该区块的邻居请求区块，超时后若仍未收到则换一个邻居重新请求
+     */
+    private void requestBlock(final SimBlock block, final BlockRequest request) {
+        SimLink link = request.announcers.get(request.next % request.announcers.size());
+        request.next++;
+        link.send(SimMessage.getBlock(block));
+        simulator.getScheduler().schedule(config.getRequestTimeout(), new Runnable() {
+            @Override
+            public void run() {
+                if (!block.isReceivedBy(id) && blockRequests.get(block.getId()) == request) {
+                    simulator.getStats().requestTimeout();
+                    requestBlock(block, request);
+                }
+            }
+        });
+    }
+
+    private void acceptBlock(SimBlock block, SimLink from) {
+        EventScheduler scheduler = simulator.getScheduler();
+        blockRequests.remove(block.getId());
+        simulator.getStats().blockReceived(block, block.markReceivedBy(id), scheduler.now());
+
+        SimBlock oldTip = chain.getTip();
+        List<SimBlock> connected = chain.connect(block);
+        if (connected.isEmpty()) {
+            // 孤块：向发送方请求缺少的父区块
+            simulator.getStats().orphanReceived();
+            if (from != null) {
+                onBlockInv(block.getParent(), from);
+            }
+            return;
+        }
+        for (SimBlock connectedBlock : connected) {
+            for (SimLink peer : peers) {
+                if (peer != from) {
+                    peer.send(SimMessage.blockInv(connectedBlock));
+                }
+            }
+        }
+        if (chain.getTip() != oldTip) {
+            onTipChanged(oldTip, chain.getTip());
+        }
+    }
+
+    /**
+     * 最新区块变化后更新交易池，并向轻节点推送新的区块头
+     */
+    private void onTipChanged(SimBlock oldTip, SimBlock newTip) {
+        List<SimBlock> attached = new ArrayList<>();
+        SimBlock detached = oldTip;
+        SimBlock current = newTip;
+        while (current.getHeight() > detached.getHeight()) {
+            attached.add(current);
+            current = current.getParent();
+        }
+        while (detached != current) {
+            // 分叉切换：被切换掉的区块中的交易重新进入交易池
+            simulator.getStats().reorgBlock();
+            for (SimTransaction transaction : detached.getTransactions()) {
+                mempool.put(transaction.getId(), transaction);
+            }
+            detached = detached.getParent();
+            attached.add(current);
+            current = current.getParent();
+        }
+        for (int i = attached.size() - 1; i >= 0; i--) {
+            for (SimTransaction transaction : attached.get(i).getTransactions()) {
+                mempool.remove(transaction.getId());
+            }
+        }
+        for (SimLink lightPeer : lightPeers) {
+            lightPeer.send(SimMessage.headers(newTip));
+        }
+    }
+
+    private void onTxInv(long[] txIds, SimLink link) {
+        long now = simulator.getScheduler().now();
+        long[] wanted = new long[txIds.length];
+        int count = 0;
+        for (long txId : txIds) {
+            Long requestedAt = txRequests.get(txId);
+            // 请求超时的交易可以向其他邻居重新请求
+            if (requestedAt == null || now - requestedAt > config.getRequestTimeout()) {
+                if (!simulator.getTransaction(txId).isSeenBy(id)) {
+                    txRequests.put(txId, now);
+                    wanted[count++] = txId;
+                }
+            }
+        }
+        if (count > 0) {
+            link.send(SimMessage.getTransactions(count == wanted.length ? wanted : Arrays.copyOf(wanted, count)));
+        }
+    }
+
+    private void onGetTransactions(long[] txIds, SimLink link) {
+        List<SimTransaction> transactions = new ArrayList<>(txIds.length);
+        for (long txId : txIds) {
+            SimTransaction transaction = simulator.getTransaction(txId);
+            if (transaction.isSeenBy(id)) {
+                transactions.add(transaction);
+            }
+        }
+        if (!transactions.isEmpty()) {
+            link.send(SimMessage.transactions(transactions.toArray(new SimTransaction[transactions.size()])));
+        }
+    }
+
+    private void acceptTransaction(SimTransaction transaction, SimLink from) {
+        transaction.markSeenBy(id);
+        // 交易可能晚于打包它的区块到达
+        List<SimBlock> includedIn = transaction.getIncludedIn();
+        if (includedIn != null) {
+            for (SimBlock block : includedIn) {
+                if (block.isConnectedBy(id) && chain.isOnMainChain(block)) {
+                    return;
+                }
+            }
+        }
+        mempool.put(transaction.getId(), transaction);
+        for (SimLink peer : peers) {
+            if (peer != from) {
+                peer.queueTxInv(transaction.getId(), config.getInvInterval());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package simulation;
+
+/**
+ * 模拟网络中的轻节点，只接收所连接全节点推送的区块头，不保存交易
+ *
+ * 区块头链由区块对象的父引用表示，轻节点只需保存最新区块头；收到的区块头高度更高时切换到该区块头，
+ * 并记录区块从挖出到被本节点看到的延迟
+ */
+public class LightNode implements SimNode {
+
+    private final int id;
+    private final Simulator simulator;
+    private SimBlock tip;
+
+    public LightNode(int id, Simulator simulator, SimBlock genesis) {
+        this.id = id;
+        this.simulator = simulator;
+        this.tip = genesis;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public SimBlock getTip() {
+        return tip;
+    }
+
+    @Override
+    public void receive(SimMessage message, SimLink link) {
+        if (message.getType() != SimMessage.Type.HEADERS) {
+            return;
+        }
+        SimBlock header = message.getBlock();
+        if (header.getHeight() > tip.getHeight()) {
+            tip = header;
+            simulator.getStats().headerReceived(simulator.getScheduler().now() - header.getMinedAt());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package simulation;
+
+import java.util.BitSet;
+
+/**
+ * 模拟网络中的区块，不计算真实的哈希和工作量证明，以全局递增的编号标识，以父区块的引用表示链接关系
+ *
+ * 与交易一样，所有节点共享同一个区块对象：receivedBy记录已收到该区块的全节点（包括暂存为孤块的），
+ * connectedBy记录已将其连接到本地区块树上的全节点，节点的区块链因此只需要保存最新区块和孤块
+ */
+public class SimBlock {
+
+    // 区块头的大小，与BlockHeader编码后的88字节一致
+    public static final int HEADER_SIZE = 88;
+
+    private final long id;
+    private final SimBlock parent;
+    private final int height;
+    private final int miner;
+    private final SimTransaction[] transactions;
+    private final int size;
+    private final long minedAt;
+
+    private final BitSet receivedBy = new BitSet();
+    private final BitSet connectedBy = new BitSet();
+    private int receivedCount;
+
+    public SimBlock(long id, SimBlock parent, int miner, SimTransaction[] transactions, long minedAt) {
+        this.id = id;
+        this.parent = parent;
+        this.height = parent == null ? 0 : parent.height + 1;
+        this.miner = miner;
+        this.transactions = transactions;
+        int size = HEADER_SIZE + 4;
+        for (SimTransaction transaction : transactions) {
+            size += transaction.getSize();
+        }
+        this.size = size;
+        this.minedAt = minedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SimBlock getParent() {
+        return parent;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMiner() {
+        return miner;
+    }
+
+    public SimTransaction[] getTransactions() {
+        return transactions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getMinedAt() {
+        return minedAt;
+    }
+
+    /**
+     * @param height 不大于本区块高度的高度
+     * @return 本区块所在链上该高度的区块
+     */
+    public SimBlock ancestor(int height) {
+        SimBlock block = this;
+        while (block.height > height) {
+            block = block.parent;
+        }
+        return block;
+    }
+
+    boolean isReceivedBy(int nodeId) {
+        return receivedBy.get(nodeId);
+    }
+
+    /**
+     * 记录节点收到了该区块
+     * @return 收到该区块的全节点数
+     */
+    int markReceivedBy(int nodeId) {
+        receivedBy.set(nodeId);
+        return ++receivedCount;
+    }
+
+    boolean isConnectedBy(int nodeId) {
+        return connectedBy.get(nodeId);
+    }
+
+    void markConnectedBy(int nodeId) {
+        connectedBy.set(nodeId);
+    }
+}
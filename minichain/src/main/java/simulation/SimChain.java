@@ -0,0 +1,80 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全节点的本地区块链
+ *
+ * 区块树由共享的区块对象及其connectedBy标记表示，这里只保存最新区块和父区块尚未到达的孤块。
+ * 最长链规则：新连接的区块高度大于当前最新区块时成为新的最新区块，高度相同时保留先收到的区块
+ */
+public class SimChain {
+
+    private final int nodeId;
+    private SimBlock tip;
+
+    // 父区块编号 -> 等待该父区块的孤块
+    private final Map<Long, List<SimBlock>> orphans = new HashMap<>();
+    private int orphanCount;
+
+    public SimChain(int nodeId, SimBlock genesis) {
+        this.nodeId = nodeId;
+        this.tip = genesis;
+        genesis.markConnectedBy(nodeId);
+    }
+
+    /**
+     * 连接一个区块；父区块还没有连接时暂存为孤块，父区块连接后再依次连接等待它的孤块
+     *
+     * @param block 新收到的区块
+     * @return 本次连接到区块树上的所有区块，区块成为孤块时为空
+     */
+    public List<SimBlock> connect(SimBlock block) {
+        List<SimBlock> connected = new ArrayList<>();
+        if (!block.getParent().isConnectedBy(nodeId)) {
+            List<SimBlock> waiting = orphans.get(block.getParent().getId());
+            if (waiting == null) {
+                waiting = new ArrayList<>(1);
+                orphans.put(block.getParent().getId(), waiting);
+            }
+            waiting.add(block);
+            orphanCount++;
+            return connected;
+        }
+        connected.add(block);
+        for (int i = 0; i < connected.size(); i++) {
+            SimBlock current = connected.get(i);
+            current.markConnectedBy(nodeId);
+            if (current.getHeight() > tip.getHeight()) {
+                tip = current;
+            }
+            List<SimBlock> children = orphans.remove(current.getId());
+            if (children != null) {
+                orphanCount -= children.size();
+                connected.addAll(children);
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return 区块是否在本地的主链上
+     */
+    public boolean isOnMainChain(SimBlock block) {
+        return block.getHeight() <= tip.getHeight() && tip.ancestor(block.getHeight()) == block;
+    }
+
+    public SimBlock getTip() {
+        return tip;
+    }
+
+    /**
+     * @return 当前暂存的孤块数
+     */
+    public int getOrphanCount() {
+        return orphanCount;
+    }
+}
@@ -0,0 +1,119 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 两个节点之间单向的模拟链路，一对节点之间的连接由方向相反的两条链路组成（见reverse）
+ *
+ * 消息的到达时间 = 开始发送的时间 + 消息大小 / 带宽 + 传播延迟，其中开始发送的时间不早于上一条消息发送完毕的时间，
+ * 因此大消息（区块）会使后面的消息排队。消息以lossRate的概率丢失，丢失的消息仍然占用带宽
+ *
+ * 链路同时保存发送方尚未通告给对方的交易编号，发送方定期把它们合并为一条inv消息（交易通告的批量发送）
+ */
+public class SimLink {
+
+    private final Simulator simulator;
+    private final SimNode from;
+    private final SimNode to;
+    private final long latency;
+    private final long bandwidth;
+    private final double lossRate;
+    private SimLink reverse;
+
+    // 上一条消息发送完毕的时间
+    private long busyUntil;
+
+    // 等待批量通告的交易编号
+    private final List<Long> pendingTxInv = new ArrayList<>();
+    private boolean flushScheduled;
+
+    /**
+     * @param latency 传播延迟（微秒）
+     * @param bandwidth 带宽（字节/秒）
+     * @param lossRate 丢包率
+     */
+    public SimLink(Simulator simulator, SimNode from, SimNode to, long latency, long bandwidth, double lossRate) {
+        this.simulator = simulator;
+        this.from = from;
+        this.to = to;
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * 创建两个节点之间双向的连接
+     * @return 从a到b的链路，其reverse为从b到a的链路
+     */
+    public static SimLink connect(Simulator simulator, SimNode a, SimNode b, long latency, long bandwidth, double lossRate) {
+        SimLink forward = new SimLink(simulator, a, b, latency, bandwidth, lossRate);
+        SimLink backward = new SimLink(simulator, b, a, latency, bandwidth, lossRate);
+        forward.reverse = backward;
+        backward.reverse = forward;
+        return forward;
+    }
+
+    /**
+     * 发送一条消息
+     * @param message
+     */
+    public void send(final SimMessage message) {
+        EventScheduler scheduler = simulator.getScheduler();
+        long now = scheduler.now();
+        long start = Math.max(now, busyUntil);
+        busyUntil = start + message.getSize() * 1000000L / bandwidth;
+        if (simulator.getRandom().nextDouble() < lossRate) {
+            simulator.getStats().messageLost(message);
+            return;
+        }
+        simulator.getStats().messageSent(message);
+        scheduler.schedule(busyUntil + latency - now, new Runnable() {
+            @Override
+            public void run() {
+                to.receive(message, reverse);
+            }
+        });
+    }
+
+    /**
+     * 把交易加入下一批通告，若这是该批的第一个交易则在interval微秒后发送这一批
+     * @param txId 交易编号
+     * @param interval 批量通告的间隔（微秒）
+     */
+    public void queueTxInv(long txId, long interval) {
+        pendingTxInv.add(txId);
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        simulator.getScheduler().schedule(interval, new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled = false;
+                long[] txIds = new long[pendingTxInv.size()];
+                for (int i = 0; i < txIds.length; i++) {
+                    txIds[i] = pendingTxInv.get(i);
+                }
+                pendingTxInv.clear();
+                send(SimMessage.txInv(txIds));
+            }
+        });
+    }
+
+    public SimNode getFrom() {
+        return from;
+    }
+
+    public SimNode getTo() {
+        return to;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public SimLink getReverse() {
+        return reverse;
+    }
+}
@@ -0,0 +1,99 @@
+package simulation;
+
+/**
+ * 模拟链路上传输的消息，大小按比特币协议中对应消息的编码估算，用于计算链路的传输时间
+ *
+ *    INV: 通告新的区块或一批新交易的编号
+ *
+ *    GETDATA: 请求通告过的区块或交易
+ *
+ *    BLOCK / TX: 区块或一批交易本身
+ *
+ *    HEADERS: 全节点向轻节点推送的新区块头
+ */
+public class SimMessage {
+
+    public enum Type {
+        INV, GETDATA, BLOCK, TX, HEADERS
+    }
+
+    // 每条消息的帧头大小
+    public static final int FRAME_SIZE = 24;
+    // inv/getdata中每一项的大小：类型(4) + 哈希(32)
+    public static final int INVENTORY_SIZE = 36;
+
+    private final Type type;
+    private final SimBlock block;
+    private final long[] txIds;
+    private final SimTransaction[] transactions;
+    private final int size;
+
+    private SimMessage(Type type, SimBlock block, long[] txIds, SimTransaction[] transactions, int size) {
+        this.type = type;
+        this.block = block;
+        this.txIds = txIds;
+        this.transactions = transactions;
+        this.size = FRAME_SIZE + size;
+    }
+
+    public static SimMessage blockInv(SimBlock block) {
+        return new SimMessage(Type.INV, block, null, null, 1 + INVENTORY_SIZE);
+    }
+
+    public static SimMessage txInv(long[] txIds) {
+        return new SimMessage(Type.INV, null, txIds, null, 3 + txIds.length * INVENTORY_SIZE);
+    }
+
+    public static SimMessage getBlock(SimBlock block) {
+        return new SimMessage(Type.GETDATA, block, null, null, 1 + INVENTORY_SIZE);
+    }
+
+    public static SimMessage getTransactions(long[] txIds) {
+        return new SimMessage(Type.GETDATA, null, txIds, null, 3 + txIds.length * INVENTORY_SIZE);
+    }
+
+    public static SimMessage block(SimBlock block) {
+        return new SimMessage(Type.BLOCK, block, null, null, block.getSize());
+    }
+
+    public static SimMessage transactions(SimTransaction[] transactions) {
+        int size = 3;
+        for (SimTransaction transaction : transactions) {
+            size += transaction.getSize();
+        }
+        return new SimMessage(Type.TX, null, null, transactions, size);
+    }
+
+    public static SimMessage headers(SimBlock block) {
+        return new SimMessage(Type.HEADERS, block, null, null, 1 + SimBlock.HEADER_SIZE);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return 区块的inv/getdata、BLOCK以及HEADERS消息中的区块
+     */
+    public SimBlock getBlock() {
+        return block;
+    }
+
+    /**
+     * @return 交易的inv/getdata消息中的交易编号
+     */
+    public long[] getTxIds() {
+        return txIds;
+    }
+
+    /**
+     * @return TX消息中的交易
+     */
+    public SimTransaction[] getTransactions() {
+        return transactions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,19 @@
+package simulation;
+
+/**
+ * 模拟网络中的节点
+ */
+public interface SimNode {
+
+    /**
+     * @return 节点编号，全节点和轻节点分别从0开始编号
+     */
+    int getId();
+
+    /**
+     * 接收一条消息
+     * @param message 消息
+     * @param link 回复发送方所用的链路
+     */
+    void receive(SimMessage message, SimLink link);
+}
@@ -0,0 +1,60 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 模拟网络中的交易，只保留传播和打包所需的信息：编号、大小和创建时间
+ *
+ * 所有节点共享同一个交易对象，节点是否已收到该交易记录在seenBy中（以节点编号为下标），
+ * 避免每个节点各自维护一个已见交易的集合，节点数很多时也只占很少的内存
+ */
+public class SimTransaction {
+
+    private final long id;
+    private final int size;
+    private final long createdAt;
+
+    // 已收到该交易的全节点
+    private final BitSet seenBy = new BitSet();
+    // 打包了该交易的区块，分叉时可能有多个
+    private List<SimBlock> includedIn;
+
+    public SimTransaction(long id, int size, long createdAt) {
+        this.id = id;
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    boolean isSeenBy(int nodeId) {
+        return seenBy.get(nodeId);
+    }
+
+    void markSeenBy(int nodeId) {
+        seenBy.set(nodeId);
+    }
+
+    List<SimBlock> getIncludedIn() {
+        return includedIn;
+    }
+
+    void addIncludedIn(SimBlock block) {
+        if (includedIn == null) {
+            includedIn = new ArrayList<>(1);
+        }
+        includedIn.add(block);
+    }
+}
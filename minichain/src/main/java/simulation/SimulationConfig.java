@@ -0,0 +1,312 @@
+package simulation;
+
+/**
+ * 模拟器的参数，时间参数以毫秒为单位，getter返回微秒
+ *
+ *    seed: 随机种子，种子和参数相同时模拟结果完全相同
+ *
+ *    fullNodes / lightNodes: 全节点数和轻节点数
+ *
+ *    miners: 参与挖矿的全节点数，每个矿工的算力在[0, 1)之间随机
+ *
+ *    outboundPeers: 每个全节点至少连接的其他全节点数（连接是双向的，两端各算一个邻居），不超过fullNodes - 1
+ *
+ *    lightPeers: 每个轻节点连接的全节点数
+ *
+ *    minLatency / maxLatency: 链路传播延迟的范围，每条连接的延迟在其中均匀随机
+ *
+ *    bandwidth: 链路带宽（字节/秒）
+ *
+ *    lossRate: 每条消息的丢失概率
+ *
+ *    blockInterval: 全网的平均出块间隔，出块为泊松过程
+ *
+ *    txPerSecond: 全网每秒产生的交易数，每笔交易从一个随机的全节点进入网络
+ *
+ *    minTxSize / maxTxSize: 交易大小（字节）的范围
+ *
+ *    maxBlockTransactions: 每个区块最多打包的交易数
+ *
+ *    invInterval: 交易批量通告的间隔
+ *
+ *    requestTimeout: getdata请求的超时时间
+ *
+ *    duration: 模拟的时长
+ *
+ * 可以通过命令行参数key=value覆盖，例如：fullNodes=2000 lossRate=0.05
+ */
+public class SimulationConfig {
+
+    private long seed = 1;
+    private int fullNodes = 1000;
+    private int lightNodes = 2000;
+    private int miners = 100;
+    private int outboundPeers = 8;
+    private int lightPeers = 2;
+    private long minLatency = 10;
+    private long maxLatency = 200;
+    private long bandwidth = 1250000;
+    private double lossRate = 0.01;
+    private long blockInterval = 10000;
+    private double txPerSecond = 20;
+    private int minTxSize = 200;
+    private int maxTxSize = 600;
+    private int maxBlockTransactions = 2000;
+    private long invInterval = 1000;
+    private long requestTimeout = 2000;
+    private long duration = 600000;
+
+    /**
+     * 解析key=value形式的参数
+     * @param args 命令行参数
+     * @return 覆盖了默认值的参数
+     */
+    public static SimulationConfig parse(String[] args) {
+        SimulationConfig config = new SimulationConfig();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0) {
+                throw new IllegalArgumentException("expected key=value but got " + arg);
+            }
+            config.set(arg.substring(0, split), arg.substring(split + 1));
+        }
+        return config;
+    }
+
+    public SimulationConfig set(String key, String value) {
+        switch (key) {
+            case "seed": return setSeed(Long.parseLong(value));
+            case "fullNodes": return setFullNodes(Integer.parseInt(value));
+            case "lightNodes": return setLightNodes(Integer.parseInt(value));
+            case "miners": return setMiners(Integer.parseInt(value));
+            case "outboundPeers": return setOutboundPeers(Integer.parseInt(value));
+            case "lightPeers": return setLightPeers(Integer.parseInt(value));
+            case "minLatency": return setMinLatency(Long.parseLong(value));
+            case "maxLatency": return setMaxLatency(Long.parseLong(value));
+            case "bandwidth": return setBandwidth(Long.parseLong(value));
+            case "lossRate": return setLossRate(Double.parseDouble(value));
+            case "blockInterval": return setBlockInterval(Long.parseLong(value));
+            case "txPerSecond": return setTxPerSecond(Double.parseDouble(value));
+            case "minTxSize": return setMinTxSize(Integer.parseInt(value));
+            case "maxTxSize": return setMaxTxSize(Integer.parseInt(value));
+            case "maxBlockTransactions": return setMaxBlockTransactions(Integer.parseInt(value));
+            case "invInterval": return setInvInterval(Long.parseLong(value));
+            case "requestTimeout": return setRequestTimeout(Long.parseLong(value));
+            case "duration": return setDuration(Long.parseLong(value));
+            default: throw new IllegalArgumentException("unknown simulation parameter " + key);
+        }
+    }
+
+    /**
+     * 检查参数之间的约束
+     */
+    public void validate() {
+        if (fullNodes < 2 || lightNodes < 0) {
+            throw new IllegalArgumentException("at least two full nodes are required");
+        }
+        if (miners < 1 || miners > fullNodes) {
+            throw new IllegalArgumentException("miners must be within [1, fullNodes]");
+        }
+        if (outboundPeers < 1 || outboundPeers >= fullNodes) {
+            throw new IllegalArgumentException("outboundPeers must be within [1, fullNodes)");
+        }
+        if (lightNodes > 0 && (lightPeers < 1 || lightPeers > fullNodes)) {
+            throw new IllegalArgumentException("lightPeers must be within [1, fullNodes]");
+        }
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("latency range is invalid");
+        }
+        if (bandwidth <= 0 || lossRate < 0 || lossRate >= 1) {
+            throw new IllegalArgumentException("bandwidth must be positive and lossRate within [0, 1)");
+        }
+        if (blockInterval <= 0 || txPerSecond < 0 || duration <= 0) {
+            throw new IllegalArgumentException("blockInterval and duration must be positive");
+        }
+        if (minTxSize <= 0 || maxTxSize < minTxSize || maxBlockTransactions < 0) {
+            throw new IllegalArgumentException("transaction size range is invalid");
+        }
+        if (invInterval <= 0 || requestTimeout <= 0) {
+            throw new IllegalArgumentException("invInterval and requestTimeout must be positive");
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public SimulationConfig setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public int getFullNodes() {
+        return fullNodes;
+    }
+
+    public SimulationConfig setFullNodes(int fullNodes) {
+        this.fullNodes = fullNodes;
+        return this;
+    }
+
+    public int getLightNodes() {
+        return lightNodes;
+    }
+
+    public SimulationConfig setLightNodes(int lightNodes) {
+        this.lightNodes = lightNodes;
+        return this;
+    }
+
+    public int getMiners() {
+        return miners;
+    }
+
+    public SimulationConfig setMiners(int miners) {
+        this.miners = miners;
+        return this;
+    }
+
+    public int getOutboundPeers() {
+        return outboundPeers;
+    }
+
+    public SimulationConfig setOutboundPeers(int outboundPeers) {
+        this.outboundPeers = outboundPeers;
+        return this;
+    }
+
+    public int getLightPeers() {
+        return lightPeers;
+    }
+
+    public SimulationConfig setLightPeers(int lightPeers) {
+        this.lightPeers = lightPeers;
+        return this;
+    }
+
+    /**
+     * @return 最小传播延迟（微秒）
+     */
+    public long getMinLatency() {
+        return minLatency * 1000;
+    }
+
+    public SimulationConfig setMinLatency(long minLatency) {
+        this.minLatency = minLatency;
+        return this;
+    }
+
+    /**
+     * @return 最大传播延迟（微秒）
+     */
+    public long getMaxLatency() {
+        return maxLatency * 1000;
+    }
+
+    public SimulationConfig setMaxLatency(long maxLatency) {
+        this.maxLatency = maxLatency;
+        return this;
+    }
+
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public SimulationConfig setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+        return this;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public SimulationConfig setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * @return 平均出块间隔（微秒）
+     */
+    public long getBlockInterval() {
+        return blockInterval * 1000;
+    }
+
+    public SimulationConfig setBlockInterval(long blockInterval) {
+        this.blockInterval = blockInterval;
+        return this;
+    }
+
+    public double getTxPerSecond() {
+        return txPerSecond;
+    }
+
+    public SimulationConfig setTxPerSecond(double txPerSecond) {
+        this.txPerSecond = txPerSecond;
+        return this;
+    }
+
+    public int getMinTxSize() {
+        return minTxSize;
+    }
+
+    public SimulationConfig setMinTxSize(int minTxSize) {
+        this.minTxSize = minTxSize;
+        return this;
+    }
+
+    public int getMaxTxSize() {
+        return maxTxSize;
+    }
+
+    public SimulationConfig setMaxTxSize(int maxTxSize) {
+        this.maxTxSize = maxTxSize;
+        return this;
+    }
+
+    public int getMaxBlockTransactions() {
+        return maxBlockTransactions;
+    }
+
+    public SimulationConfig setMaxBlockTransactions(int maxBlockTransactions) {
+        this.maxBlockTransactions = maxBlockTransactions;
+        return this;
+    }
+
+    /**
+     * @return 交易批量通告的间隔（微秒）
+     */
+    public long getInvInterval() {
+        return invInterval * 1000;
+    }
+
+    public SimulationConfig setInvInterval(long invInterval) {
+        this.invInterval = invInterval;
+        return this;
+    }
+
+    /**
+     * @return getdata请求的超时时间（微秒）
+     */
+    public long getRequestTimeout() {
+        return requestTimeout * 1000;
+    }
+
+    public SimulationConfig setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * @return 模拟的时长（微秒）
+     */
+    public long getDuration() {
+        return duration * 1000;
+    }
+
+    public SimulationConfig setDuration(long duration) {
+        this.duration = duration;
+        return this;
+    }
+}
@@ -0,0 +1,206 @@
+package simulation;
+
+/**
+ * 模拟过程中的统计
+ *
+ *    传播：区块从挖出到被50%和90%的全节点收到的时间
+ *
+ *    分叉：没有进入最终主链的区块（陈旧区块）占挖出区块的比例，以及节点因分叉切换而回滚的区块数
+ *
+ *    孤块：父区块尚未到达时就收到的区块数
+ *
+ *    吞吐：最终主链上的交易数除以模拟时长，以及交易从产生到被主链打包的平均延迟
+ *
+ *    消息：各类型消息的数量和字节数，丢失的消息数
+ */
+public class SimulationStats {
+
+    private final int halfNodes;
+    private final int mostNodes;
+
+    private final long[] messages = new long[SimMessage.Type.values().length];
+    private final long[] bytes = new long[SimMessage.Type.values().length];
+    private long lostMessages;
+    private long duplicateBlocks;
+    private long requestTimeouts;
+
+    private long blocksMined;
+    private long orphansReceived;
+    private long reorgBlocks;
+
+    // 到达50%和90%全节点的区块数、总时间和最大时间（微秒）
+    private long halfCount;
+    private long halfTotal;
+    private long halfMax;
+    private long mostCount;
+    private long mostTotal;
+    private long mostMax;
+
+    // 轻节点看到新区块头的次数、总延迟和最大延迟（微秒）
+    private long headerCount;
+    private long headerTotal;
+    private long headerMax;
+
+    // 模拟结束时计算的结果
+    private long duration;
+    private long events;
+    private long wallMillis;
+    private int mainChainHeight;
+    private long staleBlocks;
+    private long transactionsCreated;
+    private long transactionsConfirmed;
+    private long confirmationTotal;
+
+    /**
+     * @param fullNodes 全节点数
+     */
+    public SimulationStats(int fullNodes) {
+        this.halfNodes = (fullNodes + 1) / 2;
+        this.mostNodes = (int) Math.ceil(fullNodes * 0.9);
+    }
+
+    void messageSent(SimMessage message) {
+        messages[message.getType().ordinal()]++;
+        bytes[message.getType().ordinal()] += message.getSize();
+    }
+
+    void messageLost(SimMessage message) {
+        messageSent(message);
+        lostMessages++;
+    }
+
+    void duplicateBlock() {
+        duplicateBlocks++;
+    }
+
+    void requestTimeout() {
+        requestTimeouts++;
+    }
+
+    void blockMined(SimBlock block) {
+        blocksMined++;
+    }
+
+    /**
+     * @param receivedCount 包括本次在内收到该区块的全节点数
+     * @param now 当前模拟时间
+     */
+    void blockReceived(SimBlock block, int receivedCount, long now) {
+        long elapsed = now - block.getMinedAt();
+        if (receivedCount == halfNodes) {
+            halfCount++;
+            halfTotal += elapsed;
+            halfMax = Math.max(halfMax, elapsed);
+        }
+        if (receivedCount == mostNodes) {
+            mostCount++;
+            mostTotal += elapsed;
+            mostMax = Math.max(mostMax, elapsed);
+        }
+    }
+
+    void orphanReceived() {
+        orphansReceived++;
+    }
+
+    void reorgBlock() {
+        reorgBlocks++;
+    }
+
+    void headerReceived(long delay) {
+        headerCount++;
+        headerTotal += delay;
+        headerMax = Math.max(headerMax, delay);
+    }
+
+    void finish(long duration, long events, long wallMillis, int mainChainHeight, long transactionsCreated,
+                long transactionsConfirmed, long confirmationTotal) {
+        this.duration = duration;
+        this.events = events;
+        this.wallMillis = wallMillis;
+        this.mainChainHeight = mainChainHeight;
+        this.staleBlocks = blocksMined - mainChainHeight;
+        this.transactionsCreated = transactionsCreated;
+        this.transactionsConfirmed = transactionsConfirmed;
+        this.confirmationTotal = confirmationTotal;
+    }
+
+    public long getBlocksMined() {
+        return blocksMined;
+    }
+
+    public int getMainChainHeight() {
+        return mainChainHeight;
+    }
+
+    public long getStaleBlocks() {
+        return staleBlocks;
+    }
+
+    /**
+     * @return 陈旧区块占挖出区块的比例
+     */
+    public double getStaleRate() {
+        return blocksMined == 0 ? 0 : (double) staleBlocks / blocksMined;
+    }
+
+    public long getOrphansReceived() {
+        return orphansReceived;
+    }
+
+    /**
+     * @return 区块到达50%全节点的平均时间（毫秒）
+     */
+    public double getAverageHalfPropagationMillis() {
+        return halfCount == 0 ? 0 : halfTotal / 1000.0 / halfCount;
+    }
+
+    /**
+     * @return 区块到达90%全节点的平均时间（毫秒）
+     */
+    public double getAverageMostPropagationMillis() {
+        return mostCount == 0 ? 0 : mostTotal / 1000.0 / mostCount;
+    }
+
+    /**
+     * @return 每秒被主链打包的交易数
+     */
+    public double getThroughput() {
+        return duration == 0 ? 0 : transactionsConfirmed * 1e6 / duration;
+    }
+
+    public long getLostMessages() {
+        return lostMessages;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("simulated %.1fs in %.1fs wall time, %d events (%.0f events/s)%n",
+                duration / 1e6, wallMillis / 1000.0, events, wallMillis == 0 ? 0 : events * 1000.0 / wallMillis));
+        builder.append(String.format("blocks: mined=%d mainChain=%d stale=%d staleRate=%.2f%% orphansReceived=%d reorgBlocks=%d%n",
+                blocksMined, mainChainHeight, staleBlocks, getStaleRate() * 100, orphansReceived, reorgBlocks));
+        builder.append(String.format("propagation: 50%% avg=%.1fms max=%.1fms (%d blocks), 90%% avg=%.1fms max=%.1fms (%d blocks)%n",
+                getAverageHalfPropagationMillis(), halfMax / 1000.0, halfCount,
+                getAverageMostPropagationMillis(), mostMax / 1000.0, mostCount));
+        builder.append(String.format("light nodes: headers=%d avg=%.1fms max=%.1fms%n",
+                headerCount, headerCount == 0 ? 0 : headerTotal / 1000.0 / headerCount, headerMax / 1000.0));
+        builder.append(String.format("transactions: created=%d confirmed=%d throughput=%.2ftx/s avgConfirmation=%.1fs%n",
+                transactionsCreated, transactionsConfirmed, getThroughput(),
+                transactionsConfirmed == 0 ? 0 : confirmationTotal / 1e6 / transactionsConfirmed));
+        builder.append("messages:");
+        long totalMessages = 0;
+        long totalBytes = 0;
+        for (SimMessage.Type type : SimMessage.Type.values()) {
+            builder.append(String.format(" %s=%d(%.1fMB)", type, messages[type.ordinal()], bytes[type.ordinal()] / 1e6));
+            totalMessages += messages[type.ordinal()];
+            totalBytes += bytes[type.ordinal()];
+        }
+        builder.append(String.format(" total=%d(%.1fMB) lost=%d duplicateBlocks=%d requestTimeouts=%d",
+                totalMessages, totalBytes / 1e6, lostMessages, duplicateBlocks, requestTimeouts));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 多节点网络模拟器
+ *
+ * NetWork只连接一个矿工和一条区块链，节点之间是直接的方法调用，无法观察多个矿工竞争时的传播延迟和分叉。
+ * 模拟器在一个进程中运行fullNodes个全节点和lightNodes个轻节点，每个全节点有自己的区块链和交易池，
+ * 节点之间只通过带延迟、带宽和丢包的模拟链路交换消息，全部由一个离散事件调度器驱动：
+ *
+ *    拓扑：先把每个全节点连接到一个编号更小的随机节点保证连通，再随机连接直到每个全节点至少有outboundPeers个邻居；
+ *    每个轻节点连接lightPeers个随机的全节点
+ *
+ *    出块：全网出块为平均间隔blockInterval的泊松过程，每次按算力加权随机选出一个矿工，在它本地的最新区块上出块。
+ *    模拟器不计算真实的工作量证明，这样才能在一台机器上模拟上千个节点
+ *
+ *    交易：全网交易的产生为每秒txPerSecond笔的泊松过程，每笔从一个随机的全节点进入网络
+ *
+ * 所有随机数来自同一个以seed初始化的Random，事件按(时间, 调度序号)执行，因此相同的参数总是得到相同的结果
+ */
+public class Simulator {
+
+    // 连续随机选中已连接的节点达到该次数后，改为从尚未连接的节点中选择
+    private static final int MAX_RANDOM_PEER_MISSES = 32;
+
+    private final SimulationConfig config;
+    private final Random random;
+    private final EventScheduler scheduler = new EventScheduler();
+    private final SimulationStats stats;
+
+    private final SimBlock genesis;
+    private final FullNode[] fullNodes;
+    private final LightNode[] lightNodes;
+
+    // 矿工及其累计算力，用于按算力加权选出出块的矿工
+    private final FullNode[] miners;
+    private final double[] cumulativeHashPower;
+
+    // 所有交易，下标即交易编号
+    private final List<SimTransaction> transactions = new ArrayList<>();
+    private long nextBlockId;
+
+    public Simulator(SimulationConfig config) {
+        config.validate();
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.stats = new SimulationStats(config.getFullNodes());
+        this.genesis = new SimBlock(nextBlockId(), null, -1, new SimTransaction[0], 0);
+
+        // 随机选出矿工
+        List<Integer> order = new ArrayList<>(config.getFullNodes());
+        for (int i = 0; i < config.getFullNodes(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        double[] hashPower = new double[config.getFullNodes()];
+        for (int i = 0; i < config.getMiners(); i++) {
+            hashPower[order.get(i)] = random.nextDouble();
+        }
+
+        this.fullNodes = new FullNode[config.getFullNodes()];
+        this.miners = new FullNode[config.getMiners()];
+        this.cumulativeHashPower = new double[config.getMiners()];
+        double total = 0;
+        int minerCount = 0;
+        for (int i = 0; i < fullNodes.length; i++) {
+            fullNodes[i] = new FullNode(i, this, hashPower[i], genesis);
+            if (hashPower[i] > 0) {
+                total += hashPower[i];
+                miners[minerCount] = fullNodes[i];
+                cumulativeHashPower[minerCount++] = total;
+            }
+        }
+        this.lightNodes = new LightNode[config.getLightNodes()];
+        for (int i = 0; i < lightNodes.length; i++) {
+            lightNodes[i] = new LightNode(i, this, genesis);
+        }
+        buildTopology();
+    }
+
+    private void buildTopology() {
+        int n = fullNodes.length;
+        Set<Long> connected = new HashSet<>();
+        // 每个节点的邻居数，连接是双向的，两端各算一次
+        int[] degree = new int[n];
+        // 先连成一棵随机树保证连通
+        for (int i = 1; i < n; i++) {
+            int j = random.nextInt(i);
+            connectFullNodes(i, j, connected);
+            degree[i]++;
+            degree[j]++;
+        }
+        for (int i = 0; i < n; i++) {
+            int misses = 0;
+            while (degree[i] < config.getOutboundPeers()) {
+                int j;
+                if (misses < MAX_RANDOM_PEER_MISSES) {
+                    j = random.nextInt(n);
+                } else {
+                    // 随机选择屡次选中已连接的节点时，从尚未连接的节点中选择，没有则该节点已与所有节点相连
+                    List<Integer> candidates = unconnectedPeers(i, connected);
+                    if (candidates.isEmpty()) {
+                        break;
+                    }
+                    j = candidates.get(random.nextInt(candidates.size()));
+                }
+                if (j != i && connectFullNodes(i, j, connected)) {
+                    degree[i]++;
+                    degree[j]++;
+                    misses = 0;
+                } else {
+                    misses++;
+                }
+            }
+        }
+        for (LightNode lightNode : lightNodes) {
+            Set<Integer> chosen = new HashSet<>();
+            while (chosen.size() < config.getLightPeers()) {
+                int j = random.nextInt(n);
+                if (chosen.add(j)) {
+                    fullNodes[j].addLightPeer(SimLink.connect(this, fullNodes[j], lightNode, randomLatency(),
+                            config.getBandwidth(), config.getLossRate()));
+                }
+            }
+        }
+    }
+
+    private List<Integer> unconnectedPeers(int i, Set<Long> connected) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int j = 0; j < fullNodes.length; j++) {
+            if (j != i && !connected.contains(key(i, j))) {
+                candidates.add(j);
+            }
+        }
+        return candidates;
+    }
+
+    private long key(int i, int j) {
+        return (long) Math.min(i, j) * fullNodes.length + Math.max(i, j);
+    }
+
+    /**
+     * @return 两个节点之前是否还没有连接
+     */
+    private boolean connectFullNodes(int i, int j, Set<Long> connected) {
+        if (!connected.add(key(i, j))) {
+            return false;
+        }
+        SimLink link = SimLink.connect(this, fullNodes[i], fullNodes[j], randomLatency(),
+                config.getBandwidth(), config.getLossRate());
+        fullNodes[i].addPeer(link);
+        fullNodes[j].addPeer(link.getReverse());
+        return true;
+    }
+
+    private long randomLatency() {
+        return config.getMinLatency() + (long) (random.nextDouble() * (config.getMaxLatency() - config.getMinLatency()));
+    }
+
+    /**
+     * @param mean 平均间隔（微秒）
+     * @return 服从指数分布的随机间隔（微秒）
+     */
+    private long exponential(double mean) {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    /**
+     * 运行模拟直到config中的时长
+     * @return 统计结果
+     */
+    public SimulationStats run() {
+        long start = System.nanoTime();
+        scheduleNextBlock();
+        if (config.getTxPerSecond() > 0) {
+            scheduleNextTransaction();
+        }
+        scheduler.runUntil(config.getDuration());
+        finish((System.nanoTime() - start) / 1000000);
+        return stats;
+    }
+
+    private void scheduleNextBlock() {
+        scheduler.schedule(exponential(config.getBlockInterval()), new Runnable() {
+            @Override
+            public void run() {
+                double target = random.nextDouble() * cumulativeHashPower[cumulativeHashPower.length - 1];
+                int index = Arrays.binarySearch(cumulativeHashPower, target);
+                miners[index < 0 ? -index - 1 : index].mine();
+                scheduleNextBlock();
+            }
+        });
+    }
+
+    private void scheduleNextTransaction() {
+        scheduler.schedule(exponential(1e6 / config.getTxPerSecond()), new Runnable() {
+            @Override
+            public void run() {
+                int size = config.getMinTxSize() + random.nextInt(config.getMaxTxSize() - config.getMinTxSize() + 1);
+                SimTransaction transaction = new SimTransaction(transactions.size(), size, scheduler.now());
+                transactions.add(transaction);
+                fullNodes[random.nextInt(fullNodes.length)].submit(transaction);
+                scheduleNextTransaction();
+            }
+        });
+    }
+
+    /**
+     * 以所有全节点中最长的链（高度相同时取编号最小的节点）为最终主链，统计陈旧区块和交易吞吐
+     */
+    private void finish(long wallMillis) {
+        SimBlock tip = genesis;
+        for (FullNode fullNode : fullNodes) {
+            if (fullNode.getChain().getTip().getHeight() > tip.getHeight()) {
+                tip = fullNode.getChain().getTip();
+            }
+        }
+        long confirmed = 0;
+        long confirmationTotal = 0;
+        for (SimBlock block = tip; block != genesis; block = block.getParent()) {
+            for (SimTransaction transaction : block.getTransactions()) {
+                confirmed++;
+                confirmationTotal += block.getMinedAt() - transaction.getCreatedAt();
+            }
+        }
+        stats.finish(config.getDuration(), scheduler.getExecuted(), wallMillis, tip.getHeight(),
+                transactions.size(), confirmed, confirmationTotal);
+    }
+
+    long nextBlockId() {
+        return nextBlockId++;
+    }
+
+    SimTransaction getTransaction(long id) {
+        return transactions.get((int) id);
+    }
+
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    public EventScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public SimulationStats getStats() {
+        return stats;
+    }
+
+    public FullNode[] getFullNodes() {
+        return fullNodes;
+    }
+
+    public LightNode[] getLightNodes() {
+        return lightNodes;
+    }
+
+    public static void main(String[] args) {
+        SimulationConfig config = SimulationConfig.parse(args);
+        System.out.println("Simulating " + config.getFullNodes() + " full nodes and " + config.getLightNodes()
+                + " light nodes for " + config.getDuration() / 1000000 + "s (seed " + config.getSeed() + ")");
+        Simulator simulator = new Simulator(config);
+        System.out.println(simulator.run().summary());
+    }
+}
@@ -0,0 +1,239 @@
+package spv;
+
+import data.Block;
+import data.Transaction;
+import data.UTXO;
+import utils.SecurityUtil;
+import utils.SipHash;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * BIP158风格的紧凑区块过滤器（Golomb编码集合，GCS）
+ *
+ * 过滤器的元素为区块中所有输出的公钥哈希，以及所有输入花费的输出点（txId + 4字节大端序的输出下标），
+ * 构建过程：
+ *    1. 元素去重，共N个
+ *    2. 以区块哈希的前16字节为密钥计算每个元素的SipHash-2-4，再映射到[0, N * M)：(hash * N * M) >> 64
+ *    3. 排序后对相邻元素的差值做Golomb-Rice编码（参数P）：商用一元编码，余数用P个比特
+ * 编码格式为：元素数N(4字节) + 比特流。P = 19、M = 784931与BIP158一致，误判率约为1/M
+ *
+ * 全节点在区块加入区块链时构建一次过滤器，spv节点下载后在本地判断区块是否可能与自己相关，不需要向全节点透露任何地址
+ */
+public class BlockFilter {
+
+    public static final int P = 19;
+    public static final long M = 784931;
+
+    private BlockFilter() {
+    }
+
+    /**
+     * 构建区块的过滤器
+     * @param block
+     * @return 过滤器编码
+     */
+    public static byte[] build(Block block) {
+        return build(block.getHash(), elementsOf(block));
+    }
+
+    /**
+     * @param blockHash 区块哈希，其前16字节作为SipHash的密钥
+     * @param elements 过滤器的元素
+     * @return 过滤器编码
+     */
+    public static byte[] build(String blockHash, List<byte[]> elements) {
+        // 按内容去重
+        Set<ByteBuffer> unique = new LinkedHashSet<>();
+        for (byte[] element : elements) {
+            unique.add(ByteBuffer.wrap(element));
+        }
+        int n = unique.size();
+        long[] key = keyOf(blockHash);
+        long range = n * M;
+        long[] values = new long[n];
+        int i = 0;
+        for (ByteBuffer element : unique) {
+            values[i++] = hashToRange(key, element.array(), range);
+        }
+        Arrays.sort(values);
+
+        BitWriter writer = new BitWriter();
+        long last = 0;
+        for (long value : values) {
+            writer.writeGolombRice(value - last);
+            last = value;
+        }
+        byte[] bits = writer.toByteArray();
+        return ByteBuffer.allocate(4 + bits.length).putInt(n).put(bits).array();
+    }
+
+    /**
+     * 判断过滤器中是否可能包含任意一个查询元素。一次对查询元素排序后与过滤器按序归并，
+     * 只顺序解码一遍过滤器
+     *
+     * @param filter 过滤器编码
+     * @param blockHash 过滤器所属区块的哈希
+     * @param queries 查询元素
+     * @return false表示区块一定不包含任何查询元素，true表示可能包含（误判率约为1/M）
+     */
+    public static boolean matchAny(byte[] filter, String blockHash, List<byte[]> queries) {
+        int n = ByteBuffer.wrap(filter).getInt();
+        if (n == 0 || queries.isEmpty()) {
+            return false;
+        }
+        long[] key = keyOf(blockHash);
+        long range = n * M;
+        long[] targets = new long[queries.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = hashToRange(key, queries.get(i), range);
+        }
+        Arrays.sort(targets);
+
+        BitReader reader = new BitReader(filter, 4);
+        long value = 0;
+        int t = 0;
+        for (int i = 0; i < n; i++) {
+            value += reader.readGolombRice();
+            while (targets[t] < value) {
+                if (++t == targets.length) {
+                    return false;
+                }
+            }
+            if (targets[t] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 区块中所有输出的公钥哈希以及所有输入花费的输出点
+     */
+    public static List<byte[]> elementsOf(Block block) {
+        List<byte[]> elements = new ArrayList<>();
+        for (Transaction transaction : block.getBlockBody().getTransactions()) {
+            for (UTXO utxo : transaction.getInUtxos()) {
+                if (utxo.getTxId() != null) {
+                    elements.add(outpoint(utxo.getTxId(), utxo.getOutputIndex()));
+                }
+            }
+            for (UTXO utxo : transaction.getOutUtxos()) {
+                elements.add(utxo.getPublicKeyHash());
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * 输出点的过滤器元素：txId(32) + 输出下标(4，大端序)
+     */
+    public static byte[] outpoint(byte[] txId, int outputIndex) {
+        return ByteBuffer.allocate(txId.length + 4).put(txId).putInt(outputIndex).array();
+    }
+
+    private static long[] keyOf(String blockHash) {
+        byte[] hash = SecurityUtil.hexString2Bytes(blockHash);
+        return new long[]{SipHash.littleEndian(hash, 0, 8), SipHash.littleEndian(hash, 8, 8)};
+    }
+
+    private static long hashToRange(long[] key, byte[] element, long range) {
+        return multiplyHigh(SipHash.hash(key[0], key[1], element), range);
+    }
+
+    /**
+     * 两个无符号64位整数相乘结果的高64位
+     */
+    static long multiplyHigh(long a, long b) {
+        long aLow = a & 0xffffffffL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xffffffffL;
+        long bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long highHigh = aHigh * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xffffffffL) + lowHigh;
+        return highHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    /**
+     * 按比特写入，高位在前
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int count;
+
+        void writeBit(int bit) {
+            current = (current << 1) | bit;
+            if (++count == 8) {
+                out.write(current);
+                current = 0;
+                count = 0;
+            }
+        }
+
+        void writeBits(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                writeBit((int) (value >>> i) & 1);
+            }
+        }
+
+        void writeGolombRice(long value) {
+            long quotient = value >>> P;
+            for (long i = 0; i < quotient; i++) {
+                writeBit(1);
+            }
+            writeBit(0);
+            writeBits(value, P);
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                out.write(current << (8 - count));
+                current = 0;
+                count = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.position = offset * 8;
+        }
+
+        int readBit() {
+            int bit = (data[position >>> 3] >>> (7 - (position & 7))) & 1;
+            position++;
+            return bit;
+        }
+
+        long readBits(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                value = (value << 1) | readBit();
+            }
+            return value;
+        }
+
+        long readGolombRice() {
+            long quotient = 0;
+            while (readBit() == 1) {
+                quotient++;
+            }
+            return (quotient << P) | readBits(P);
+        }
+    }
+}
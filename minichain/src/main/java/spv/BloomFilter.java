@@ -0,0 +1,124 @@
+package spv;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BIP37风格的布隆过滤器，spv节点用它向全节点描述自己关心的数据（钱包地址和公钥哈希），而不必暴露具体的地址
+ *
+ * 过滤器大小和哈希函数个数由预期元素数和误判率计算：
+ *    大小（字节）= -n * ln(p) / (ln2)^2 / 8，不超过配置的上限
+ *    哈希函数个数 = 大小 * 8 / n * ln2，不超过50
+ * 第i个哈希函数为MurmurHash3（x86_32），种子为 i * 0xFBA4C795 + tweak，与BIP37一致。
+ * 布隆过滤器只会误判存在，不会漏判，因此spv节点收到匹配的交易后还需要在本地再确认一次
+ */
+public class BloomFilter {
+
+    private static final int MAX_HASH_FUNCTIONS = 50;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+    private static final double LN2 = Math.log(2);
+
+    private final byte[] data;
+    private final int hashFunctions;
+    private final int tweak;
+
+    /**
+     * @param elements 预期放入的元素数
+     * @param falsePositiveRate 误判率
+     * @param maxBytes 过滤器大小上限（字节）
+     * @param tweak 哈希种子的随机偏移，不同的spv节点使用不同的值
+     */
+    public BloomFilter(int elements, double falsePositiveRate, int maxBytes, int tweak) {
+        if (elements <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid bloom filter parameters");
+        }
+        int size = (int) Math.min(-1 / LN2_SQUARED * elements * Math.log(falsePositiveRate) / 8, maxBytes);
+        this.data = new byte[Math.max(size, 1)];
+        this.hashFunctions = (int) Math.max(Math.min(data.length * 8 / (double) elements * LN2, MAX_HASH_FUNCTIONS), 1);
+        this.tweak = tweak;
+    }
+
+    public void insert(byte[] element) {
+        for (int i = 0; i < hashFunctions; i++) {
+            int index = bitIndex(i, element);
+            data[index >>> 3] |= (byte) (1 << (index & 7));
+        }
+    }
+
+    public void insert(String element) {
+        insert(element.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public boolean contains(byte[] element) {
+        for (int i = 0; i < hashFunctions; i++) {
+            int index = bitIndex(i, element);
+            if ((data[index >>> 3] & (1 << (index & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(String element) {
+        return contains(element.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public int getSize() {
+        return data.length;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    private int bitIndex(int hashNum, byte[] element) {
+        int hash = murmurHash3(hashNum * 0xFBA4C795 + tweak, element);
+        return (int) ((hash & 0xffffffffL) % ((long) data.length * 8));
+    }
+
+    /**
+     * MurmurHash3 x86_32，尾部字节按原算法逐个case贯穿处理
+     */
+    @SuppressWarnings("fallthrough")
+    static int murmurHash3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h1 = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k1 = (data[4 * i] & 0xff) | ((data[4 * i + 1] & 0xff) << 8)
+                    | ((data[4 * i + 2] & 0xff) << 16) | ((data[4 * i + 3] & 0xff) << 24);
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+        int k1 = 0;
+        int tail = blocks * 4;
+        switch (data.length & 3) {
+            case 3:
+                k1 ^= (data[tail + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                k1 ^= (data[tail + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                k1 ^= data[tail] & 0xff;
+                k1 *= c1;
+                k1 = Integer.rotateLeft(k1, 15);
+                k1 *= c2;
+                h1 ^= k1;
+                break;
+            default:
+                break;
+        }
+        h1 ^= data.length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
@@ -0,0 +1,337 @@
+package spv;
+
+import codec.BinaryCodec;
+import consensus.DifficultySchedule;
+import data.BlockHeader;
+import utils.CompactTarget;
+import utils.MinerUtil;
+import utils.SecurityUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * spv节点的区块头存储
+ *
+ * 区块头以定长编码（BlockHeader.HEADER_SIZE字节）连续存放在一个字节数组中，另外缓存每个区块头的32字节哈希值，
+ * 每个区块头只占用约120字节，不保存任何BlockHeader对象，因此大量spv节点可以同时跟随区块链。
+ * 指定了文件时，区块头同时追加写入该文件，重新打开时从文件中恢复
+ *
+ * 区块头按批次连接（见connect方法），连接前检查整批区块头的难度、工作量证明以及preBlockHash的链接关系，
+ * 任何一个区块头不合法时整批拒绝；批次与本地的链分叉时，只有分叉后的累计工作量多于本地的链才替换本地的区块头
+ */
+public class HeaderStore {
+
+    private static final int HEADER_SIZE = BlockHeader.HEADER_SIZE;
+    private static final int HASH_SIZE = 32;
+    private static final int PRE_HASH_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 68;
+    private static final int DIFFICULTY_OFFSET = 76;
+    // 区块定位器中逐个列出的最近区块数，之后步长按2倍增长
+    private static final int LOCATOR_DENSE_COUNT = 10;
+
+    private byte[] headers = new byte[HEADER_SIZE * 1024];
+    private byte[] hashes = new byte[HASH_SIZE * 1024];
+    private int size;
+
+    private final FileChannel channel;
+    private final MessageDigest digest = newDigest();
+    private final DifficultySchedule difficultySchedule = DifficultySchedule.getDefault();
+
+    /**
+     * 只保存在内存中的区块头存储
+     */
+    public HeaderStore() {
+        this.channel = null;
+    }
+
+    /**
+     * 基于文件的区块头存储，文件不存在时新建，已存在时读取其中完整的区块头
+     *
+     * @param file 区块头文件
+     */
+    public HeaderStore(Path file) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int count = (int) (channel.size() / HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(count * HEADER_SIZE);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            // 写了一半的区块头直接丢弃
+            channel.truncate((long) count * HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                add(buffer.array(), i * HEADER_SIZE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 连接一批区块头，批次的起始高度不超过当前高度
+     *
+     * 对每个区块头检查：preBlockHash等于前一个区块头的哈希值（高度为0时必须为空），
+     * 难度等于按难度调整规则由之前的区块头计算出的难度，除创世区块外哈希值满足该难度
+     *
+     * 起始高度低于当前高度时，跳过与本地相同的区块头；其余部分与本地的链分叉时，分别累加两条分支上每个区块的
+     * 期望哈希次数（见CompactTarget.expectedHashes），批次的工作量更多时才回滚到分叉高度并连接，否则整批拒绝
+     *
+     * @param message 一批连续的区块头
+     * @return 新连接的区块头数
+     * @throws IllegalArgumentException 区块头不能连接到本地的链上，某个区块头不合法，或者分叉的工作量不多于本地的链
+     */
+    public synchronized int connect(HeadersMessage message) {
+        final int start = message.getStartHeight();
+        if (start < 0 || start > size) {
+            throw new IllegalArgumentException("headers start at " + start + " but local height is " + size);
+        }
+        final byte[] data = message.getHeaders();
+        int count = message.getCount();
+        // 计算难度时，低于start的区块头从本地读取，其余从这批区块头中读取
+        DifficultySchedule.HeaderSource headerSource = new DifficultySchedule.HeaderSource() {
+            @Override
+            public long getTimestamp(int height) {
+                return height < start ? readLong(headers, height * HEADER_SIZE + TIMESTAMP_OFFSET)
+                        : readLong(data, (height - start) * HEADER_SIZE + TIMESTAMP_OFFSET);
+            }
+
+            @Override
+            public int getBits(int height) {
+                return height < start ? readInt(headers, height * HEADER_SIZE + DIFFICULTY_OFFSET)
+                        : readInt(data, (height - start) * HEADER_SIZE + DIFFICULTY_OFFSET);
+            }
+        };
+        byte[] batchHashes = new byte[count * HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            int offset = i * HEADER_SIZE;
+            int height = start + i;
+            // 检查与前一个区块头的链接关系
+            byte[] preHashes = i == 0 ? hashes : batchHashes;
+            int preOffset = i == 0 ? (start - 1) * HASH_SIZE : (i - 1) * HASH_SIZE;
+            boolean linked = height == 0
+                    ? isZero(data, offset + PRE_HASH_OFFSET)
+                    : equalsRange(data, offset + PRE_HASH_OFFSET, preHashes, preOffset);
+            if (!linked) {
+                throw new IllegalArgumentException("header at height " + height + " does not link to its predecessor");
+            }
+            hash(data, offset, batchHashes, i * HASH_SIZE);
+            int bits = readInt(data, offset + DIFFICULTY_OFFSET);
+            int expectedBits = difficultySchedule.getBits(height, headerSource);
+            if (bits != expectedBits) {
+                throw new IllegalArgumentException("header at height " + height + " has difficulty "
+                        + CompactTarget.toHex(bits) + ", expected " + CompactTarget.toHex(expectedBits));
+            }
+            // 创世区块没有经过挖矿，不检查工作量证明
+            if (height > 0 && !MinerUtil.meetsTarget(Arrays.copyOfRange(batchHashes, i * HASH_SIZE, (i + 1) * HASH_SIZE),
+                    CompactTarget.toBytes(bits))) {
+                throw new IllegalArgumentException("header at height " + height + " has invalid proof of work");
+            }
+        }
+
+        int common = 0;
+        while (common < count && start + common < size
+                && equalsRange(batchHashes, common * HASH_SIZE, hashes, (start + common) * HASH_SIZE)) {
+            common++;
+        }
+        int fork = start + common;
+        if (fork < size) {
+            double localWork = work(headers, fork, size);
+            double batchWork = work(data, common, count);
+            if (batchWork <= localWork) {
+                throw new IllegalArgumentException("headers forking at height " + fork + " have " + batchWork
+                        + " expected hashes of work, local chain has " + localWork);
+            }
+            truncate(fork);
+        }
+        int added = count - common;
+        ensureCapacity(size + added);
+        System.arraycopy(data, common * HEADER_SIZE, headers, size * HEADER_SIZE, added * HEADER_SIZE);
+        System.arraycopy(batchHashes, common * HASH_SIZE, hashes, size * HASH_SIZE, added * HASH_SIZE);
+        if (channel != null) {
+            write(ByteBuffer.wrap(data, common * HEADER_SIZE, added * HEADER_SIZE), (long) size * HEADER_SIZE);
+        }
+        size += added;
+        return added;
+    }
+
+    /**
+     * @return 下标在[from, to)之间的区块头的期望哈希次数之和
+     */
+    private static double work(byte[] data, int from, int to) {
+        double work = 0;
+        for (int i = from; i < to; i++) {
+            work += CompactTarget.expectedHashes(readInt(data, i * HEADER_SIZE + DIFFICULTY_OFFSET));
+        }
+        return work;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ByteBuffer.wrap(data, offset, 4).getInt();
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ByteBuffer.wrap(data, offset, 8).getLong();
+    }
+
+    /**
+     * 区块定位器：自最新区块起向前依次列出区块哈希，最近的若干个逐个列出，之后步长按2倍增长，最后总是包含创世区块。
+     * 全节点据此找到双方共同的最高区块，从其下一个高度开始返回区块头
+     *
+     * @return 区块哈希列表，高度从高到低
+     */
+    public synchronized List<String> getLocator() {
+        List<String> locator = new ArrayList<>();
+        int step = 1;
+        for (int height = size - 1; height >= 0; height -= step) {
+            locator.add(hexOf(height));
+            if (height == 0) {
+                return locator;
+            }
+            if (locator.size() >= LOCATOR_DENSE_COUNT) {
+                step *= 2;
+            }
+        }
+        if (size > 0) {
+            locator.add(hexOf(0));
+        }
+        return locator;
+    }
+
+    /**
+     * @param height 区块高度
+     * @return 相应的区块头
+     */
+    public synchronized BlockHeader getHeader(int height) {
+        checkHeight(height);
+        return BinaryCodec.getHeader(ByteBuffer.wrap(headers, height * HEADER_SIZE, HEADER_SIZE));
+    }
+
+    /**
+     * @param height 区块高度
+     * @return 相应区块哈希值的十六进制字符串
+     */
+    public synchronized String getHash(int height) {
+        checkHeight(height);
+        return hexOf(height);
+    }
+
+    /**
+     * @return 最新区块的哈希值，没有任何区块头时返回null
+     */
+    public synchronized String getTipHash() {
+        return size == 0 ? null : hexOf(size - 1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void add(byte[] data, int offset) {
+        ensureCapacity(size + 1);
+        System.arraycopy(data, offset, headers, size * HEADER_SIZE, HEADER_SIZE);
+        hash(data, offset, hashes, size * HASH_SIZE);
+        size++;
+    }
+
+    private void truncate(int newSize) {
+        size = newSize;
+        if (channel != null) {
+            try {
+                channel.truncate((long) newSize * HEADER_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity * HEADER_SIZE > headers.length) {
+            int newCapacity = Math.max(capacity, headers.length / HEADER_SIZE * 2);
+            headers = Arrays.copyOf(headers, newCapacity * HEADER_SIZE);
+            hashes = Arrays.copyOf(hashes, newCapacity * HASH_SIZE);
+        }
+    }
+
+    private void write(ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void hash(byte[] data, int offset, byte[] out, int outOffset) {
+        digest.update(data, offset, HEADER_SIZE);
+        try {
+            digest.digest(out, outOffset, HASH_SIZE);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String hexOf(int height) {
+        return SecurityUtil.bytes2HexString(Arrays.copyOfRange(hashes, height * HASH_SIZE, (height + 1) * HASH_SIZE));
+    }
+
+    private void checkHeight(int height) {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("height " + height + " out of " + size);
+        }
+    }
+
+    private static boolean isZero(byte[] data, int offset) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (data[offset + i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsRange(byte[] a, int aOffset, byte[] b, int bOffset) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package spv;
+
+import data.BlockHeader;
+
+/**
+ * 全节点返回给spv节点的一批连续区块头
+ *
+ * 区块头以定长编码（每个BlockHeader.HEADER_SIZE字节）依次拼接，spv节点直接在编码上计算哈希、检查链接关系，
+ * 不需要先解码成BlockHeader对象
+ */
+public class HeadersMessage {
+
+    // 第一个区块头的高度
+    private final int startHeight;
+    private final byte[] headers;
+
+    public HeadersMessage(int startHeight, byte[] headers) {
+        if (headers.length % BlockHeader.HEADER_SIZE != 0) {
+            throw new IllegalArgumentException("invalid headers length: " + headers.length);
+        }
+        this.startHeight = startHeight;
+        this.headers = headers;
+    }
+
+    public int getStartHeight() {
+        return startHeight;
+    }
+
+    /**
+     * @return 区块头的定长编码，调用方不应修改返回的数组
+     */
+    public byte[] getHeaders() {
+        return headers;
+    }
+
+    public int getCount() {
+        return headers.length / BlockHeader.HEADER_SIZE;
+    }
+}
@@ -0,0 +1,118 @@
+package spv;
+
+import utils.SecurityUtil;
+
+import java.util.List;
+
+/**
+ * 同一区块中多笔交易的合并验证路径
+ *
+ * 多笔交易的验证路径在靠近根的部分是重合的，合并后每个内部节点只出现一次。
+ * 节点按自底向上、每层从左到右的顺序排列，即验证时被用到的顺序，因此不需要记录节点的偏向：
+ * 每一层依次处理已知的节点，若其兄弟节点也已知则直接合并，若没有兄弟节点（奇数层的最后一个节点）则与自身合并，
+ * 否则从nodes中取出下一个节点作为兄弟节点
+ */
+public class MultiProof {
+
+    // merkle树根哈希
+    private final String merkleRootHash;
+    // 交易所在区块的高度
+    private final int height;
+    // 区块中的交易数，即叶子数
+    private final int leafCount;
+    // 待验证交易在区块中的下标，严格递增
+    private final int[] leafIndices;
+    // 与leafIndices一一对应的交易哈希
+    private final String[] txHashes;
+    // 去重后的内部节点，按使用顺序排列
+    private final List<String> nodes;
+
+    public MultiProof(String merkleRootHash, int height, int leafCount, int[] leafIndices, String[] txHashes, List<String> nodes) {
+        this.merkleRootHash = merkleRootHash;
+        this.height = height;
+        this.leafCount = leafCount;
+        this.leafIndices = leafIndices;
+        this.txHashes = txHashes;
+        this.nodes = nodes;
+    }
+
+    public String getMerkleRootHash() {
+        return merkleRootHash;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public int[] getLeafIndices() {
+        return leafIndices;
+    }
+
+    public String[] getTxHashes() {
+        return txHashes;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 自底向上一遍计算出merkle根哈希，每个内部节点只计算一次
+     *
+     * @return 计算得到的根哈希；验证路径的结构不合法（下标无序或越界、节点数不符）时返回null
+     */
+    public String computeRootHash() {
+        int known = leafIndices.length;
+        if (known == 0 || known != txHashes.length) {
+            return null;
+        }
+        int[] indices = leafIndices.clone();
+        String[] hashes = txHashes.clone();
+        for (int k = 0; k < known; k++) {
+            if (indices[k] < 0 || indices[k] >= leafCount || (k > 0 && indices[k] <= indices[k - 1])) {
+                return null;
+            }
+        }
+
+        int next = 0;
+        int count = leafCount;
+        while (count > 1) {
+            int parents = 0;
+            for (int k = 0; k < known; k++) {
+                int index = indices[k];
+                String parentHash;
+                if ((index & 1) == 0) {
+                    if (index + 1 >= count) {
+                        // 奇数层的最后一个节点与自身合并
+                        parentHash = SecurityUtil.sha256Digest(hashes[k] + hashes[k]);
+                    } else if (k + 1 < known && indices[k + 1] == index + 1) {
+                        // 兄弟节点也已知
+                        parentHash = SecurityUtil.sha256Digest(hashes[k] + hashes[k + 1]);
+                        k++;
+                    } else {
+                        if (next == nodes.size()) {
+                            return null;
+                        }
+                        parentHash = SecurityUtil.sha256Digest(hashes[k] + nodes.get(next++));
+                    }
+                } else {
+                    if (next == nodes.size()) {
+                        return null;
+                    }
+                    parentHash = SecurityUtil.sha256Digest(nodes.get(next++) + hashes[k]);
+                }
+                indices[parents] = index >>> 1;
+                hashes[parents] = parentHash;
+                parents++;
+            }
+            known = parents;
+            count = (count + 1) / 2;
+        }
+        // 所有节点都必须恰好用完
+        return next == nodes.size() ? hashes[0] : null;
+    }
+}
@@ -1,19 +1,46 @@
 package spv;
 
+import config.MiniChainConfig;
 import data.Account;
 import data.BlockHeader;
 import data.MinerPeer;
 import data.Transaction;
+import data.UTXO;
+import logging.Level;
+import logging.LogManager;
+import logging.Logger;
+import network.HeaderBroadcaster;
 import network.NetWork;
 import utils.SecurityUtil;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
-public class SpvPeer {
+/**
+ * spv轻节点，只保存区块头（见HeaderStore）
+ *
+ * 收到新区块头的通知时，若它直接连接在本地最新区块之后则直接连接，否则以区块定位器向全节点分批请求区块头，
+ * 每批区块头在连接前检查工作量证明和链接关系。新连接的每个区块中若有与本账户相关的交易，再为这些交易请求一份合并验证路径
+ * （见MultiProof）进行验证
+ *
+ * 相关交易的发现有两种方式：
+ *    布隆过滤器：创建时向全节点注册包含本账户钱包地址和公钥哈希的布隆过滤器，全节点据此返回每个区块中可能相关的交易
+ *
+ *    紧凑区块过滤器（SPV_USE_COMPACT_FILTERS）：下载每个区块的过滤器，在本地用本账户的公钥哈希和持有的输出点匹配，
+ *    只下载可能相关的区块，全节点不需要为每个spv节点做任何计算
+ */
+public class SpvPeer implements HeaderBroadcaster.Receiver {
+
+    private static final Logger LOGGER = LogManager.getLogger(SpvPeer.class);
 
     // 该spv节点只存储区块头
-    private final List<BlockHeader> headers = new ArrayList<>();
+    private final HeaderStore headerStore;
 
     // 该spv拥有一个账户信息
     private final Account account;
@@ -21,47 +48,170 @@ public class SpvPeer {
     // 节点连接到网络
     private final NetWork network;
 
+    // 本账户的公钥哈希
+    private final byte[] publicKeyHash;
+
+    // 本账户持有的输出点，使用紧凑过滤器时用于发现本账户的花费
+    private final Set<ByteBuffer> ownedOutpoints = new HashSet<>();
+
     public SpvPeer(Account account, NetWork network) {
         this.account = account;
         this.network = network;
+        if (MiniChainConfig.SPV_HEADER_STORE_DIR == null) {
+            this.headerStore = new HeaderStore();
+        } else {
+            this.headerStore = new HeaderStore(Paths.get(MiniChainConfig.SPV_HEADER_STORE_DIR,
+                    account.getWalletAddress() + ".headers"));
+        }
+        this.publicKeyHash = new UTXO(account.getWalletAddress(), 0, account.getPublicKey()).getPublicKeyHash();
+
+        // 使用紧凑过滤器时在本地匹配，不向全节点透露任何地址；否则向全节点注册布隆过滤器，其中包含本账户的钱包地址和公钥哈希
+        if (!MiniChainConfig.SPV_USE_COMPACT_FILTERS) {
+            BloomFilter filter = new BloomFilter(2, MiniChainConfig.BLOOM_FILTER_FP_RATE,
+                    MiniChainConfig.BLOOM_FILTER_MAX_BYTES, new Random().nextInt());
+            filter.insert(account.getWalletAddress());
+            filter.insert(publicKeyHash);
+            network.registerFilter(this, filter);
+        }
     }
 
     /**
-     * 添加一个区块头
+     * 接收全节点广播的新区块头
      * @param blockHeader
      */
-    public void accept(BlockHeader blockHeader) {
-        headers.add(blockHeader);
+    @Override
+    public synchronized void accept(BlockHeader blockHeader) {
+        int height = headerStore.size();
+        String tipHash = headerStore.getTipHash();
+        if (tipHash != null && tipHash.equals(blockHeader.getPreBlockHash())) {
+            // 新区块直接连接在本地最新区块之后，不需要再向全节点请求
+            connect(new HeadersMessage(height, blockHeader.toBytes()));
+        } else {
+            sync();
+        }
+    }
+
+    /**
+     * 以区块定位器向全节点分批请求区块头，直到与全节点的链同步
+     */
+    public synchronized void sync() {
+        MinerPeer minerPeer = network.getMinerPeer();
+        while (true) {
+            HeadersMessage message = minerPeer.getHeaders(headerStore.getLocator(), MiniChainConfig.SPV_HEADER_BATCH_SIZE);
+            if (message.getCount() == 0 || !connect(message)) {
+                return;
+            }
+            if (message.getCount() < MiniChainConfig.SPV_HEADER_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 连接一批区块头，并验证新区块中与本账户相关的交易
+     * @return 是否连接成功
+     */
+    private boolean connect(HeadersMessage message) {
+        try {
+            headerStore.connect(message);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Account[{}] rejected headers: {}", account.getWalletAddress(), e.getMessage());
+            return false;
+        }
+        int start = message.getStartHeight();
+        if (MiniChainConfig.SPV_USE_COMPACT_FILTERS) {
+            // 下载这批区块的紧凑过滤器，在本地判断哪些区块可能相关，只下载这些区块
+            List<byte[]> filters = network.getMinerPeer().getFilters(start, message.getCount());
+            List<byte[]> queries = filterQueries();
+            for (int i = 0; i < filters.size(); i++) {
+                if (BlockFilter.matchAny(filters.get(i), headerStore.getHash(start + i), queries)) {
+                    Transaction[] transactions = network.getBlockChain().getBlock(start + i).getBlockBody().getTransactions();
+                    verifyTransactions(Arrays.asList(transactions));
+                    queries = filterQueries();
+                }
+            }
+        } else {
+            for (int i = 0; i < message.getCount(); i++) {
+                // 全节点返回该区块中与本节点布隆过滤器匹配的交易
+                verifyTransactions(network.getFilteredTransactions(start + i, this));
+            }
+        }
+        return true;
+    }
 
-        // 接受后验证一下
-        verifyLatest();
+    /**
+     * 紧凑过滤器的查询元素：本账户的公钥哈希（匹配支付给本账户的输出）以及本账户持有的输出点（匹配花费）
+     */
+    private List<byte[]> filterQueries() {
+        List<byte[]> queries = new ArrayList<>(ownedOutpoints.size() + 1);
+        queries.add(publicKeyHash);
+        for (ByteBuffer outpoint : ownedOutpoints) {
+            queries.add(outpoint.array());
+        }
+        return queries;
     }
 
     /**
-     * 如果有相关的交易，验证最新块的交易
+     * 从候选交易中排除误判的交易，更新本账户持有的输出点，并验证相关的交易
+     * @param candidates 可能与本账户相关的交易
      */
-    private void verifyLatest() {
-        // spv节点通过网络搜集最新块与自己相关的交易
-        List<Transaction> transactions = network.getTransactionsInLatestBlock(account.getWalletAddress());
+    private void verifyTransactions(List<Transaction> candidates) {
+        List<Transaction> transactions = new ArrayList<>();
+        for (Transaction transaction : candidates) {
+            if (isRelevant(transaction)) {
+                transactions.add(transaction);
+                trackOutpoints(transaction);
+            }
+        }
         if (transactions.isEmpty()) {
             return;
         }
         // 富翁使用自己“贫瘠不堪”的spv节点使用spv请求验证他参与的交易
-        System.out.println("Account[" + account.getWalletAddress() + "] began to verify the transaction");
-        for (Transaction transaction : transactions) {
-            if (!simplifiedPaymentVerify(transaction)) {
-                // 因为理论上肯定能验证成功，如果失败说明程序出现了bug，所以直接退出
-                System.out.println("verification failed!");
-                System.exit(-1);
+        LOGGER.debug("Account[{}] began to verify the transaction", account.getWalletAddress());
+        // 同一区块中的相关交易只请求一次合并验证路径
+        if (!simplifiedPaymentVerify(transactions)) {
+            // 因为理论上肯定能验证成功，如果失败说明程序出现了bug，所以直接退出
+            LOGGER.error("Account[{}] verification failed!", account.getWalletAddress());
+            System.exit(-1);
+        }
+        LOGGER.info("Account[{}] verifies all transactions are successful!", account.getWalletAddress());
+    }
+
+    private void trackOutpoints(Transaction transaction) {
+        for (UTXO utxo : transaction.getInUtxos()) {
+            if (utxo.getTxId() != null) {
+                ownedOutpoints.remove(ByteBuffer.wrap(BlockFilter.outpoint(utxo.getTxId(), utxo.getOutputIndex())));
+            }
+        }
+        for (UTXO utxo : transaction.getOutUtxos()) {
+            if (Arrays.equals(utxo.getPublicKeyHash(), publicKeyHash)) {
+                ownedOutpoints.add(ByteBuffer.wrap(BlockFilter.outpoint(utxo.getTxId(), utxo.getOutputIndex())));
             }
         }
-        System.out.println("Account[" + account.getWalletAddress() + "] verifies all transactions are successful!\n");
+    }
+
+    private boolean isRelevant(Transaction transaction) {
+        return isRelevant(transaction.getInUtxos()) || isRelevant(transaction.getOutUtxos());
+    }
+
+    private boolean isRelevant(UTXO[] utxos) {
+        for (UTXO utxo : utxos) {
+            if (utxo.getWalletAddress().equals(account.getWalletAddress())
+                    || Arrays.equals(utxo.getPublicKeyHash(), publicKeyHash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public HeaderStore getHeaderStore() {
+        return headerStore;
     }
 
 
     public boolean simplifiedPaymentVerify(Transaction transaction) {
         // 获取交易哈希
-        String txHash = SecurityUtil.sha256Digest(transaction.toString());
+        String txHash = transaction.getTxHash();
 
         // 通过网络向其他全节点获取验证路径（这里网络只有矿工一个全节点）
         MinerPeer minerPeer = network.getMinerPeer();
@@ -82,21 +232,70 @@ public class SpvPeer {
             }
         }
 
-        // 获得本地区块头部中的根哈希
+        // 获得本地区块头部中的根哈希，本地还没有该区块头时无法验证
         int height = proof.getHeight();
-        String localMerkleRootHash = headers.get(height).getMerkleRootHash();
+        if (height >= headerStore.size()) {
+            return false;
+        }
+        String localMerkleRootHash = headerStore.getHeader(height).getMerkleRootHash();
 
         // 获取远程节点发送过来的根哈希
         String remoteMerkleRootHash = proof.getMerkleRootHash();
 
         // 调试
-        System.out.println("\n-----------> verify hash:\t" + txHash);
-        System.out.println("calMerkleRootHash:\t\t" + hash);
-        System.out.println("localMerkleRootHash:\t" + localMerkleRootHash);
-        System.out.println("remoteMerkleRootHash:\t" + remoteMerkleRootHash);
-        System.out.println();
+        if (LOGGER.isEnabled(Level.DEBUG)) {
+            LOGGER.debug("verify hash: {}\ncalMerkleRootHash:\t\t{}\nlocalMerkleRootHash:\t{}\nremoteMerkleRootHash:\t{}",
+                    txHash, hash, localMerkleRootHash, remoteMerkleRootHash);
+        }
 
         // 判断生成的根哈希与本地的根哈希和远程的根哈希是否相等
         return hash.equals(localMerkleRootHash) && hash.equals(remoteMerkleRootHash);
     }
+
+    /**
+     * 使用合并验证路径一次验证同一区块中的多笔交易，共用的内部节点只传输和计算一次
+     *
+     * @param transactions 同一区块中的交易
+     * @return 所有交易是否都在本地已有的区块中
+     */
+    public boolean simplifiedPaymentVerify(List<Transaction> transactions) {
+        List<String> txHashes = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            txHashes.add(transaction.getTxHash());
+        }
+
+        // 通过网络向全节点获取合并验证路径
+        MultiProof proof = network.getMinerPeer().getMultiProof(txHashes);
+        if (proof == null) {
+            return false;
+        }
+        // 验证路径必须恰好覆盖请求的交易
+        if (!new HashSet<>(Arrays.asList(proof.getTxHashes())).equals(new HashSet<>(txHashes))) {
+            return false;
+        }
+
+        // 自底向上一遍计算merkle根哈希
+        String hash = proof.computeRootHash();
+        if (hash == null) {
+            return false;
+        }
+
+        // 获得本地区块头部中的根哈希，本地还没有该区块头时无法验证
+        int height = proof.getHeight();
+        if (height >= headerStore.size()) {
+            return false;
+        }
+        String localMerkleRootHash = headerStore.getHeader(height).getMerkleRootHash();
+        String remoteMerkleRootHash = proof.getMerkleRootHash();
+
+        // 调试
+        if (LOGGER.isEnabled(Level.DEBUG)) {
+            LOGGER.debug("verify {} transactions in block {} with {} proof nodes\nverify hashes:\t\t{}"
+                            + "\ncalMerkleRootHash:\t\t{}\nlocalMerkleRootHash:\t{}\nremoteMerkleRootHash:\t{}",
+                    txHashes.size(), height, proof.getNodes().size(), proof.getTxHashes(),
+                    hash, localMerkleRootHash, remoteMerkleRootHash);
+        }
+
+        return hash.equals(localMerkleRootHash) && hash.equals(remoteMerkleRootHash);
+    }
 }
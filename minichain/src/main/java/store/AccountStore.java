@@ -0,0 +1,142 @@
+package store;
+
+import data.Account;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 账户密钥对的存储，与区块文件放在同一目录下，重启后恢复同样的账户，链上的UTXO才仍然属于这些账户
+ *
+ * 文件格式为：
+ *    魔数(4) + 格式版本(1) + 账户数(4)
+ *    + 每个账户的记录：公钥长度(4) + 公钥的X.509编码 + 私钥长度(4) + 私钥的PKCS#8编码
+ *    + 以上全部内容的CRC32校验和(8)
+ *
+ * 与UTXO快照一样先写临时文件并刷到磁盘，再原子地重命名。文件中保存着明文私钥，只用于本地模拟
+ */
+public class AccountStore {
+
+    private static final String ACCOUNT_FILE = "accounts.dat";
+    private static final String TEMP_FILE = "accounts.dat.tmp";
+    private static final int MAGIC = 0x4143434e; // "ACCN"
+    private static final byte FORMAT_VERSION = 1;
+    private static final int MAX_KEY_SIZE = 1024;
+
+    private final Path directory;
+
+    public AccountStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 写入全部账户，替换已有的文件
+     */
+    public void save(Account[] accounts) {
+        Path temp = directory.resolve(TEMP_FILE);
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.writeInt(accounts.length);
+                for (Account account : accounts) {
+                    writeKey(out, account.getPublicKey().getEncoded());
+                    writeKey(out, account.getPrivateKey().getEncoded());
+                }
+                long checksum = crc.getValue();
+                out.writeLong(checksum);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(ACCOUNT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return 保存的全部账户，没有账户文件时返回null
+     * @throws UncheckedIOException 账户文件已损坏。此时不能生成新的账户代替，否则链上的金额都不再属于任何账户
+     */
+    public Account[] load() {
+        Path path = directory.resolve(ACCOUNT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file), crc));
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                throw new IOException("unknown account file format");
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("invalid account count: " + count);
+            }
+            byte[][] publicKeys = new byte[count][];
+            byte[][] privateKeys = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                publicKeys[i] = readKey(in);
+                privateKeys[i] = readKey(in);
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            KeyFactory keyFactory = KeyFactory.getInstance("EC");
+            Account[] accounts = new Account[count];
+            for (int i = 0; i < count; i++) {
+                PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicKeys[i]));
+                PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKeys[i]));
+                accounts[i] = new Account(new KeyPair(publicKey, privateKey));
+            }
+            return accounts;
+        } catch (IOException e) {
+            throw new UncheckedIOException("corrupt account file " + path, e);
+        } catch (GeneralSecurityException e) {
+            throw new UncheckedIOException("corrupt account file " + path, new IOException(e));
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, byte[] encoded) throws IOException {
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static byte[] readKey(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_KEY_SIZE) {
+            throw new IOException("invalid key length: " + length);
+        }
+        byte[] encoded = new byte[length];
+        in.readFully(encoded);
+        return encoded;
+    }
+}
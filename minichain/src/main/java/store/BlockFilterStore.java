@@ -0,0 +1,142 @@
+package store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 区块过滤器的存储，第i条记录即高度为i的区块的过滤器
+ *
+ * 指定了目录时，过滤器追加写入该目录下的filters.dat（与区块段文件放在一起），每条记录为长度(4) + 过滤器编码，
+ * 打开时顺序读取全部记录，丢弃写了一半的尾部记录；过滤器很小（每个元素约2.4字节），全部保存在内存中
+ */
+public class BlockFilterStore {
+
+    private static final String FILTER_FILE = "filters.dat";
+
+    private final List<byte[]> filters = new ArrayList<>();
+    private final FileChannel channel;
+    private long fileSize;
+    // 写入失败后不再写文件，文件中保留完整的前缀，重启时由区块补建其余的过滤器
+    private boolean writeFailed;
+
+    /**
+     * 只保存在内存中的过滤器存储
+     */
+    public BlockFilterStore() {
+        this.channel = null;
+    }
+
+    /**
+     * @param directory 存储目录
+     */
+    public BlockFilterStore(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            channel = FileChannel.open(directory.resolve(FILTER_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (fileSize + 4 <= size) {
+            lengthBuffer.clear();
+            readFully(lengthBuffer, fileSize);
+            int length = lengthBuffer.getInt(0);
+            if (length < 0 || fileSize + 4 + length > size) {
+                break;
+            }
+            ByteBuffer filter = ByteBuffer.allocate(length);
+            readFully(filter, fileSize + 4);
+            filters.add(filter.array());
+            fileSize += 4 + length;
+        }
+        channel.truncate(fileSize);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of " + FILTER_FILE);
+            }
+        }
+    }
+
+    /**
+     * 追加下一个高度的过滤器，写文件失败时过滤器仍然加入内存
+     * @param filter 过滤器编码
+     * @throws UncheckedIOException 第一次写文件失败
+     */
+    public synchronized void append(byte[] filter) {
+        filters.add(filter);
+        if (channel == null || writeFailed) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + filter.length);
+        buffer.putInt(filter.length).put(filter).flip();
+        try {
+            long position = fileSize;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            fileSize = position;
+        } catch (IOException e) {
+            writeFailed = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 丢弃高度不小于size的过滤器，用于与区块存储对齐（例如写入过滤器后、写入区块前进程退出）
+     * @param size 保留的过滤器数
+     */
+    public synchronized void truncate(int size) {
+        while (filters.size() > size) {
+            byte[] filter = filters.remove(filters.size() - 1);
+            fileSize -= 4 + filter.length;
+        }
+        if (channel != null) {
+            try {
+                channel.truncate(fileSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @param height 区块高度
+     * @return 该区块的过滤器编码
+     */
+    public synchronized byte[] get(int height) {
+        return filters.get(height);
+    }
+
+    public synchronized int size() {
+        return filters.size();
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
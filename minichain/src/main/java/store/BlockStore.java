@@ -0,0 +1,36 @@
+package store;
+
+import data.Block;
+import data.BlockHeader;
+
+/**
+ * 区块存储，按高度（创世区块为0）顺序追加和读取区块
+ */
+public interface BlockStore {
+
+    /**
+     * 追加一个区块，其高度即追加前的区块数
+     * @param block
+     */
+    void append(Block block);
+
+    /**
+     * @param height 区块高度
+     * @return 相应的区块
+     */
+    Block get(int height);
+
+    /**
+     * 只读取区块头，不读取区块体
+     * @param height 区块高度
+     * @return 相应的区块头
+     */
+    BlockHeader getHeader(int height);
+
+    /**
+     * @return 已存储的区块数
+     */
+    int size();
+
+    void close();
+}
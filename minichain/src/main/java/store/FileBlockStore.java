@@ -0,0 +1,326 @@
+package store;
+
+import codec.BinaryCodec;
+import data.Block;
+import data.BlockHeader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 基于文件的区块存储
+ *
+ * 区块按追加的方式写入若干个段文件（blk00000.dat、blk00001.dat...），每个区块记录即区块的BinaryCodec编码，
+ * 当前段文件超过段大小后写入新的段文件。
+ * 索引文件（index.dat）以魔数和格式版本开头，之后为每个区块记录一条定长记录：段号、段内偏移、记录长度，
+ * 以及前三个字段与区块数据的CRC32校验和，高度即记录的序号
+ *
+ * 每次追加先写区块数据并刷到磁盘，再写索引记录并刷到磁盘，因此索引记录指向的数据总是完整的。
+ * 打开时顺序检查每条索引记录的位置（与前一条记录相接、不超出段文件），只对最后一个段文件中的记录计算数据的校验和，
+ * 从第一条不合格的记录起截断索引和段文件；进程退出时只有最后一个段文件可能写了一半，打开的开销与链的高度无关。
+ * 更早的记录在第一次读取时检查校验和，不相符时抛出UncheckedIOException
+ *
+ * 读取时通过内存映射的FileChannel访问段文件，只解码所需的区块（或只解码区块头），
+ * 最近读取的少量区块缓存在内存中，整条链不会全部加载到堆上
+ */
+public class FileBlockStore implements BlockStore {
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final int INDEX_MAGIC = 0x42494458; // "BIDX"
+    private static final int FORMAT_VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int INDEX_RECORD_SIZE = 16;
+    private static final int CACHE_SIZE = 64;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final FileChannel indexChannel;
+    private final List<FileChannel> segmentChannels = new ArrayList<>();
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+
+    // 高度 -> 段号、段内偏移、记录长度
+    private int[] segments = new int[1024];
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] checksums = new int[1024];
+    private int size;
+    // 低于该高度的记录打开时没有检查校验和，checked记录其中已在读取时检查过的高度
+    private int uncheckedHeight;
+    private final BitSet checked = new BitSet();
+    // 当前段文件已写入的长度
+    private long activeSize;
+
+    private final Map<Integer, Block> cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 打开（或新建）一个区块存储目录
+     *
+     * @param directory 存储目录
+     * @param segmentSize 段文件大小上限（字节），不能超过2GB
+     */
+    public FileBlockStore(Path directory, long segmentSize) {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            loadIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 读取索引文件，从第一条不合格的索引记录起丢弃其后的全部区块（例如进程在写入过程中退出，或者文件损坏）
+     */
+    private void loadIndex() throws IOException {
+        readIndexHeader();
+        long records = (indexChannel.size() - INDEX_HEADER_SIZE) / INDEX_RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (records * INDEX_RECORD_SIZE));
+        readFully(indexChannel, buffer, INDEX_HEADER_SIZE);
+        buffer.flip();
+        long segmentFileSize = 0;
+        while (buffer.remaining() >= INDEX_RECORD_SIZE) {
+            int segment = buffer.getInt();
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            // 记录必须紧接前一条记录：在当前段文件的末尾，或者在下一个段文件的开头
+            int active = size == 0 ? 0 : segments[size - 1];
+            boolean next = size > 0 && segment == active + 1 && offset == 0;
+            if (length <= 0 || !(next || segment == active && offset == (size == 0 ? 0 : activeSize))) {
+                break;
+            }
+            if (segmentChannels.size() <= segment) {
+                openSegment(segment);
+                segmentFileSize = segmentChannels.get(segment).size();
+            }
+            if (segmentFileSize < (long) offset + length) {
+                break;
+            }
+            addRecord(segment, offset, length, checksum);
+            activeSize = (long) offset + length;
+        }
+        // 只检查最后一个段文件中记录的校验和
+        uncheckedHeight = size;
+        while (uncheckedHeight > 0 && segments[uncheckedHeight - 1] == segments[size - 1]) {
+            uncheckedHeight--;
+        }
+        for (int height = uncheckedHeight; height < size; height++) {
+            ByteBuffer data = ByteBuffer.allocate(lengths[height]);
+            readFully(segmentChannels.get(segments[height]), data, offsets[height]);
+            data.flip();
+            if (checksum(segments[height], offsets[height], data) != checksums[height]) {
+                activeSize = offsets[height];
+                size = height;
+                break;
+            }
+        }
+        indexChannel.truncate(INDEX_HEADER_SIZE + (long) size * INDEX_RECORD_SIZE);
+        if (segmentChannels.isEmpty()) {
+            openSegment(0);
+        }
+        // 截掉当前段文件中没有索引记录的尾部数据
+        int active = segmentChannels.size() - 1;
+        if (size == 0 || segments[size - 1] != active) {
+            activeSize = 0;
+        }
+        segmentChannels.get(active).truncate(activeSize);
+    }
+
+    /**
+     * 新的索引文件写入文件头，已有的索引文件检查文件头
+     */
+    private void readIndexHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        if (indexChannel.size() == 0) {
+            header.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).flip();
+            writeFully(indexChannel, header, 0);
+            indexChannel.force(true);
+            return;
+        }
+        // 不认识的索引文件不能当作损坏的记录截断，否则会丢弃整条链
+        if (!readFully(indexChannel, header, 0) || header.getInt(0) != INDEX_MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("unsupported block index format: " + directory.resolve(INDEX_FILE));
+        }
+    }
+
+    /**
+     * @return 是否读满了buffer，文件不够长时返回false
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(int segment, int offset, ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(INDEX_RECORD_SIZE - 4).putInt(segment).putInt(offset).putInt(data.remaining()).array());
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private void openSegment(int segment) throws IOException {
+        Path path = directory.resolve(String.format("blk%05d.dat", segment));
+        segmentChannels.add(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        mappings.add(null);
+    }
+
+    private void addRecord(int segment, int offset, int length, int checksum) {
+        if (size == segments.length) {
+            segments = Arrays.copyOf(segments, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            checksums = Arrays.copyOf(checksums, size * 2);
+        }
+        segments[size] = segment;
+        offsets[size] = offset;
+        lengths[size] = length;
+        checksums[size] = checksum;
+        size++;
+    }
+
+    @Override
+    public synchronized void append(Block block) {
+        byte[] data = BinaryCodec.encode(block);
+        int length = data.length;
+        try {
+            int segment = segmentChannels.size() - 1;
+            if (activeSize > 0 && activeSize + length > segmentSize) {
+                segment++;
+                openSegment(segment);
+                segmentChannels.get(segment).truncate(0);
+                activeSize = 0;
+            }
+            FileChannel channel = segmentChannels.get(segment);
+            writeFully(channel, ByteBuffer.wrap(data), activeSize);
+            channel.force(false);
+
+            // 区块数据刷到磁盘后再写索引记录
+            int checksum = checksum(segment, (int) activeSize, ByteBuffer.wrap(data));
+            ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+            record.putInt(segment).putInt((int) activeSize).putInt(length).putInt(checksum).flip();
+            writeFully(indexChannel, record, INDEX_HEADER_SIZE + (long) size * INDEX_RECORD_SIZE);
+            indexChannel.force(false);
+
+            addRecord(segment, (int) activeSize, length, checksum);
+            activeSize += length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache.put(size - 1, block);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized Block get(int height) {
+        checkHeight(height);
+        Block block = cache.get(height);
+        if (block != null) {
+            return block;
+        }
+        block = BinaryCodec.decodeBlock(record(height));
+        cache.put(height, block);
+        return block;
+    }
+
+    @Override
+    public synchronized BlockHeader getHeader(int height) {
+        checkHeight(height);
+        Block block = cache.get(height);
+        if (block != null) {
+            return block.getBlockHeader();
+        }
+        return BinaryCodec.decodeBlockHeader(record(height));
+    }
+
+    /**
+     * @return 指向区块记录的缓冲区，打开时没有检查过的记录先检查校验和
+     */
+    private ByteBuffer record(int height) {
+        int offset = offsets[height];
+        ByteBuffer buffer = mapping(segments[height], (long) offset + lengths[height]).duplicate();
+        buffer.position(offset).limit(offset + lengths[height]);
+        if (height < uncheckedHeight && !checked.get(height)) {
+            if (checksum(segments[height], offset, buffer) != checksums[height]) {
+                throw new UncheckedIOException(new IOException("block record at height " + height + " is corrupt"));
+            }
+            checked.set(height);
+        }
+        return buffer;
+    }
+
+    /**
+     * 获取段文件的只读内存映射，当前段文件不断增长，映射范围不足时重新映射
+     */
+    private MappedByteBuffer mapping(int segment, long requiredSize) {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping == null || mapping.capacity() < requiredSize) {
+            try {
+                FileChannel channel = segmentChannels.get(segment);
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mappings.set(segment, mapping);
+        }
+        return mapping;
+    }
+
+    private void checkHeight(int height) {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("height " + height + " out of " + size);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            indexChannel.force(true);
+            indexChannel.close();
+            for (FileChannel channel : segmentChannels) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package store;
+
+import data.Block;
+import data.BlockHeader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内存中的区块存储，进程退出后区块即丢失
+ */
+public class MemoryBlockStore implements BlockStore {
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    @Override
+    public synchronized void append(Block block) {
+        blocks.add(block);
+    }
+
+    @Override
+    public synchronized Block get(int height) {
+        return blocks.get(height);
+    }
+
+    @Override
+    public synchronized BlockHeader getHeader(int height) {
+        return blocks.get(height).getBlockHeader();
+    }
+
+    @Override
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
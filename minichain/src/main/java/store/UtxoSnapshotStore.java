@@ -0,0 +1,198 @@
+package store;
+
+import codec.BinaryCodec;
+import data.UTXO;
+import data.UtxoSet;
+import logging.LogManager;
+import logging.Logger;
+import utils.SecurityUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * UTXO集合的快照文件
+ *
+ * 快照记录某个区块高度上完整的UTXO集合，文件格式为：
+ *    魔数(4) + 格式版本(1) + 区块高度(4) + 该高度区块的哈希(32) + UTXO数量(8)
+ *    + 每个UTXO的记录：长度(4) + UTXO的BinaryCodec编码（含输出点）
+ *    + 以上全部内容的CRC32校验和(8)
+ *
+ * 写入时先写临时文件并刷到磁盘，再原子地重命名为快照文件，因此任何时刻磁盘上的快照要么是旧的完整快照，要么是新的完整快照。
+ * 读取时逐条解码并加入UTXO集合，不会把整个文件读入内存
+ */
+public class UtxoSnapshotStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(UtxoSnapshotStore.class);
+
+    private static final String SNAPSHOT_FILE = "utxo.snapshot";
+    private static final String TEMP_FILE = "utxo.snapshot.tmp";
+    private static final int MAGIC = 0x5554584f; // "UTXO"
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HASH_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    /**
+     * 快照对应的链上位置
+     */
+    public static class Snapshot {
+        private final int height;
+        private final String tipHash;
+        private final long utxoCount;
+
+        public Snapshot(int height, String tipHash, long utxoCount) {
+            this.height = height;
+            this.tipHash = tipHash;
+            this.utxoCount = utxoCount;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public String getTipHash() {
+            return tipHash;
+        }
+
+        public long getUtxoCount() {
+            return utxoCount;
+        }
+    }
+
+    private final Path directory;
+
+    public UtxoSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 写入一份新的快照，替换已有的快照
+     *
+     * @param height 快照对应的区块高度
+     * @param tipHash 该高度区块的哈希
+     * @param utxos 该高度上完整的UTXO集合
+     */
+    public void write(int height, String tipHash, UTXO[] utxos) {
+        Path temp = directory.resolve(TEMP_FILE);
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), crc));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.writeInt(height);
+                out.write(SecurityUtil.hexString2Bytes(tipHash));
+                out.writeLong(utxos.length);
+                for (UTXO utxo : utxos) {
+                    byte[] record = BinaryCodec.encode(utxo);
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+                // 校验和本身不参与校验
+                long checksum = crc.getValue();
+                out.writeLong(checksum);
+                // 输出流不关闭，由外层关闭FileChannel，以便在关闭前调用force
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 只读取快照的头部信息
+     *
+     * @return 快照对应的链上位置，没有快照或头部无法识别时返回null
+     */
+    public Snapshot readInfo() {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return readHeader(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 将快照中的UTXO逐条加入UTXO集合
+     *
+     * @param utxoSet 空的UTXO集合
+     * @return 快照对应的链上位置；没有快照或快照已损坏时返回null，此时UTXO集合被清空
+     */
+    public Snapshot load(UtxoSet utxoSet) {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, BUFFER_SIZE), crc));
+            Snapshot snapshot = readHeader(in);
+            if (snapshot == null) {
+                return null;
+            }
+            byte[] record = new byte[256];
+            for (long i = 0; i < snapshot.getUtxoCount(); i++) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("invalid record length: " + length);
+                }
+                if (record.length < length) {
+                    record = new byte[length];
+                }
+                in.readFully(record, 0, length);
+                utxoSet.addUtxo(BinaryCodec.decodeUtxo(ByteBuffer.wrap(record, 0, length)));
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Discard the UTXO snapshot", e);
+            utxoSet.clear();
+            return null;
+        }
+    }
+
+    private static Snapshot readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+            int height = in.readInt();
+            byte[] tipHash = new byte[HASH_SIZE];
+            in.readFully(tipHash);
+            long utxoCount = in.readLong();
+            return new Snapshot(height, SecurityUtil.bytes2HexString(tipHash), utxoCount);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接缓冲区池
+ *
+ * 直接缓冲区在通道读写时不需要再复制到临时的堆外内存，但分配和回收代价很高，因此按2的幂划分大小等级（最小4KB），
+ * 每个等级缓存至多maxPooledPerClass个用完归还的缓冲区。缓冲区可以在任意线程借出和归还
+ */
+public class BufferPool {
+
+    private static final int MIN_SHIFT = 12;
+
+    private final int maxShift;
+    private final int maxPooledPerClass;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> pools = new ArrayList<>();
+    private final AtomicIntegerArray pooled;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param maxBufferSize 可借出的最大缓冲区大小
+     * @param maxPooledPerClass 每个大小等级最多缓存的缓冲区数
+     */
+    public BufferPool(int maxBufferSize, int maxPooledPerClass) {
+        this.maxShift = shiftOf(maxBufferSize);
+        this.maxPooledPerClass = maxPooledPerClass;
+        for (int shift = MIN_SHIFT; shift <= maxShift; shift++) {
+            pools.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+        this.pooled = new AtomicIntegerArray(pools.size());
+    }
+
+    private static int shiftOf(int size) {
+        return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * 借出一个容量不小于size的直接缓冲区，position为0，limit为容量
+     * @param size 需要的容量
+     */
+    public ByteBuffer acquire(int size) {
+        int shift = shiftOf(size);
+        if (shift > maxShift) {
+            throw new IllegalArgumentException("buffer of " + size + " bytes exceeds the pool limit");
+        }
+        int index = shift - MIN_SHIFT;
+        ByteBuffer buffer = pools.get(index).poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(1 << shift);
+        }
+        pooled.decrementAndGet(index);
+        reused.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，归还后调用方不能再使用它
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_SHIFT) || capacity > (1 << maxShift)) {
+            return;
+        }
+        int index = shiftOf(capacity) - MIN_SHIFT;
+        if (pooled.incrementAndGet(index) > maxPooledPerClass) {
+            pooled.decrementAndGet(index);
+            return;
+        }
+        pools.get(index).offer(buffer);
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,27 @@
+package transport;
+
+/**
+ * inv/getdata消息中的一项：对象的种类和哈希
+ */
+public class InventoryItem {
+
+    public enum Kind {
+        TX, BLOCK
+    }
+
+    private final Kind kind;
+    private final String hash;
+
+    public InventoryItem(Kind kind, String hash) {
+        this.kind = kind;
+        this.hash = hash;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,148 @@
+package transport;
+
+import codec.BinaryCodec;
+import data.Block;
+import data.BlockHeader;
+import data.Transaction;
+import spv.HeadersMessage;
+import utils.SecurityUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 点对点消息的帧格式：magic(4) + 编码版本(1) + 消息类型(1) + 负载长度(4) + 负载
+ *
+ * 负载：
+ *    INV / GETDATA: 项数(4) + 每项的种类(1) + 哈希(32)
+ *
+ *    BLOCK / TX: BinaryCodec编码，直接写入池化的直接缓冲区
+ *
+ *    HEADERS: 起始高度(4) + 区块头的定长编码
+ *
+ * 编码版本即BinaryCodec.VERSION，版本不同的节点之间的连接在收到第一帧时被关闭
+ */
+public class MessageCodec {
+
+    public static final int MAGIC = 0x4d494e49;
+    public static final int HEADER_SIZE = 10;
+    public static final int MAX_FRAME_SIZE = 1 << 24;
+
+    private static final int HASH_SIZE = 32;
+    private static final int ITEM_SIZE = 1 + HASH_SIZE;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * 从池中借出一个缓冲区并写入帧头，调用方随后写入恰好payloadSize字节的负载并flip
+     */
+    private static ByteBuffer frame(BufferPool pool, MessageType type, int payloadSize) {
+        if (payloadSize > MAX_FRAME_SIZE - HEADER_SIZE) {
+            throw new IllegalArgumentException(type + " payload of " + payloadSize + " bytes is too large");
+        }
+        ByteBuffer buffer = pool.acquire(HEADER_SIZE + payloadSize);
+        buffer.putInt(MAGIC).put(BinaryCodec.VERSION).put(type.getCode()).putInt(payloadSize);
+        return buffer;
+    }
+
+    public static ByteBuffer inventory(BufferPool pool, MessageType type, List<InventoryItem> items) {
+        if (type != MessageType.INV && type != MessageType.GETDATA) {
+            throw new IllegalArgumentException("not an inventory message: " + type);
+        }
+        ByteBuffer buffer = frame(pool, type, 4 + items.size() * ITEM_SIZE);
+        buffer.putInt(items.size());
+        for (InventoryItem item : items) {
+            buffer.put((byte) item.getKind().ordinal());
+            buffer.put(SecurityUtil.hexString2Bytes(item.getHash()));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer block(BufferPool pool, Block block) {
+        ByteBuffer buffer = frame(pool, MessageType.BLOCK, BinaryCodec.encodedSize(block));
+        BinaryCodec.encode(block, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer transaction(BufferPool pool, Transaction transaction) {
+        ByteBuffer buffer = frame(pool, MessageType.TX, BinaryCodec.encodedSize(transaction));
+        BinaryCodec.encode(transaction, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer headers(BufferPool pool, HeadersMessage message) {
+        ByteBuffer buffer = frame(pool, MessageType.HEADERS, 4 + message.getHeaders().length);
+        buffer.putInt(message.getStartHeight()).put(message.getHeaders());
+        buffer.flip();
+        return buffer;
+    }
+
+    public static List<InventoryItem> decodeInventory(ByteBuffer payload) {
+        int count = payload.getInt();
+        if (count < 0 || count * (long) ITEM_SIZE != payload.remaining()) {
+            throw new IllegalArgumentException("inventory count " + count + " does not match the payload");
+        }
+        InventoryItem.Kind[] kinds = InventoryItem.Kind.values();
+        List<InventoryItem> items = new ArrayList<>(count);
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            int kind = payload.get();
+            if (kind < 0 || kind >= kinds.length) {
+                throw new IllegalArgumentException("unknown inventory kind " + kind);
+            }
+            payload.get(hash);
+            items.add(new InventoryItem(kinds[kind], SecurityUtil.bytes2HexString(hash)));
+        }
+        return items;
+    }
+
+    public static Block decodeBlock(ByteBuffer payload) {
+        return BinaryCodec.decodeBlock(payload);
+    }
+
+    public static Transaction decodeTransaction(ByteBuffer payload) {
+        return BinaryCodec.decodeTransaction(payload);
+    }
+
+    public static HeadersMessage decodeHeaders(ByteBuffer payload) {
+        int startHeight = payload.getInt();
+        if (payload.remaining() % BlockHeader.HEADER_SIZE != 0) {
+            throw new IllegalArgumentException("invalid headers length: " + payload.remaining());
+        }
+        byte[] headers = new byte[payload.remaining()];
+        payload.get(headers);
+        return new HeadersMessage(startHeight, headers);
+    }
+
+    /**
+     * 检查buffer中从当前位置开始的帧头
+     * @return 负载长度；帧头还不完整时返回-1
+     * @throws IllegalArgumentException magic、版本或长度不合法
+     */
+    static int peekPayloadSize(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int position = buffer.position();
+        if (buffer.getInt(position) != MAGIC) {
+            throw new IllegalArgumentException("bad magic");
+        }
+        if (buffer.get(position + 4) != BinaryCodec.VERSION) {
+            throw new IllegalArgumentException("unsupported codec version " + buffer.get(position + 4));
+        }
+        int payloadSize = buffer.getInt(position + 6);
+        if (payloadSize < 0 || payloadSize > MAX_FRAME_SIZE - HEADER_SIZE) {
+            throw new IllegalArgumentException("invalid payload size " + payloadSize);
+        }
+        return payloadSize;
+    }
+
+    static MessageType peekType(ByteBuffer buffer) {
+        return MessageType.fromCode(buffer.get(buffer.position() + 5));
+    }
+}
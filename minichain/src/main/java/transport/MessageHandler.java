@@ -0,0 +1,25 @@
+package transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 传输层事件的回调，所有回调都在选择器线程中执行，不能阻塞
+ */
+public interface MessageHandler {
+
+    /**
+     * 连接建立（主动连接成功或接受了对方的连接）
+     */
+    void onConnected(PeerConnection peer);
+
+    /**
+     * 收到一条完整的消息
+     * @param payload 负载，只在回调期间有效，需要保留的内容必须在回调中解码或复制
+     */
+    void onMessage(PeerConnection peer, MessageType type, ByteBuffer payload);
+
+    /**
+     * 连接关闭
+     */
+    void onDisconnected(PeerConnection peer);
+}
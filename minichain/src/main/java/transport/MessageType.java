@@ -0,0 +1,35 @@
+package transport;
+
+/**
+ * 点对点传输的消息类型
+ *
+ *    INV: 通告自己拥有的区块或交易（见InventoryItem）
+ *
+ *    GETDATA: 请求通告过的区块或交易
+ *
+ *    BLOCK / TX: 区块或交易的BinaryCodec编码
+ *
+ *    HEADERS: 一批连续的区块头（见spv.HeadersMessage）
+ */
+public enum MessageType {
+    INV(1), GETDATA(2), BLOCK(3), TX(4), HEADERS(5);
+
+    private final byte code;
+
+    MessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static MessageType fromCode(byte code) {
+        for (MessageType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown message type " + code);
+    }
+}
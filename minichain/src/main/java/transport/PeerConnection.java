@@ -0,0 +1,222 @@
+package transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 与一个远程节点的TCP连接
+ *
+ * 读写都在Transport的选择器线程中进行：
+ *    读：数据读入池化的读缓冲区，从中切分出完整的帧交给MessageHandler，不完整的帧留到下次读取；
+ *    帧比读缓冲区大时换一个足够大的缓冲区，处理完后再换回默认大小
+ *
+ *    写：send可以在任意线程调用，帧放入写队列后通知选择器线程，由选择器线程一次最多聚集WRITE_BATCH个帧写出；
+ *    套接字发送缓冲区满时关注OP_WRITE，可写时继续。写完的帧归还给缓冲区池
+ */
+public class PeerConnection {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BATCH = 16;
+
+    private final Transport transport;
+    private final BufferPool bufferPool;
+    private final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    private final boolean outbound;
+    private SelectionKey key;
+
+    // 以下字段只在选择器线程中访问
+    private ByteBuffer readBuffer;
+    private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH];
+
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean connected;
+    private volatile boolean closed;
+
+    PeerConnection(Transport transport, SocketChannel channel, InetSocketAddress remoteAddress, boolean outbound) {
+        this.transport = transport;
+        this.bufferPool = transport.getBufferPool();
+        this.channel = channel;
+        this.remoteAddress = remoteAddress;
+        this.outbound = outbound;
+        this.readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+    }
+
+    /**
+     * 发送一帧（MessageCodec的编码结果），调用后帧的所有权转移给连接，调用方不能再使用它
+     * 连接建立前发送的帧在连接建立后发出
+     */
+    public void send(ByteBuffer frame) {
+        if (closed) {
+            bufferPool.release(frame);
+            return;
+        }
+        writeQueue.offer(frame);
+        if (flushRequested.compareAndSet(false, true)) {
+            transport.requestFlush(this);
+        }
+    }
+
+    /**
+     * 关闭连接，可以在任意线程调用
+     */
+    public void close() {
+        transport.close(this, null);
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return 是否是本节点主动发起的连接
+     */
+    public boolean isOutbound() {
+        return outbound;
+    }
+
+    public boolean isConnected() {
+        return connected && !closed;
+    }
+
+    void register(Selector selector, int ops) throws IOException {
+        key = channel.register(selector, ops, this);
+    }
+
+    /**
+     * 完成主动连接
+     * @return 连接是否已经建立
+     */
+    boolean finishConnect() throws IOException {
+        if (!channel.finishConnect()) {
+            return false;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        markConnected();
+        return true;
+    }
+
+    void markConnected() {
+        connected = true;
+    }
+
+    void onReadable() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException("connection closed by peer");
+        }
+        readBuffer.flip();
+        while (true) {
+            int payloadSize = MessageCodec.peekPayloadSize(readBuffer);
+            if (payloadSize < 0) {
+                break;
+            }
+            int frameSize = MessageCodec.HEADER_SIZE + payloadSize;
+            if (readBuffer.remaining() < frameSize) {
+                if (frameSize > readBuffer.capacity()) {
+                    replaceReadBuffer(frameSize);
+                }
+                break;
+            }
+            int position = readBuffer.position();
+            MessageType type = MessageCodec.peekType(readBuffer);
+            ByteBuffer payload = readBuffer.duplicate();
+            payload.limit(position + frameSize).position(position + MessageCodec.HEADER_SIZE);
+            readBuffer.position(position + frameSize);
+            transport.dispatch(this, type, payload.slice());
+            if (closed) {
+                return;
+            }
+        }
+        readBuffer.compact();
+        if (readBuffer.position() == 0 && readBuffer.capacity() > READ_BUFFER_SIZE) {
+            // 大帧处理完后换回默认大小的缓冲区
+            bufferPool.release(readBuffer);
+            readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * 换一个容量不小于size的读缓冲区，并复制尚未处理的数据，调用时readBuffer处于读模式
+     */
+    private void replaceReadBuffer(int size) {
+        ByteBuffer larger = bufferPool.acquire(size);
+        larger.put(readBuffer);
+        larger.flip();
+        bufferPool.release(readBuffer);
+        readBuffer = larger;
+    }
+
+    void flush() throws IOException {
+        flushRequested.set(false);
+        if (!connected || closed) {
+            return;
+        }
+        while (!writeQueue.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer frame : writeQueue) {
+                writeBatch[count++] = frame;
+                if (count == WRITE_BATCH) {
+                    break;
+                }
+            }
+            channel.write(writeBatch, 0, count);
+            boolean partial = false;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer frame = writeBatch[i];
+                writeBatch[i] = null;
+                if (partial || frame.hasRemaining()) {
+                    partial = true;
+                    continue;
+                }
+                writeQueue.poll();
+                transport.onSent(frame.limit());
+                bufferPool.release(frame);
+            }
+            if (partial) {
+                // 套接字发送缓冲区已满，等待可写
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * 在选择器线程中关闭连接并归还所有缓冲区
+     * @return 本次调用是否关闭了连接（连接已关闭时返回false）
+     */
+    boolean closeNow() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 关闭时的异常可以忽略
+        }
+        bufferPool.release(readBuffer);
+        ByteBuffer frame;
+        while ((frame = writeQueue.poll()) != null) {
+            bufferPool.release(frame);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(remoteAddress);
+    }
+}
@@ -0,0 +1,506 @@
+package transport;
+
+import config.MiniChainConfig;
+import consensus.BatchVerifier;
+import consensus.DifficultySchedule;
+import data.Block;
+import data.BlockHeader;
+import data.Transaction;
+import logging.LogManager;
+import logging.Logger;
+import spv.HeadersMessage;
+import utils.CompactTarget;
+import utils.MinerUtil;
+import utils.SecurityUtil;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在Transport之上按inv/getdata转发区块和交易的节点
+ *
+ *    本地产生的区块或交易先放入缓存，再向所有连接通告inv
+ *
+ *    收到inv时，对没有见过也没有请求过的对象发送getdata；收到getdata时从缓存中取出对象发送
+ *
+ *    inv和getdata先放入每个连接的发送队列，由刷新线程每隔flushInterval毫秒合并为一条消息发送，
+ *    队列中积累了一个批次的条目时立即发送，不会为每笔交易单独发送一条消息；区块的传播延迟决定分叉的多少，
+ *    区块的条目放入队列后连同队列中已有的条目立即发送
+ *
+ *    每个请求记录发往的连接和超时时间。请求超时、或者连接断开时（包括对方已不再缓存该对象，以及消息解码失败而被关闭），
+ *    依次向其他通告过该对象的连接重新请求，没有其他连接时放弃，之后再收到inv时重新请求
+ *
+ *    收到新的区块或交易时先检查，通过后放入缓存、通知Listener，再向除发送方以外的连接发送inv
+ *
+ * 节点不知道远程区块的高度，只检查不依赖链状态的部分：区块哈希满足区块头中的难度且难度不低于难度下限，
+ * Merkle根与区块体一致（解码时检查），以及每笔交易的签名。验签较慢，在单独的线程池中进行，不阻塞选择器线程；
+ * 检查不通过时关闭发送方的连接，对象不会被缓存和转发
+ *
+ * 缓存最近的cacheSize个区块和交易，更早的对象不再响应getdata
+ */
+public class RelayNode {
+
+    private static final Logger LOGGER = LogManager.getLogger(RelayNode.class);
+
+    /**
+     * 收到远程节点转发的对象时的回调，区块和交易在检查通过后于验证线程中回调，区块头在选择器线程中回调
+     */
+    public interface Listener {
+        void onBlock(Block block, PeerConnection from);
+
+        void onTransaction(Transaction transaction, PeerConnection from);
+
+        void onHeaders(HeadersMessage message, PeerConnection from);
+    }
+
+    // 一条inv或getdata消息最多包含的条目数
+    private static final int MAX_BATCH_ITEMS = 1000;
+    // 每个请求最多记录的其他通告过该对象的连接数
+    private static final int MAX_ALTERNATIVES = 8;
+
+    /**
+     * 一个连接待发送的inv和getdata条目
+     */
+    private static class Outbox {
+        private final List<InventoryItem> inventory = new ArrayList<>();
+        private final List<InventoryItem> getData = new ArrayList<>();
+    }
+
+    /**
+     * 已发送getdata但还没有收到的对象
+     */
+    private static class Request {
+        private final InventoryItem item;
+        private PeerConnection peer;
+        private long deadline;
+        // 同样通告过该对象的其他连接，按通告的顺序重新请求
+        private final Deque<PeerConnection> alternatives = new ArrayDeque<>();
+
+        Request(InventoryItem item) {
+            this.item = item;
+        }
+    }
+
+    private final Transport transport;
+    private final BufferPool bufferPool;
+    private final Listener listener;
+    private final BigInteger maxTarget = DifficultySchedule.getDefault().getMaxTarget();
+    private final ExecutorService verifier;
+    private final ScheduledExecutorService flusher;
+    private final long requestTimeoutNanos;
+    private final List<PeerConnection> peers = new CopyOnWriteArrayList<>();
+    private final Map<PeerConnection, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final Map<String, Block> blocks;
+    private final Map<String, Transaction> transactions;
+    // 对象哈希 -> 进行中的请求，所有读写都持有该对象的锁
+    private final Map<String, Request> requested = new HashMap<>();
+
+    /**
+     * 按MiniChainConfig中的刷新间隔和请求超时时间创建节点
+     *
+     * @param listener 收到新对象时的回调
+     * @param cacheSize 缓存的区块数和交易数
+     */
+    public RelayNode(Listener listener, int cacheSize) {
+        this(listener, cacheSize, MiniChainConfig.P2P_FLUSH_INTERVAL, MiniChainConfig.P2P_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param listener 收到新对象时的回调
+     * @param cacheSize 缓存的区块数和交易数
+     * @param flushInterval 批量发送inv和getdata的间隔（毫秒）
+     * @param requestTimeout getdata请求的超时时间（毫秒）
+     */
+    public RelayNode(Listener listener, int cacheSize, long flushInterval, long requestTimeout) {
+        if (flushInterval <= 0 || requestTimeout <= 0) {
+            throw new IllegalArgumentException("flushInterval and requestTimeout must be positive");
+        }
+        this.listener = listener;
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeout);
+        this.bufferPool = new BufferPool(MessageCodec.MAX_FRAME_SIZE, 64);
+        this.blocks = boundedMap(cacheSize);
+        this.transactions = boundedMap(cacheSize);
+        this.verifier = Executors.newFixedThreadPool(MiniChainConfig.VERIFIER_THREADS, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "relay-verifier-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "relay-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                    expireRequests();
+                } catch (Throwable e) {
+                    // 异常会终止定时任务，记录后继续
+                    LOGGER.error("p2p relay flush failed", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        this.transport = new Transport(new MessageHandler() {
+            @Override
+            public void onConnected(PeerConnection peer) {
+                outboxes.put(peer, new Outbox());
+                peers.add(peer);
+            }
+
+            @Override
+            public void onMessage(PeerConnection peer, MessageType type, ByteBuffer payload) {
+                handle(peer, type, payload);
+            }
+
+            @Override
+            public void onDisconnected(PeerConnection peer) {
+                peers.remove(peer);
+                outboxes.remove(peer);
+                reassignRequests(peer);
+            }
+        }, bufferPool);
+    }
+
+    private static <V> Map<String, V> boundedMap(final int capacity) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    public void start() {
+        transport.start();
+    }
+
+    public InetSocketAddress listen(InetSocketAddress address) {
+        return transport.listen(address);
+    }
+
+    public PeerConnection connect(InetSocketAddress address) {
+        return transport.connect(address);
+    }
+
+    public void close() {
+        flusher.shutdownNow();
+        transport.close();
+        verifier.shutdownNow();
+    }
+
+    /**
+     * 转发本地产生的区块
+     */
+    public void announceBlock(Block block) {
+        String hash = block.getHash();
+        if (blocks.put(hash, block) == null) {
+            announce(new InventoryItem(InventoryItem.Kind.BLOCK, hash), null);
+        }
+    }
+
+    /**
+     * 转发本地产生的交易
+     */
+    public void announceTransaction(Transaction transaction) {
+        String hash = transaction.getTxHash();
+        if (transactions.put(hash, transaction) == null) {
+            announce(new InventoryItem(InventoryItem.Kind.TX, hash), null);
+        }
+    }
+
+    /**
+     * 向所有连接推送一批区块头
+     */
+    public void broadcastHeaders(HeadersMessage message) {
+        for (PeerConnection peer : peers) {
+            peer.send(MessageCodec.headers(bufferPool, message));
+        }
+    }
+
+    private void announce(InventoryItem item, PeerConnection except) {
+        for (PeerConnection peer : peers) {
+            if (peer != except) {
+                enqueue(peer, item, MessageType.INV);
+            }
+        }
+    }
+
+    /**
+     * 把条目放入连接的发送队列，队列满一个批次或者条目是区块时立即发送
+     */
+    private void enqueue(PeerConnection peer, InventoryItem item, MessageType type) {
+        Outbox outbox = outboxes.get(peer);
+        if (outbox == null) {
+            return;
+        }
+        List<InventoryItem> batch = null;
+        synchronized (outbox) {
+            List<InventoryItem> queue = type == MessageType.INV ? outbox.inventory : outbox.getData;
+            queue.add(item);
+            if (queue.size() >= MAX_BATCH_ITEMS || item.getKind() == InventoryItem.Kind.BLOCK) {
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+        }
+        if (batch != null) {
+            peer.send(MessageCodec.inventory(bufferPool, type, batch));
+        }
+    }
+
+    /**
+     * 发送所有连接队列中的inv和getdata
+     */
+    private void flush() {
+        for (Map.Entry<PeerConnection, Outbox> entry : outboxes.entrySet()) {
+            Outbox outbox = entry.getValue();
+            List<InventoryItem> inventory;
+            List<InventoryItem> getData;
+            synchronized (outbox) {
+                if (outbox.inventory.isEmpty() && outbox.getData.isEmpty()) {
+                    continue;
+                }
+                inventory = new ArrayList<>(outbox.inventory);
+                getData = new ArrayList<>(outbox.getData);
+                outbox.inventory.clear();
+                outbox.getData.clear();
+            }
+            send(entry.getKey(), MessageType.GETDATA, getData);
+            send(entry.getKey(), MessageType.INV, inventory);
+        }
+    }
+
+    private void send(PeerConnection peer, MessageType type, List<InventoryItem> items) {
+        for (int from = 0; from < items.size(); from += MAX_BATCH_ITEMS) {
+            List<InventoryItem> batch = items.subList(from, Math.min(items.size(), from + MAX_BATCH_ITEMS));
+            peer.send(MessageCodec.inventory(bufferPool, type, batch));
+        }
+    }
+
+    private void handle(PeerConnection peer, MessageType type, ByteBuffer payload) {
+        switch (type) {
+            case INV:
+                onInventory(peer, MessageCodec.decodeInventory(payload));
+                break;
+            case GETDATA:
+                onGetData(peer, MessageCodec.decodeInventory(payload));
+                break;
+            case BLOCK:
+                Block block = MessageCodec.decodeBlock(payload);
+                received(block.getHash());
+                if (!blocks.containsKey(block.getHash())) {
+                    receiveBlock(peer, block);
+                }
+                break;
+            case TX:
+                Transaction transaction = MessageCodec.decodeTransaction(payload);
+                received(transaction.getTxHash());
+                if (!transactions.containsKey(transaction.getTxHash())) {
+                    receiveTransaction(peer, transaction);
+                }
+                break;
+            case HEADERS:
+                listener.onHeaders(MessageCodec.decodeHeaders(payload), peer);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void receiveBlock(final PeerConnection peer, final Block block) {
+        verifier.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkBlock(block);
+                    String hash = block.getHash();
+                    if (blocks.put(hash, block) == null) {
+                        listener.onBlock(block, peer);
+                        announce(new InventoryItem(InventoryItem.Kind.BLOCK, hash), peer);
+                    }
+                } catch (Throwable e) {
+                    transport.close(peer, e);
+                }
+            }
+        });
+    }
+
+    private void receiveTransaction(final PeerConnection peer, final Transaction transaction) {
+        verifier.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkTransaction(transaction);
+                    String hash = transaction.getTxHash();
+                    if (transactions.put(hash, transaction) == null) {
+                        listener.onTransaction(transaction, peer);
+                        announce(new InventoryItem(InventoryItem.Kind.TX, hash), peer);
+                    }
+                } catch (Throwable e) {
+                    transport.close(peer, e);
+                }
+            }
+        });
+    }
+
+    private void checkBlock(Block block) {
+        BlockHeader blockHeader = block.getBlockHeader();
+        int bits = blockHeader.getDifficulty();
+        if (CompactTarget.decode(bits).compareTo(maxTarget) > 0) {
+            throw new IllegalArgumentException("block " + block.getHash() + " difficulty "
+                    + CompactTarget.toHex(bits) + " is below the limit");
+        }
+        if (!MinerUtil.meetsTarget(SecurityUtil.sha256Digest(blockHeader.toBytes()), CompactTarget.toBytes(bits))) {
+            throw new IllegalArgumentException("block " + block.getHash() + " does not meet its difficulty "
+                    + CompactTarget.toHex(bits));
+        }
+        for (Transaction transaction : block.getBlockBody().getTransactions()) {
+            checkTransaction(transaction);
+        }
+    }
+
+    private static void checkTransaction(Transaction transaction) {
+        if (!BatchVerifier.verify(transaction)) {
+            throw new IllegalArgumentException("transaction " + transaction.getTxHash() + " has an invalid signature");
+        }
+    }
+
+    private void onInventory(PeerConnection peer, List<InventoryItem> items) {
+        long now = System.nanoTime();
+        synchronized (requested) {
+            for (InventoryItem item : items) {
+                Map<String, ?> cache = item.getKind() == InventoryItem.Kind.BLOCK ? blocks : transactions;
+                if (cache.containsKey(item.getHash())) {
+                    continue;
+                }
+                Request request = requested.get(item.getHash());
+                if (request == null) {
+                    request = new Request(item);
+                    requested.put(item.getHash(), request);
+                    request(request, peer, now);
+                } else if (request.peer != peer && request.alternatives.size() < MAX_ALTERNATIVES
+                        && !request.alternatives.contains(peer)) {
+                    request.alternatives.add(peer);
+                }
+            }
+        }
+    }
+
+    private void request(Request request, PeerConnection peer, long now) {
+        request.peer = peer;
+        request.deadline = now + requestTimeoutNanos;
+        enqueue(peer, request.item, MessageType.GETDATA);
+    }
+
+    private void received(String hash) {
+        synchronized (requested) {
+            requested.remove(hash);
+        }
+    }
+
+    /**
+     * 连接断开时，发往该连接的请求改向其他连接发送，该连接也不再作为其他请求的备选
+     */
+    private void reassignRequests(PeerConnection peer) {
+        long now = System.nanoTime();
+        synchronized (requested) {
+            Iterator<Request> iterator = requested.values().iterator();
+            while (iterator.hasNext()) {
+                Request request = iterator.next();
+                request.alternatives.remove(peer);
+                if (request.peer == peer && !retry(request, now)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 超时的请求改向其他连接发送
+     */
+    private void expireRequests() {
+        long now = System.nanoTime();
+        synchronized (requested) {
+            Iterator<Request> iterator = requested.values().iterator();
+            while (iterator.hasNext()) {
+                Request request = iterator.next();
+                if (now - request.deadline >= 0 && !retry(request, now)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 是否还有其他连接可以请求，没有时请求应被放弃
+     */
+    private boolean retry(Request request, long now) {
+        PeerConnection next = request.alternatives.pollFirst();
+        if (next == null) {
+            return false;
+        }
+        request(request, next, now);
+        return true;
+    }
+
+    /**
+     * @return 进行中的getdata请求数
+     */
+    public int getPendingRequestCount() {
+        synchronized (requested) {
+            return requested.size();
+        }
+    }
+
+    private void onGetData(PeerConnection peer, List<InventoryItem> items) {
+        for (InventoryItem item : items) {
+            if (item.getKind() == InventoryItem.Kind.BLOCK) {
+                Block block = blocks.get(item.getHash());
+                if (block != null) {
+                    peer.send(MessageCodec.block(bufferPool, block));
+                }
+            } else {
+                Transaction transaction = transactions.get(item.getHash());
+                if (transaction != null) {
+                    peer.send(MessageCodec.transaction(bufferPool, transaction));
+                }
+            }
+        }
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getPeerCount() {
+        return peers.size();
+    }
+}
@@ -0,0 +1,329 @@
+package transport;
+
+import logging.LogManager;
+import logging.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于NIO的非阻塞TCP传输层
+ *
+ * 一个选择器线程处理所有监听端口和连接的接受、连接、读和写事件，其他线程通过任务队列与它交互：
+ * 发起连接、开始监听、关闭连接都封装成任务交给选择器线程执行，发送消息只需把帧放入连接的写队列，
+ * 再唤醒选择器线程写出。收到的完整消息在选择器线程中交给MessageHandler
+ */
+public class Transport {
+
+    private static final Logger LOGGER = LogManager.getLogger(Transport.class);
+
+    private final MessageHandler handler;
+    private final BufferPool bufferPool;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<PeerConnection> flushes = new ConcurrentLinkedQueue<>();
+    private final Set<PeerConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<PeerConnection, Boolean>());
+    private final List<ServerSocketChannel> servers = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public Transport(MessageHandler handler, BufferPool bufferPool) {
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "p2p-selector");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * 在指定地址上监听连接
+     * @param address 端口为0时由系统分配
+     * @return 实际监听的地址
+     */
+    public InetSocketAddress listen(final InetSocketAddress address) {
+        try {
+            final ServerSocketChannel server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(address);
+            servers.add(server);
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.register(selector, SelectionKey.OP_ACCEPT);
+                    } catch (IOException e) {
+                        // 只放弃这个监听端口，不影响已有的连接
+                        LOGGER.error("p2p listen on " + address + " failed", e);
+                        servers.remove(server);
+                        closeQuietly(server);
+                    }
+                }
+            });
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 向远程节点发起连接，连接建立后回调MessageHandler.onConnected
+     * @return 连接，在连接建立前就可以向其发送消息
+     */
+    public PeerConnection connect(InetSocketAddress address) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final PeerConnection peer = new PeerConnection(this, channel, address, true);
+            final boolean connected = channel.connect(address);
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connections.add(peer);
+                        if (connected) {
+                            peer.register(selector, SelectionKey.OP_READ);
+                            peer.markConnected();
+                            onConnected(peer);
+                        } else {
+                            peer.register(selector, SelectionKey.OP_CONNECT);
+                        }
+                    } catch (Throwable e) {
+                        close(peer, e);
+                    }
+                }
+            });
+            return peer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 停止选择器线程，关闭所有连接和监听端口
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+
+    void requestFlush(PeerConnection peer) {
+        flushes.offer(peer);
+        selector.wakeup();
+    }
+
+    void close(final PeerConnection peer, final Throwable cause) {
+        if (Thread.currentThread() != thread) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    close(peer, cause);
+                }
+            });
+            return;
+        }
+        if (peer.closeNow()) {
+            connections.remove(peer);
+            // 对方正常关闭连接时不输出
+            if (cause instanceof Error) {
+                LOGGER.error("p2p connection " + peer + " failed", cause);
+            } else if (cause != null && !(cause instanceof EOFException)) {
+                LOGGER.info("p2p connection {} closed: {}", peer, cause);
+            }
+            handler.onDisconnected(peer);
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOGGER.error("p2p selector failed", e);
+                break;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                // 任务自行关闭出错的连接，这里只保证选择器线程不因某个任务退出
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    LOGGER.error("p2p task failed", e);
+                }
+            }
+            PeerConnection flushing;
+            while ((flushing = flushes.poll()) != null) {
+                try {
+                    flushing.flush();
+                } catch (Throwable e) {
+                    close(flushing, e);
+                }
+            }
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept((ServerSocketChannel) key.channel());
+                    continue;
+                }
+                PeerConnection peer = (PeerConnection) key.attachment();
+                try {
+                    if (key.isConnectable() && peer.finishConnect()) {
+                        onConnected(peer);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        peer.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        peer.flush();
+                    }
+                } catch (Throwable e) {
+                    // 消息处理中的任何错误（包括Error）都只关闭这一个连接
+                    close(peer, e);
+                }
+            }
+        }
+        for (PeerConnection peer : new ArrayList<>(connections)) {
+            close(peer, null);
+        }
+        for (ServerSocketChannel server : servers) {
+            closeQuietly(server);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // 关闭时的异常可以忽略
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        PeerConnection peer = null;
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            peer = new PeerConnection(this, channel, (InetSocketAddress) channel.getRemoteAddress(), false);
+            connections.add(peer);
+            peer.register(selector, SelectionKey.OP_READ);
+            peer.markConnected();
+            onConnected(peer);
+        } catch (IOException e) {
+            if (peer != null) {
+                close(peer, e);
+            } else {
+                LOGGER.warn("p2p accept failed", e);
+            }
+        } catch (Throwable e) {
+            if (peer != null) {
+                close(peer, e);
+            } else {
+                LOGGER.error("p2p accept failed", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(ServerSocketChannel server) {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // 关闭时的异常可以忽略
+        }
+    }
+
+    private void onConnected(PeerConnection peer) throws IOException {
+        handler.onConnected(peer);
+        // 发送连接建立前排队的消息
+        peer.flush();
+    }
+
+    void dispatch(PeerConnection peer, MessageType type, ByteBuffer payload) {
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(MessageCodec.HEADER_SIZE + payload.remaining());
+        handler.onMessage(peer, type, payload);
+    }
+
+    void onSent(int frameSize) {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(frameSize);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+}
@@ -0,0 +1,96 @@
+package utils;
+
+import java.math.BigInteger;
+
+/**
+ * 难度目标值的紧凑编码（与比特币区块头中的nBits相同）
+ *
+ * 目标值是一个256位的无符号整数，区块哈希（按大端序解释）不大于目标值即满足难度条件。紧凑编码为32位：
+ * 最高字节为目标值的字节数（指数），低3字节为目标值最高的3个字节（尾数），即 target = mantissa * 256^(exponent - 3)。
+ * 尾数的最高位是符号位，编码时保持为0。尾数有23位有效精度，难度可以按远小于一个十六进制位（16倍）的粒度调整
+ */
+public class CompactTarget {
+
+    private static final int HASH_SIZE = 32;
+
+    private CompactTarget() {
+    }
+
+    /**
+     * @param bits 紧凑编码
+     * @return 目标值
+     * @throws IllegalArgumentException 编码为负数或超过256位
+     */
+    public static BigInteger decode(int bits) {
+        int exponent = bits >>> 24;
+        int mantissa = bits & 0x007fffff;
+        if ((bits & 0x00800000) != 0) {
+            throw new IllegalArgumentException("negative compact target: " + toHex(bits));
+        }
+        BigInteger target = exponent <= 3
+                ? BigInteger.valueOf(mantissa >>> (8 * (3 - exponent)))
+                : BigInteger.valueOf(mantissa).shiftLeft(8 * (exponent - 3));
+        if (target.bitLength() > 8 * HASH_SIZE) {
+            throw new IllegalArgumentException("compact target overflows 256 bits: " + toHex(bits));
+        }
+        return target;
+    }
+
+    /**
+     * 编码目标值，只保留最高的3个字节，即向下取整（难度只会略微变高）
+     *
+     * @param target 非负的目标值
+     * @return 紧凑编码
+     */
+    public static int encode(BigInteger target) {
+        if (target.signum() < 0) {
+            throw new IllegalArgumentException("negative target: " + target);
+        }
+        int size = (target.bitLength() + 7) / 8;
+        long mantissa = size <= 3
+                ? target.longValue() << (8 * (3 - size))
+                : target.shiftRight(8 * (size - 3)).longValue();
+        // 尾数的最高位是符号位，占用时尾数右移一个字节、指数加1
+        if ((mantissa & 0x00800000L) != 0) {
+            mantissa >>>= 8;
+            size++;
+        }
+        return (int) mantissa | (size << 24);
+    }
+
+    /**
+     * @param zeroBits 哈希值需要满足的前导0比特数
+     * @return 相应的目标值：低于2^(256 - zeroBits)的最大值
+     */
+    public static BigInteger fromLeadingZeroBits(int zeroBits) {
+        if (zeroBits < 0 || zeroBits > 8 * HASH_SIZE) {
+            throw new IllegalArgumentException("invalid number of leading zero bits: " + zeroBits);
+        }
+        return BigInteger.ONE.shiftLeft(8 * HASH_SIZE - zeroBits).subtract(BigInteger.ONE);
+    }
+
+    /**
+     * @param bits 紧凑编码
+     * @return 32字节大端序的目标值，挖矿时与哈希值逐字节比较
+     */
+    public static byte[] toBytes(int bits) {
+        byte[] magnitude = decode(bits).toByteArray();
+        byte[] target = new byte[HASH_SIZE];
+        // toByteArray可能多出一个符号字节
+        int length = Math.min(magnitude.length, HASH_SIZE);
+        System.arraycopy(magnitude, magnitude.length - length, target, HASH_SIZE - length, length);
+        return target;
+    }
+
+    /**
+     * @return 找到一个满足该目标值的哈希平均需要尝试的次数，即2^256 / (target + 1)
+     */
+    public static double expectedHashes(int bits) {
+        BigInteger target = decode(bits);
+        return Math.pow(2, 8 * HASH_SIZE) / (target.doubleValue() + 1);
+    }
+
+    public static String toHex(int bits) {
+        return String.format("0x%08x", bits);
+    }
+}
@@ -0,0 +1,129 @@
+package utils;
+
+import data.BlockHeader;
+
+/**
+ * 工作量证明专用的SHA256计算器
+ *
+ * 区块头的二进制编码为88字节，SHA256按64字节分组计算，前64字节（version、preBlockHash和
+ * merkleRootHash的前28字节）在挖矿过程中保持不变，因此可以预先计算出第一组压缩后的中间状态（midstate）。
+ * 之后每次尝试只需替换第二组中的nonce，再执行一次压缩函数即可得到区块哈希，整个过程不分配任何对象
+ *
+ * 该类不是线程安全的，每个挖矿线程需要使用各自的实例
+ */
+public class MidstateHasher {
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] INITIAL_STATE = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int BLOCK_SIZE = 64;
+    // 第二组中nonce所在的字（int）下标
+    private static final int NONCE_WORD = (BlockHeader.NONCE_OFFSET - BLOCK_SIZE) / 4;
+
+    // 第一组压缩后的中间状态
+    private final int[] midstate = new int[8];
+    // 第二组的消息字，除nonce外均已填充好（包括SHA256的补位和长度）
+    private final int[] tail = new int[16];
+    // 压缩函数的工作区和输出
+    private final int[] w = new int[64];
+    private final int[] state = new int[8];
+
+    public MidstateHasher(BlockHeader blockHeader) {
+        this(blockHeader.toBytes());
+    }
+
+    /**
+     * @param header 区块头的二进制编码，长度必须为BlockHeader.HEADER_SIZE
+     */
+    public MidstateHasher(byte[] header) {
+        if (header.length != BlockHeader.HEADER_SIZE) {
+            throw new IllegalArgumentException("header must be " + BlockHeader.HEADER_SIZE + " bytes");
+        }
+        for (int i = 0; i < 16; i++) {
+            w[i] = readInt(header, 4 * i);
+        }
+        System.arraycopy(INITIAL_STATE, 0, midstate, 0, 8);
+        compress(midstate, midstate);
+
+        // 剩余24字节 + 0x80补位 + 0填充 + 消息比特长度
+        int remaining = (BlockHeader.HEADER_SIZE - BLOCK_SIZE) / 4;
+        for (int i = 0; i < remaining; i++) {
+            tail[i] = readInt(header, BLOCK_SIZE + 4 * i);
+        }
+        tail[remaining] = 0x80000000;
+        tail[15] = BlockHeader.HEADER_SIZE * 8;
+    }
+
+    /**
+     * 计算以指定nonce替换后的区块头哈希值
+     *
+     * @param nonce 随机字段
+     * @param digest 长度为32的输出数组
+     */
+    public void hash(long nonce, byte[] digest) {
+        System.arraycopy(tail, 0, w, 0, 16);
+        w[NONCE_WORD] = (int) (nonce >>> 32);
+        w[NONCE_WORD + 1] = (int) nonce;
+        compress(midstate, state);
+        for (int i = 0; i < 8; i++) {
+            int v = state[i];
+            digest[4 * i] = (byte) (v >>> 24);
+            digest[4 * i + 1] = (byte) (v >>> 16);
+            digest[4 * i + 2] = (byte) (v >>> 8);
+            digest[4 * i + 3] = (byte) v;
+        }
+    }
+
+    /**
+     * SHA256压缩函数，消息字已放在w[0..15]中
+     */
+    private void compress(int[] in, int[] out) {
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+        int a = in[0], b = in[1], c = in[2], d = in[3], e = in[4], f = in[5], g = in[6], h = in[7];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = h + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        out[0] = in[0] + a;
+        out[1] = in[1] + b;
+        out[2] = in[2] + c;
+        out[3] = in[3] + d;
+        out[4] = in[4] + e;
+        out[5] = in[5] + f;
+        out[6] = in[6] + g;
+        out[7] = in[7] + h;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+}
@@ -1,21 +1,23 @@
 package utils;
 
-import config.MiniChainConfig;
-
 public class MinerUtil {
 
     /**
-     * 静态方法，使用MinerUtil.hashPrefixTarget()即可调用
-     * 该方法根据根据挖矿的难度值设置，返回一个相应数量的0组成的字符串，供挖矿线程判断其区块是否满足难度条件
+     * 判断哈希值（按大端序解释为无符号整数）是否不大于目标值，逐字节比较，通常在第一个字节就能得出结果
      *
-     * @return 根据挖矿难度值，相应数量的0组成的字符串
+     * @param digest 哈希值
+     * @param target 32字节大端序的目标值，见CompactTarget.toBytes
+     * @return 是否满足难度条件
      */
-    public static String hashPrefixTarget() {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (int i = 0; i < MiniChainConfig.DIFFICULTY; i++) {
-            stringBuilder.append("0");
+    public static boolean meetsTarget(byte[] digest, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            int d = digest[i] & 0xff;
+            int t = target[i] & 0xff;
+            if (d != t) {
+                return d < t;
+            }
         }
-        return stringBuilder.toString();
+        return true;
     }
 
 }
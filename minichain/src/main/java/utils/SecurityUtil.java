@@ -1,6 +1,8 @@
 package utils;
 
+import config.MiniChainConfig;
 import data.UTXO;
+import metrics.Metrics;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.ECGenParameterSpec;
@@ -13,6 +15,25 @@ public class SecurityUtil {
      */
     private static final String HEX_CHAR = "0123456789abcdef";
 
+    /**
+     * 验签结果缓存
+     */
+    private static final SignatureCache SIGNATURE_CACHE = new SignatureCache(MiniChainConfig.SIGNATURE_CACHE_SIZE);
+
+    /**
+     * 每个线程缓存一个验签用的Signature实例，避免每次验签都重新查找算法提供者
+     */
+    private static final ThreadLocal<Signature> VERIFY_SIGNATURE = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance("SHA256withECDSA");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     /**
      * 比特数据转为相应的十六进制字符串
      * @param data
@@ -28,6 +49,21 @@ public class SecurityUtil {
         return stringBuilder.toString();
     }
 
+    /**
+     * 十六进制字符串转为相应的比特数据
+     * @param hex
+     * @return
+     */
+    public static byte[] hexString2Bytes(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            data[i] = (byte) ((high << 4) | low);
+        }
+        return data;
+    }
+
     /**
      * 使用SHA256算法进行哈希值计算
      *
@@ -77,14 +113,23 @@ public class SecurityUtil {
      * @return
      */
     public static KeyPair secp256k1Generate() {
+        // 随机数保证每次生成不同的密钥
+        return secp256k1Generate(new SecureRandom());
+    }
+
+    /**
+     * 使用指定的随机数源生成secp256k1密钥，随机数源以固定种子初始化时可以得到确定的密钥（用于测试和基准测试）
+     * @param random 随机数源
+     * @return
+     */
+    public static KeyPair secp256k1Generate(SecureRandom random) {
         KeyPair keyPair = null;
         try {
             // ECC(Elliptic Curve Cryptography) 椭圆曲线密钥生成器
             KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
             // 指定secp256k1曲线
             ECGenParameterSpec ecGenParameterSpec = new ECGenParameterSpec("secp256k1");
-            // 随机数保证每次生成不同的密钥
-            keyPairGenerator.initialize(ecGenParameterSpec, new SecureRandom());
+            keyPairGenerator.initialize(ecGenParameterSpec, random);
             // 生成公私密钥对
             keyPair = keyPairGenerator.generateKeyPair();
         } catch (Exception e) {
@@ -116,10 +161,32 @@ public class SecurityUtil {
     }
 
 
+    /**
+     * 公钥验签，先查询验签结果缓存，未命中时再实际验签并缓存结果
+     * @param data 签名数据
+     * @param sign 签名
+     * @param publicKey 签名方公钥
+     * @return 验签是否通过
+     */
     public static boolean verify(byte[] data, byte[] sign, PublicKey publicKey) {
+        SignatureCache.Key key = SignatureCache.key(data, sign, publicKey);
+        Boolean cached = SIGNATURE_CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean result = verifyUncached(data, sign, publicKey);
+        SIGNATURE_CACHE.put(key, result);
+        return result;
+    }
+
+    /**
+     * 实际的验签过程，不查询也不更新缓存，每个线程复用自己的Signature实例
+     */
+    public static boolean verifyUncached(byte[] data, byte[] sign, PublicKey publicKey) {
+        long begin = System.nanoTime();
         boolean result = false;
         try {
-            Signature signature = Signature.getInstance("SHA256withECDSA");
+            Signature signature = VERIFY_SIGNATURE.get();
             signature.initVerify(publicKey);
             signature.update(data);
             result = signature.verify(sign);
@@ -127,9 +194,14 @@ public class SecurityUtil {
             e.printStackTrace();
             System.exit(-1);
         }
+        Metrics.SIGNATURE_VERIFY_LATENCY.recordSince(begin);
         return result;
     }
 
+    public static SignatureCache getSignatureCache() {
+        return SIGNATURE_CACHE;
+    }
+
     /**
      * utxo数组（包含输入和输出）转化为byte数据供交易签名
      * @param inUtxos
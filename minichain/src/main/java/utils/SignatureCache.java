@@ -0,0 +1,166 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 验签结果缓存
+ *
+ * 同一笔交易的签名会在进入交易池、矿工打包以及其他节点校验区块时被多次验证，
+ * UTXO解锁脚本中"对自己公钥的签名"在每次花费时也会被重复验证。该缓存以
+ * SHA256(签名数据) + 公钥 + 签名 为键保存验签结果，重复验证时直接返回缓存的结果
+ *
+ * 缓存按键的哈希值分为若干段，每段是一个按访问顺序淘汰的LRU表，各段独立加锁，总容量有上限。
+ * 容量可以在运行期间修改（见setCapacity）
+ */
+public class SignatureCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity 缓存的最大条目数
+     */
+    public SignatureCache(int capacity) {
+        int segmentCapacity = segmentCapacity(capacity);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    private static int segmentCapacity(int capacity) {
+        return Math.max(1, capacity / SEGMENT_COUNT);
+    }
+
+    /**
+     * 修改缓存的最大条目数，缩小时立即淘汰各段中最久未访问的条目
+     *
+     * @param capacity 新的最大条目数
+     */
+    public void setCapacity(int capacity) {
+        int segmentCapacity = segmentCapacity(capacity);
+        for (Segment segment : segments) {
+            segment.setCapacity(segmentCapacity);
+        }
+    }
+
+    /**
+     * 构造缓存键：签名数据的SHA256摘要、公钥编码与签名依次带长度前缀拼接
+     */
+    public static Key key(byte[] data, byte[] sign, PublicKey publicKey) {
+        byte[] dataDigest = SecurityUtil.sha256Digest(data);
+        byte[] publicKeyEncoded = publicKey.getEncoded();
+        ByteBuffer buffer = ByteBuffer.allocate(dataDigest.length + 4 + publicKeyEncoded.length + 4 + sign.length);
+        buffer.put(dataDigest);
+        buffer.putInt(publicKeyEncoded.length).put(publicKeyEncoded);
+        buffer.putInt(sign.length).put(sign);
+        return new Key(buffer.array());
+    }
+
+    /**
+     * @return 缓存的验签结果，未命中时返回null
+     */
+    public Boolean get(Key key) {
+        Boolean result = segmentFor(key).get(key);
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    public void put(Key key, boolean result) {
+        segmentFor(key).put(key, result);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * 缓存键
+     */
+    public static final class Key {
+        private final byte[] material;
+        private final int hash;
+
+        private Key(byte[] material) {
+            this.material = material;
+            this.hash = Arrays.hashCode(material);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(material, ((Key) o).material);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 一段LRU缓存
+     */
+    private static final class Segment {
+        private final Map<Key, Boolean> map;
+        private int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                    return size() > Segment.this.capacity;
+                }
+            };
+        }
+
+        synchronized void setCapacity(int capacity) {
+            this.capacity = capacity;
+            Iterator<Key> iterator = map.keySet().iterator();
+            while (map.size() > capacity) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        synchronized Boolean get(Key key) {
+            return map.get(key);
+        }
+
+        synchronized void put(Key key, boolean result) {
+            map.put(key, result);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
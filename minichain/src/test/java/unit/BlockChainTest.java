@@ -0,0 +1,171 @@
+package unit;
+
+import data.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import store.BlockFilterStore;
+import store.BlockStore;
+import store.MemoryBlockStore;
+import store.UtxoSnapshotStore;
+import utils.SecurityUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按交易哈希查找交易位置：新加入的区块立即建立索引，从快照恢复时快照之前的区块在后台补建索引，补建完成前逐个读取区块查找
+ */
+public class BlockChainTest {
+
+    private Path directory;
+    private Account account;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("minichain-chain");
+        account = new Account();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * 包含两笔交易的区块，seed区分不同区块中的交易
+     */
+    private Block newBlock(String preBlockHash, int seed) {
+        Transaction[] transactions = new Transaction[2];
+        for (int i = 0; i < transactions.length; i++) {
+            UTXO[] inUtxos = {};
+            UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), seed * 10 + i + 1, account.getPublicKey())};
+            byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), account.getPrivateKey());
+            transactions[i] = new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), seed);
+        }
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        return new Block(new BlockHeader(preBlockHash, merkleTree.getRootHash(), seed), new BlockBody(merkleTree, transactions));
+    }
+
+    private static void assertLocation(BlockChain blockChain, Block block, int height) {
+        Transaction[] transactions = block.getBlockBody().getTransactions();
+        for (int i = 0; i < transactions.length; i++) {
+            BlockChain.TxLocation location = blockChain.getTxLocation(transactions[i].getTxHash());
+            assertNotNull(location);
+            assertEquals(height, location.getHeight());
+            assertEquals(i, location.getIndex());
+        }
+    }
+
+    @Test
+    public void newBlocksAreIndexed() {
+        BlockChain blockChain = new BlockChain(null, new MemoryBlockStore());
+        Block[] blocks = new Block[3];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = newBlock(blockChain.getNewestBlock().getHash(), i);
+            blockChain.addNewBlock(blocks[i]);
+        }
+        // 创世区块的高度为0
+        for (int i = 0; i < blocks.length; i++) {
+            assertLocation(blockChain, blocks[i], i + 1);
+        }
+        assertNull(blockChain.getTxLocation(SecurityUtil.sha256Digest("unknown")));
+    }
+
+    /**
+     * 后台补建索引的线程读取区块时等待，直到测试放行
+     */
+    private static class GatedBlockStore implements BlockStore {
+        private final BlockStore store;
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile Thread rebuildThread;
+
+        GatedBlockStore(BlockStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void append(Block block) {
+            store.append(block);
+        }
+
+        @Override
+        public Block get(int height) {
+            if (Thread.currentThread().getName().equals("index-rebuild")) {
+                rebuildThread = Thread.currentThread();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return store.get(height);
+        }
+
+        @Override
+        public BlockHeader getHeader(int height) {
+            return store.getHeader(height);
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+    }
+
+    @Test
+    public void blocksBelowSnapshotFoundWhileRebuilding() throws InterruptedException {
+        Block[] blocks = new Block[6];
+        MemoryBlockStore memoryStore = new MemoryBlockStore();
+        UtxoSet utxoSet = new UtxoSet();
+        String preBlockHash = null;
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = newBlock(preBlockHash, i);
+            memoryStore.append(blocks[i]);
+            preBlockHash = blocks[i].getHash();
+            if (i <= 3) {
+                utxoSet.applyBlock(blocks[i]);
+            }
+        }
+        // 高度3的快照：启动时只重放高度4和5的区块，高度0到3的区块在后台补建索引
+        UtxoSnapshotStore snapshotStore = new UtxoSnapshotStore(directory);
+        snapshotStore.write(3, blocks[3].getHash(), utxoSet.toArray());
+        GatedBlockStore store = new GatedBlockStore(memoryStore);
+        BlockChain blockChain = new BlockChain(null, store, snapshotStore, new BlockFilterStore());
+        assertEquals(blocks.length, blockChain.size());
+
+        // 补建尚未开始，快照之前的区块由查询逐个读取
+        for (int i = 0; i < blocks.length; i++) {
+            assertLocation(blockChain, blocks[i], i);
+        }
+        assertNull(blockChain.getTxLocation(SecurityUtil.sha256Digest("unknown")));
+
+        store.gate.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.rebuildThread == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        store.rebuildThread.join(5000);
+        assertFalse(store.rebuildThread.isAlive());
+        for (int i = 0; i < blocks.length; i++) {
+            assertLocation(blockChain, blocks[i], i);
+        }
+        assertNull(blockChain.getTxLocation(SecurityUtil.sha256Digest("unknown")));
+        blockChain.close();
+    }
+}
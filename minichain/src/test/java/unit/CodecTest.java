@@ -0,0 +1,163 @@
+package unit;
+
+import codec.BinaryCodec;
+import data.*;
+import org.junit.Before;
+import org.junit.Test;
+import utils.SecurityUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CodecTest {
+    private static final int TRANSACTION_COUNT = 64;
+
+    private Account[] accounts;
+    private Block block;
+
+    @Before
+    public void setUp() {
+        accounts = new Account[4];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account();
+        }
+        // 一笔没有输入的交易为每个账户分配初始金额，之后的交易花费这些输出
+        Transaction[] transactions = new Transaction[TRANSACTION_COUNT];
+        transactions[0] = newTransaction(new UTXO[]{}, accounts[0], 10000);
+        for (int i = 1; i < TRANSACTION_COUNT; i++) {
+            UTXO[] inUtxos = {transactions[i - 1].getOutUtxos()[0]};
+            transactions[i] = newTransaction(inUtxos, accounts[i % accounts.length], 10000 - i);
+        }
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        BlockHeader blockHeader = new BlockHeader(null, merkleTree.getRootHash(), 42L);
+        block = new Block(blockHeader, new BlockBody(merkleTree, transactions));
+    }
+
+    private Transaction newTransaction(UTXO[] inUtxos, Account sender, int amount) {
+        UTXO[] outUtxos = new UTXO[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            outUtxos[i] = new UTXO(accounts[i].getWalletAddress(), i == 0 ? amount : 0, accounts[i].getPublicKey());
+        }
+        byte[] sign = SecurityUtil.signature(Arrays.toString(inUtxos).getBytes(StandardCharsets.UTF_8), sender.getPrivateKey());
+        return new Transaction(inUtxos, outUtxos, sign, sender.getPublicKey(), System.currentTimeMillis());
+    }
+
+    @Test
+    public void utxoRoundTrip() {
+        UTXO utxo = block.getBlockBody().getTransactions()[3].getOutUtxos()[2];
+        UTXO decoded = BinaryCodec.decodeUtxo(ByteBuffer.wrap(BinaryCodec.encode(utxo)));
+        assertEquals(utxo, decoded);
+        assertEquals(utxo.getAmount(), decoded.getAmount());
+        assertEquals(utxo.getWalletAddress(), decoded.getWalletAddress());
+        assertArrayEquals(utxo.getPublicKeyHash(), decoded.getPublicKeyHash());
+        assertEquals(utxo.toString(), decoded.toString());
+    }
+
+    @Test
+    public void transactionRoundTrip() {
+        for (Transaction transaction : block.getBlockBody().getTransactions()) {
+            byte[] encoded = BinaryCodec.encode(transaction);
+            Transaction decoded = BinaryCodec.decodeTransaction(ByteBuffer.wrap(encoded));
+            assertEquals(transaction.getTxHash(), decoded.getTxHash());
+            assertEquals(transaction.getTimestamp(), decoded.getTimestamp());
+            assertArrayEquals(transaction.getSendSign(), decoded.getSendSign());
+            assertArrayEquals(encoded, BinaryCodec.encode(decoded));
+            assertEquals(Arrays.toString(transaction.getInUtxos()), Arrays.toString(decoded.getInUtxos()));
+        }
+    }
+
+    @Test
+    public void blockRoundTrip() {
+        byte[] encoded = BinaryCodec.encode(block);
+        assertEquals(BinaryCodec.encodedSize(block), encoded.length);
+
+        Block decoded = BinaryCodec.decodeBlock(ByteBuffer.wrap(encoded));
+        assertEquals(block.getHash(), decoded.getHash());
+        assertNull(decoded.getBlockHeader().getPreBlockHash());
+        assertEquals(block.getBlockBody().getMerkleRootHash(), decoded.getBlockBody().getMerkleTree().getRootHash());
+        assertEquals(TRANSACTION_COUNT, decoded.getBlockBody().getTransactions().length);
+        assertArrayEquals(encoded, BinaryCodec.encode(decoded));
+
+        BlockHeader header = BinaryCodec.decodeBlockHeader(ByteBuffer.wrap(encoded));
+        assertEquals(block.getHash(), header.getHash());
+
+        BlockBody body = BinaryCodec.decodeBlockBody(ByteBuffer.wrap(BinaryCodec.encode(block.getBlockBody())));
+        assertEquals(block.getBlockBody().getMerkleRootHash(), body.getMerkleRootHash());
+    }
+
+    @Test
+    public void directBufferRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryCodec.encodedSize(block) + 16);
+        buffer.position(16);
+        BinaryCodec.encode(block, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.position(16);
+        assertEquals(block.getHash(), BinaryCodec.decodeBlock(buffer).getHash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionRejected() {
+        byte[] encoded = BinaryCodec.encode(block.getBlockBody().getTransactions()[0]);
+        encoded[0] = (byte) (BinaryCodec.VERSION + 1);
+        BinaryCodec.decodeTransaction(ByteBuffer.wrap(encoded));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedPayloadRejected() {
+        byte[] encoded = BinaryCodec.encode(block);
+        BinaryCodec.decodeBlock(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedCountRejected() {
+        // 区块头之后的交易数为0x7fffffff，解码时不能按该数目分配数组
+        ByteBuffer buffer = ByteBuffer.allocate(2 + BlockHeader.HEADER_SIZE + 5);
+        buffer.put(BinaryCodec.VERSION).put((byte) (BlockHeader.HEADER_SIZE + 5));
+        BinaryCodec.putHeader(buffer, block.getBlockHeader());
+        buffer.put(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07});
+        buffer.flip();
+        BinaryCodec.decodeBlock(buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonAsciiAddressRejected() {
+        Transaction transaction = block.getBlockBody().getTransactions()[0];
+        byte[] encoded = BinaryCodec.encode(transaction);
+        byte[] address = accounts[0].getWalletAddress().getBytes(StandardCharsets.US_ASCII);
+        int offset = indexOf(encoded, address);
+        assertTrue(offset > 0);
+        // 置位最高位后不能再被当作另一个ASCII字符解码
+        encoded[offset] |= (byte) 0x80;
+        BinaryCodec.decodeTransaction(ByteBuffer.wrap(encoded));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void merkleRootMismatchRejected() {
+        String otherRoot = block.getBlockBody().getTransactions()[0].getTxHash();
+        Block forged = new Block(new BlockHeader(null, otherRoot, 42L), block.getBlockBody());
+        BinaryCodec.decodeBlock(ByteBuffer.wrap(BinaryCodec.encode(forged)));
+    }
+
+    /**
+     * 二进制编码比toString的文本表示小，编解码的吞吐量见minichain-bench中的CodecBenchmark
+     */
+    @Test
+    public void binaryIsSmallerThanText() {
+        int binarySize = BinaryCodec.encode(block).length;
+        int textSize = block.toString().getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(binarySize + " >= " + textSize, binarySize < textSize);
+        assertEquals(BinaryCodec.encodedSize(block), binarySize);
+    }
+}
@@ -0,0 +1,106 @@
+package unit;
+
+import config.ConfigSource;
+import config.RuntimeConfig;
+import logging.Level;
+import org.junit.Test;
+import utils.SecurityUtil;
+import utils.SignatureCache;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 配置来源的优先级、参数检查、重新读取配置文件，以及验签缓存容量的修改
+ */
+public class ConfigTest {
+
+    @Test
+    public void sourcePrecedence() throws Exception {
+        Path file = Files.createTempFile("minichain", ".properties");
+        try {
+            write(file, "miner.threads=3\nlog-level=debug\nsignature_cache_size=64\nP2P_PEERS=a:1, b:2\n");
+            Map<String, String> env = new HashMap<>();
+            env.put("MINICHAIN_MINER_THREADS", "5");
+            env.put("MINICHAIN_LOG_SAMPLE_RATE", "7");
+            env.put("PATH", "/usr/bin");
+            Map<String, String> cli = new HashMap<>();
+            cli.put("miner-threads", "6");
+            ConfigSource source = new ConfigSource(file, env, cli);
+            assertEquals(6, source.getInt("MINER_THREADS", 1));
+            assertEquals(7, source.getInt("LOG_SAMPLE_RATE", 1));
+            assertEquals(64, source.getInt("SIGNATURE_CACHE_SIZE", 1));
+            assertEquals(2, source.getStringArray("P2P_PEERS", null).length);
+            assertEquals("b:2", source.getStringArray("P2P_PEERS", null)[1]);
+            assertNull(source.get("PATH"));
+            assertEquals(42, source.getInt("ACCOUNT_NUM", 42));
+
+            RuntimeConfig config = RuntimeConfig.from(source);
+            assertEquals(6, config.getMinerThreads());
+            assertEquals(Level.DEBUG, config.getLogLevel());
+            assertEquals(1, config.getTransactionPoolSize());
+
+            // 重新读取时只有配置文件的内容变化，环境变量和命令行参数仍然覆盖文件
+            write(file, "miner.threads=3\nlog-level=debug\nsignature_cache_size=32\nMAX_TRANSACTION_COUNT=4\nACCOUNT_NUM=9\n");
+            ConfigSource reloaded = source.reload();
+            RuntimeConfig reloadedConfig = RuntimeConfig.from(reloaded);
+            assertEquals(6, reloadedConfig.getMinerThreads());
+            assertEquals(2, reloadedConfig.diff(config).size());
+            assertEquals("MAX_TRANSACTION_COUNT 1 -> 4", reloadedConfig.diff(config).get(0));
+            assertEquals("[ACCOUNT_NUM, MAX_TRANSACTION_COUNT, P2P_PEERS, SIGNATURE_CACHE_SIZE]",
+                    reloaded.getChangedNames(source).toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void invalidValuesAreRejected() {
+        Map<String, String> env = Collections.emptyMap();
+        Map<String, String> cli = new HashMap<>();
+        cli.put("MINER_THREADS", "four");
+        try {
+            RuntimeConfig.from(new ConfigSource(null, env, cli));
+            fail("non-numeric value accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("MINER_THREADS"));
+        }
+        cli.put("MINER_THREADS", "0");
+        try {
+            RuntimeConfig.from(new ConfigSource(null, env, cli));
+            fail("zero miner threads accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("MINER_THREADS"));
+        }
+        try {
+            ConfigSource.load(new String[]{"MINER_THREADS=2"});
+            fail("argument without -- accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void signatureCacheShrinks() {
+        SignatureCache cache = new SignatureCache(16000);
+        byte[] sign = new byte[8];
+        PublicKey publicKey = SecurityUtil.secp256k1Generate().getPublic();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(SignatureCache.key(new byte[]{(byte) i, (byte) (i >> 8)}, sign, publicKey), true);
+        }
+        assertEquals(1000, cache.size());
+        cache.setCapacity(160);
+        assertTrue("size " + cache.size(), cache.size() <= 160);
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
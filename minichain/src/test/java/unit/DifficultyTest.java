@@ -0,0 +1,97 @@
+package unit;
+
+import consensus.DifficultySchedule;
+import org.junit.Test;
+import utils.CompactTarget;
+import utils.MinerUtil;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 目标值紧凑编码的编解码，以及难度调整的比例、限幅和调整周期
+ */
+public class DifficultyTest {
+
+    @Test
+    public void compactEncoding() {
+        // 比特币创世区块的nBits
+        BigInteger bitcoinLimit = BigInteger.valueOf(0xffff).shiftLeft(8 * 26);
+        assertEquals(bitcoinLimit, CompactTarget.decode(0x1d00ffff));
+        assertEquals(0x1d00ffff, CompactTarget.encode(bitcoinLimit));
+        // 尾数最高位为符号位，编码时右移一个字节
+        assertEquals(0x02008000, CompactTarget.encode(BigInteger.valueOf(0x80)));
+        assertEquals(BigInteger.valueOf(0x80), CompactTarget.decode(0x02008000));
+        // 原来的难度值4对应16个前导0比特
+        int bits = DifficultySchedule.initialBits(4);
+        assertEquals(0x1f00ffff, bits);
+        byte[] target = CompactTarget.toBytes(bits);
+        assertEquals(32, target.length);
+        byte[] hash = new byte[32];
+        hash[2] = (byte) 0xff;
+        hash[3] = (byte) 0xff;
+        assertTrue(MinerUtil.meetsTarget(hash, target));
+        hash[4] = 1;
+        assertFalse(MinerUtil.meetsTarget(hash, target));
+        // 编码时截断为最高3个字节，目标值略低于2^240
+        assertEquals(65537.0, CompactTarget.expectedHashes(bits), 0.01);
+        try {
+            CompactTarget.decode(0x01800000);
+            fail("negative target accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void retargetIsProportionalAndClamped() {
+        int bits = DifficultySchedule.initialBits(5);
+        BigInteger target = CompactTarget.decode(bits);
+        DifficultySchedule schedule = new DifficultySchedule(bits, 10, 100);
+        // 期望用时为9个出块间隔
+        assertEquals(CompactTarget.encode(target.divide(BigInteger.valueOf(2))), schedule.retarget(bits, 0, 450));
+        assertEquals(bits, schedule.retarget(bits, 1000, 1900));
+        // 出块过快或过慢时每次最多调整4倍
+        assertEquals(CompactTarget.encode(target.divide(BigInteger.valueOf(4))), schedule.retarget(bits, 0, 0));
+        assertEquals(CompactTarget.encode(target.multiply(BigInteger.valueOf(4))), schedule.retarget(bits, 0, 1000000));
+        // 目标值不超过难度下限
+        int easiest = DifficultySchedule.initialBits(2);
+        assertEquals(easiest, schedule.retarget(easiest, 0, 1000000));
+    }
+
+    @Test
+    public void bitsFollowRetargetPeriods() {
+        final int initial = DifficultySchedule.initialBits(4);
+        DifficultySchedule schedule = new DifficultySchedule(initial, 4, 100);
+        final int[] bits = new int[12];
+        // 出块间隔都是期望的一半，每个周期难度翻倍
+        final long[] timestamps = new long[12];
+        for (int height = 0; height < bits.length; height++) {
+            timestamps[height] = height * 50L;
+            bits[height] = schedule.getBits(height, new DifficultySchedule.HeaderSource() {
+                @Override
+                public long getTimestamp(int h) {
+                    return timestamps[h];
+                }
+
+                @Override
+                public int getBits(int h) {
+                    return bits[h];
+                }
+            });
+        }
+        BigInteger target = CompactTarget.decode(initial);
+        for (int height = 0; height < bits.length; height++) {
+            assertEquals(schedule.isRetargetHeight(height), height > 0 && height % 4 == 0);
+            BigInteger expected = target.shiftRight(height / 4);
+            assertEquals("height " + height, CompactTarget.encode(expected), bits[height]);
+        }
+        try {
+            new DifficultySchedule(initial, 1, 100);
+            fail("retarget interval 1 accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package unit;
+
+import org.junit.Test;
+import spv.BlockFilter;
+import spv.BloomFilter;
+import utils.SecurityUtil;
+import utils.SipHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bloom过滤器和区块过滤器：插入的元素一定命中，其余元素的误判率在设定的范围内；SipHash-2-4与参考实现一致
+ */
+public class FilterTest {
+
+    private static byte[] element(String name, int i) {
+        return SecurityUtil.sha256Digest((name + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void bloomFilterFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(500, 0.01, 36000, 7);
+        for (int i = 0; i < 500; i++) {
+            filter.insert(element("inserted", i));
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(filter.contains(element("inserted", i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.contains(element("absent", i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void blockFilterMatches() {
+        String blockHash = SecurityUtil.sha256Digest("block");
+        List<byte[]> elements = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            elements.add(element("element", i));
+        }
+        // 重复的元素只编码一次
+        elements.add(element("element", 0));
+        byte[] filter = BlockFilter.build(blockHash, elements);
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(BlockFilter.matchAny(filter, blockHash, Collections.singletonList(element("element", i))));
+        }
+        List<byte[]> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            queries.add(element("absent", i));
+        }
+        assertFalse(BlockFilter.matchAny(filter, blockHash, queries));
+        queries.add(element("element", 123));
+        assertTrue(BlockFilter.matchAny(filter, blockHash, queries));
+
+        // 元素的哈希值以区块哈希为密钥，换一个区块哈希时不再命中
+        int matches = 0;
+        String otherHash = SecurityUtil.sha256Digest("other");
+        for (int i = 0; i < 200; i++) {
+            if (BlockFilter.matchAny(filter, otherHash, Collections.singletonList(element("element", i)))) {
+                matches++;
+            }
+        }
+        assertTrue("matches " + matches, matches < 5);
+
+        byte[] empty = BlockFilter.build(blockHash, new ArrayList<byte[]>());
+        assertFalse(BlockFilter.matchAny(empty, blockHash, queries));
+    }
+
+    @Test
+    public void sipHashReferenceVector() {
+        // SipHash-2-4参考实现的测试向量：密钥为00..0f，消息为00..0e共15字节
+        byte[] key = new byte[16];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        byte[] message = new byte[15];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        long k0 = SipHash.littleEndian(key, 0, 8);
+        long k1 = SipHash.littleEndian(key, 8, 8);
+        assertEquals(0xa129ca6149be45e5L, SipHash.hash(k0, k1, message));
+        assertEquals(0x726fdb47dd0e0e31L, SipHash.hash(k0, k1, new byte[0]));
+    }
+}
@@ -0,0 +1,104 @@
+package unit;
+
+import data.BlockHeader;
+import network.HeaderBroadcaster;
+import org.junit.Test;
+import utils.SecurityUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * 区块头广播的背压：慢节点不阻塞广播方，积压的区块头被丢弃或合并并计数，最新的区块头总能送达
+ */
+public class HeaderBroadcasterTest {
+
+    private static final long SLOW_MILLIS = 50;
+
+    /**
+     * 每次处理区块头都要等待一段时间的接收方
+     */
+    private static class SlowReceiver implements HeaderBroadcaster.Receiver {
+        private final List<BlockHeader> received = new ArrayList<>();
+
+        @Override
+        public void accept(BlockHeader blockHeader) {
+            try {
+                Thread.sleep(SLOW_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                received.add(blockHeader);
+            }
+        }
+
+        synchronized List<BlockHeader> getReceived() {
+            return new ArrayList<>(received);
+        }
+    }
+
+    private static BlockHeader[] headers(int count) {
+        BlockHeader[] blockHeaders = new BlockHeader[count];
+        String preBlockHash = null;
+        for (int i = 0; i < count; i++) {
+            blockHeaders[i] = new BlockHeader(preBlockHash, SecurityUtil.sha256Digest("header" + i), i);
+            preBlockHash = blockHeaders[i].getHash();
+        }
+        return blockHeaders;
+    }
+
+    @Test
+    public void slowInboxDropsAndCoalesces() throws InterruptedException {
+        SlowReceiver slow = new SlowReceiver();
+        SlowReceiver other = new SlowReceiver();
+        HeaderBroadcaster broadcaster = new HeaderBroadcaster(new HeaderBroadcaster.Receiver[]{slow, other}, 2, 2);
+        BlockHeader[] blockHeaders = headers(10);
+        try {
+            long begin = System.nanoTime();
+            for (BlockHeader blockHeader : blockHeaders) {
+                broadcaster.broadcast(blockHeader);
+            }
+            // 放入收件箱后立即返回，不等待任何接收方
+            assertTrue((System.nanoTime() - begin) / 1_000_000 < SLOW_MILLIS);
+
+            // 每个区块头对每个接收方要么送达，要么被丢弃或合并；送达的在接收方处理完毕后才计数
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline && broadcaster.getDelivered() + broadcaster.getDropped()
+                    + broadcaster.getCoalesced() < 2 * blockHeaders.length) {
+                Thread.sleep(10);
+            }
+            BlockHeader latest = blockHeaders[blockHeaders.length - 1];
+            for (SlowReceiver receiver : new SlowReceiver[]{slow, other}) {
+                List<BlockHeader> received = receiver.getReceived();
+                // 最新的区块头最后送达，其余按广播的顺序
+                assertEquals(latest.getHash(), received.get(received.size() - 1).getHash());
+                int previous = -1;
+                for (BlockHeader blockHeader : received) {
+                    int index = (int) blockHeader.getNonce();
+                    assertTrue(index > previous);
+                    previous = index;
+                }
+            }
+
+            int deliveredCount = slow.getReceived().size() + other.getReceived().size();
+            assertEquals(deliveredCount, broadcaster.getDelivered());
+            assertEquals(2 * blockHeaders.length,
+                    broadcaster.getDelivered() + broadcaster.getDropped() + broadcaster.getCoalesced());
+            assertTrue(broadcaster.getDropped() > 0);
+            assertTrue(broadcaster.getCoalesced() > 0);
+            assertEquals(0, broadcaster.getBacklog());
+
+            // 延迟包含接收方的处理时间，留出计时精度的误差
+            Matcher matcher = Pattern.compile("lag avg/max ms=([0-9.]+)/([0-9.]+)").matcher(broadcaster.summary());
+            assertTrue(matcher.find());
+            assertTrue(Double.parseDouble(matcher.group(2)) >= SLOW_MILLIS - 1);
+        } finally {
+            broadcaster.shutdown();
+        }
+    }
+}
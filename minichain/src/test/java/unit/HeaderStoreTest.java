@@ -0,0 +1,164 @@
+package unit;
+
+import data.BlockHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import spv.HeaderStore;
+import spv.HeadersMessage;
+import utils.CompactTarget;
+import utils.MinerUtil;
+import utils.SecurityUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * 区块头链：重新打开文件后恢复，拒绝不能链接或工作量不足的区块头，只切换到工作量更多的分叉
+ */
+public class HeaderStoreTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("minichain-headers", ".dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * 按初始难度挖出一条区块头链，高度低于难度调整间隔，难度保持不变
+     *
+     * @param preBlockHash 第一个区块头的前一个区块的哈希值，为空时第一个区块头是创世区块
+     * @param branch 用于区分不同分支的默克尔根
+     */
+    private static BlockHeader[] mine(String preBlockHash, int count, String branch) {
+        BlockHeader[] blockHeaders = new BlockHeader[count];
+        for (int i = 0; i < count; i++) {
+            BlockHeader blockHeader = new BlockHeader(preBlockHash, SecurityUtil.sha256Digest(branch + i), 0);
+            if (preBlockHash != null) {
+                byte[] target = CompactTarget.toBytes(blockHeader.getDifficulty());
+                while (!MinerUtil.meetsTarget(SecurityUtil.sha256Digest(blockHeader.toBytes()), target)) {
+                    blockHeader.setNonce(blockHeader.getNonce() + 1);
+                }
+            }
+            blockHeaders[i] = blockHeader;
+            preBlockHash = blockHeader.getHash();
+        }
+        return blockHeaders;
+    }
+
+    private static HeadersMessage message(int startHeight, BlockHeader... blockHeaders) {
+        byte[] data = new byte[blockHeaders.length * BlockHeader.HEADER_SIZE];
+        for (int i = 0; i < blockHeaders.length; i++) {
+            System.arraycopy(blockHeaders[i].toBytes(), 0, data, i * BlockHeader.HEADER_SIZE, BlockHeader.HEADER_SIZE);
+        }
+        return new HeadersMessage(startHeight, data);
+    }
+
+    private static BlockHeader[] concat(BlockHeader[] first, BlockHeader[] second) {
+        BlockHeader[] result = new BlockHeader[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    @Test
+    public void reloadKeepsCompleteHeaders() throws IOException {
+        BlockHeader[] chain = mine(null, 6, "main");
+        HeaderStore headerStore = new HeaderStore(file);
+        assertEquals(6, headerStore.connect(message(0, chain)));
+        headerStore.close();
+
+        // 最后一个区块头只写了一半
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - BlockHeader.HEADER_SIZE / 2);
+        }
+        headerStore = new HeaderStore(file);
+        assertEquals(5, headerStore.size());
+        assertEquals(chain[4].getHash(), headerStore.getTipHash());
+        assertEquals(chain[2].getHash(), headerStore.getHeader(2).getHash());
+
+        // 重新连接缺失的区块头，已有的部分被跳过
+        assertEquals(1, headerStore.connect(message(3, chain[3], chain[4], chain[5])));
+        headerStore.close();
+        headerStore = new HeaderStore(file);
+        assertEquals(6, headerStore.size());
+        assertEquals(chain[5].getHash(), headerStore.getTipHash());
+        headerStore.close();
+    }
+
+    @Test
+    public void invalidHeadersAreRejected() {
+        BlockHeader[] chain = mine(null, 3, "main");
+        HeaderStore headerStore = new HeaderStore();
+        headerStore.connect(message(0, chain[0], chain[1]));
+
+        BlockHeader unlinked = mine(SecurityUtil.sha256Digest("unknown"), 1, "unlinked")[0];
+        try {
+            headerStore.connect(message(2, unlinked));
+            fail("unlinked header accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        BlockHeader unmined = new BlockHeader(chain[1].getHash(), chain[2].getMerkleRootHash(), 0);
+        byte[] target = CompactTarget.toBytes(unmined.getDifficulty());
+        while (MinerUtil.meetsTarget(SecurityUtil.sha256Digest(unmined.toBytes()), target)) {
+            unmined.setNonce(unmined.getNonce() + 1);
+        }
+        try {
+            headerStore.connect(message(2, unmined));
+            fail("header without proof of work accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            headerStore.connect(message(3, chain[2]));
+            fail("headers beyond the local height accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(2, headerStore.size());
+        assertEquals(1, headerStore.connect(message(2, chain[2])));
+        assertEquals(0, headerStore.connect(message(1, chain[1], chain[2])));
+    }
+
+    @Test
+    public void onlyForkWithMoreWorkReorganises() {
+        BlockHeader[] common = mine(null, 3, "common");
+        BlockHeader[] local = mine(common[2].getHash(), 3, "local");
+        BlockHeader[] fork = mine(common[2].getHash(), 4, "fork");
+        HeaderStore headerStore = new HeaderStore();
+        headerStore.connect(message(0, concat(common, local)));
+
+        // 分叉的工作量少于或等于本地的链
+        for (int count = 1; count <= 3; count++) {
+            BlockHeader[] shorter = new BlockHeader[count];
+            System.arraycopy(fork, 0, shorter, 0, count);
+            try {
+                headerStore.connect(message(3, shorter));
+                fail("fork of " + count + " headers accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertEquals(local[2].getHash(), headerStore.getTipHash());
+        }
+
+        // 与本地相同的前缀被跳过，其后的分叉工作量更多
+        assertEquals(4, headerStore.connect(message(1, concat(new BlockHeader[]{common[1], common[2]}, fork))));
+        assertEquals(7, headerStore.size());
+        assertEquals(fork[3].getHash(), headerStore.getTipHash());
+        assertEquals(common[2].getHash(), headerStore.getHash(2));
+        assertEquals(fork[0].getHash(), headerStore.getHash(3));
+    }
+}
@@ -0,0 +1,147 @@
+package unit;
+
+import logging.AsyncAppender;
+import logging.Level;
+import logging.LogManager;
+import logging.Logger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 异步日志的格式化、级别过滤、采样以及缓冲区满时的丢弃
+ */
+public class LoggingTest {
+    private static final long FLUSH_MILLIS = 5000;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private String[] lines() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    public void formatAndOrder() {
+        AsyncAppender appender = new AsyncAppender(256, output);
+        Logger logger = new Logger("test", appender);
+        logger.setLevel(Level.DEBUG);
+        for (int i = 0; i < 100; i++) {
+            logger.info("record {} of {}", i, 100);
+        }
+        logger.warn("three {} {} {}", "a", "b", "c");
+        logger.error("failed", new IllegalStateException("boom"));
+        assertTrue(appender.flush(FLUSH_MILLIS));
+
+        String[] lines = lines();
+        // 记录按放入的顺序写出
+        int last = -1;
+        int records = 0;
+        for (String line : lines) {
+            int index = line.indexOf(" - record ");
+            if (index >= 0) {
+                assertTrue(line.contains(" INFO  ["));
+                assertTrue(line.contains("] test - record "));
+                int number = Integer.parseInt(line.substring(index + 10, line.indexOf(" of 100")));
+                assertTrue(number > last);
+                last = number;
+                records++;
+            }
+        }
+        assertEquals(100, records);
+        assertEquals(0, appender.getDropped());
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.contains("WARN  [") && text.contains("test - three a b c\n"));
+        assertTrue(text.contains("test - failed\njava.lang.IllegalStateException: boom"));
+    }
+
+    @Test
+    public void filteredRecordsAreNotFormatted() {
+        AsyncAppender appender = new AsyncAppender(16, output);
+        Logger logger = new Logger("test", appender);
+        logger.setLevel(Level.INFO);
+        final AtomicInteger evaluated = new AtomicInteger();
+        Supplier<String> expensive = new Supplier<String>() {
+            @Override
+            public String get() {
+                evaluated.incrementAndGet();
+                return "expensive";
+            }
+        };
+        logger.debug("detail: {}", expensive);
+        assertTrue(appender.flush(FLUSH_MILLIS));
+        assertEquals(0, evaluated.get());
+        assertEquals(0, output.size());
+
+        logger.info("detail: {}", expensive);
+        assertTrue(appender.flush(FLUSH_MILLIS));
+        assertEquals(1, evaluated.get());
+        assertTrue(lines()[0].endsWith("test - detail: expensive"));
+    }
+
+    @Test
+    public void sampling() {
+        AsyncAppender appender = new AsyncAppender(1024, output);
+        Logger logger = new Logger("test", appender);
+        logger.setLevel(Level.INFO);
+        int sampleRate = LogManager.getSampleRate();
+        LogManager.setSampleRate(10);
+        try {
+            for (int i = 0; i < 100; i++) {
+                logger.info("sampled {}", i);
+            }
+            // WARN及以上不采样
+            for (int i = 0; i < 5; i++) {
+                logger.warn("kept {}", i);
+            }
+        } finally {
+            LogManager.setSampleRate(sampleRate);
+        }
+        assertTrue(appender.flush(FLUSH_MILLIS));
+        String[] lines = lines();
+        assertEquals(15, lines.length);
+        assertTrue(lines[0].endsWith("sampled 0"));
+        assertTrue(lines[1].endsWith("sampled 10"));
+    }
+
+    @Test
+    public void dropWhenFull() throws InterruptedException {
+        AsyncAppender appender = new AsyncAppender(4, output);
+        Logger logger = new Logger("test", appender);
+        logger.setLevel(Level.INFO);
+        // 第一条记录的参数阻塞写线程，该记录写出前仍占用槽位，缓冲区只能再容纳3条
+        final CountDownLatch formatting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        logger.info("blocking {}", new Supplier<String>() {
+            @Override
+            public String get() {
+                formatting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "done";
+            }
+        });
+        assertTrue(formatting.await(FLUSH_MILLIS, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 10; i++) {
+            logger.info("record {}", i);
+        }
+        assertEquals(7, appender.getDropped());
+        release.countDown();
+        assertTrue(appender.flush(FLUSH_MILLIS));
+
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.contains("blocking done\n"));
+        assertTrue(text.contains("record 2\n"));
+        assertFalse(text.contains("record 3\n"));
+        assertTrue(text.contains("dropped 7 log records"));
+    }
+}
@@ -0,0 +1,78 @@
+package unit;
+
+import data.MerkleTree;
+import org.junit.Test;
+import spv.MultiProof;
+import spv.Proof;
+import utils.SecurityUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merkle树的单个验证路径和合并验证路径，叶子数为奇数时最后一个节点与自身合并
+ */
+public class MerkleTest {
+
+    private static MerkleTree newTree(int leafCount) {
+        byte[][] leaves = new byte[leafCount][];
+        for (int i = 0; i < leafCount; i++) {
+            leaves[i] = SecurityUtil.sha256Digest(("leaf" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return new MerkleTree(leaves);
+    }
+
+    @Test
+    public void proofPathFoldsToRoot() {
+        for (int leafCount = 1; leafCount <= 9; leafCount++) {
+            MerkleTree tree = newTree(leafCount);
+            for (int index = 0; index < leafCount; index++) {
+                String hash = tree.getLeafHash(index);
+                for (Proof.Node node : tree.getProofPath(index)) {
+                    hash = node.getOrientation() == Proof.Orientation.LEFT
+                            ? SecurityUtil.sha256Digest(node.getTxHash() + hash)
+                            : SecurityUtil.sha256Digest(hash + node.getTxHash());
+                }
+                assertEquals("leaf " + index + " of " + leafCount, tree.getRootHash(), hash);
+            }
+        }
+    }
+
+    @Test
+    public void multiProofComputesRoot() {
+        int[][] cases = {{0}, {6}, {0, 1}, {1, 2}, {0, 3, 6}, {2, 3, 4, 5}, {0, 1, 2, 3, 4, 5, 6}};
+        for (int leafCount = 7; leafCount <= 8; leafCount++) {
+            MerkleTree tree = newTree(leafCount);
+            for (int[] indices : cases) {
+                String[] txHashes = new String[indices.length];
+                for (int k = 0; k < indices.length; k++) {
+                    txHashes[k] = tree.getLeafHash(indices[k]);
+                }
+                List<String> nodes = tree.getMultiProofNodes(indices);
+                MultiProof proof = new MultiProof(tree.getRootHash(), 0, leafCount, indices, txHashes, nodes);
+                assertEquals(tree.getRootHash(), proof.computeRootHash());
+
+                // 篡改任意一笔交易的哈希，计算出的根哈希不同
+                String[] tampered = txHashes.clone();
+                tampered[tampered.length - 1] = SecurityUtil.sha256Digest("tampered");
+                proof = new MultiProof(tree.getRootHash(), 0, leafCount, indices, tampered, nodes);
+                assertNotEquals(tree.getRootHash(), proof.computeRootHash());
+            }
+        }
+    }
+
+    @Test
+    public void malformedMultiProofIsRejected() {
+        MerkleTree tree = newTree(8);
+        int[] indices = {1, 4};
+        String[] txHashes = {tree.getLeafHash(1), tree.getLeafHash(4)};
+        List<String> nodes = tree.getMultiProofNodes(indices);
+        assertNull(new MultiProof(tree.getRootHash(), 0, 8, new int[]{4, 1},
+                new String[]{txHashes[1], txHashes[0]}, nodes).computeRootHash());
+        assertNull(new MultiProof(tree.getRootHash(), 0, 8, new int[]{1, 8}, txHashes, nodes).computeRootHash());
+        assertNull(new MultiProof(tree.getRootHash(), 0, 8, indices, txHashes,
+                nodes.subList(0, nodes.size() - 1)).computeRootHash());
+    }
+}
@@ -0,0 +1,144 @@
+package unit;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import metrics.MetricsServer;
+import metrics.Sampler;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 直方图分位数的误差、多线程记录的计数，以及Prometheus文本格式的导出
+ */
+public class MetricsTest {
+
+    @Test
+    public void histogramQuantiles() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(1);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // 跨越多个数量级的值
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        double[] quantiles = {0.0, 0.5, 0.9, 0.99, 0.999, 1.0};
+        long[] estimates = histogram.getQuantiles(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            long exact = values[Math.max(0, (int) Math.ceil(quantiles[i] * values.length) - 1)];
+            // 估计值为所在桶的上界，不小于真实值，且相对误差不超过1/8
+            assertTrue("quantile " + quantiles[i], estimates[i] >= exact);
+            assertTrue("quantile " + quantiles[i], estimates[i] - exact <= exact / 8);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final Counter counter = new Counter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                        counter.increment();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(400000, counter.get());
+        assertEquals(4L * (99999L * 100000 / 2), histogram.getSum());
+        assertEquals(99999, histogram.getMax());
+    }
+
+    @Test
+    public void prometheusExport() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test_events_total", "Events");
+        Histogram histogram = registry.histogram("test_latency_seconds", "Latency", 1e9);
+        registry.gauge("test_depth", "Depth", new Sampler() {
+            @Override
+            public long sample() {
+                return 7;
+            }
+        });
+        counter.add(3);
+        histogram.record(2_000_000_000L);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("# TYPE test_events_total counter\ntest_events_total 3\n"));
+        assertTrue(text.contains("# TYPE test_depth gauge\ntest_depth 7\n"));
+        assertTrue(text.contains("# TYPE test_latency_seconds summary\n"));
+        assertTrue(text.contains("test_latency_seconds{quantile=\"0.99\"} 2.0\n"));
+        assertTrue(text.contains("test_latency_seconds_sum 2.0\n"));
+        assertTrue(text.contains("test_latency_seconds_count 1\n"));
+
+        MetricsServer server = new MetricsServer(new InetSocketAddress("127.0.0.1", 0), registry);
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            assertEquals(text, new String(body.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void samplerReplacedAndUnregistered() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Sampler first = new Sampler() {
+            @Override
+            public long sample() {
+                return 1;
+            }
+        };
+        Sampler second = new Sampler() {
+            @Override
+            public long sample() {
+                return 2;
+            }
+        };
+        // 重新创建的组件以同名注册，替换之前的指标而不是抛出异常
+        registry.gauge("test_depth", "Depth", first);
+        registry.gauge("test_depth", "Depth", second);
+        assertTrue(registry.scrape().contains("test_depth 2\n"));
+
+        // 旧组件关闭时不会注销新组件的指标
+        registry.unregister("test_depth", first);
+        assertTrue(registry.scrape().contains("test_depth 2\n"));
+        registry.unregister("test_depth", second);
+        assertEquals("", registry.scrape());
+    }
+}
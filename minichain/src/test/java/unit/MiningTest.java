@@ -0,0 +1,124 @@
+package unit;
+
+import consensus.MiningEngine;
+import data.*;
+import metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.CompactTarget;
+import utils.MidstateHasher;
+import utils.MinerUtil;
+import utils.SecurityUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 挖矿：预先计算中间状态的哈希与完整的SHA256一致，并行挖矿引擎找到的区块满足难度条件，找到后或被中断时全部工作线程停止
+ */
+public class MiningTest {
+
+    private MiningEngine miningEngine;
+
+    @Before
+    public void setUp() {
+        miningEngine = new MiningEngine(4);
+    }
+
+    @After
+    public void tearDown() {
+        miningEngine.shutdown();
+    }
+
+    private static BlockBody newBlockBody() {
+        Account account = new Account();
+        UTXO[] inUtxos = {};
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), 100, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), account.getPrivateKey());
+        Transaction[] transactions = {new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), 0)};
+        return new BlockBody(MerkleTree.fromTransactions(transactions), transactions);
+    }
+
+    /**
+     * 工作线程每次退出前把剩余的尝试次数累加到哈希计数器，计数器不再增长说明没有线程还在计算
+     */
+    private static void assertWorkersStopped() throws InterruptedException {
+        long hashes = Metrics.HASHES.get();
+        Thread.sleep(200);
+        assertEquals(hashes, Metrics.HASHES.get());
+    }
+
+    private static BlockHeader newHeader() {
+        return new BlockHeader(1, SecurityUtil.sha256Digest("pre"), SecurityUtil.sha256Digest("merkle"),
+                1700000000000L, CompactTarget.encode(CompactTarget.fromLeadingZeroBits(8)), 0);
+    }
+
+    @Test
+    public void midstateMatchesMessageDigest() throws NoSuchAlgorithmException {
+        BlockHeader blockHeader = newHeader();
+        MidstateHasher hasher = new MidstateHasher(blockHeader);
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] digest = new byte[32];
+        long[] nonces = {0, 1, 255, 256, 0x7fffffffL, 0x80000000L, 0x123456789abcdefL, Long.MAX_VALUE, Long.MIN_VALUE, -1};
+        for (long nonce : nonces) {
+            blockHeader.setNonce(nonce);
+            byte[] header = blockHeader.toBytes();
+            assertEquals(BlockHeader.HEADER_SIZE, header.length);
+            hasher.hash(nonce, digest);
+            assertArrayEquals("nonce " + nonce, messageDigest.digest(header), digest);
+        }
+    }
+
+    @Test
+    public void minedBlockMeetsTarget() throws InterruptedException {
+        BlockBody blockBody = newBlockBody();
+        String preBlockHash = SecurityUtil.sha256Digest("pre");
+        int bits = CompactTarget.encode(CompactTarget.fromLeadingZeroBits(12));
+        for (int i = 0; i < 3; i++) {
+            Block block = miningEngine.mine(preBlockHash, bits, blockBody);
+            assertNotNull(block);
+            BlockHeader blockHeader = block.getBlockHeader();
+            assertEquals(preBlockHash, blockHeader.getPreBlockHash());
+            assertEquals(blockBody.getMerkleRootHash(), blockHeader.getMerkleRootHash());
+            assertEquals(bits, blockHeader.getDifficulty());
+            assertTrue(MinerUtil.meetsTarget(SecurityUtil.sha256Digest(blockHeader.toBytes()), CompactTarget.toBytes(bits)));
+            // 返回时其余工作线程已经停止
+            assertWorkersStopped();
+            preBlockHash = block.getHash();
+        }
+    }
+
+    @Test
+    public void interruptReturnsNull() throws InterruptedException {
+        final BlockBody blockBody = newBlockBody();
+        // 目标值过小，实际上不可能找到
+        final int bits = CompactTarget.encode(CompactTarget.fromLeadingZeroBits(200));
+        final AtomicReference<Block> result = new AtomicReference<>();
+        final AtomicBoolean returned = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread miner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(miningEngine.mine(SecurityUtil.sha256Digest("pre"), bits, blockBody));
+                returned.set(true);
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        miner.start();
+        Thread.sleep(200);
+        miner.interrupt();
+        miner.join(5000);
+        assertTrue(returned.get());
+        assertNull(result.get());
+        // 中断状态保留给调用方
+        assertTrue(interrupted.get());
+        // 被中断时不等待工作线程退出，它们在下一次检查停止标志时退出
+        Thread.sleep(100);
+        assertWorkersStopped();
+    }
+}
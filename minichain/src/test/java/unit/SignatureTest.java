@@ -0,0 +1,133 @@
+package unit;
+
+import consensus.BatchVerifier;
+import data.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.SecurityUtil;
+import utils.SignatureCache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 交易签名的批量验证：一批交易中只要有一笔签名错误，整批被拒绝；验签结果缓存的命中、未命中与按访问顺序淘汰
+ */
+public class SignatureTest {
+
+    private Account account;
+    private BatchVerifier batchVerifier;
+
+    @Before
+    public void setUp() {
+        account = new Account();
+        batchVerifier = new BatchVerifier(4);
+    }
+
+    @After
+    public void tearDown() {
+        batchVerifier.shutdown();
+    }
+
+    private Transaction newTransaction(int amount, Account signer) {
+        UTXO[] inUtxos = {};
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), amount, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), signer.getPrivateKey());
+        return new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), amount);
+    }
+
+    private Transaction[] newBatch(int count) {
+        Transaction[] transactions = new Transaction[count];
+        for (int i = 0; i < count; i++) {
+            transactions[i] = newTransaction(i + 1, account);
+        }
+        return transactions;
+    }
+
+    @Test
+    public void validBatchIsAccepted() {
+        assertTrue(batchVerifier.verifyAll(newBatch(16)));
+        // 交易数不超过1时在调用线程中验证
+        assertTrue(batchVerifier.verifyAll(newBatch(1)));
+        assertTrue(batchVerifier.verifyAll(new Transaction[0]));
+    }
+
+    @Test
+    public void batchWithOneBadSignatureIsRejected() {
+        Account other = new Account();
+        for (int position : new int[]{0, 7, 15}) {
+            Transaction[] transactions = newBatch(16);
+            // 由其他账户的私钥签名，与交易中的公钥不匹配
+            transactions[position] = newTransaction(100 + position, other);
+            assertFalse("bad signature at " + position, batchVerifier.verifyAll(transactions));
+            assertFalse(BatchVerifier.verify(transactions[position]));
+        }
+        assertFalse(batchVerifier.verifyAll(new Transaction[]{newTransaction(200, other)}));
+    }
+
+    private SignatureCache.Key key(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return SignatureCache.key(bytes, SecurityUtil.signature(bytes, account.getPrivateKey()), account.getPublicKey());
+    }
+
+    @Test
+    public void cacheHitAndMiss() {
+        SignatureCache cache = new SignatureCache(64);
+        byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        byte[] sign = SecurityUtil.signature(data, account.getPrivateKey());
+        assertNull(cache.get(SignatureCache.key(data, sign, account.getPublicKey())));
+        assertEquals(1, cache.getMisses());
+        cache.put(SignatureCache.key(data, sign, account.getPublicKey()), true);
+        // 由相同的数据、签名和公钥构造的键命中同一条目
+        assertEquals(Boolean.TRUE, cache.get(SignatureCache.key(data, sign, account.getPublicKey())));
+        assertEquals(1, cache.getHits());
+        // 同一数据的另一个签名是不同的键
+        assertNull(cache.get(SignatureCache.key(data, SecurityUtil.signature(data, account.getPrivateKey()), account.getPublicKey())));
+        assertEquals(2, cache.getMisses());
+
+        // 验签失败的结果同样被缓存
+        SignatureCache.Key bad = key("bad");
+        cache.put(bad, false);
+        assertEquals(Boolean.FALSE, cache.get(bad));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() {
+        // 16个段，每段容量为2
+        SignatureCache cache = new SignatureCache(32);
+        // 找出落在同一个段中的三个键
+        List<SignatureCache.Key> keys = new ArrayList<>();
+        int segment = -1;
+        for (int i = 0; keys.size() < 3; i++) {
+            SignatureCache.Key key = key("eviction" + i);
+            int hash = key.hashCode();
+            int index = (hash ^ (hash >>> 16)) & 15;
+            if (segment < 0) {
+                segment = index;
+            }
+            if (index == segment) {
+                keys.add(key);
+            }
+        }
+        cache.put(keys.get(0), true);
+        cache.put(keys.get(1), true);
+        // 访问第一个键后，第二个键成为最久未访问的条目
+        assertEquals(Boolean.TRUE, cache.get(keys.get(0)));
+        cache.put(keys.get(2), true);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(keys.get(1)));
+        assertEquals(Boolean.TRUE, cache.get(keys.get(0)));
+        assertEquals(Boolean.TRUE, cache.get(keys.get(2)));
+
+        // 缩小容量时立即淘汰
+        cache.setCapacity(16);
+        assertEquals(1, cache.size());
+        assertEquals(Boolean.TRUE, cache.get(keys.get(2)));
+    }
+}
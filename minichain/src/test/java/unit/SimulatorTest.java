@@ -0,0 +1,52 @@
+package unit;
+
+import org.junit.Test;
+import simulation.SimulationConfig;
+import simulation.SimulationStats;
+import simulation.Simulator;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟器：种子和参数相同时结果完全相同，邻居数要求接近全节点数时拓扑也能建成
+ */
+public class SimulatorTest {
+
+    private static SimulationConfig config(long seed) {
+        return new SimulationConfig().setSeed(seed).setFullNodes(50).setLightNodes(20).setMiners(10)
+                .setTxPerSecond(50).setDuration(60000);
+    }
+
+    /**
+     * @return 去掉第一行（含实际运行时间）后的统计摘要
+     */
+    private static String simulated(SimulationStats stats) {
+        String summary = stats.summary();
+        return summary.substring(summary.indexOf('\n') + 1);
+    }
+
+    @Test
+    public void sameSeedSameStats() {
+        SimulationStats first = new Simulator(config(7)).run();
+        SimulationStats second = new Simulator(config(7)).run();
+        assertTrue(first.getBlocksMined() > 0);
+        assertEquals(first.getEvents(), second.getEvents());
+        assertEquals(first.getBlocksMined(), second.getBlocksMined());
+        assertEquals(first.getMainChainHeight(), second.getMainChainHeight());
+        assertEquals(first.getLostMessages(), second.getLostMessages());
+        assertEquals(simulated(first), simulated(second));
+
+        SimulationStats other = new Simulator(config(8)).run();
+        assertNotEquals(simulated(first), simulated(other));
+    }
+
+    @Test
+    public void denseTopologyTerminates() {
+        // 每个节点都要与其余所有节点相连
+        for (int fullNodes = 2; fullNodes <= 10; fullNodes++) {
+            SimulationConfig config = new SimulationConfig().setFullNodes(fullNodes).setLightNodes(0).setMiners(2)
+                    .setOutboundPeers(fullNodes - 1).setDuration(10);
+            assertNotNull(new Simulator(config).run());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package unit;
+
+import codec.BinaryCodec;
+import data.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import store.AccountStore;
+import store.FileBlockStore;
+import store.UtxoSnapshotStore;
+import utils.SecurityUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * 区块文件、UTXO快照和账户文件的持久化：重新打开后恢复原样，写了一半或损坏的数据被丢弃
+ */
+public class StoreTest {
+    private static final long SEGMENT_SIZE = 1 << 20;
+
+    private Path directory;
+    private Account account;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("minichain-store");
+        account = new Account();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private Block newBlock(String preBlockHash, int amount) {
+        UTXO[] inUtxos = {};
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), amount, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), account.getPrivateKey());
+        Transaction[] transactions = {new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), amount)};
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        return new Block(new BlockHeader(preBlockHash, merkleTree.getRootHash(), amount),
+                new BlockBody(merkleTree, transactions));
+    }
+
+    private Block[] appendBlocks(int count) {
+        return appendBlocks(count, SEGMENT_SIZE);
+    }
+
+    private Block[] appendBlocks(int count, long segmentSize) {
+        Block[] blocks = new Block[count];
+        FileBlockStore store = new FileBlockStore(directory, segmentSize);
+        String preBlockHash = null;
+        for (int i = 0; i < count; i++) {
+            blocks[i] = newBlock(preBlockHash, i + 1);
+            store.append(blocks[i]);
+            preBlockHash = blocks[i].getHash();
+        }
+        store.close();
+        return blocks;
+    }
+
+    @Test
+    public void blockStoreReopens() {
+        Block[] blocks = appendBlocks(3);
+        FileBlockStore store = new FileBlockStore(directory, SEGMENT_SIZE);
+        assertEquals(3, store.size());
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(blocks[i].getHash(), store.get(i).getHash());
+            assertEquals(blocks[i].getHash(), store.getHeader(i).getHash());
+        }
+        // 重新打开后可以继续追加
+        Block next = newBlock(blocks[2].getHash(), 4);
+        store.append(next);
+        store.close();
+        store = new FileBlockStore(directory, SEGMENT_SIZE);
+        assertEquals(4, store.size());
+        assertEquals(next.getHash(), store.get(3).getHash());
+        store.close();
+    }
+
+    @Test
+    public void blockStoreDropsTornTail() throws IOException {
+        Block[] blocks = appendBlocks(3);
+        // 最后一个区块只写了一部分，索引也只写了半条记录
+        Path segment = directory.resolve("blk00000.dat");
+        truncate(segment, Files.size(segment) - 5);
+        Files.write(directory.resolve("index.dat"), new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+
+        FileBlockStore store = new FileBlockStore(directory, SEGMENT_SIZE);
+        assertEquals(2, store.size());
+        assertEquals(blocks[1].getHash(), store.get(1).getHash());
+        Block replacement = newBlock(blocks[1].getHash(), 30);
+        store.append(replacement);
+        store.close();
+
+        store = new FileBlockStore(directory, SEGMENT_SIZE);
+        assertEquals(3, store.size());
+        assertEquals(replacement.getHash(), store.get(2).getHash());
+        store.close();
+    }
+
+    @Test
+    public void blockStoreTruncatesAtFirstCorruptRecord() throws IOException {
+        Block[] blocks = appendBlocks(3);
+        // 第二个区块中间的一个字节损坏，其后的区块一并丢弃
+        long offset = BinaryCodec.encode(blocks[0]).length + 10;
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("blk00000.dat").toFile(), "rw")) {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xff);
+        }
+        FileBlockStore store = new FileBlockStore(directory, SEGMENT_SIZE);
+        assertEquals(1, store.size());
+        assertEquals(blocks[0].getHash(), store.get(0).getHash());
+        store.close();
+    }
+
+    @Test
+    public void blockStoreChecksEarlierSegmentsOnRead() throws IOException {
+        // 每个段文件只放一个区块
+        Block[] blocks = appendBlocks(3, 1);
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("blk00000.dat").toFile(), "rw")) {
+            file.seek(10);
+            int value = file.read();
+            file.seek(10);
+            file.write(value ^ 0xff);
+        }
+        // 打开时只检查最后一个段文件，损坏的记录在读取时才被发现
+        FileBlockStore store = new FileBlockStore(directory, 1);
+        assertEquals(3, store.size());
+        assertEquals(blocks[1].getHash(), store.get(1).getHash());
+        try {
+            store.getHeader(0);
+            fail("corrupt block record read");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        store.close();
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void blockStoreRejectsUnknownIndex() throws IOException {
+        Files.write(directory.resolve("index.dat"), new byte[32]);
+        new FileBlockStore(directory, SEGMENT_SIZE);
+    }
+
+    private UTXO[] utxos(int count) {
+        UTXO[] utxos = new UTXO[count];
+        byte[] publicKeyHash = new UTXO(account.getWalletAddress(), 0, account.getPublicKey()).getPublicKeyHash();
+        for (int i = 0; i < count; i++) {
+            byte[] txId = SecurityUtil.sha256Digest(("snapshot" + i).getBytes(StandardCharsets.UTF_8));
+            utxos[i] = new UTXO(account.getWalletAddress(), i + 1, publicKeyHash, txId, i % 3);
+        }
+        return utxos;
+    }
+
+    @Test
+    public void snapshotRoundTrip() {
+        UtxoSnapshotStore snapshotStore = new UtxoSnapshotStore(directory);
+        UTXO[] utxos = utxos(50);
+        String tipHash = SecurityUtil.sha256Digest("tip");
+        snapshotStore.write(7, tipHash, utxos);
+
+        UtxoSet utxoSet = new UtxoSet();
+        UtxoSnapshotStore.Snapshot snapshot = snapshotStore.load(utxoSet);
+        assertNotNull(snapshot);
+        assertEquals(7, snapshot.getHeight());
+        assertEquals(tipHash, snapshot.getTipHash());
+        assertEquals(50, utxoSet.size());
+        for (UTXO utxo : utxos) {
+            assertTrue(utxoSet.contains(utxo));
+        }
+    }
+
+    @Test
+    public void snapshotChecksumMismatchIsDiscarded() throws IOException {
+        UtxoSnapshotStore snapshotStore = new UtxoSnapshotStore(directory);
+        snapshotStore.write(7, SecurityUtil.sha256Digest("tip"), utxos(50));
+        Path file = directory.resolve("utxo.snapshot");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // 跳过文件头，改动某个UTXO记录中的一个字节
+            raf.seek(raf.length() / 2);
+            int value = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(value ^ 0x01);
+        }
+        UtxoSet utxoSet = new UtxoSet();
+        assertNull(snapshotStore.load(utxoSet));
+        assertEquals(0, utxoSet.size());
+    }
+
+    @Test
+    public void snapshotIsReplacedAtomically() throws IOException {
+        UtxoSnapshotStore snapshotStore = new UtxoSnapshotStore(directory);
+        snapshotStore.write(7, SecurityUtil.sha256Digest("first"), utxos(10));
+        // 写新快照的过程中进程退出，只留下不完整的临时文件，原有的快照不受影响
+        Files.write(directory.resolve("utxo.snapshot.tmp"), new byte[]{1, 2, 3});
+        assertEquals(7, snapshotStore.readInfo().getHeight());
+        UtxoSet utxoSet = new UtxoSet();
+        assertEquals(7, snapshotStore.load(utxoSet).getHeight());
+        assertEquals(10, utxoSet.size());
+
+        snapshotStore.write(9, SecurityUtil.sha256Digest("second"), utxos(20));
+        assertFalse(Files.exists(directory.resolve("utxo.snapshot.tmp")));
+        utxoSet = new UtxoSet();
+        assertEquals(9, snapshotStore.load(utxoSet).getHeight());
+        assertEquals(20, utxoSet.size());
+    }
+
+    @Test
+    public void accountsRoundTrip() throws IOException {
+        Account[] accounts = {account, new Account(), new Account()};
+        AccountStore accountStore = new AccountStore(directory);
+        assertNull(accountStore.load());
+        accountStore.save(accounts);
+        Account[] loaded = accountStore.load();
+        assertEquals(accounts.length, loaded.length);
+        for (int i = 0; i < accounts.length; i++) {
+            assertEquals(accounts[i].getWalletAddress(), loaded[i].getWalletAddress());
+            // 恢复的私钥可以签名，签名可以用原来的公钥验证
+            byte[] data = ("account" + i).getBytes(StandardCharsets.UTF_8);
+            byte[] sign = SecurityUtil.signature(data, loaded[i].getPrivateKey());
+            assertTrue(SecurityUtil.verifyUncached(data, sign, accounts[i].getPublicKey()));
+        }
+
+        Path file = directory.resolve("accounts.dat");
+        truncate(file, Files.size(file) - 1);
+        try {
+            accountStore.load();
+            fail("corrupt account file accepted");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+    }
+}
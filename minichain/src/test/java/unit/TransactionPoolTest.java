@@ -0,0 +1,141 @@
+package unit;
+
+import data.*;
+import org.junit.Before;
+import org.junit.Test;
+import utils.SecurityUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 交易池的准入：双花或签名错误的交易被拒绝且不占用其他输入，池满时拒绝，多个生产者同时放入也不超过容量
+ */
+public class TransactionPoolTest {
+
+    private Account account;
+    private byte[] publicKeyHash;
+
+    @Before
+    public void setUp() {
+        account = new Account();
+        publicKeyHash = new UTXO(account.getWalletAddress(), 0, account.getPublicKey()).getPublicKeyHash();
+    }
+
+    /**
+     * @return 一个已上链交易的输出，由funding区分
+     */
+    private UTXO funding(int funding) {
+        byte[] txId = SecurityUtil.sha256Digest(("funding" + funding).getBytes(StandardCharsets.UTF_8));
+        return new UTXO(account.getWalletAddress(), 100, publicKeyHash, txId, 0);
+    }
+
+    private Transaction spend(UTXO... inUtxos) {
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), 100 * inUtxos.length, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), account.getPrivateKey());
+        return new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), System.currentTimeMillis());
+    }
+
+    @Test
+    public void doubleSpendRollsBackInputs() {
+        TransactionPool pool = new TransactionPool(10);
+        assertTrue(pool.put(spend(funding(0), funding(1))));
+        // funding(2)先被占用，funding(1)已被池中的交易使用，回滚后funding(2)仍可使用
+        assertFalse(pool.put(spend(funding(2), funding(1))));
+        assertEquals(1, pool.size());
+        assertTrue(pool.put(spend(funding(2))));
+
+        // 签名错误的交易同样归还其输入
+        UTXO[] inUtxos = {funding(3)};
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), 100, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), new Account().getPrivateKey());
+        assertFalse(pool.put(new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), System.currentTimeMillis())));
+        assertTrue(pool.put(spend(funding(3))));
+        assertEquals(3, pool.size());
+
+        // 已取出但尚未上链的交易仍占用其输入
+        assertEquals(3, pool.takeBatch(10).length);
+        assertFalse(pool.put(spend(funding(0))));
+    }
+
+    @Test
+    public void inputsMustBeOnChain() {
+        UtxoSet chainUtxos = new UtxoSet();
+        chainUtxos.addUtxo(funding(0));
+        TransactionPool pool = new TransactionPool(10, chainUtxos);
+        assertFalse(pool.put(spend(funding(0), funding(1))));
+        Transaction transaction = spend(funding(0));
+        assertTrue(pool.put(transaction));
+
+        // 上链后释放输入，链上的UTXO集合不再包含该输入，再次花费被拒绝
+        Transaction[] batch = pool.takeBatch(10);
+        chainUtxos.clear();
+        pool.release(batch);
+        assertFalse(pool.put(spend(funding(0))));
+    }
+
+    @Test
+    public void fullPoolRejects() {
+        TransactionPool pool = new TransactionPool(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pool.put(spend(funding(i))));
+        }
+        assertTrue(pool.isFull());
+        assertFalse(pool.put(spend(funding(3))));
+        assertEquals(3, pool.size());
+        assertEquals(2, pool.takeBatch(2).length);
+        // 被拒绝的交易没有占用输入
+        assertTrue(pool.put(spend(funding(3))));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void concurrentProducersRespectCapacity() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 25;
+        final TransactionPool pool = new TransactionPool(20);
+        final Transaction[][] transactions = new Transaction[producers][perProducer];
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < perProducer; i++) {
+                transactions[p][i] = spend(funding(p * perProducer + i));
+            }
+        }
+        final AtomicInteger admitted = new AtomicInteger();
+        final AtomicInteger maxSize = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (Transaction transaction : transactions[producer]) {
+                            if (pool.put(transaction)) {
+                                admitted.incrementAndGet();
+                            }
+                            int size = pool.size();
+                            if (size > maxSize.get()) {
+                                maxSize.set(size);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(20, admitted.get());
+        assertEquals(20, pool.size());
+        assertTrue("max size " + maxSize.get(), maxSize.get() <= 20);
+        assertEquals(20, pool.takeBatch(100).length);
+    }
+}
@@ -0,0 +1,321 @@
+package unit;
+
+import consensus.BatchVerifier;
+import data.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import spv.HeadersMessage;
+import transport.PeerConnection;
+import transport.RelayNode;
+import utils.CompactTarget;
+import utils.MinerUtil;
+import utils.SecurityUtil;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在本机回环地址上启动几个节点，节点连成一条链，从第一个节点转发交易和区块，测量到达最后一个节点的吞吐和延迟
+ */
+public class TransportTest {
+    private static final int NODE_COUNT = 4;
+    private static final int TRANSACTION_COUNT = 2000;
+    private static final int BLOCK_COUNT = 20;
+    private static final int BLOCK_TRANSACTIONS = 100;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private RelayNode[] nodes;
+    private AtomicInteger[] received;
+    // 最后一个节点收到每个对象的时间
+    private Map<String, Long> arrivals;
+    private Map<String, Block> arrivedBlocks;
+    private volatile CountDownLatch latch;
+    private volatile HeadersMessage arrivedHeaders;
+
+    private Account account;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        account = new Account();
+
+        nodes = new RelayNode[NODE_COUNT];
+        received = new AtomicInteger[NODE_COUNT];
+        arrivals = new ConcurrentHashMap<>();
+        arrivedBlocks = new ConcurrentHashMap<>();
+        InetSocketAddress previous = null;
+        for (int i = 0; i < NODE_COUNT; i++) {
+            received[i] = new AtomicInteger();
+            nodes[i] = new RelayNode(listener(i), 100000);
+            nodes[i].start();
+            InetSocketAddress address = nodes[i].listen(new InetSocketAddress("127.0.0.1", 0));
+            if (previous != null) {
+                nodes[i].connect(previous);
+            }
+            previous = address;
+        }
+        // 等待链上的所有连接建立：两端的节点各一条，中间的节点各两条
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            int expected = i == 0 || i == NODE_COUNT - 1 ? 1 : 2;
+            while (nodes[i].getPeerCount() < expected) {
+                assertTrue("connections were not established", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (RelayNode node : nodes) {
+            node.close();
+        }
+    }
+
+    private RelayNode.Listener listener(final int index) {
+        final boolean last = index == NODE_COUNT - 1;
+        return new RelayNode.Listener() {
+            @Override
+            public void onBlock(Block block, PeerConnection from) {
+                if (last) {
+                    arrivedBlocks.put(block.getHash(), block);
+                }
+                arrived(block.getHash());
+            }
+
+            @Override
+            public void onTransaction(Transaction transaction, PeerConnection from) {
+                arrived(transaction.getTxHash());
+            }
+
+            @Override
+            public void onHeaders(HeadersMessage message, PeerConnection from) {
+                arrivedHeaders = message;
+                latch.countDown();
+            }
+
+            private void arrived(String hash) {
+                received[index].incrementAndGet();
+                if (last) {
+                    arrivals.put(hash, System.nanoTime());
+                    latch.countDown();
+                }
+            }
+        };
+    }
+
+    private Transaction newTransaction(long timestamp) {
+        UTXO[] inUtxos = {};
+        UTXO[] outUtxos = {new UTXO(account.getWalletAddress(), (int) timestamp, account.getPublicKey())};
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), account.getPrivateKey());
+        Transaction transaction = new Transaction(inUtxos, outUtxos, sign, account.getPublicKey(), timestamp);
+        // 预先验签使结果进入验签缓存，测得的吞吐和延迟只包含转发本身
+        assertTrue(BatchVerifier.verify(transaction));
+        return transaction;
+    }
+
+    /**
+     * 按初始难度挖出一个区块，节点会检查收到的区块的工作量
+     */
+    private static Block mine(String preBlockHash, Transaction[] transactions) {
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        BlockHeader blockHeader = new BlockHeader(preBlockHash, merkleTree.getRootHash(), 0);
+        byte[] target = CompactTarget.toBytes(blockHeader.getDifficulty());
+        while (!MinerUtil.meetsTarget(SecurityUtil.sha256Digest(blockHeader.toBytes()), target)) {
+            blockHeader.setNonce(blockHeader.getNonce() + 1);
+        }
+        return new Block(blockHeader, new BlockBody(merkleTree, transactions));
+    }
+
+    @Test
+    public void relayTransactions() throws InterruptedException {
+        Transaction[] transactions = new Transaction[TRANSACTION_COUNT];
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            transactions[i] = newTransaction(i);
+        }
+        latch = new CountDownLatch(TRANSACTION_COUNT);
+        long[] announced = new long[TRANSACTION_COUNT];
+        long begin = System.nanoTime();
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            announced[i] = System.nanoTime();
+            nodes[0].announceTransaction(transactions[i]);
+        }
+        assertTrue("not all transactions arrived", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - begin;
+
+        for (int i = 1; i < NODE_COUNT; i++) {
+            assertEquals("transactions received by node " + i, TRANSACTION_COUNT, received[i].get());
+        }
+        report("transactions", transactions.length, elapsed, latencies(transactions, announced));
+        assertTrue(nodes[0].getTransport().getBufferPool().getReused() > 0);
+    }
+
+    @Test
+    public void relayBlocks() throws InterruptedException {
+        Block[] blocks = new Block[BLOCK_COUNT];
+        String preBlockHash = null;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            Transaction[] transactions = new Transaction[BLOCK_TRANSACTIONS];
+            for (int j = 0; j < BLOCK_TRANSACTIONS; j++) {
+                transactions[j] = newTransaction((long) i * BLOCK_TRANSACTIONS + j);
+            }
+            blocks[i] = mine(preBlockHash, transactions);
+            preBlockHash = blocks[i].getHash();
+        }
+        latch = new CountDownLatch(BLOCK_COUNT);
+        long[] announced = new long[BLOCK_COUNT];
+        long begin = System.nanoTime();
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            announced[i] = System.nanoTime();
+            nodes[0].announceBlock(blocks[i]);
+        }
+        assertTrue("not all blocks arrived", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - begin;
+
+        for (Block block : blocks) {
+            Block arrived = arrivedBlocks.get(block.getHash());
+            assertNotNull(arrived);
+            assertEquals(block.getBlockHeader().getMerkleRootHash(), arrived.getBlockBody().getMerkleRootHash());
+            assertEquals(BLOCK_TRANSACTIONS, arrived.getBlockBody().getTransactions().length);
+        }
+        long[] latencies = new long[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            latencies[i] = arrivals.get(blocks[i].getHash()) - announced[i];
+        }
+        report("blocks", BLOCK_COUNT, elapsed, latencies);
+    }
+
+    @Test
+    public void invalidBlockClosesConnection() throws InterruptedException {
+        Transaction[] transactions = {newTransaction(1)};
+        Block block = mine(null, transactions);
+        // 挖出的区块换一个nonce后（几乎总是）不再满足难度条件
+        byte[] target = CompactTarget.toBytes(block.getBlockHeader().getDifficulty());
+        do {
+            block.getBlockHeader().setNonce(block.getBlockHeader().getNonce() + 1);
+        } while (MinerUtil.meetsTarget(SecurityUtil.sha256Digest(block.getBlockHeader().toBytes()), target));
+        nodes[0].announceBlock(block);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (nodes[0].getPeerCount() > 0) {
+            assertTrue("connection was not closed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(0, received[1].get());
+        // 其余连接不受影响
+        assertEquals(2, nodes[2].getPeerCount());
+    }
+
+    @Test
+    public void pushHeaders() throws InterruptedException {
+        BlockHeader blockHeader = new BlockHeader(null, SecurityUtil.sha256Digest("root"), 7);
+        HeadersMessage message = new HeadersMessage(3, blockHeader.toBytes());
+        latch = new CountDownLatch(1);
+        nodes[0].broadcastHeaders(message);
+        assertTrue("headers did not arrive", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, arrivedHeaders.getStartHeight());
+        assertArrayEquals(message.getHeaders(), arrivedHeaders.getHeaders());
+    }
+
+    /**
+     * 请求超时或连接断开时，向其他通告过该对象的节点重新请求。
+     * a只缓存一笔交易，通告tx后又放入另一笔交易，c向a请求tx时a已不再有tx；b随后也通告tx
+     *
+     * @param requestTimeout c的请求超时时间（毫秒）
+     * @param closeA 是否关闭a，使c因连接断开而改向b请求
+     */
+    private void rerequest(long requestTimeout, boolean closeA) throws InterruptedException {
+        final Set<String> arrived = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        RelayNode a = new RelayNode(listener(0), 1);
+        RelayNode b = new RelayNode(listener(0), 100);
+        RelayNode c = new RelayNode(new RelayNode.Listener() {
+            @Override
+            public void onBlock(Block block, PeerConnection from) {
+            }
+
+            @Override
+            public void onTransaction(Transaction transaction, PeerConnection from) {
+                arrived.add(transaction.getTxHash());
+            }
+
+            @Override
+            public void onHeaders(HeadersMessage message, PeerConnection from) {
+            }
+        }, 100, 20, requestTimeout);
+        try {
+            a.start();
+            b.start();
+            c.start();
+            InetSocketAddress address = c.listen(new InetSocketAddress("127.0.0.1", 0));
+            a.connect(address);
+            b.connect(address);
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            while (c.getPeerCount() < 2 || a.getPeerCount() < 1 || b.getPeerCount() < 1) {
+                assertTrue("connections were not established", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            Transaction transaction = newTransaction(1);
+            Transaction evicting = newTransaction(2);
+            a.announceTransaction(transaction);
+            a.announceTransaction(evicting);
+            while (!arrived.contains(evicting.getTxHash()) || c.getPendingRequestCount() != 1) {
+                assertTrue("request to a was not sent", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            b.announceTransaction(transaction);
+            // 等待b的inv到达c，c把b记为备选
+            Thread.sleep(200);
+            assertFalse(arrived.contains(transaction.getTxHash()));
+            if (closeA) {
+                a.close();
+            }
+            while (!arrived.contains(transaction.getTxHash())) {
+                assertTrue("transaction was not requested again", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            assertEquals(0, c.getPendingRequestCount());
+        } finally {
+            a.close();
+            b.close();
+            c.close();
+        }
+    }
+
+    @Test
+    public void expiredRequestGoesToAnotherPeer() throws InterruptedException {
+        rerequest(500, false);
+    }
+
+    @Test
+    public void disconnectedRequestGoesToAnotherPeer() throws InterruptedException {
+        // 超时时间远长于测试的等待时间，只有连接断开才会重新请求
+        rerequest(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 10), true);
+    }
+
+    private long[] latencies(Transaction[] transactions, long[] announced) {
+        long[] latencies = new long[transactions.length];
+        for (int i = 0; i < transactions.length; i++) {
+            latencies[i] = arrivals.get(transactions[i].getTxHash()) - announced[i];
+        }
+        return latencies;
+    }
+
+    private void report(String kind, int count, long elapsedNanos, long[] latencies) {
+        long total = 0;
+        long max = 0;
+        for (long latency : latencies) {
+            total += latency;
+            max = Math.max(max, latency);
+        }
+        System.out.printf("relayed %d %s over %d hops: %.0f/s, latency avg=%.2fms max=%.2fms%n",
+                count, kind, NODE_COUNT - 1, count * 1e9 / elapsedNanos, total / 1e6 / count, max / 1e6);
+    }
+}
@@ -0,0 +1,146 @@
+package unit;
+
+import data.*;
+import org.junit.Before;
+import org.junit.Test;
+import utils.SecurityUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * UTXO集合的增量更新：应用区块时删除交易的输入、加入交易的输出，按钱包地址的索引随之更新；
+ * UTXO以输出点判断相等，尚未绑定输出点的UTXO只与自身相等
+ */
+public class UtxoSetTest {
+
+    private Account alice;
+    private Account bob;
+
+    @Before
+    public void setUp() {
+        alice = new Account();
+        bob = new Account();
+    }
+
+    private static Block newBlock(Account sender, UTXO[] inUtxos, UTXO... outUtxos) {
+        byte[] sign = SecurityUtil.signature(SecurityUtil.utxos2Bytes(inUtxos, outUtxos), sender.getPrivateKey());
+        Transaction[] transactions = {new Transaction(inUtxos, outUtxos, sign, sender.getPublicKey(), System.nanoTime())};
+        MerkleTree merkleTree = MerkleTree.fromTransactions(transactions);
+        return new Block(new BlockHeader(null, merkleTree.getRootHash(), 0), new BlockBody(merkleTree, transactions));
+    }
+
+    private static UTXO output(Account owner, int amount) {
+        return new UTXO(owner.getWalletAddress(), amount, owner.getPublicKey());
+    }
+
+    /**
+     * @return 与utxo的输出点相同的另一个对象，如同从区块文件中解码得到
+     */
+    private static UTXO copy(UTXO utxo) {
+        return new UTXO(utxo.getWalletAddress(), utxo.getAmount(), utxo.getPublicKeyHash(), utxo.getTxId(), utxo.getOutputIndex());
+    }
+
+    @Test
+    public void blocksAddAndSpendByAddress() {
+        UtxoSet utxoSet = new UtxoSet();
+        UTXO alice100 = output(alice, 100);
+        UTXO alice50 = output(alice, 50);
+        UTXO bob30 = output(bob, 30);
+        utxoSet.applyBlock(newBlock(alice, new UTXO[0], alice100, alice50, bob30));
+        assertEquals(3, utxoSet.size());
+        assertEquals(150, utxoSet.getBalance(alice.getWalletAddress()));
+        assertEquals(2, utxoSet.getUtxos(alice.getWalletAddress()).length);
+        assertEquals(30, utxoSet.getBalance(bob.getWalletAddress()));
+
+        // 以输出点相同的另一个对象花费，而不是集合中的原对象
+        UTXO bob60 = output(bob, 60);
+        UTXO alice40 = output(alice, 40);
+        utxoSet.applyBlock(newBlock(alice, new UTXO[]{copy(alice100)}, bob60, alice40));
+        assertFalse(utxoSet.contains(alice100));
+        assertTrue(utxoSet.contains(copy(alice50)));
+        assertEquals(4, utxoSet.size());
+        assertEquals(90, utxoSet.getBalance(alice.getWalletAddress()));
+        assertEquals(90, utxoSet.getBalance(bob.getWalletAddress()));
+        assertEquals(180, utxoSet.getTotalBalance(new String[]{alice.getWalletAddress(), bob.getWalletAddress()}));
+
+        // 花光某地址的全部输出后该地址不再有索引项；已花费或未知的输入被忽略
+        utxoSet.applyBlock(newBlock(bob, new UTXO[]{copy(bob30), copy(bob60), copy(alice100)}, output(alice, 90)));
+        assertEquals(0, utxoSet.getUtxos(bob.getWalletAddress()).length);
+        assertEquals(0, utxoSet.getBalance(bob.getWalletAddress()));
+        assertEquals(180, utxoSet.getBalance(alice.getWalletAddress()));
+        assertEquals(3, utxoSet.size());
+        for (UTXO utxo : utxoSet.getUtxos(alice.getWalletAddress())) {
+            assertEquals(alice.getWalletAddress(), utxo.getWalletAddress());
+        }
+    }
+
+    @Test
+    public void restoredUtxosAreIndexed() {
+        UtxoSet utxoSet = new UtxoSet();
+        UTXO alice100 = output(alice, 100);
+        Block block = newBlock(alice, new UTXO[0], alice100, output(bob, 20));
+        // 从快照恢复时逐个加入已绑定输出点的UTXO
+        for (UTXO utxo : block.getBlockBody().getTransactions()[0].getOutUtxos()) {
+            utxoSet.addUtxo(copy(utxo));
+        }
+        assertEquals(2, utxoSet.toArray().length);
+        assertEquals(100, utxoSet.getBalance(alice.getWalletAddress()));
+        assertEquals(20, utxoSet.getBalance(bob.getWalletAddress()));
+
+        utxoSet.applyBlock(newBlock(alice, new UTXO[]{alice100}, output(bob, 100)));
+        assertEquals(0, utxoSet.getBalance(alice.getWalletAddress()));
+        assertEquals(120, utxoSet.getBalance(bob.getWalletAddress()));
+
+        utxoSet.clear();
+        assertEquals(0, utxoSet.size());
+        assertEquals(0, utxoSet.getBalance(bob.getWalletAddress()));
+    }
+
+    @Test
+    public void boundUtxosEqualByOutpoint() {
+        UTXO first = output(alice, 100);
+        UTXO second = output(alice, 100);
+        Block block = newBlock(alice, new UTXO[0], first, second);
+        Transaction transaction = block.getBlockBody().getTransactions()[0];
+        assertArrayEquals(transaction.getTxId(), first.getTxId());
+        assertEquals(0, first.getOutputIndex());
+        assertEquals(1, second.getOutputIndex());
+
+        // 输出点相同即相等，与其他字段的对象是否相同无关
+        UTXO copy = copy(first);
+        assertNotSame(first, copy);
+        assertEquals(first, copy);
+        assertEquals(first.hashCode(), copy.hashCode());
+        // 同一交易中金额和地址相同的两个输出，输出下标不同，不相等
+        assertNotEquals(first, second);
+
+        // 同一输出下标但属于另一笔交易
+        UTXO other = output(alice, 100);
+        newBlock(alice, new UTXO[0], other);
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    public void unboundUtxosEqualOnlyThemselves() {
+        UTXO unbound = output(alice, 100);
+        UTXO same = output(alice, 100);
+        assertNull(unbound.getTxId());
+        assertEquals(-1, unbound.getOutputIndex());
+        assertEquals(unbound, unbound);
+        assertNotEquals(unbound, same);
+        assertEquals(System.identityHashCode(unbound), unbound.hashCode());
+
+        // 未绑定与已绑定的UTXO不相等
+        newBlock(alice, new UTXO[0], same);
+        assertNotEquals(unbound, same);
+        assertNotEquals(same, unbound);
+
+        // 绑定后哈希值由输出点决定，已绑定的UTXO不能再绑定到其他输出点
+        try {
+            newBlock(alice, new UTXO[0], output(bob, 1), same);
+            fail("UTXO bound to a second outpoint");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}